@@ -98,7 +98,7 @@ enum Action { // NOPMD
 	 */
 	CLEAR_HOTSPOTS(""),
 	/**
-	 * Purge les fichiers .rrd et .ser.gz obsolètes.
+	 * Purge les fichiers .rrd, .bin.gz et .ser.gz obsolètes.
 	 */
 	PURGE_OBSOLETE_FILES("bottom");
 
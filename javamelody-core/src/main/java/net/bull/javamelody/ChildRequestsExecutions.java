@@ -0,0 +1,164 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Nombres d'exécutions par requêtes filles d'un contexte de requête.
+ * Les méthodes de modification et de copie sont synchronisées,
+ * car un contexte en cours peut être cloné par un autre thread pour la liste des requêtes en cours
+ * (sans contention : seul le thread de la requête modifie la table).
+ *
+ * Cette table remplace une LinkedHashMap&lt;String, Long&gt; pour ne faire aucune allocation
+ * à chaque requête fille (pas d'entrée de map ni de Long) une fois la capacité atteinte :
+ * les identifiants et les nombres d'exécutions sont conservés dans des tableaux dans l'ordre d'ajout,
+ * avec un index de hachage en adressage ouvert vers ces tableaux.
+ * @author Emeric Vernat
+ */
+final class ChildRequestsExecutions implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final int INITIAL_CAPACITY = 8;
+	private String[] requestIds = new String[INITIAL_CAPACITY];
+	private long[] executions = new long[INITIAL_CAPACITY];
+	private int size;
+	// positions dans requestIds et executions, -1 si libre (taille en puissance de 2)
+	private int[] index = newIndex(2 * INITIAL_CAPACITY);
+
+	ChildRequestsExecutions() {
+		super();
+	}
+
+	private static int[] newIndex(int length) {
+		final int[] result = new int[length];
+		Arrays.fill(result, -1);
+		return result;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	long getExecutions(String requestId) {
+		final int position = index[findSlot(requestId)];
+		if (position < 0) {
+			return 0;
+		}
+		return executions[position];
+	}
+
+	synchronized void increment(String requestId) {
+		assert requestId != null;
+		final int slot = findSlot(requestId);
+		final int position = index[slot];
+		if (position >= 0) {
+			executions[position]++;
+			return;
+		}
+		if (size == requestIds.length) {
+			grow();
+			// l'index a été reconstruit
+			increment(requestId);
+			return;
+		}
+		requestIds[size] = requestId;
+		executions[size] = 1;
+		index[slot] = size;
+		size++;
+	}
+
+	private int findSlot(String requestId) {
+		final int mask = index.length - 1;
+		int slot = requestId.hashCode() & mask;
+		while (true) {
+			final int position = index[slot];
+			if (position < 0) {
+				return slot;
+			}
+			final String id = requestIds[position];
+			// les identifiants sont normalement les mêmes instances (CounterRequest.getId())
+			if (id == requestId || id.equals(requestId)) { // NOPMD
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void grow() {
+		final int capacity = requestIds.length * 2;
+		requestIds = Arrays.copyOf(requestIds, capacity);
+		executions = Arrays.copyOf(executions, capacity);
+		index = newIndex(2 * capacity);
+		final int mask = index.length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = requestIds[i].hashCode() & mask;
+			while (index[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			index[slot] = i;
+		}
+	}
+
+	/**
+	 * Vide la table en conservant sa capacité, pour la réutiliser sans allocation.
+	 */
+	synchronized void clear() {
+		if (size != 0) {
+			Arrays.fill(requestIds, 0, size, null);
+			Arrays.fill(index, -1);
+			size = 0;
+		}
+	}
+
+	/**
+	 * @return Map des nombres d'exécutions par requêtes filles, dans l'ordre d'ajout
+	 */
+	synchronized Map<String, Long> toMap() {
+		if (size == 0) {
+			return Collections.emptyMap();
+		}
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < size; i++) {
+			result.put(requestIds[i], executions[i]);
+		}
+		return result;
+	}
+
+	synchronized ChildRequestsExecutions copy() {
+		final ChildRequestsExecutions result = new ChildRequestsExecutions();
+		result.requestIds = requestIds.clone();
+		result.executions = executions.clone();
+		result.index = index.clone();
+		result.size = size;
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return toMap().toString();
+	}
+}
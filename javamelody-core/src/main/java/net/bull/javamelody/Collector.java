@@ -24,12 +24,18 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.bull.javamelody.Counter.CounterRequestContextComparator;
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
@@ -39,6 +45,8 @@ import net.bull.javamelody.SamplingProfiler.SampledMethod;
  * @author Emeric Vernat
  */
 class Collector { // NOPMD
+	// nombre maximum de threads pour calculer en parallèle les deltas des compteurs
+	private static final int MAX_COLLECT_THREADS = 4;
 	// période entre 2 collectes en milli-secondes
 	private final int periodMillis;
 	private final String application;
@@ -48,25 +56,38 @@ class Collector { // NOPMD
 	// les instances jrobins des compteurs sont créées à l'initialisation
 	private final Map<String, JRobin> counterJRobins = new LinkedHashMap<String, JRobin>();
 	private final Map<String, JRobin> otherJRobins = new LinkedHashMap<String, JRobin>();
-	// globalRequestsByCounter, requestsById, dayCountersByCounter et cpuTimeMillis
-	// sont utilisés par un seul thread lors des collectes,
+	// dayCountersByCounter et cpuTimeMillis sont utilisés par un seul thread lors des collectes,
+	// globalRequestsByCounter, requestsById et firstCollectDoneByCounter sont aussi utilisés
+	// par les threads calculant en parallèle les deltas des compteurs (une clé par compteur ou requête)
 	// (et la méthode centrale "collect" est synchronisée pour éviter un accès concurrent
 	// avec la mise à jour avant le rapport html)
-	private final Map<Counter, CounterRequest> globalRequestsByCounter = new HashMap<Counter, CounterRequest>();
-	private final Map<String, CounterRequest> requestsById = new HashMap<String, CounterRequest>();
+	private final Map<Counter, CounterRequest> globalRequestsByCounter = new ConcurrentHashMap<Counter, CounterRequest>();
+	private final Map<String, CounterRequest> requestsById = new ConcurrentHashMap<String, CounterRequest>();
 	private final Map<Counter, Counter> dayCountersByCounter = new LinkedHashMap<Counter, Counter>();
-	private final Map<Counter, Boolean> firstCollectDoneByCounter = new HashMap<Counter, Boolean>();
+	private final Map<Counter, Boolean> firstCollectDoneByCounter = new ConcurrentHashMap<Counter, Boolean>();
+	// dernier compteur calculé par compteur pour une période (semaine, mois, année ou personnalisée),
+	// réutilisé avec son index des requêtes parentes jusqu'à la collecte suivante
+	private final Map<String, RangeCounter> rangeCountersByCounterName = new ConcurrentHashMap<String, RangeCounter>();
+	private volatile long collectsCount;
 	private long transactionCount;
 	private long cpuTimeMillis;
 	private long gcTimeMillis;
 	private long tomcatBytesReceived;
 	private long tomcatBytesSent;
 	private long lastCollectDuration;
+	// durées des étapes de la dernière collecte : informations java, copie des compteurs,
+	// calcul des deltas et écritures des courbes et des fichiers
+	private final long[] lastCollectStagesDurations = new long[4];
+	private ThreadPoolExecutor collectExecutor;
+	private JRobinBatch lastJRobinBatch = new JRobinBatch();
+	private final CountersDeltaTracker countersDeltaTracker = new CountersDeltaTracker();
 	private long estimatedMemorySize;
 	private long diskUsage;
 	private Date lastDateOfDeletedObsoleteFiles = new Date();
 	private boolean stopped;
 	private final boolean noDatabase = Parameters.isNoDatabase();
+	private final boolean countersJournalEnabled = Boolean.parseBoolean(Parameters
+			.getParameter(Parameter.COUNTERS_JOURNAL));
 
 	/**
 	 * Constructeur.
@@ -147,6 +168,28 @@ class Collector { // NOPMD
 		return samplingProfiler.getHotspots(1000);
 	}
 
+	/**
+	 * @param requestId Identifiant d'une requête
+	 * @return Piles échantillonnées pendant les exécutions de cette requête (vide si pas de sampling)
+	 */
+	SampledStacks getSampledStacks(String requestId) {
+		if (samplingProfiler == null) {
+			return new SampledStacks();
+		}
+		return samplingProfiler.getSampledStacks(requestId);
+	}
+
+	/**
+	 * Compare deux histogrammes mémoire enregistrés périodiquement pour cette application.
+	 * @param fromTime Date en millisecondes du premier histogramme, ou null pour le plus ancien
+	 * @param toTime Date en millisecondes du second histogramme, ou null pour le plus récent
+	 * @return HeapHistogramDiff
+	 * @throws IOException e
+	 */
+	HeapHistogramDiff getHeapHistogramDiff(Long fromTime, Long toTime) throws IOException {
+		return HeapHistogramSnapshots.getInstance(getApplication()).diff(fromTime, toTime);
+	}
+
 	/**
 	 * @return La liste des counters de ce collector
 	 */
@@ -199,6 +242,34 @@ class Collector { // NOPMD
 		return lastCollectDuration;
 	}
 
+	/**
+	 * Retourne les durées en ms des étapes de la dernière collecte, dans l'ordre :
+	 * informations java, copie des compteurs, calcul des deltas (en parallèle par compteur),
+	 * écritures des courbes jrobin et des fichiers des compteurs.
+	 * @return long[]
+	 */
+	long[] getLastCollectStagesDurations() {
+		synchronized (lastCollectStagesDurations) {
+			return lastCollectStagesDurations.clone();
+		}
+	}
+
+	/**
+	 * Retourne le lot des écritures des courbes des compteurs et des requêtes
+	 * lors de la dernière collecte, avec le nombre de mises à jour, d'octets écrits et la durée.
+	 * @return JRobinBatch
+	 */
+	JRobinBatch getLastJRobinBatch() {
+		return lastJRobinBatch;
+	}
+
+	/**
+	 * @return Calcul des deltas des compteurs pour le serveur de collecte
+	 */
+	CountersDeltaTracker getCountersDeltaTracker() {
+		return countersDeltaTracker;
+	}
+
 	long getEstimatedMemorySize() {
 		return estimatedMemorySize;
 	}
@@ -235,6 +306,24 @@ class Collector { // NOPMD
 	}
 
 	private Counter getRangeCounter(Range range, Counter dayCounter) throws IOException {
+		if (range.getPeriod() == Period.JOUR) {
+			return dayCounter;
+		}
+		// lu avant le calcul : si une collecte se termine pendant le calcul, il ne sera pas réutilisé
+		final long currentCollectsCount = collectsCount;
+		final String rangeValue = range.getValue();
+		final RangeCounter rangeCounter = rangeCountersByCounterName.get(dayCounter.getName());
+		if (rangeCounter != null && rangeCounter.collectsCount == currentCollectsCount
+				&& rangeCounter.rangeValue.equals(rangeValue)) {
+			return rangeCounter.counter;
+		}
+		final Counter counter = createRangeCounter(range, dayCounter);
+		rangeCountersByCounterName.put(dayCounter.getName(), new RangeCounter(rangeValue,
+				currentCollectsCount, counter));
+		return counter;
+	}
+
+	private static Counter createRangeCounter(Range range, Counter dayCounter) {
 		final PeriodCounterFactory periodCounterFactory = new PeriodCounterFactory(dayCounter);
 		final Counter counter;
 		if (range.getPeriod() == null) {
@@ -302,6 +391,8 @@ class Collector { // NOPMD
 	void collectWithoutErrors(List<JavaInformations> javaInformationsList) {
 		assert javaInformationsList != null;
 		final long start = System.currentTimeMillis();
+		// prise en compte à chaque collecte du fichier du paramètre parameters-file s'il a été modifié
+		Parameters.reloadParametersFileIfModified();
 		try {
 			estimatedMemorySize = collect(javaInformationsList);
 		} catch (final Throwable t) { // NOPMD
@@ -315,31 +406,63 @@ class Collector { // NOPMD
 
 	private long collect(List<JavaInformations> javaInformationsList) throws IOException {
 		synchronized (this) {
+			final long start = System.currentTimeMillis();
 			// si pas d'informations, on ne met pas 0 : on ne met rien
 			if (!javaInformationsList.isEmpty()) {
 				collectJavaInformations(javaInformationsList);
 				collectOtherJavaInformations(javaInformationsList);
 				collectTomcatInformations(javaInformationsList);
 			}
-			long memorySize = 0;
+			final long snapshotStart = System.currentTimeMillis();
+			// collecte par étapes : d'abord la copie des requêtes de chaque compteur,
+			// puis le calcul des deltas en parallèle par compteur (sans entrées/sorties),
+			// et enfin les écritures des courbes jrobin et des fichiers des compteurs
+			final List<CounterCollect> counterCollects = new ArrayList<CounterCollect>();
 			for (final Counter counter : counters) {
 				// counter.isDisplayed() peut changer pour spring, ejb, guice ou services selon l'utilisation
 				dayCountersByCounter.get(counter).setDisplayed(counter.isDisplayed());
+				dayCountersByCounter.get(counter).setCpuTimeSamplingInterval(
+						counter.getCpuTimeSamplingInterval());
 				// collecte pour chaque compteur (hits par minute, temps moyen, % d'erreurs système)
 				// Rq : il serait possible d'ajouter le débit total en Ko / minute (pour http)
 				// mais autant monitorer les vrais débits réseaux au niveau de l'OS
 				if (counter.isDisplayed()) {
 					// si le compteur n'est pas affiché (par ex ejb), pas de collecte
 					// et pas de persistance de fichiers jrobin ou du compteur
-					memorySize += collectCounterData(counter);
+					counterCollects.add(new CounterCollect(counter, getCurrentDayCounter(counter)));
 				}
 			}
+			final long computeStart = System.currentTimeMillis();
+			computeCountersData(counterCollects);
+			final long writeStart = System.currentTimeMillis();
+			long memorySize = 0;
+			// les valeurs des courbes des compteurs et des requêtes sont écrites par lot,
+			// regroupées par fichier, après les fichiers des compteurs
+			final JRobinBatch jrobinBatch = new JRobinBatch();
+			for (final CounterCollect counterCollect : counterCollects) {
+				memorySize += writeCounterData(counterCollect, jrobinBatch);
+			}
+			try {
+				jrobinBatch.update(getCollectExecutor(jrobinBatch.size()));
+			} finally {
+				lastJRobinBatch = jrobinBatch;
+				LOG.debug("JRobin batch: " + jrobinBatch);
+			}
+			final long end = System.currentTimeMillis();
+			synchronized (lastCollectStagesDurations) {
+				lastCollectStagesDurations[0] = snapshotStart - start;
+				lastCollectStagesDurations[1] = computeStart - snapshotStart;
+				lastCollectStagesDurations[2] = writeStart - computeStart;
+				lastCollectStagesDurations[3] = end - writeStart;
+			}
+			// les compteurs du jour ont changé : les compteurs par période seront recalculés
+			collectsCount++;
 
 			final Calendar calendar = Calendar.getInstance();
 			final int currentDayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
 			calendar.setTime(lastDateOfDeletedObsoleteFiles);
 			if (calendar.get(Calendar.DAY_OF_YEAR) != currentDayOfYear) {
-				// 1 fois par jour on supprime tous les fichiers .ser.gz obsolètes (modifiés il y a plus d'un an)
+				// 1 fois par jour on supprime tous les fichiers .bin.gz et .ser.gz obsolètes (modifiés il y a plus d'un an)
 				// et tous les fichiers .rrd obsolètes (modifiés il y a plus de 3 mois)
 				try {
 					deleteObsoleteFiles();
@@ -609,19 +732,183 @@ class Collector { // NOPMD
 		return t1 + t2;
 	}
 
-	private long collectCounterData(Counter counter) throws IOException {
-		// counterName vaut http, sql ou ws par exemple
-		final String counterName = counter.getName();
-		final List<CounterRequest> requests = counter.getRequests();
+	/**
+	 * Compteur calculé pour une période, valable jusqu'à la collecte suivante.
+	 */
+	private static final class RangeCounter {
+		final String rangeValue;
+		final long collectsCount;
+		final Counter counter;
+
+		RangeCounter(String rangeValue, long collectsCount, Counter counter) {
+			super();
+			this.rangeValue = rangeValue;
+			this.collectsCount = collectsCount;
+			this.counter = counter;
+		}
+	}
+
+	/**
+	 * Données d'un compteur pour les étapes d'une collecte.
+	 */
+	private static final class CounterCollect {
+		final Counter counter;
+		final Counter dayCounter;
+		final List<CounterRequest> requests;
+		// résultats du calcul des deltas
+		CounterRequest lastPeriodGlobalRequest;
+		final List<CounterRequest> lastPeriodRequestsForJRobins = new ArrayList<CounterRequest>();
+		final List<CounterRequest> lastPeriodRequests = new ArrayList<CounterRequest>();
+		List<CounterError> lastPeriodErrors = Collections.emptyList();
+		boolean firstCollect;
+		boolean counterFiltered;
+		boolean dayCounterFiltered;
+
+		CounterCollect(Counter counter, Counter dayCounter) {
+			super();
+			this.counter = counter;
+			this.dayCounter = dayCounter;
+			// copie des requêtes du compteur (getRequests clone les instances de CounterRequest)
+			this.requests = counter.getRequests();
+		}
+	}
+
+	private void computeCountersData(List<CounterCollect> counterCollects) throws IOException {
+		final ThreadPoolExecutor executor = getCollectExecutor(counterCollects.size());
+		if (executor == null) {
+			for (final CounterCollect counterCollect : counterCollects) {
+				computeCounterData(counterCollect);
+			}
+			return;
+		}
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>(
+				counterCollects.size());
+		for (final CounterCollect counterCollect : counterCollects) {
+			futures.add(executor.submit(new Callable<Object>() {
+				/** {@inheritDoc} */
+				@Override
+				public Object call() {
+					computeCounterData(counterCollect);
+					return null;
+				}
+			}));
+		}
+		try {
+			for (final Future<Object> future : futures) {
+				future.get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	private ThreadPoolExecutor getCollectExecutor(int countersCount) {
+		final int nbThreads = Math.min(Math.min(Runtime.getRuntime().availableProcessors(),
+				MAX_COLLECT_THREADS), countersCount);
+		if (nbThreads <= 1 || stopped) {
+			// pas de parallélisme utile
+			return null;
+		}
+		if (collectExecutor == null) {
+			// threads démons, arrêtés quand ils sont inutilisés entre deux collectes
+			final ThreadFactory threadFactory = new ThreadFactory() {
+				/** {@inheritDoc} */
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "javamelody-collect "
+							+ getApplication());
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+			collectExecutor = new ThreadPoolExecutor(MAX_COLLECT_THREADS, MAX_COLLECT_THREADS,
+					10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+			collectExecutor.allowCoreThreadTimeOut(true);
+		}
+		return collectExecutor;
+	}
+
+	// calcul des deltas de la dernière période pour un compteur, sans entrées/sorties
+	// (hors suppression des fichiers des requêtes en trop),
+	// éventuellement en parallèle avec les autres compteurs
+	private void computeCounterData(CounterCollect counterCollect) {
+		final Counter counter = counterCollect.counter;
 		if (!counter.isErrorCounter()) {
 			// on calcule les totaux depuis le départ
-			final CounterRequest newGlobalRequest = new CounterRequest(counterName + " global",
-					counterName);
-			for (final CounterRequest request : requests) {
+			final CounterRequest newGlobalRequest = new CounterRequest(counter.getName()
+					+ " global", counter.getName());
+			for (final CounterRequest request : counterCollect.requests) {
 				// ici, pas besoin de synchronized sur request puisque ce sont des clones indépendants
 				newGlobalRequest.addHits(request);
 			}
 
+			final CounterRequest globalRequest = globalRequestsByCounter.get(counter);
+			if (globalRequest != null) {
+				// on clone et on soustrait les précédents totaux
+				// pour obtenir les totaux sur la dernière période
+				// rq : s'il n'y a de précédents totaux (à l'initialisation)
+				// alors on n'inscrit pas de valeurs car les nouveaux hits
+				// ne seront connus (en delta) qu'au deuxième passage
+				// (au 1er passage, globalRequest contient déjà les données lues sur disque)
+				final CounterRequest lastPeriodGlobalRequest = newGlobalRequest.clone();
+				lastPeriodGlobalRequest.removeHits(globalRequest);
+				counterCollect.lastPeriodGlobalRequest = lastPeriodGlobalRequest;
+			}
+
+			// on sauvegarde les nouveaux totaux pour la prochaine fois
+			globalRequestsByCounter.put(counter, newGlobalRequest);
+		}
+
+		// données de temps moyen pour les courbes par requête
+		computeCounterRequestsAndErrorsData(counterCollect);
+	}
+
+	private void computeCounterRequestsAndErrorsData(CounterCollect counterCollect) {
+		final Counter counter = counterCollect.counter;
+		final Counter dayCounter = counterCollect.dayCounter;
+		final boolean firstCollectDoneForCounter = Boolean.TRUE.equals(firstCollectDoneByCounter
+				.get(counter));
+		final List<CounterRequest> filteredRequests = filterRequestsIfOverflow(counter,
+				counterCollect.requests);
+		counterCollect.firstCollect = !firstCollectDoneForCounter;
+		counterCollect.counterFiltered = filteredRequests.size() < counterCollect.requests.size();
+		for (final CounterRequest newRequest : filteredRequests) {
+			final CounterRequest lastPeriodRequest = collectCounterRequestData(counterCollect,
+					newRequest, firstCollectDoneForCounter);
+			if (lastPeriodRequest != null && lastPeriodRequest.getHits() > 0) {
+				counterCollect.lastPeriodRequests.add(lastPeriodRequest);
+			}
+		}
+		if (dayCounter.getRequestsCount() > dayCounter.getMaxRequestsCount()) {
+			// issue 339: ne pas laisser dans dayCounter trop de requêtes si elles sont à chaque fois différentes
+			filterRequestsIfOverflow(dayCounter, dayCounter.getRequests());
+			counterCollect.dayCounterFiltered = true;
+		}
+		if (dayCounter.isErrorCounter()) {
+			counterCollect.lastPeriodErrors = getDeltaOfErrors(counter, dayCounter);
+			dayCounter.addErrors(counterCollect.lastPeriodErrors);
+		}
+		if (!firstCollectDoneForCounter) {
+			firstCollectDoneByCounter.put(counter, Boolean.TRUE);
+		}
+	}
+
+	// écritures des courbes jrobin et des fichiers pour un compteur, après le calcul des deltas
+	private long writeCounterData(CounterCollect counterCollect, JRobinBatch jrobinBatch)
+			throws IOException {
+		final Counter counter = counterCollect.counter;
+		boolean counterWriteNeeded = false;
+		if (!counter.isErrorCounter()) {
+			// counterName vaut http, sql ou ws par exemple
+			final String counterName = counter.getName();
 			// on récupère les instances de jrobin même s'il n'y a pas de hits ou pas de précédents totaux
 			// pour être sûr qu'elles soient initialisées (si pas instanciée alors pas de courbe)
 			final JRobin hitsJRobin;
@@ -637,65 +924,72 @@ class Collector { // NOPMD
 				systemErrorsJRobin = getOtherJRobin(counterName + "SystemErrors");
 			}
 
-			final CounterRequest globalRequest = globalRequestsByCounter.get(counter);
-			if (globalRequest != null) {
-				// on clone et on soustrait les précédents totaux
-				// pour obtenir les totaux sur la dernière période
-				// rq : s'il n'y a de précédents totaux (à l'initialisation)
-				// alors on n'inscrit pas de valeurs car les nouveaux hits
-				// ne seront connus (en delta) qu'au deuxième passage
-				// (au 1er passage, globalRequest contient déjà les données lues sur disque)
-				final CounterRequest lastPeriodGlobalRequest = newGlobalRequest.clone();
-				lastPeriodGlobalRequest.removeHits(globalRequest);
-
+			final CounterRequest lastPeriodGlobalRequest = counterCollect.lastPeriodGlobalRequest;
+			if (lastPeriodGlobalRequest != null) {
 				final long hits = lastPeriodGlobalRequest.getHits();
 				final long hitsParMinute = hits * 60 * 1000 / periodMillis;
 
 				// on remplit le stockage avec les données
-				hitsJRobin.addValue(hitsParMinute);
+				jrobinBatch.addValue(hitsJRobin, hitsParMinute);
 				// s'il n'y a pas eu de hits, alors la moyenne vaut -1 : elle n'a pas de sens
 				if (hits > 0) { // NOPMD
-					meanTimesJRobin.addValue(lastPeriodGlobalRequest.getMean());
-					systemErrorsJRobin.addValue(lastPeriodGlobalRequest.getSystemErrorPercentage());
+					jrobinBatch.addValue(meanTimesJRobin, lastPeriodGlobalRequest.getMean());
+					jrobinBatch.addValue(systemErrorsJRobin,
+							lastPeriodGlobalRequest.getSystemErrorPercentage());
 
 					// s'il y a eu des requêtes, on persiste le compteur pour ne pas perdre les stats
 					// en cas de crash ou d'arrêt brutal (mais normalement ils seront aussi persistés
-					// lors de l'arrêt du serveur)
-					counter.writeToFile();
+					// lors de l'arrêt du serveur) ;
+					// avec le journal, seuls les hits de la dernière période sont persistés (voir ci-dessous)
+					counterWriteNeeded = true;
 				}
 			}
+		}
 
-			// on sauvegarde les nouveaux totaux pour la prochaine fois
-			globalRequestsByCounter.put(counter, newGlobalRequest);
+		for (final CounterRequest lastPeriodRequest : counterCollect.lastPeriodRequestsForJRobins) {
+			final JRobin requestJRobin = getRequestJRobin(lastPeriodRequest.getId(),
+					lastPeriodRequest.getName());
+			// plus nécessaire: if (dayCounter.isErrorCounter()) requestJRobin.addValue(lastPeriodRequest.getHits());
+
+			jrobinBatch.addValue(requestJRobin, lastPeriodRequest.getMean());
 		}
 
-		// données de temps moyen pour les courbes par requête
-		final long dayCounterEstimatedMemorySize = collectCounterRequestsAndErrorsData(counter,
-				requests);
-		return counter.getEstimatedMemorySize() + dayCounterEstimatedMemorySize;
+		final Counter dayCounter = counterCollect.dayCounter;
+		if (countersJournalEnabled && !counterCollect.dayCounterFiltered) {
+			// on n'ajoute au journal que les deltas de la dernière période,
+			// au lieu de réécrire tout le compteur du jour à chaque collecte
+			// (mais les requêtes enlevées de dayCounter ne peuvent pas être journalisées)
+			dayCounter.writeToJournal(counterCollect.lastPeriodRequests,
+					counterCollect.lastPeriodErrors);
+		} else {
+			dayCounter.writeToFile();
+		}
+		writeCounter(counterCollect, counterWriteNeeded);
+		return counter.getEstimatedMemorySize() + dayCounter.getEstimatedMemorySize();
 	}
 
-	private long collectCounterRequestsAndErrorsData(Counter counter, List<CounterRequest> requests)
+	private void writeCounter(CounterCollect counterCollect, boolean counterWriteNeeded)
 			throws IOException {
-		final Counter dayCounter = getCurrentDayCounter(counter);
-		final boolean firstCollectDoneForCounter = Boolean.TRUE.equals(firstCollectDoneByCounter
-				.get(counter));
-		final List<CounterRequest> filteredRequests = filterRequestsIfOverflow(counter, requests);
-		for (final CounterRequest newRequest : filteredRequests) {
-			collectCounterRequestData(dayCounter, newRequest, firstCollectDoneForCounter);
-		}
-		if (dayCounter.getRequestsCount() > dayCounter.getMaxRequestsCount()) {
-			// issue 339: ne pas laisser dans dayCounter trop de requêtes si elles sont à chaque fois différentes
-			filterRequestsIfOverflow(dayCounter, dayCounter.getRequests());
-		}
-		if (dayCounter.isErrorCounter()) {
-			dayCounter.addErrors(getDeltaOfErrors(counter, dayCounter));
-		}
-		dayCounter.writeToFile();
-		if (!firstCollectDoneForCounter) {
-			firstCollectDoneByCounter.put(counter, Boolean.TRUE);
+		final Counter counter = counterCollect.counter;
+		if (!countersJournalEnabled) {
+			if (counterWriteNeeded) {
+				counter.writeToFile();
+			}
+		} else if (counterCollect.firstCollect || counterCollect.counterFiltered) {
+			// les hits avant la première collecte et les requêtes enlevées du compteur
+			// ne sont pas dans les deltas de la dernière période : le compteur est écrit entièrement
+			counter.writeToFile();
+		} else if (counterWriteNeeded || !counterCollect.lastPeriodErrors.isEmpty()) {
+			// avec le journal, le compteur depuis le démarrage n'est pas réécrit entièrement
+			// à chaque collecte : on ajoute à son journal les mêmes deltas de la dernière période
+			// que pour le compteur du jour, et il est réécrit lors de la compaction de son journal
+			// et lors de l'arrêt (stop) ;
+			// note : lors d'une compaction, les hits enregistrés entre le calcul des deltas
+			// et l'écriture sont dans le fichier et seront aussi dans le journal à la collecte
+			// suivante, ce qui peut les compter deux fois seulement en cas d'arrêt brutal
+			counter.writeToJournal(counterCollect.lastPeriodRequests,
+					counterCollect.lastPeriodErrors);
 		}
-		return dayCounter.getEstimatedMemorySize();
 	}
 
 	private List<CounterRequest> filterRequestsIfOverflow(Counter counter,
@@ -728,15 +1022,17 @@ class Collector { // NOPMD
 		return result;
 	}
 
-	private void collectCounterRequestData(Counter dayCounter, CounterRequest newRequest,
-			boolean firstCollectDoneForCounter) throws IOException {
+	private CounterRequest collectCounterRequestData(CounterCollect counterCollect,
+			CounterRequest newRequest, boolean firstCollectDoneForCounter) {
+		final Counter dayCounter = counterCollect.dayCounter;
 		final String requestStorageId = newRequest.getId();
 
 		final CounterRequest request = requestsById.get(requestStorageId);
+		CounterRequest lastPeriodRequest = null;
 		if (request != null) {
 			// idem : on clone et on soustrait les requêtes précédentes
 			// sauf si c'est l'initialisation
-			final CounterRequest lastPeriodRequest = newRequest.clone();
+			lastPeriodRequest = newRequest.clone();
 			lastPeriodRequest.removeHits(request);
 			// avec la condition getHits() > 1 au lieu de getHits() > 0, on évite de créer des fichiers RRD
 			// pour les toutes les requêtes appelées une seule fois sur la dernière période
@@ -747,11 +1043,8 @@ class Collector { // NOPMD
 					&& (!dayCounter.isErrorCounter() || dayCounter.isJobCounter())) {
 				// on ne crée jamais de graphiques pour les "jsp", "error" et "job" car peu utiles
 				// et potentiellement lourd en usage disque et en mémoire utilisée
-				final JRobin requestJRobin = getRequestJRobin(requestStorageId,
-						newRequest.getName());
-				// plus nécessaire: if (dayCounter.isErrorCounter()) requestJRobin.addValue(lastPeriodRequest.getHits());
-
-				requestJRobin.addValue(lastPeriodRequest.getMean());
+				// (la valeur sera ajoutée dans la courbe de la requête lors des écritures)
+				counterCollect.lastPeriodRequestsForJRobins.add(lastPeriodRequest);
 			}
 
 			// agrégation de la requête sur le compteur pour le jour courant
@@ -765,8 +1058,11 @@ class Collector { // NOPMD
 			// newRequest dans dayCounter car il s'agit simplement d'une nouvelle requête
 			// qui n'avait pas encore été rencontrée dans la période "tout"
 			dayCounter.addHits(newRequest);
+			lastPeriodRequest = newRequest;
 		}
 		requestsById.put(requestStorageId, newRequest);
+		// retourne les hits ajoutés au compteur du jour, ou null
+		return lastPeriodRequest;
 	}
 
 	private List<CounterError> getDeltaOfErrors(Counter counter, Counter dayCounter) {
@@ -799,6 +1095,10 @@ class Collector { // NOPMD
 		final int currentDayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
 		calendar.setTime(dayCounter.getStartDate());
 		if (calendar.get(Calendar.DAY_OF_YEAR) != currentDayOfYear) {
+			if (countersJournalEnabled) {
+				// le compteur du jour précédent est enregistré entièrement, sans son journal
+				dayCounter.writeToFile();
+			}
 			// le jour a changé, on crée un compteur vide qui sera enregistré dans un nouveau fichier
 			dayCounter = new PeriodCounterFactory(dayCounter).buildNewDayCounter();
 			dayCountersByCounter.put(counter, dayCounter);
@@ -842,14 +1142,52 @@ class Collector { // NOPMD
 	}
 
 	private JRobin getOtherJRobin(String name) throws IOException {
+		return getOtherJRobin(name, null);
+	}
+
+	private JRobin getOtherJRobin(String name, String requestName) throws IOException {
 		JRobin jrobin = otherJRobins.get(name);
 		if (jrobin == null) {
-			jrobin = JRobin.createInstance(getApplication(), name, null);
+			jrobin = JRobin.createInstance(getApplication(), name, requestName);
 			otherJRobins.put(name, jrobin);
 		}
 		return jrobin;
 	}
 
+	/**
+	 * Enregistre dans des courbes par noeud la durée et la taille des derniers appels
+	 * des noeuds par le serveur de collecte.
+	 * @param durationsByNode Durées en millisecondes par nom de noeud
+	 * @param sizesByNode Tailles en octets par nom de noeud
+	 */
+	void collectNodeFetchesWithoutErrors(Map<String, Long> durationsByNode,
+			Map<String, Long> sizesByNode) {
+		try {
+			synchronized (this) {
+				for (final Map.Entry<String, Long> entry : durationsByNode.entrySet()) {
+					final String node = entry.getKey();
+					getOtherJRobin(JRobin.NODE_FETCH_DURATION_PREFIX + getNodeFileName(node),
+							node).addValue(entry.getValue());
+				}
+				for (final Map.Entry<String, Long> entry : sizesByNode.entrySet()) {
+					final String node = entry.getKey();
+					getOtherJRobin(JRobin.NODE_FETCH_SIZE_PREFIX + getNodeFileName(node), node)
+							.addValue(entry.getValue() / 1024d);
+				}
+			}
+		} catch (final Throwable t) { // NOPMD
+			LOG.warn("exception while collecting node fetches: " + t.toString(), t);
+		}
+	}
+
+	private static String getNodeFileName(String node) {
+		final StringBuilder sb = new StringBuilder(node.length());
+		for (final char c : node.toCharArray()) {
+			sb.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+		}
+		return sb.toString();
+	}
+
 	JRobin getJRobin(String graphName) {
 		JRobin jrobin = counterJRobins.get(graphName);
 		if (jrobin == null) {
@@ -923,11 +1261,20 @@ class Collector { // NOPMD
 	}
 
 	void stop() {
+		if (collectExecutor != null) {
+			collectExecutor.shutdown();
+		}
 		try {
 			// on persiste les compteurs pour les relire à l'initialisation et ne pas perdre les stats
 			for (final Counter counter : counters) {
 				counter.writeToFile();
 			}
+			if (countersJournalEnabled) {
+				// et les compteurs du jour entièrement, pour ne pas relire leur journal au démarrage
+				for (final Counter dayCounter : dayCountersByCounter.values()) {
+					dayCounter.writeToFile();
+				}
+			}
 		} catch (final IOException e) {
 			// persistance échouée, tant pis
 			LOG.warn("exception while writing counters data to files", e);
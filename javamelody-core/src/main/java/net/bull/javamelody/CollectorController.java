@@ -20,6 +20,7 @@ package net.bull.javamelody; // NOPMD
 import static net.bull.javamelody.HttpParameters.ACTION_PARAMETER;
 import static net.bull.javamelody.HttpParameters.APPLICATIONS_PART;
 import static net.bull.javamelody.HttpParameters.CACHE_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.COLLAPSED_STACKS_PART;
 import static net.bull.javamelody.HttpParameters.CONNECTIONS_PART;
 import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
 import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
@@ -27,7 +28,9 @@ import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
+import static net.bull.javamelody.HttpParameters.FROM_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
+import static net.bull.javamelody.HttpParameters.HEAP_HISTO_DIFF_PART;
 import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
 import static net.bull.javamelody.HttpParameters.HOTSPOTS_PART;
 import static net.bull.javamelody.HttpParameters.HTML_BODY_FORMAT;
@@ -35,6 +38,7 @@ import static net.bull.javamelody.HttpParameters.HTML_CONTENT_TYPE;
 import static net.bull.javamelody.HttpParameters.JMX_VALUE;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
 import static net.bull.javamelody.HttpParameters.JOB_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
 import static net.bull.javamelody.HttpParameters.OTHER_JROBINS_PART;
@@ -43,10 +47,12 @@ import static net.bull.javamelody.HttpParameters.PATH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.POM_XML_PART;
 import static net.bull.javamelody.HttpParameters.PROCESSES_PART;
 import static net.bull.javamelody.HttpParameters.REQUEST_PARAMETER;
+import static net.bull.javamelody.HttpParameters.SAMPLED_STACKS_PART;
 import static net.bull.javamelody.HttpParameters.SESSIONS_PART;
 import static net.bull.javamelody.HttpParameters.SESSION_ID_PARAMETER;
 import static net.bull.javamelody.HttpParameters.THREADS_PART;
 import static net.bull.javamelody.HttpParameters.THREAD_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.TO_PARAMETER;
 import static net.bull.javamelody.HttpParameters.WEB_XML_PART;
 
 import java.io.File;
@@ -55,6 +61,7 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -203,6 +210,9 @@ class CollectorController {
 		} else if (POM_XML_PART.equalsIgnoreCase(partParameter)) {
 			noCache(resp);
 			doProxy(req, resp, application, POM_XML_PART);
+		} else if (COLLAPSED_STACKS_PART.equalsIgnoreCase(partParameter)) {
+			noCache(resp);
+			doCollapsedStacks(req, resp, application);
 		} else if (CONNECTIONS_PART.equalsIgnoreCase(partParameter)) {
 			doMultiHtmlProxy(req, resp, application, CONNECTIONS_PART, "Connexions_jdbc_ouvertes",
 					"connexions_intro", "db.png");
@@ -230,13 +240,38 @@ class CollectorController {
 		resp.getOutputStream().close();
 	}
 
+	private void doCollapsedStacks(HttpServletRequest req, HttpServletResponse resp,
+			String application) throws IOException {
+		// les piles agrégées des différents noeuds sont concaténées,
+		// les outils de flame graphs additionnant les lignes ayant la même pile
+		final List<URL> urls = getUrlsByApplication(application);
+		if (urls.isEmpty()) {
+			// application en mode push : les noeuds ne peuvent pas être appelés
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		resp.setContentType("text/plain; charset=UTF-8");
+		for (final URL url : urls) {
+			final URL proxyUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
+					+ COLLAPSED_STACKS_PART);
+			new LabradorRetriever(proxyUrl).copyTo(req, resp);
+		}
+		resp.getOutputStream().close();
+	}
+
 	private void doProxy(HttpServletRequest req, HttpServletResponse resp, String application,
 			String partParameter) throws IOException {
 		// récupération à la demande du contenu du web.xml de la webapp monitorée
 		// (et non celui du serveur de collecte),
 		// on prend la 1ère url puisque le contenu de web.xml est censé être le même
 		// dans tout l'éventuel cluster
-		final URL url = getUrlsByApplication(application).get(0);
+		final List<URL> urls = getUrlsByApplication(application);
+		if (urls.isEmpty()) {
+			// application en mode push : les noeuds ne peuvent pas être appelés
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final URL url = urls.get(0);
 		// on récupère le contenu du web.xml sur la webapp et on transfert ce contenu
 		final URL proxyUrl = new URL(url.toString() + '&' + PART_PARAMETER + '=' + partParameter);
 		new LabradorRetriever(proxyUrl).copyTo(req, resp);
@@ -326,10 +361,14 @@ class CollectorController {
 			for (final String app : Parameters.getCollectorUrlsByApplications().keySet()) {
 				applications.put(app, null);
 			}
+			for (final String app : collectorServer.getPushedApplications()) {
+				applications.put(app, null);
+			}
 			applications.putAll(collectorServer.getLastCollectExceptionsByApplication());
 			return new HashMap<String, Throwable>(applications);
-		} else if (JROBINS_PART.equalsIgnoreCase(part) || OTHER_JROBINS_PART.equalsIgnoreCase(part)) {
-			// pour UI Swing
+		} else if (JROBINS_PART.equalsIgnoreCase(part) || OTHER_JROBINS_PART.equalsIgnoreCase(part)
+				|| JROBINS_DATA_PART.equalsIgnoreCase(part)) {
+			// pour UI Swing ou pour dessiner les courbes côté client
 			return serializableController.createSerializable(httpRequest, null, null);
 		}
 
@@ -344,6 +383,12 @@ class CollectorController {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
 			return collectorServer.collectHeapHistogram(application);
+		} else if (HEAP_HISTO_DIFF_PART.equalsIgnoreCase(part)) {
+			// par sécurité
+			Action.checkSystemActionsEnabled();
+			return collectorServer.collectHeapHistogramDiff(application,
+					HeapHistogramSnapshots.parseTime(httpRequest.getParameter(FROM_PARAMETER)),
+					HeapHistogramSnapshots.parseTime(httpRequest.getParameter(TO_PARAMETER)));
 		} else if (SESSIONS_PART.equalsIgnoreCase(part)) {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
@@ -354,6 +399,11 @@ class CollectorController {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
 			return new ArrayList<SampledMethod>(collectorServer.collectHotspots(application));
+		} else if (SAMPLED_STACKS_PART.equalsIgnoreCase(part)) {
+			// par sécurité
+			Action.checkSystemActionsEnabled();
+			final String requestId = httpRequest.getParameter(GRAPH_PARAMETER);
+			return collectorServer.collectSampledStacks(application, requestId);
 		} else if (PROCESSES_PART.equalsIgnoreCase(part)) {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
@@ -514,6 +564,11 @@ class CollectorController {
 	}
 
 	private static List<URL> getUrlsByApplication(String application) throws IOException {
-		return CollectorServer.getUrlsByApplication(application);
+		final List<URL> urls = CollectorServer.getUrlsByApplication(application);
+		if (urls == null) {
+			// application en mode push
+			return Collections.emptyList();
+		}
+		return urls;
 	}
 }
@@ -18,16 +18,24 @@
 package net.bull.javamelody;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
 
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
 
@@ -42,11 +50,31 @@ class CollectorServer {
 
 	private static final int NB_COLLECT_THREADS = 10;
 
+	// nombre de périodes sans envoi après lequel un noeud en mode push est retiré de la liste
+	private static final int PUSHED_NODE_TIMEOUT_PERIODS = 5;
+
+	// nombre maximum d'applications en mode push, chacune ayant ses fichiers et sa collecte
+	private static final int MAX_PUSHED_APPLICATIONS = 100;
+
+	private static final int DEFAULT_NODE_TIMEOUT_SECONDS = 60;
+
 	private final Map<String, Throwable> lastCollectExceptionsByApplication = new ConcurrentHashMap<String, Throwable>();
 	private final Map<String, RemoteCollector> remoteCollectorsByApplication = new ConcurrentHashMap<String, RemoteCollector>();
-
-	private final ExecutorService executorService = Executors
-			.newFixedThreadPool(NB_COLLECT_THREADS);
+	// applications dont les noeuds envoient leurs données (mode push) au lieu d'être appelés
+	private final Set<String> pushedApplications = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// collectors des applications en mode push, y compris pendant leur initialisation
+	private final Map<String, RemoteCollector> pushedRemoteCollectorsByApplication = new HashMap<String, RemoteCollector>();
+	// nombre de lectures simultanées de données envoyées en mode push
+	private final Semaphore pushPermits = new Semaphore(NB_COLLECT_THREADS);
+
+	// les collectes des applications sont lancées avec un décalage aléatoire pour répartir la charge
+	private final ScheduledExecutorService executorService = Executors
+			.newScheduledThreadPool(NB_COLLECT_THREADS);
+
+	// appels en parallèle des noeuds de toutes les applications, avec un délai maximum par noeud
+	private final NodeFetchScheduler nodeFetchScheduler = new NodeFetchScheduler(
+			NB_COLLECT_THREADS, getNodeTimeoutSeconds() * 1000L);
 
 	private final Timer timer;
 
@@ -104,20 +132,156 @@ class CollectorServer {
 			LOGGER.warn(e.getMessage(), e);
 			return;
 		}
+		final long periodMillis = Parameters.getResolutionSeconds() * 1000L;
 		for (final Map.Entry<String, List<URL>> entry : clone.entrySet()) {
 			final String application = entry.getKey();
 			final List<URL> urls = entry.getValue();
-			executorService.submit(new Runnable() {
+			executorService.schedule(new Runnable() {
 				@Override
 				public void run() {
 					collectForApplicationWithoutErrors(application, urls);
 				}
+			}, nodeFetchScheduler.nextJitterMillis(periodMillis), TimeUnit.MILLISECONDS);
+		}
+		for (final String application : pushedApplications) {
+			executorService.submit(new Runnable() {
+				@Override
+				public void run() {
+					collectForPushedApplicationWithoutErrors(application);
+				}
 			});
 		}
 	}
 
 	String collectForApplicationForAction(String application, List<URL> urls) throws IOException {
-		return collectForApplication(new RemoteCollector(application, urls));
+		if (urls.isEmpty()) {
+			// application en mode push : les noeuds ne peuvent pas être appelés pour une action
+			return null;
+		}
+		return collectForApplication(createRemoteCollector(application, urls));
+	}
+
+	private RemoteCollector createRemoteCollector(String application, List<URL> urls) {
+		final RemoteCollector remoteCollector = new RemoteCollector(application, urls);
+		remoteCollector.setNodeFetchScheduler(nodeFetchScheduler);
+		return remoteCollector;
+	}
+
+	/**
+	 * Lit les deltas envoyés par des noeuds en mode push et les ajoute pour la collecte suivante.
+	 * La lecture ne bloque pas les collectes et si trop de noeuds envoient en même temps,
+	 * la réponse est 503 et le noeud enverra plus tard un delta regroupant les périodes.
+	 * @param input Flux des trames envoyées
+	 * @return Code http de la réponse au noeud
+	 * @throws IOException e
+	 */
+	int ingestPushedData(InputStream input) throws IOException {
+		if (!pushPermits.tryAcquire()) {
+			return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+		}
+		try {
+			// trames lues et ajoutées une par une
+			final CountersDeltaFrame.Reader reader = new CountersDeltaFrame.Reader(input);
+			boolean staticInformationsKnown = true;
+			CountersDeltaFrame frame = reader.readNext();
+			while (frame != null) {
+				final String application = frame.getApplication();
+				if (getUrlsByApplication(application) != null) {
+					// une application appelée par le serveur de collecte ne peut pas être aussi en mode push
+					LOGGER.warn("data pushed for the application " + application
+							+ " which is already collected by urls");
+					return HttpServletResponse.SC_CONFLICT;
+				}
+				final int status = addPushedDelta(application, frame.getNodeId(),
+						frame.getCountersDelta());
+				if (status == HttpServletResponse.SC_FORBIDDEN) {
+					return status;
+				} else if (status == HttpServletResponse.SC_RESET_CONTENT) {
+					staticInformationsKnown = false;
+				}
+				frame = reader.readNext();
+			}
+			if (!staticInformationsKnown) {
+				// le noeud enverra ses informations statiques avec le prochain delta
+				return HttpServletResponse.SC_RESET_CONTENT;
+			}
+			return HttpServletResponse.SC_NO_CONTENT;
+		} finally {
+			pushPermits.release();
+		}
+	}
+
+	private int addPushedDelta(String application, String nodeId, CountersDelta countersDelta) {
+		RemoteCollector remoteCollector = remoteCollectorsByApplication.get(application);
+		final boolean newApplication;
+		if (remoteCollector == null) {
+			// le verrou sert seulement à créer un seul collector par application,
+			// l'ajout du delta et la première collecte (sur disque) se font en dehors
+			synchronized (pushedRemoteCollectorsByApplication) {
+				remoteCollector = pushedRemoteCollectorsByApplication.get(application);
+				newApplication = remoteCollector == null;
+				if (newApplication) {
+					if (pushedRemoteCollectorsByApplication.size() >= MAX_PUSHED_APPLICATIONS) {
+						LOGGER.warn("data pushed for the new application " + application
+								+ " ignored, maximum number of pushed applications reached: "
+								+ MAX_PUSHED_APPLICATIONS);
+						return HttpServletResponse.SC_FORBIDDEN;
+					}
+					remoteCollector = new RemoteCollector(application,
+							Collections.<URL> emptyList());
+					pushedRemoteCollectorsByApplication.put(application, remoteCollector);
+				}
+			}
+		} else {
+			newApplication = false;
+		}
+		final boolean staticInformationsKnown = remoteCollector.addPushedDelta(nodeId,
+				countersDelta);
+		if (newApplication) {
+			// première donnée pour cette application, on collecte de suite pour initialiser les données
+			try {
+				collectForPushedApplication(remoteCollector);
+			} finally {
+				// application collectée ensuite par le timer, même si cette première collecte a échoué
+				remoteCollectorsByApplication.put(application, remoteCollector);
+				pushedApplications.add(application);
+				LOGGER.info("monitored application added by push: " + application);
+			}
+		}
+		return staticInformationsKnown ? HttpServletResponse.SC_NO_CONTENT
+				: HttpServletResponse.SC_RESET_CONTENT;
+	}
+
+	void collectForPushedApplicationWithoutErrors(String application) {
+		try {
+			final RemoteCollector remoteCollector = remoteCollectorsByApplication.get(application);
+			if (remoteCollector != null) {
+				collectForPushedApplication(remoteCollector);
+			}
+		} catch (final Throwable t) { // NOPMD
+			// pas d'erreur dans cette task
+			LOGGER.warn("exception while collecting pushed data for application " + application,
+					t);
+		}
+	}
+
+	private void collectForPushedApplication(RemoteCollector remoteCollector) {
+		final long nodeTimeoutMillis = PUSHED_NODE_TIMEOUT_PERIODS
+				* Parameters.getResolutionSeconds() * 1000L;
+		final String messageForReport = remoteCollector.collectPushedData(nodeTimeoutMillis);
+		final Collector collector = remoteCollector.getCollector();
+		collector.collectWithoutErrors(remoteCollector.getJavaInformationsList());
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("collect of pushed data for the application "
+					+ remoteCollector.getApplication() + " done, message: " + messageForReport);
+		}
+	}
+
+	/**
+	 * @return Liste des applications dont les noeuds envoient leurs données (mode push)
+	 */
+	List<String> getPushedApplications() {
+		return new ArrayList<String>(pushedApplications);
 	}
 
 	void collectForApplicationWithoutErrors(String application, List<URL> urls) {
@@ -159,12 +323,16 @@ class CollectorServer {
 		final boolean remoteCollectorAvailable = isApplicationDataAvailable(application);
 		final RemoteCollector remoteCollector;
 		if (!remoteCollectorAvailable) {
-			remoteCollector = new RemoteCollector(application, urls);
+			remoteCollector = createRemoteCollector(application, urls);
 		} else {
 			remoteCollector = getRemoteCollectorByApplication(application);
 		}
 
 		final String messageForReport = collectForApplication(remoteCollector);
+		// courbes par noeud de la durée et de la taille des appels
+		remoteCollector.getCollector().collectNodeFetchesWithoutErrors(
+				remoteCollector.getLastFetchDurationsByNode(),
+				remoteCollector.getLastFetchSizesByNode());
 
 		if (!remoteCollectorAvailable) {
 			// on initialise les remoteCollectors au fur et à mesure
@@ -221,6 +389,12 @@ class CollectorServer {
 		return getRemoteCollectorByApplication(application).collectHeapHistogram();
 	}
 
+	HeapHistogramDiff collectHeapHistogramDiff(String application, Long fromTime, Long toTime)
+			throws IOException {
+		return getRemoteCollectorByApplication(application).collectHeapHistogramDiff(fromTime,
+				toTime);
+	}
+
 	DatabaseInformations collectDatabaseInformations(String application, int requestIndex)
 			throws IOException {
 		return getRemoteCollectorByApplication(application).collectDatabaseInformations(
@@ -232,6 +406,10 @@ class CollectorServer {
 		return getRemoteCollectorByApplication(application).collectConnectionInformations();
 	}
 
+	SampledStacks collectSampledStacks(String application, String requestId) throws IOException {
+		return getRemoteCollectorByApplication(application).collectSampledStacks(requestId);
+	}
+
 	String collectSqlRequestExplainPlan(String application, String sqlRequest) throws IOException {
 		return getRemoteCollectorByApplication(application)
 				.collectSqlRequestExplainPlan(sqlRequest);
@@ -283,6 +461,10 @@ class CollectorServer {
 	void removeCollectorApplication(String application) throws IOException {
 		Parameters.removeCollectorApplication(application);
 		remoteCollectorsByApplication.remove(application);
+		pushedApplications.remove(application);
+		synchronized (pushedRemoteCollectorsByApplication) {
+			pushedRemoteCollectorsByApplication.remove(application);
+		}
 	}
 
 	/**
@@ -411,12 +593,34 @@ class CollectorServer {
 		timer.cancel();
 		// stoppe les threads de collecte, en attendant qu'ils terminent les tâches en cours
 		executorService.shutdown();
+		nodeFetchScheduler.stop();
 		for (final RemoteCollector remoteCollector : remoteCollectorsByApplication.values()) {
 			remoteCollector.getCollector().stop();
 		}
 
 		// nettoyage avant le retrait de la webapp au cas où celui-ci ne suffise pas
 		remoteCollectorsByApplication.clear();
+		pushedApplications.clear();
+		synchronized (pushedRemoteCollectorsByApplication) {
+			pushedRemoteCollectorsByApplication.clear();
+		}
+	}
+
+	/**
+	 * @return Délai maximum en secondes de l'appel de chaque noeud (60 par défaut)
+	 */
+	private static int getNodeTimeoutSeconds() {
+		final String param = Parameters.getParameter(Parameter.COLLECTOR_NODE_TIMEOUT_SECONDS);
+		if (param != null) {
+			// lance une NumberFormatException si ce n'est pas un nombre
+			final int result = Integer.parseInt(param);
+			if (result <= 0) {
+				throw new IllegalStateException(
+						"The parameter collector-node-timeout-seconds should be > 0 (60 recommended)");
+			}
+			return result;
+		}
+		return DEFAULT_NODE_TIMEOUT_SECONDS;
 	}
 
 	static List<URL> getUrlsByApplication(String application) throws IOException {
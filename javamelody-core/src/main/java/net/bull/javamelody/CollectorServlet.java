@@ -17,6 +17,9 @@
  */
 package net.bull.javamelody; // NOPMD
 
+import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
+import static net.bull.javamelody.HttpParameters.PUSH_PART;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StreamCorruptedException;
@@ -46,6 +49,8 @@ public class CollectorServlet extends HttpServlet {
 	@SuppressWarnings("all")
 	private transient CollectorServer collectorServer;
 
+	private transient boolean pushEnabled;
+
 	/** {@inheritDoc} */
 	@Override
 	public void init(ServletConfig config) throws ServletException {
@@ -60,6 +65,15 @@ public class CollectorServlet extends HttpServlet {
 		LOGGER.info("initialization of the collector servlet of the monitoring");
 
 		httpAuth = new HttpAuth();
+		pushEnabled = Boolean.parseBoolean(Parameters
+				.getParameter(Parameter.COLLECTOR_PUSH_ENABLED));
+		if (pushEnabled && !httpAuth.isRestricted()) {
+			// le mode push n'est pas accepté sans authentification des noeuds
+			LOGGER.warn("push disabled: the parameter " + Parameter.COLLECTOR_PUSH_ENABLED.getCode()
+					+ " requires " + Parameter.ALLOWED_ADDR_PATTERN.getCode() + " or "
+					+ Parameter.AUTHORIZED_USERS.getCode());
+			pushEnabled = false;
+		}
 
 		try {
 			collectorServer = new CollectorServer();
@@ -112,6 +126,11 @@ public class CollectorServlet extends HttpServlet {
 		if (!httpAuth.isAllowed(req, resp)) {
 			return;
 		}
+		if (PUSH_PART.equalsIgnoreCase(req.getParameter(PART_PARAMETER))) {
+			// deltas des compteurs envoyés par un noeud en mode push
+			doPush(req, resp);
+			return;
+		}
 
 		// post du formulaire d'ajout d'application à monitorer
 		final String appName = req.getParameter("appName");
@@ -149,6 +168,29 @@ public class CollectorServlet extends HttpServlet {
 		}
 	}
 
+	private void doPush(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		if (!pushEnabled) {
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Push disabled");
+			return;
+		}
+		if (!CountersDeltaFrame.CONTENT_TYPE.equals(req.getContentType())) {
+			resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+			return;
+		}
+		final long start = System.currentTimeMillis();
+		try {
+			final int status = collectorServer.ingestPushedData(req.getInputStream());
+			resp.setStatus(status);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("push from " + req.getRemoteAddr() + ", status=" + status + " in "
+						+ (System.currentTimeMillis() - start) + "ms");
+			}
+		} catch (final StreamCorruptedException e) {
+			LOGGER.warn("invalid push from " + req.getRemoteAddr() + ": " + e.toString());
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+		}
+	}
+
 	private void writeMessage(HttpServletRequest req, HttpServletResponse resp,
 			CollectorController collectorController, String message) throws IOException {
 		collectorController.writeMessage(req, resp, collectorController.getApplication(req, resp),
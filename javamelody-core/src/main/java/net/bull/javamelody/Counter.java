@@ -25,6 +25,8 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
@@ -110,12 +112,26 @@ class Counter implements Cloneable, Serializable { // NOPMD
 	//CHECKSTYLE:ON
 	private Date startDate = new Date();
 	private int maxRequestsCount = MAX_REQUESTS_COUNT;
-	private long estimatedMemorySize;
+	// taille non compressée de ce counter dans son fichier lors du dernier enregistrement
+	private transient long binarySize = -1;
+	// numéro du dernier enregistrement du journal inclus dans ce counter (voir CounterStorage)
+	private transient long journalSequence;
+	private transient boolean stripedRecording;
+	private transient boolean cpuTimeDisabled;
+	// 0 ou 1 si le temps cpu est mesuré pour chaque requête (sérialisé pour les rapports
+	// du serveur de collecte, avec 0 par défaut pour les anciennes versions)
+	private int cpuTimeSamplingInterval;
+	private transient int cpuTimeSamplingCount;
 	// Pour les contextes, on utilise un ThreadLocal et pas un InheritableThreadLocal
 	// puisque si on crée des threads alors la requête parente peut se terminer avant les threads
 	// et le contexte serait incomplet.
 	private final transient ThreadLocal<CounterRequestContext> contextThreadLocal;
 	private transient Pattern requestTransformPattern;
+	// index inversé des identifiants de requêtes filles vers les noms des requêtes parentes
+	// de ce counter : c'est un sur-ensemble (les requêtes supprimées ou dont les hits
+	// ont été retirés n'en sont pas enlevées) maintenu lors des ajouts de nouvelles requêtes filles,
+	// et reconstruit à la demande s'il est null (après désérialisation, clone ou clear)
+	private transient volatile ConcurrentMap<String, Set<String>> parentRequestNamesByChildRequestId;
 
 	/**
 	 * Comparateur pour ordonner les requêtes par sommes des durées.
@@ -302,8 +318,11 @@ class Counter implements Cloneable, Serializable { // NOPMD
 
 	boolean hasChildHits() {
 		for (final CounterRequest request : requests.values()) {
-			if (request.hasChildHits()) {
-				return true;
+			synchronized (request) {
+				request.mergeStripes();
+				if (request.hasChildHits()) {
+					return true;
+				}
 			}
 		}
 		return false;
@@ -396,16 +415,147 @@ class Counter implements Cloneable, Serializable { // NOPMD
 	}
 
 	/**
-	 * Retourne l'estimation pessimiste de l'occupation mémoire de counter
-	 * (c'est-à-dire la dernière taille sérialisée non compressée de ce counter)
+	 * Retourne l'estimation de l'occupation mémoire de counter, calculée à partir des requêtes
+	 * et des erreurs en mémoire (le format binaire des fichiers est plus compact que la mémoire).
 	 * @return long
 	 */
 	long getEstimatedMemorySize() {
-		return estimatedMemorySize;
+		// objet et map des requêtes
+		long size = 200;
+		for (final CounterRequest request : requests.values()) {
+			// entrée de la map, la clé étant le nom de la requête
+			size += 48 + request.getEstimatedMemorySize();
+		}
+		if (errors != null) {
+			synchronized (errors) {
+				for (final CounterError error : errors) {
+					// noeud de la liste
+					size += 24 + error.getEstimatedMemorySize();
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Retourne la taille non compressée de ce counter dans son fichier lors du dernier enregistrement,
+	 * ou -1 s'il n'a pas été enregistré.
+	 * @return long
+	 */
+	long getBinarySize() {
+		return binarySize;
+	}
+
+	/**
+	 * Retourne true si les hits de ce counter sont enregistrés par bandes ("striped"),
+	 * c'est-à-dire dans des accumulateurs par groupes de threads fusionnés seulement à la lecture.
+	 * @return boolean
+	 */
+	boolean isStripedRecording() {
+		return stripedRecording;
+	}
+
+	/**
+	 * Définit si les hits de ce counter sont enregistrés par bandes ("striped"),
+	 * pour réduire la contention entre threads sur les requêtes les plus exécutées.
+	 * @param stripedRecording boolean
+	 */
+	void setStripedRecording(boolean stripedRecording) {
+		this.stripedRecording = stripedRecording;
+	}
+
+	/**
+	 * Retourne true si le temps cpu n'est pas mesuré pour les requêtes de ce counter.
+	 * @return boolean
+	 */
+	boolean isCpuTimeDisabled() {
+		return cpuTimeDisabled;
+	}
+
+	/**
+	 * Définit si le temps cpu n'est pas mesuré pour les requêtes de ce counter,
+	 * pour économiser l'appel système de lecture du temps cpu du thread au début et à la fin
+	 * de chaque requête quand les requêtes sont très nombreuses et très courtes.
+	 * @param cpuTimeDisabled boolean
+	 */
+	void setCpuTimeDisabled(boolean cpuTimeDisabled) {
+		this.cpuTimeDisabled = cpuTimeDisabled;
+	}
+
+	/**
+	 * Retourne l'intervalle d'échantillonnage du temps cpu des requêtes de ce counter
+	 * (le temps cpu est mesuré pour 1 requête sur N), ou 0 ou 1 si le temps cpu est mesuré
+	 * pour chaque requête.
+	 * @return int
+	 */
+	int getCpuTimeSamplingInterval() {
+		return cpuTimeSamplingInterval;
+	}
+
+	/**
+	 * Définit l'intervalle d'échantillonnage du temps cpu des requêtes de ce counter :
+	 * le temps cpu est alors mesuré pour 1 requête sur N et il est multiplié par N
+	 * dans les statistiques, pour économiser l'appel système de lecture du temps cpu
+	 * du thread au début et à la fin des autres requêtes.
+	 * @param cpuTimeSamplingInterval int (0 ou 1 pour mesurer chaque requête)
+	 */
+	void setCpuTimeSamplingInterval(int cpuTimeSamplingInterval) {
+		assert cpuTimeSamplingInterval >= 0;
+		this.cpuTimeSamplingInterval = cpuTimeSamplingInterval;
+	}
+
+	/**
+	 * Retourne true si les temps cpu de ce counter sont des estimations par échantillonnage.
+	 * @return boolean
+	 */
+	boolean isCpuTimeEstimated() {
+		return cpuTimeSamplingInterval > 1 && !cpuTimeDisabled;
+	}
+
+	/**
+	 * Retourne le temps cpu actuel du thread courant, en nanosecondes, si le temps cpu
+	 * de la requête qui commence doit être mesuré selon le mode de ce counter
+	 * (toujours, jamais ou 1 requête sur N), et -1 sinon.
+	 * @return long
+	 */
+	long getStartCpuTime() {
+		if (cpuTimeDisabled) {
+			return -1;
+		}
+		if (cpuTimeSamplingInterval > 1) {
+			// compteur non synchronisé : un incrément perdu entre threads ne fait que décaler
+			// l'échantillon, sans biais sur l'estimation
+			final int count = cpuTimeSamplingCount + 1;
+			if (count < cpuTimeSamplingInterval) {
+				cpuTimeSamplingCount = count;
+				return -1;
+			}
+			cpuTimeSamplingCount = 0;
+		}
+		return ThreadInformations.getCurrentThreadCpuTime();
+	}
+
+	/**
+	 * Retourne le temps cpu à enregistrer dans les statistiques pour une requête terminée.
+	 * @param cpuTime Temps cpu mesuré en millisecondes, ou -1 si non mesuré (cf getStartCpuTime)
+	 * @return Temps cpu en millisecondes, extrapolé si échantillonné, ou -1 si non mesuré pour ce counter
+	 */
+	long getRecordedCpuTime(long cpuTime) {
+		if (!isCpuTimeEstimated()) {
+			return cpuTime;
+		}
+		if (cpuTime < 0) {
+			// requête non échantillonnée : ne compte pas dans la somme des temps cpu,
+			// qui est extrapolée à partir des requêtes échantillonnées
+			return 0;
+		}
+		return cpuTime * cpuTimeSamplingInterval;
 	}
 
 	void bindContextIncludingCpu(String requestName) {
-		bindContext(requestName, requestName, null, ThreadInformations.getCurrentThreadCpuTime());
+		// -1 si non mesuré comme pour les requêtes sql : pas de lecture du temps cpu
+		// au début ni à la fin de la requête
+		bindContext(requestName, requestName, null, getStartCpuTime());
 	}
 
 	void bindContext(String requestName, String completeRequestName, String remoteUser,
@@ -414,12 +564,18 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		// completeRequestName est la même chose éventuellement complétée
 		// pour cette requête à destination de l'affichage dans les requêtes courantes
 		// (sinon mettre 2 fois la même chose)
-		final CounterRequestContext context = new CounterRequestContext(this,
-				contextThreadLocal.get(), requestName, completeRequestName, remoteUser,
-				startCpuTime);
-		contextThreadLocal.set(context);
-		if (context.getParentContext() == null) {
+		final CounterRequestContext parentContext = contextThreadLocal.get();
+		if (parentContext == null) {
+			final CounterRequestContext context = new CounterRequestContext(this, null,
+					requestName, completeRequestName, remoteUser, startCpuTime);
+			contextThreadLocal.set(context);
 			rootCurrentContextsByThreadId.put(context.getThreadId(), context);
+		} else {
+			// le contexte fils réutilise si possible le précédent contexte fils terminé,
+			// pour ne pas allouer de contexte à chaque requête sql dans une requête http
+			final CounterRequestContext context = parentContext.createChildContext(this,
+					requestName, completeRequestName, remoteUser, startCpuTime);
+			contextThreadLocal.set(context);
 		}
 	}
 
@@ -431,11 +587,25 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		}
 	}
 
+	/**
+	 * @param threadId Identifiant d'un thread
+	 * @return Identifiant de la requête racine en cours d'exécution par ce thread pour ce counter,
+	 * 	ou null s'il n'y en a pas
+	 */
+	String getRootCurrentRequestId(long threadId) {
+		final CounterRequestContext context = rootCurrentContextsByThreadId.get(threadId);
+		if (context == null) {
+			return null;
+		}
+		// même agrégation que dans addRequest
+		return CounterRequest.buildId(getAggregateRequestName(context.getRequestName()), getName());
+	}
+
 	void addRequestForCurrentContext(boolean systemError) {
 		final CounterRequestContext context = contextThreadLocal.get();
 		if (context != null) {
 			final long duration = context.getDuration(System.currentTimeMillis());
-			final long cpuUsedMillis = context.getCpuTime();
+			final long cpuUsedMillis = getRecordedCpuTime(context.getCpuTime());
 			addRequest(context.getRequestName(), duration, cpuUsedMillis, systemError, -1);
 		}
 	}
@@ -446,7 +616,7 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		// context peut être null (depuis JobGlobalListener, cf issue 34)
 		if (context != null) {
 			final long duration = context.getDuration(System.currentTimeMillis());
-			final long cpuUsedMillis = context.getCpuTime();
+			final long cpuUsedMillis = getRecordedCpuTime(context.getCpuTime());
 			addRequest(context.getRequestName(), duration, cpuUsedMillis,
 					systemErrorStackTrace != null, systemErrorStackTrace, -1);
 		}
@@ -473,21 +643,42 @@ class Counter implements Cloneable, Serializable { // NOPMD
 
 		final CounterRequestContext context = contextThreadLocal.get();
 		final CounterRequest request = getCounterRequestInternal(aggregateRequestName);
-		synchronized (request) {
-			// on synchronise par l'objet request pour éviter de mélanger des ajouts de hits
-			// concurrents entre plusieurs threads pour le même type de requête.
-			// Rq : on pourrait remplacer ce bloc synchronized par un synchronized
-			// sur les méthodes addHit et addChildHits dans la classe CounterRequest.
-			request.addHit(duration, cpuTime, systemError, systemErrorStackTrace, responseSize);
-
-			if (context != null) {
-				// on ajoute dans la requête parente toutes les requêtes filles du contexte
-				if (context.getParentCounter() == this) {
-					request.addChildHits(context);
+		// map des requêtes filles calculée une seule fois et hors synchronized
+		final Map<String, Long> childRequests;
+		if (context != null) {
+			childRequests = context.getChildRequestsExecutionsByRequestId();
+		} else {
+			childRequests = null;
+		}
+		Map<String, Long> newChildRequests = null;
+		if (stripedRecording) {
+			if (addStripedHit(request, context, childRequests, duration, cpuTime, systemError,
+					systemErrorStackTrace, responseSize)) {
+				newChildRequests = childRequests;
+			}
+		} else {
+			synchronized (request) {
+				// on synchronise par l'objet request pour éviter de mélanger des ajouts de hits
+				// concurrents entre plusieurs threads pour le même type de requête
+				// Rq : on pourrait remplacer ce bloc synchronized par un synchronized
+				// sur les méthodes addHit et addChildHits dans la classe CounterRequest.
+				request.addHit(duration, cpuTime, systemError, systemErrorStackTrace, responseSize);
+
+				if (context != null) {
+					// on ajoute dans la requête parente toutes les requêtes filles du contexte
+					if (context.getParentCounter() == this) {
+						request.addChildHits(context);
+					}
+					if (request.addChildRequests(childRequests)) {
+						newChildRequests = childRequests;
+					}
 				}
-				request.addChildRequests(context.getChildRequestsExecutionsByRequestId());
 			}
 		}
+		if (newChildRequests != null) {
+			// perf: l'index n'est mis à jour que pour une requête fille encore inconnue de la requête
+			indexChildRequests(aggregateRequestName, newChildRequests.keySet());
+		}
 		// perf: on fait le reste hors du synchronized sur request
 		if (context != null) {
 			if (context.getParentCounter() == this) {
@@ -522,6 +713,41 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		}
 	}
 
+	// les hits sont ajoutés dans la bande du thread courant en synchronisant seulement sur celle-ci,
+	// puis fusionnés dans la requête avant sa lecture (voir cloneRequest)
+	private boolean addStripedHit(CounterRequest request, CounterRequestContext context,
+			Map<String, Long> childRequests, long duration, long cpuTime, boolean systemError,
+			String systemErrorStackTrace, int responseSize) {
+		final CounterRequest.Stripe stripe = request.getStripeForCurrentThread();
+		boolean newChildRequests = false;
+		final long[] durations;
+		synchronized (stripe) {
+			stripe.addHit(duration, cpuTime, systemError, systemErrorStackTrace, responseSize);
+			if (context != null) {
+				if (context.getParentCounter() == this) {
+					stripe.addChildHits(context);
+				}
+				newChildRequests = stripe.addChildRequests(childRequests);
+			}
+			durations = stripe.removePendingDurationsIfFull();
+		}
+		if (durations != null) {
+			// perf: l'histogramme de la requête n'est mis à jour que par paquets de durées
+			synchronized (request) {
+				request.addDurations(durations, durations.length);
+			}
+		}
+		return newChildRequests;
+	}
+
+	// fusionne les hits enregistrés par bandes avant de cloner la requête, de manière synchronisée
+	private static CounterRequest cloneRequest(CounterRequest request) {
+		synchronized (request) {
+			request.mergeStripes();
+			return request.clone();
+		}
+	}
+
 	void addRequestForSystemError(String requestName, long duration, long cpuTime, String stackTrace) {
 		// comme la méthode addRequest, cette méthode n'est pas synchronisée pour ne pas avoir
 		// de synchronisation globale à l'application sur cette instance d'objet
@@ -538,8 +764,12 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		assert contextThreadLocal.get() == null;
 		final String aggregateRequestName = getAggregateRequestName(requestName);
 		final CounterRequest request = getCounterRequestInternal(aggregateRequestName);
-		synchronized (request) {
-			request.addHit(duration, cpuTime, true, stackTrace, -1);
+		if (stripedRecording) {
+			addStripedHit(request, null, null, duration, cpuTime, true, stackTrace, -1);
+		} else {
+			synchronized (request) {
+				request.addHit(duration, cpuTime, true, stackTrace, -1);
+			}
 		}
 		synchronized (errors) {
 			errors.addLast(new CounterError(requestName, stackTrace));
@@ -617,8 +847,13 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		for (final CounterRequest newRequest : newCounter.getRequests()) {
 			if (newRequest.getHits() > 0) {
 				final CounterRequest request = getCounterRequestInternal(newRequest.getName());
+				final boolean newChildRequests;
 				synchronized (request) {
-					request.addHits(newRequest);
+					newChildRequests = request.addHits(newRequest);
+				}
+				if (newChildRequests) {
+					indexChildRequests(newRequest.getName(),
+							newRequest.getChildRequestsExecutionsByRequestId().keySet());
 				}
 			}
 		}
@@ -634,7 +869,13 @@ class Counter implements Cloneable, Serializable { // NOPMD
 			// car ce serait mauvais pour les perfs, cela ne laisserait aucune chance
 			// à une nouvelle requête et car cela sera fait par la classe collector
 			for (final CounterRequest request : requests.values()) {
-				if (request.getHits() < 10) {
+				final long hits;
+				synchronized (request) {
+					// les hits enregistrés par bandes sont comptés avant de choisir les requêtes
+					request.mergeStripes();
+					hits = request.getHits();
+				}
+				if (hits < 10) {
 					removeRequest(request.getName());
 					size--;
 					if (size <= maxRequests) {
@@ -649,15 +890,145 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		}
 	}
 
+	/**
+	 * Enlève de ce compteur les hits et les erreurs d'un clone de ce compteur
+	 * (utilisée pour les deltas acquittés par le serveur de collecte, voir CountersDeltaTracker).
+	 * Les requêtes n'ayant plus de hits sont supprimées.
+	 * @param removedCounter Clone de ce compteur
+	 */
+	void removeRequestsAndErrors(Counter removedCounter) {
+		assert getName().equals(removedCounter.getName());
+		for (final CounterRequest removedRequest : removedCounter.getRequests()) {
+			final CounterRequest request = requests.get(removedRequest.getName());
+			if (request == null) {
+				continue;
+			}
+			final boolean empty;
+			synchronized (request) {
+				request.mergeStripes();
+				// si le compteur a été vidé depuis le clone (action clear counter), rien à enlever
+				if (removedRequest.getHits() > request.getHits()) {
+					continue;
+				}
+				request.removeHits(removedRequest);
+				empty = request.getHits() == 0;
+			}
+			if (empty) {
+				removeRequest(request.getName());
+			}
+		}
+
+		if (isErrorCounter() && removedCounter.getErrorsCount() > 0) {
+			// les clones des compteurs partagent les instances de CounterError
+			final List<CounterError> removedErrors = removedCounter.getErrors();
+			synchronized (errors) {
+				errors.removeAll(removedErrors);
+			}
+		}
+	}
+
 	void addHits(CounterRequest counterRequest) {
 		if (counterRequest.getHits() > 0) {
 			// clone pour être thread-safe ici
 			final CounterRequest newRequest = counterRequest.clone();
 			final CounterRequest request = getCounterRequestInternal(newRequest.getName());
+			final boolean newChildRequests;
 			synchronized (request) {
-				request.addHits(newRequest);
+				newChildRequests = request.addHits(newRequest);
+			}
+			if (newChildRequests) {
+				indexChildRequests(newRequest.getName(),
+						newRequest.getChildRequestsExecutionsByRequestId().keySet());
+			}
+		}
+	}
+
+	private void indexChildRequests(String parentRequestName, Set<String> childRequestIds) {
+		final ConcurrentMap<String, Set<String>> index = parentRequestNamesByChildRequestId;
+		if (index == null) {
+			// l'index sera construit complètement à la prochaine recherche
+			return;
+		}
+		for (final String childRequestId : childRequestIds) {
+			Set<String> parentRequestNames;
+			do {
+				parentRequestNames = index.get(childRequestId);
+				if (parentRequestNames == null) {
+					parentRequestNames = Collections
+							.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+					final Set<String> precedent = index.putIfAbsent(childRequestId,
+							parentRequestNames);
+					if (precedent != null) {
+						parentRequestNames = precedent;
+					}
+				}
+				parentRequestNames.add(parentRequestName);
+				// l'ensemble a pu être enlevé de l'index entre temps par removeRequest s'il était vide
+			} while (index.get(childRequestId) != parentRequestNames);
+		}
+	}
+
+	private void unindexChildRequests(String parentRequestName, Set<String> childRequestIds) {
+		final ConcurrentMap<String, Set<String>> index = parentRequestNamesByChildRequestId;
+		if (index == null) {
+			return;
+		}
+		for (final String childRequestId : childRequestIds) {
+			final Set<String> parentRequestNames = index.get(childRequestId);
+			if (parentRequestNames != null) {
+				parentRequestNames.remove(parentRequestName);
+				if (parentRequestNames.isEmpty()) {
+					index.remove(childRequestId, parentRequestNames);
+				}
+			}
+		}
+	}
+
+	private ConcurrentMap<String, Set<String>> getParentRequestNamesByChildRequestId() {
+		ConcurrentMap<String, Set<String>> index = parentRequestNamesByChildRequestId;
+		if (index == null) {
+			// l'index vide est publié avant le parcours des requêtes pour que les ajouts
+			// concurrents de requêtes filles y soient aussi indexés
+			index = new ConcurrentHashMap<String, Set<String>>();
+			parentRequestNamesByChildRequestId = index;
+			for (final CounterRequest request : getRequests()) {
+				indexChildRequests(request.getName(),
+						request.getChildRequestsExecutionsByRequestId().keySet());
 			}
 		}
+		return index;
+	}
+
+	/**
+	 * Retourne les requêtes de ce counter qui appellent la requête fille en paramètre,
+	 * à partir de l'index inversé des requêtes filles et sans parcourir toutes les requêtes.
+	 * @param childRequestId Identifiant de la requête fille
+	 * @return Liste des requêtes parentes triées par durée cumulée décroissante,
+	 * 	la liste et ses objets peuvent être utilisés sans synchronized et sans crainte d'accès concurrents.
+	 */
+	List<CounterRequest> getParentRequests(String childRequestId) {
+		assert childRequestId != null;
+		final Set<String> parentRequestNames = getParentRequestNamesByChildRequestId()
+				.get(childRequestId);
+		if (parentRequestNames == null) {
+			return Collections.emptyList();
+		}
+		final List<CounterRequest> result = new ArrayList<CounterRequest>(
+				parentRequestNames.size());
+		for (final String parentRequestName : parentRequestNames) {
+			final CounterRequest request = requests.get(parentRequestName);
+			if (request != null) {
+				final CounterRequest clone = cloneRequest(request);
+				// l'index étant un sur-ensemble, on vérifie la requête fille dans la requête
+				if (clone.containsChildRequest(childRequestId)) {
+					result.add(clone);
+				}
+			}
+		}
+		if (result.size() > 1) {
+			Collections.sort(result, Collections.reverseOrder(new CounterRequestComparator()));
+		}
+		return result;
 	}
 
 	void addErrors(List<CounterError> counterErrorList) {
@@ -684,9 +1055,31 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		}
 	}
 
+	/**
+	 * Retourne la requête de ce counter ayant l'identifiant en paramètre.
+	 * @param requestId Identifiant de la requête
+	 * @return CounterRequest cloné ou null si non trouvé
+	 */
+	CounterRequest getCounterRequestById(String requestId) {
+		assert requestId != null;
+		if (isRequestIdFromThisCounter(requestId)) {
+			for (final CounterRequest request : requests.values()) {
+				if (requestId.equals(request.getId())) {
+					return cloneRequest(request);
+				}
+			}
+		}
+		return null;
+	}
+
 	void removeRequest(String requestName) {
 		assert requestName != null;
-		requests.remove(requestName);
+		final CounterRequest request = requests.remove(requestName);
+		if (request != null && parentRequestNamesByChildRequestId != null) {
+			// la requête supprimée n'est plus une requête parente dans l'index des requêtes filles
+			unindexChildRequests(requestName, request.getChildRequestsExecutionsByRequestId()
+					.keySet());
+		}
 	}
 
 	/**
@@ -710,9 +1103,7 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		// mais toute modification de cet état ne sera pas conservée
 		final String aggregateRequestName = getAggregateRequestName(requestName);
 		final CounterRequest request = getCounterRequestInternal(aggregateRequestName);
-		synchronized (request) {
-			return request.clone();
-		}
+		return cloneRequest(request);
 	}
 
 	private CounterRequest getCounterRequestInternal(String requestName) {
@@ -749,9 +1140,7 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		final List<CounterRequest> result = new ArrayList<CounterRequest>(requests.size());
 		for (final CounterRequest request : requests.values()) {
 			// on synchronize sur request en cas d'ajout en parallèle d'un hit sur cette request
-			synchronized (request) {
-				result.add(request.clone());
-			}
+			result.add(cloneRequest(request));
 		}
 		return result;
 	}
@@ -832,6 +1221,7 @@ class Counter implements Cloneable, Serializable { // NOPMD
 	 */
 	void clear() {
 		requests.clear();
+		parentRequestNamesByChildRequestId = null;
 		rootCurrentContextsByThreadId.clear();
 		if (errors != null) {
 			synchronized (errors) {
@@ -852,7 +1242,9 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		clone.startDate = getStartDate();
 		clone.maxRequestsCount = getMaxRequestsCount();
 		clone.displayed = isDisplayed();
+		clone.cpuTimeSamplingInterval = getCpuTimeSamplingInterval();
 		clone.requestTransformPattern = getRequestTransformPattern();
+		clone.journalSequence = getJournalSequence();
 		// on ne copie pas rootCurrentContextsByThreadId car on ne fournit pas les requêtes en cours
 		// qui sont très rapidement obsolètes au serveur de collecte (et sinon cela poserait la question
 		// des clones de parentCounter, de l'agrégation, de la synchro d'horloge pour la durée
@@ -868,6 +1260,14 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		return clone;
 	}
 
+	long getJournalSequence() {
+		return journalSequence;
+	}
+
+	void setJournalSequence(long journalSequence) {
+		this.journalSequence = journalSequence;
+	}
+
 	/**
 	 * Enregistre le counter.
 	 * @throws IOException e
@@ -878,7 +1278,104 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		// on n'écrit pas rootCurrentContextsByThreadId en fichier
 		// puisque ces données ne seront plus vraies dans quelques secondes (clear pour être sûr ici)
 		counter.rootCurrentContextsByThreadId.clear();
-		estimatedMemorySize = new CounterStorage(counter).writeToFile();
+		binarySize = new CounterStorage(counter).writeToFile();
+	}
+
+	/**
+	 * Enregistre seulement les hits et les erreurs de la dernière période dans le journal du counter,
+	 * ou bien enregistre tout le counter si le journal est devenu trop grand.
+	 * Les hits et les erreurs doivent déjà avoir été ajoutés dans ce counter.
+	 * @param lastPeriodRequests Requêtes avec seulement les hits de la dernière période
+	 * @param lastPeriodErrors Erreurs de la dernière période
+	 * @throws IOException e
+	 */
+	void writeToJournal(List<CounterRequest> lastPeriodRequests,
+			List<CounterError> lastPeriodErrors) throws IOException {
+		final CounterStorage counterStorage = new CounterStorage(this);
+		if (counterStorage.isJournalCompactionNeeded()) {
+			writeToFile();
+		} else {
+			counterStorage.appendToJournal(lastPeriodRequests, lastPeriodErrors);
+		}
+	}
+
+	/**
+	 * Écrit ce counter dans le format binaire de CounterBinaryFormat
+	 * (sans les requêtes en cours, comme pour la sérialisation).
+	 * Le counter ne doit pas être modifié pendant l'écriture (clone par exemple).
+	 * @param writer CounterBinaryFormat.Writer
+	 * @throws IOException e
+	 */
+	void writeTo(CounterBinaryFormat.Writer writer) throws IOException {
+		writer.writeString(getName());
+		writer.writeString(getStorageName());
+		writer.writeString(getIconName());
+		writer.writeString(getChildCounterName());
+		writer.writeString(getApplication());
+		writer.writeBoolean(isDisplayed());
+		writer.writeLong(getStartDate().getTime());
+		writer.writeLong(getMaxRequestsCount());
+		writer.writeLong(getCpuTimeSamplingInterval());
+		writer.writeLong(requests.size());
+		for (final CounterRequest request : requests.values()) {
+			request.writeTo(writer);
+		}
+		if (errors == null) {
+			writer.writeLong(0);
+		} else {
+			writer.writeLong(errors.size());
+			for (final CounterError error : errors) {
+				error.writeTo(writer);
+			}
+		}
+	}
+
+	/**
+	 * Lit un counter dans le format binaire de CounterBinaryFormat.
+	 * @param reader CounterBinaryFormat.Reader
+	 * @return Counter
+	 * @throws IOException e
+	 */
+	static Counter readFrom(CounterBinaryFormat.Reader reader) throws IOException {
+		final String name = reader.readString();
+		final String storageName = reader.readString();
+		final String iconName = reader.readString();
+		final String childCounterName = reader.readString();
+		if (name == null || storageName == null) {
+			throw new IOException("Malformed counter without name");
+		}
+		final Counter counter = new Counter(name, storageName, iconName, childCounterName);
+		final String application = reader.readString();
+		if (application != null) {
+			counter.setApplication(application);
+		}
+		counter.setDisplayed(reader.readBoolean());
+		counter.setStartDate(new Date(reader.readLong()));
+		counter.setMaxRequestsCount(reader.readInt());
+		// avant la version 3, l'intervalle d'échantillonnage n'est pas enregistré
+		if (reader.getVersion() >= 3) {
+			final int cpuTimeSamplingInterval = reader.readInt();
+			if (cpuTimeSamplingInterval < 0) {
+				throw new IOException("Malformed cpu time sampling interval: "
+						+ cpuTimeSamplingInterval);
+			}
+			counter.setCpuTimeSamplingInterval(cpuTimeSamplingInterval);
+		}
+		final int requestsCount = reader.readInt();
+		for (int i = 0; i < requestsCount; i++) {
+			final CounterRequest request = CounterRequest.readFrom(reader);
+			counter.requests.put(request.getName(), request);
+		}
+		final int errorsCount = reader.readInt();
+		if (errorsCount > 0) {
+			if (counter.errors == null) {
+				throw new IOException("Malformed counter with errors: " + name);
+			}
+			for (int i = 0; i < errorsCount; i++) {
+				counter.errors.add(CounterError.readFrom(reader));
+			}
+		}
+		return counter;
 	}
 
 	/**
@@ -890,7 +1387,9 @@ class Counter implements Cloneable, Serializable { // NOPMD
 		if (counter != null) {
 			final Counter newCounter = clone();
 			startDate = counter.getStartDate();
+			journalSequence = counter.getJournalSequence();
 			requests.clear();
+			parentRequestNamesByChildRequestId = null;
 			for (final CounterRequest request : counter.getRequests()) {
 				requests.put(request.getName(), request);
 			}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Format binaire compact et versionné pour l'enregistrement des counters en fichiers,
+ * en remplacement de la sérialisation java (fichiers .ser.gz).
+ *
+ * Les entiers sont écrits en longueur variable (varint avec zigzag pour les négatifs)
+ * et chaque chaîne (nom de requête, identifiant, stack-trace...) n'est écrite qu'une fois,
+ * les occurrences suivantes étant des références vers une table des chaînes construite
+ * au fil de l'écriture et de la lecture, ce qui permet de lire et d'écrire en flux.
+ * @author Emeric Vernat
+ */
+final class CounterBinaryFormat {
+	/**
+	 * Version courante du format, à incrémenter si le format change.
+	 */
+	// version 2 : numéro du dernier enregistrement du journal inclus, avant le counter
+	// version 3 : intervalle d'échantillonnage du temps cpu du counter
+	static final int VERSION = 3;
+	// "JMC" puis 0 : permet de détecter un fichier qui ne serait pas dans ce format
+	private static final int MAGIC = 0x4A4D4300;
+	private static final String CHARSET = "UTF-8";
+	private static final int NULL_STRING = 0;
+	private static final int NEW_STRING = 1;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Écriture des données en flux dans le format binaire.
+	 */
+	static final class Writer {
+		private final DataOutputStream output;
+		private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+		Writer(OutputStream output) {
+			super();
+			this.output = new DataOutputStream(output);
+		}
+
+		void writeLong(long value) throws IOException {
+			// zigzag pour que les petites valeurs négatives (-1 par ex.) soient courtes
+			long zigzag = value << 1 ^ value >> 63;
+			while ((zigzag & ~0x7FL) != 0) {
+				output.writeByte((int) (zigzag & 0x7F | 0x80));
+				zigzag >>>= 7;
+			}
+			output.writeByte((int) zigzag);
+		}
+
+		void writeBoolean(boolean value) throws IOException {
+			output.writeBoolean(value);
+		}
+
+		void writeString(String value) throws IOException {
+			if (value == null) {
+				writeLong(NULL_STRING);
+				return;
+			}
+			final Integer index = stringIndexes.get(value);
+			if (index != null) {
+				writeLong(NEW_STRING + 1 + index);
+			} else {
+				stringIndexes.put(value, stringIndexes.size());
+				final byte[] bytes = value.getBytes(CHARSET);
+				writeLong(NEW_STRING);
+				writeLong(bytes.length);
+				output.write(bytes);
+			}
+		}
+
+		void flush() throws IOException {
+			output.flush();
+		}
+	}
+
+	/**
+	 * Lecture des données en flux dans le format binaire.
+	 */
+	static final class Reader {
+		private final DataInputStream input;
+		private final int version;
+		private final List<String> strings = new ArrayList<String>();
+
+		Reader(InputStream input) {
+			this(input, VERSION);
+		}
+
+		/**
+		 * Constructeur.
+		 * @param input Flux d'entrée
+		 * @param version Version du format des données à lire
+		 */
+		Reader(InputStream input, int version) {
+			super();
+			assert version >= 1 && version <= VERSION;
+			this.input = new DataInputStream(input);
+			this.version = version;
+		}
+
+		int getVersion() {
+			return version;
+		}
+
+		long readLong() throws IOException {
+			long zigzag = 0;
+			int shift = 0;
+			int b;
+			do {
+				if (shift > 63) {
+					throw new IOException("Malformed varint");
+				}
+				b = input.readUnsignedByte();
+				zigzag |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return zigzag >>> 1 ^ -(zigzag & 1);
+		}
+
+		int readInt() throws IOException {
+			final long value = readLong();
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+				throw new IOException("Malformed int: " + value);
+			}
+			return (int) value;
+		}
+
+		boolean readBoolean() throws IOException {
+			return input.readBoolean();
+		}
+
+		String readString() throws IOException {
+			final long tag = readLong();
+			if (tag == NULL_STRING) {
+				return null;
+			} else if (tag == NEW_STRING) {
+				final int length = readInt();
+				if (length < 0) {
+					throw new IOException("Malformed string length: " + length);
+				}
+				final byte[] bytes = readBytes(length);
+				final String value = new String(bytes, CHARSET);
+				strings.add(value);
+				return value;
+			}
+			final long index = tag - NEW_STRING - 1;
+			if (index < 0 || index >= strings.size()) {
+				throw new IOException("Malformed string reference: " + tag);
+			}
+			return strings.get((int) index);
+		}
+
+		private byte[] readBytes(int length) throws IOException {
+			if (length <= BUFFER_SIZE) {
+				final byte[] bytes = new byte[length];
+				input.readFully(bytes);
+				return bytes;
+			}
+			// longueur lue dans le flux : pas d'allocation au-delà des données réellement présentes
+			final ByteArrayOutputStream output = new ByteArrayOutputStream(BUFFER_SIZE);
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int remaining = length;
+			while (remaining > 0) {
+				final int read = input.read(buffer, 0, Math.min(remaining, BUFFER_SIZE));
+				if (read == -1) {
+					throw new EOFException();
+				}
+				output.write(buffer, 0, read);
+				remaining -= read;
+			}
+			return output.toByteArray();
+		}
+	}
+
+	private CounterBinaryFormat() {
+		super();
+	}
+
+	/**
+	 * Écrit un counter dans le format binaire.
+	 * @param counter Counter
+	 * @param output Flux de sortie (non fermé par cette méthode)
+	 * @throws IOException Exception d'entrée/sortie
+	 */
+	static void write(Counter counter, OutputStream output) throws IOException {
+		final DataOutputStream dataOutput = new DataOutputStream(output);
+		dataOutput.writeInt(MAGIC);
+		dataOutput.writeByte(VERSION);
+		final Writer writer = new Writer(dataOutput);
+		writer.writeLong(counter.getJournalSequence());
+		counter.writeTo(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Lit un counter dans le format binaire.
+	 * @param input Flux d'entrée (non fermé par cette méthode)
+	 * @return Counter
+	 * @throws IOException Exception d'entrée/sortie, ou si le format n'est pas reconnu
+	 */
+	static Counter read(InputStream input) throws IOException {
+		final DataInputStream dataInput = new DataInputStream(input);
+		final int magic;
+		try {
+			magic = dataInput.readInt();
+		} catch (final EOFException e) {
+			throw new IOException("Empty counter file", e);
+		}
+		if (magic != MAGIC) {
+			throw new IOException("Unknown counter file format");
+		}
+		final int version = dataInput.readUnsignedByte();
+		if (version < 1 || version > VERSION) {
+			// un fichier d'une version plus récente ne peut pas être lu par cette version
+			throw new IOException("Unsupported counter file version: " + version);
+		}
+		final Reader reader = new Reader(dataInput, version);
+		// en version 1, pas de numéro d'enregistrement du journal : tout le journal sera relu
+		final long journalSequence = version >= 2 ? reader.readLong() : 0;
+		final Counter counter = Counter.readFrom(reader);
+		counter.setJournalSequence(journalSequence);
+		return counter;
+	}
+}
@@ -17,6 +17,7 @@
  */
 package net.bull.javamelody;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Date;
 
@@ -62,6 +63,48 @@ class CounterError implements Serializable {
 		}
 	}
 
+	private CounterError(long time, String remoteUser, String httpRequest, String message,
+			String stackTrace) {
+		super();
+		assert message != null;
+		this.time = time;
+		this.remoteUser = remoteUser;
+		this.httpRequest = httpRequest;
+		this.message = message;
+		this.stackTrace = stackTrace;
+	}
+
+	/**
+	 * Écrit cette erreur dans le format binaire de CounterBinaryFormat.
+	 * @param writer CounterBinaryFormat.Writer
+	 * @throws IOException e
+	 */
+	void writeTo(CounterBinaryFormat.Writer writer) throws IOException {
+		writer.writeLong(time);
+		writer.writeString(remoteUser);
+		writer.writeString(httpRequest);
+		writer.writeString(message);
+		writer.writeString(stackTrace);
+	}
+
+	/**
+	 * Lit une erreur dans le format binaire de CounterBinaryFormat.
+	 * @param reader CounterBinaryFormat.Reader
+	 * @return CounterError
+	 * @throws IOException e
+	 */
+	static CounterError readFrom(CounterBinaryFormat.Reader reader) throws IOException {
+		final long time = reader.readLong();
+		final String remoteUser = reader.readString();
+		final String httpRequest = reader.readString();
+		final String message = reader.readString();
+		final String stackTrace = reader.readString();
+		if (message == null) {
+			throw new IOException("Malformed error without message");
+		}
+		return new CounterError(time, remoteUser, httpRequest, message, stackTrace);
+	}
+
 	/**
 	 * Définit la requête http (peut être nulle) pour le thread courant.
 	 * @param request HttpServletRequest
@@ -111,6 +154,16 @@ class CounterError implements Serializable {
 		return stackTrace;
 	}
 
+	/**
+	 * @return Estimation de l'occupation mémoire de cette erreur en octets
+	 */
+	long getEstimatedMemorySize() {
+		return 40 + CounterRequest.getEstimatedMemorySize(remoteUser)
+				+ CounterRequest.getEstimatedMemorySize(httpRequest)
+				+ CounterRequest.getEstimatedMemorySize(message)
+				+ CounterRequest.getEstimatedMemorySize(stackTrace);
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString() {
@@ -17,6 +17,7 @@
  */
 package net.bull.javamelody;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -50,9 +51,14 @@ class CounterRequest implements Cloneable, Serializable {
 	private long responseSizesSum;
 	private long childHits;
 	private long childDurationsSum;
+	// histogramme des temps d'exécution pour les centiles
+	// (null si aucun hit ou si les données proviennent d'une version précédente)
+	private DurationsHistogram durationsHistogram;
 	private String stackTrace;
 	@SuppressWarnings("all")
 	private Map<String, Long> childRequestsExecutionsByRequestId;
+	// accumulateurs par bandes si l'enregistrement "striped" est utilisé par le counter (null sinon)
+	private transient volatile CounterRequestStripes stripes;
 
 	/**
 	 * Interface du contexte d'une requête en cours.
@@ -87,6 +93,17 @@ class CounterRequest implements Cloneable, Serializable {
 		this.id = buildId(name, counterName);
 	}
 
+	// constructeur avec un identifiant déjà calculé, pour la lecture d'un fichier
+	// (le paramètre idAlreadyBuilt distingue ce constructeur de celui avec le nom du counter)
+	private CounterRequest(String name, String id, boolean idAlreadyBuilt) {
+		super();
+		assert name != null;
+		assert id != null;
+		assert idAlreadyBuilt;
+		this.name = name;
+		this.id = id;
+	}
+
 	/**
 	 * @return Nom de la requête
 	 */
@@ -160,6 +177,17 @@ class CounterRequest implements Cloneable, Serializable {
 		return maximum;
 	}
 
+	/**
+	 * @param percentile Pourcentage entre 0 et 100 (par exemple 50, 95 ou 99)
+	 * @return Centile des temps d'exécution de cette requête (-1 si inconnu)
+	 */
+	long getDurationsPercentile(double percentile) {
+		if (durationsHistogram == null) {
+			return -1;
+		}
+		return durationsHistogram.getPercentile(percentile);
+	}
+
 	/**
 	 * @return Somme temps cpu pour l'exécution de cette requête
 	 */
@@ -255,6 +283,41 @@ class CounterRequest implements Cloneable, Serializable {
 		return stackTrace;
 	}
 
+	/**
+	 * Retourne l'estimation de l'occupation mémoire de cette requête en octets
+	 * (objet, nom, identifiant, histogramme, stack-trace et requêtes filles).
+	 * @return long
+	 */
+	long getEstimatedMemorySize() {
+		// objet avec ses champs long et ses références
+		long size = 120 + getEstimatedMemorySize(name) + getEstimatedMemorySize(id)
+				+ getEstimatedMemorySize(stackTrace);
+		final DurationsHistogram histogram = durationsHistogram;
+		if (histogram != null) {
+			size += histogram.getEstimatedMemorySize();
+		}
+		if (childRequestsExecutionsByRequestId != null) {
+			final int childRequestsCount;
+			synchronized (this) {
+				childRequestsCount = childRequestsExecutionsByRequestId.size();
+			}
+			// map, puis pour chaque requête fille : entrée, Long et identifiant
+			size += 64 + childRequestsCount * (48 + 16 + getEstimatedMemorySize(id));
+		}
+		return size;
+	}
+
+	/**
+	 * @param text String ou null
+	 * @return Estimation de l'occupation mémoire de la chaîne en octets (objet et tableau de caractères)
+	 */
+	static long getEstimatedMemorySize(String text) {
+		if (text == null) {
+			return 0;
+		}
+		return 40 + 2L * text.length();
+	}
+
 	void addHit(long duration, long cpuTime, boolean systemError, String systemErrorStackTrace,
 			int responseSize) {
 		hits++;
@@ -263,6 +326,10 @@ class CounterRequest implements Cloneable, Serializable {
 		if (duration > maximum) {
 			maximum = duration;
 		}
+		if (durationsHistogram == null) {
+			durationsHistogram = new DurationsHistogram();
+		}
+		durationsHistogram.addValue(duration);
 		cpuTimeSum += cpuTime;
 		if (systemError) {
 			systemErrors++;
@@ -273,21 +340,206 @@ class CounterRequest implements Cloneable, Serializable {
 		responseSizesSum += responseSize;
 	}
 
+	/**
+	 * Accumulateurs d'une bande pour l'enregistrement "striped" des hits d'une requête
+	 * (voir {@link CounterRequestStripes}) : des sommes en types primitifs, quelques durées
+	 * en attente d'ajout dans l'histogramme de la requête et les exécutions des requêtes filles.
+	 * Les méthodes doivent être appelées en synchronisant sur l'instance.
+	 */
+	static final class Stripe {
+		// nombre de durées gardées dans une bande avant leur ajout dans l'histogramme de la requête
+		static final int PENDING_DURATIONS_SIZE = 16;
+		private long hits;
+		private long durationsSum;
+		private long durationsSquareSum;
+		private long maximum;
+		private long cpuTimeSum;
+		private long systemErrors;
+		private long responseSizesSum;
+		private long childHits;
+		private long childDurationsSum;
+		private String stackTrace;
+		private long[] pendingDurations = new long[PENDING_DURATIONS_SIZE];
+		private int pendingDurationsCount;
+		private Map<String, Long> childRequestsExecutionsByRequestId;
+
+		void addHit(long duration, long cpuTime, boolean systemError,
+				String systemErrorStackTrace, int responseSize) {
+			hits++;
+			durationsSum += duration;
+			durationsSquareSum += duration * duration;
+			if (duration > maximum) {
+				maximum = duration;
+			}
+			pendingDurations[pendingDurationsCount] = duration;
+			pendingDurationsCount++;
+			cpuTimeSum += cpuTime;
+			if (systemError) {
+				systemErrors++;
+			}
+			if (systemErrorStackTrace != null) {
+				stackTrace = systemErrorStackTrace;
+			}
+			responseSizesSum += responseSize;
+		}
+
+		/**
+		 * @return Durées à ajouter dans l'histogramme de la requête si elles sont au complet,
+		 * 	null sinon
+		 */
+		long[] removePendingDurationsIfFull() {
+			if (pendingDurationsCount < PENDING_DURATIONS_SIZE) {
+				return null;
+			}
+			final long[] result = pendingDurations;
+			pendingDurations = new long[PENDING_DURATIONS_SIZE];
+			pendingDurationsCount = 0;
+			return result;
+		}
+
+		void addChildHits(ICounterRequestContext context) {
+			childHits += context.getChildHits();
+			childDurationsSum += context.getChildDurationsSum();
+		}
+
+		/**
+		 * @param childRequests Exécutions de requêtes filles par identifiant
+		 * @return true si au moins une requête fille n'était pas encore connue de cette bande
+		 */
+		boolean addChildRequests(Map<String, Long> childRequests) {
+			if (childRequests == null || childRequests.isEmpty()) {
+				return false;
+			}
+			if (childRequestsExecutionsByRequestId == null) {
+				childRequestsExecutionsByRequestId = new LinkedHashMap<String, Long>(
+						childRequests);
+				return true;
+			}
+			boolean newChildRequest = false;
+			for (final Map.Entry<String, Long> entry : childRequests.entrySet()) {
+				final Long nbExecutions = childRequestsExecutionsByRequestId.get(entry.getKey());
+				if (nbExecutions == null) {
+					childRequestsExecutionsByRequestId.put(entry.getKey(), entry.getValue());
+					newChildRequest = true;
+				} else {
+					childRequestsExecutionsByRequestId.put(entry.getKey(),
+							nbExecutions + entry.getValue());
+				}
+			}
+			return newChildRequest;
+		}
+
+		void resetHits() {
+			hits = 0;
+			durationsSum = 0;
+			durationsSquareSum = 0;
+			maximum = 0;
+			cpuTimeSum = 0;
+			systemErrors = 0;
+			responseSizesSum = 0;
+			childHits = 0;
+			childDurationsSum = 0;
+			stackTrace = null;
+			pendingDurationsCount = 0;
+			childRequestsExecutionsByRequestId = null;
+		}
+	}
+
+	/**
+	 * Ajoute les hits d'une bande dans cette requête puis vide la bande.
+	 * L'appelant doit avoir synchronisé sur cette requête et sur la bande.
+	 * @param stripe Stripe
+	 */
+	void addStripeHits(Stripe stripe) {
+		if (stripe.hits != 0) {
+			hits += stripe.hits;
+			durationsSum += stripe.durationsSum;
+			durationsSquareSum += stripe.durationsSquareSum;
+			if (stripe.maximum > maximum) {
+				maximum = stripe.maximum;
+			}
+			addDurations(stripe.pendingDurations, stripe.pendingDurationsCount);
+			cpuTimeSum += stripe.cpuTimeSum;
+			systemErrors += stripe.systemErrors;
+			responseSizesSum += stripe.responseSizesSum;
+			childHits += stripe.childHits;
+			childDurationsSum += stripe.childDurationsSum;
+			if (stripe.stackTrace != null) {
+				stackTrace = stripe.stackTrace;
+			}
+			addChildRequests(stripe.childRequestsExecutionsByRequestId);
+			stripe.resetHits();
+		}
+	}
+
+	/**
+	 * Ajoute dans l'histogramme de cette requête des durées dont les hits sont déjà comptés
+	 * (enregistrement "striped").
+	 * @param durations Durées
+	 * @param count Nombre de durées à prendre dans le tableau
+	 */
+	void addDurations(long[] durations, int count) {
+		if (count > 0 && durationsHistogram == null) {
+			durationsHistogram = new DurationsHistogram();
+		}
+		for (int i = 0; i < count; i++) {
+			durationsHistogram.addValue(durations[i]);
+		}
+	}
+
+	/**
+	 * Fusionne dans cette requête les hits enregistrés par bandes, s'il y en a,
+	 * par exemple avant de cloner cette requête.
+	 * L'appelant doit avoir synchronisé sur cette requête.
+	 */
+	void mergeStripes() {
+		if (stripes != null) {
+			stripes.mergeInto();
+		}
+	}
+
+	/**
+	 * Retourne la bande d'accumulateurs du thread courant pour l'enregistrement "striped" des hits,
+	 * dans laquelle les hits peuvent être ajoutés en synchronisant sur l'instance retournée.
+	 * @return Stripe
+	 */
+	Stripe getStripeForCurrentThread() {
+		CounterRequestStripes result = stripes;
+		if (result == null) {
+			synchronized (this) {
+				result = stripes;
+				if (result == null) {
+					result = new CounterRequestStripes(this);
+					stripes = result;
+				}
+			}
+		}
+		return result.getStripeForCurrentThread();
+	}
+
 	void addChildHits(ICounterRequestContext context) {
 		childHits += context.getChildHits();
 		childDurationsSum += context.getChildDurationsSum();
 	}
 
-	void addChildRequests(Map<String, Long> childRequests) {
+	/**
+	 * Ajoute des exécutions de requêtes filles.
+	 * @param childRequests Map des nombres d'exécutions par identifiant de requête fille
+	 * @return true si au moins une requête fille n'était pas encore connue de cette requête
+	 */
+	boolean addChildRequests(Map<String, Long> childRequests) {
+		boolean newChildRequest = false;
 		if (childRequests != null && !childRequests.isEmpty()) {
 			if (childRequestsExecutionsByRequestId == null) {
 				childRequestsExecutionsByRequestId = new LinkedHashMap<String, Long>(childRequests);
+				newChildRequest = true;
 			} else {
 				for (final Map.Entry<String, Long> entry : childRequests.entrySet()) {
 					final String requestId = entry.getKey();
 					Long nbExecutions = childRequestsExecutionsByRequestId.get(requestId);
 					if (nbExecutions == null) {
 						nbExecutions = entry.getValue();
+						newChildRequest = true;
 					} else {
 						nbExecutions += entry.getValue();
 					}
@@ -295,9 +547,15 @@ class CounterRequest implements Cloneable, Serializable {
 				}
 			}
 		}
+		return newChildRequest;
 	}
 
-	void addHits(CounterRequest request) {
+	/**
+	 * Ajoute les hits d'une autre requête.
+	 * @param request CounterRequest
+	 * @return true si au moins une requête fille n'était pas encore connue de cette requête
+	 */
+	boolean addHits(CounterRequest request) {
 		assert request != null;
 		if (request.hits != 0) {
 			hits += request.hits;
@@ -306,6 +564,13 @@ class CounterRequest implements Cloneable, Serializable {
 			if (request.maximum > maximum) {
 				maximum = request.maximum;
 			}
+			if (request.durationsHistogram != null) {
+				if (durationsHistogram == null) {
+					durationsHistogram = request.durationsHistogram.clone();
+				} else {
+					durationsHistogram.add(request.durationsHistogram);
+				}
+			}
 			cpuTimeSum += request.cpuTimeSum;
 			systemErrors += request.systemErrors;
 			responseSizesSum += request.responseSizesSum;
@@ -314,8 +579,24 @@ class CounterRequest implements Cloneable, Serializable {
 			if (request.stackTrace != null) {
 				stackTrace = request.stackTrace;
 			}
-			addChildRequests(request.childRequestsExecutionsByRequestId);
+			return addChildRequests(request.childRequestsExecutionsByRequestId);
 		}
+		return false;
+	}
+
+	void resetHits() {
+		hits = 0;
+		durationsSum = 0;
+		durationsSquareSum = 0;
+		maximum = 0;
+		durationsHistogram = null;
+		cpuTimeSum = 0;
+		systemErrors = 0;
+		responseSizesSum = 0;
+		childHits = 0;
+		childDurationsSum = 0;
+		stackTrace = null;
+		childRequestsExecutionsByRequestId = null;
 	}
 
 	void removeHits(CounterRequest request) {
@@ -333,6 +614,10 @@ class CounterRequest implements Cloneable, Serializable {
 					maximum = -1;
 				}
 			}
+			if (request.durationsHistogram != null && durationsHistogram != null) {
+				// contrairement au maximum, les centiles restent exacts en retranchant l'histogramme
+				durationsHistogram.remove(request.durationsHistogram);
+			}
 			cpuTimeSum -= request.cpuTimeSum;
 			systemErrors -= request.systemErrors;
 			responseSizesSum -= request.responseSizesSum;
@@ -366,11 +651,93 @@ class CounterRequest implements Cloneable, Serializable {
 		}
 	}
 
+	/**
+	 * Écrit cette requête dans le format binaire de CounterBinaryFormat.
+	 * @param writer CounterBinaryFormat.Writer
+	 * @throws IOException e
+	 */
+	void writeTo(CounterBinaryFormat.Writer writer) throws IOException {
+		assert stripes == null;
+		writer.writeString(name);
+		writer.writeString(id);
+		writer.writeLong(hits);
+		writer.writeLong(durationsSum);
+		writer.writeLong(durationsSquareSum);
+		writer.writeLong(maximum);
+		writer.writeLong(cpuTimeSum);
+		writer.writeLong(systemErrors);
+		writer.writeLong(responseSizesSum);
+		writer.writeLong(childHits);
+		writer.writeLong(childDurationsSum);
+		writer.writeBoolean(durationsHistogram != null);
+		if (durationsHistogram != null) {
+			durationsHistogram.writeTo(writer);
+		}
+		writer.writeString(stackTrace);
+		if (childRequestsExecutionsByRequestId == null) {
+			writer.writeLong(0);
+		} else {
+			writer.writeLong(childRequestsExecutionsByRequestId.size());
+			for (final Map.Entry<String, Long> entry : childRequestsExecutionsByRequestId
+					.entrySet()) {
+				// les identifiants des requêtes filles sont dans la table des chaînes
+				writer.writeString(entry.getKey());
+				writer.writeLong(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Lit une requête dans le format binaire de CounterBinaryFormat,
+	 * sans recalculer son identifiant.
+	 * @param reader CounterBinaryFormat.Reader
+	 * @return CounterRequest
+	 * @throws IOException e
+	 */
+	static CounterRequest readFrom(CounterBinaryFormat.Reader reader) throws IOException {
+		final String name = reader.readString();
+		final String id = reader.readString();
+		if (name == null || id == null) {
+			throw new IOException("Malformed request without name or id");
+		}
+		final CounterRequest request = new CounterRequest(name, id, true);
+		request.hits = reader.readLong();
+		request.durationsSum = reader.readLong();
+		request.durationsSquareSum = reader.readLong();
+		request.maximum = reader.readLong();
+		request.cpuTimeSum = reader.readLong();
+		request.systemErrors = reader.readLong();
+		request.responseSizesSum = reader.readLong();
+		request.childHits = reader.readLong();
+		request.childDurationsSum = reader.readLong();
+		if (reader.readBoolean()) {
+			request.durationsHistogram = DurationsHistogram.readFrom(reader);
+		}
+		request.stackTrace = reader.readString();
+		final int childRequestsCount = reader.readInt();
+		if (childRequestsCount > 0) {
+			// nombre lu dans le flux : capacité initiale bornée
+			request.childRequestsExecutionsByRequestId = new LinkedHashMap<String, Long>(
+					Math.min(childRequestsCount, 1024) * 4 / 3 + 1);
+			for (int i = 0; i < childRequestsCount; i++) {
+				final String childRequestId = reader.readString();
+				request.childRequestsExecutionsByRequestId.put(childRequestId, reader.readLong());
+			}
+		}
+		return request;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public CounterRequest clone() { // NOPMD
 		try {
+			// les hits enregistrés par bandes doivent avoir été fusionnés avant (mergeStripes),
+			// les bandes ne sont pas partagées avec le clone
 			final CounterRequest clone = (CounterRequest) super.clone();
+			clone.stripes = null;
+			if (durationsHistogram != null) {
+				clone.durationsHistogram = durationsHistogram.clone();
+			}
 			if (childRequestsExecutionsByRequestId != null) {
 				// getChildRequestsExecutionsByRequestId fait déjà un clone de la map
 				clone.childRequestsExecutionsByRequestId = getChildRequestsExecutionsByRequestId();
@@ -383,7 +750,7 @@ class CounterRequest implements Cloneable, Serializable {
 	}
 
 	// retourne l'id supposé unique de la requête pour le stockage
-	private static String buildId(String name, String counterName) {
+	static String buildId(String name, String counterName) {
 		final MessageDigest messageDigest = getMessageDigestInstance();
 		messageDigest.update(name.getBytes());
 		final byte[] digest = messageDigest.digest();
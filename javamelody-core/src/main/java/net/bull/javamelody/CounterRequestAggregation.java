@@ -72,9 +72,10 @@ class CounterRequestAggregation {
 		// warning-threshold-millis et severe-threshold-millis ne sont pas définis
 		final int globalMean = globalRequest.getMean();
 		final int globalStandardDeviation = globalRequest.getStandardDeviation();
-		this.warningThreshold = getThreshold(Parameter.WARNING_THRESHOLD_MILLIS, globalMean
+		final ParametersSnapshot parameters = Parameters.getSnapshot();
+		this.warningThreshold = getThreshold(parameters.getWarningThresholdMillis(), globalMean
 				+ globalStandardDeviation);
-		this.severeThreshold = getThreshold(Parameter.SEVERE_THRESHOLD_MILLIS, globalMean + 2
+		this.severeThreshold = getThreshold(parameters.getSevereThresholdMillis(), globalMean + 2
 				* globalStandardDeviation);
 
 		// synthèse globale avec requêtes global, warning et severe
@@ -93,17 +94,12 @@ class CounterRequestAggregation {
 		}
 	}
 
-	private static int getThreshold(Parameter parameter, int defaultValue) {
-		final String param = Parameters.getParameter(parameter);
-		if (param == null) {
+	private static int getThreshold(int thresholdParameter, int defaultValue) {
+		// le paramètre a déjà été vérifié (> 0) dans ParametersSnapshot, -1 s'il n'est pas défini
+		if (thresholdParameter == -1) {
 			return defaultValue;
 		}
-		final int threshold = Integer.parseInt(param);
-		if (threshold <= 0) {
-			throw new IllegalStateException("Le paramètre " + parameter.getCode()
-					+ " doit être > 0");
-		}
-		return threshold;
+		return thresholdParameter;
 	}
 
 	List<CounterRequest> getRequests() {
@@ -21,7 +21,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -35,23 +34,26 @@ import net.bull.javamelody.CounterRequest.ICounterRequestContext;
  */
 class CounterRequestContext implements ICounterRequestContext, Cloneable, Serializable {
 	private static final long serialVersionUID = 1L;
-	private static final Long ONE = 1L;
 	// attention de ne pas sérialiser le counter d'origine vers le serveur de collecte, le vrai ayant été cloné
 	private Counter parentCounter;
 	private final CounterRequestContext parentContext;
 	private CounterRequestContext currentChildContext;
-	private final String requestName;
-	private final String completeRequestName;
-	private final String remoteUser;
+	// dernier contexte fils terminé, conservé pour être réutilisé par le contexte fils suivant
+	// (pas d'allocation à chaque requête sql dans une requête http en particulier)
+	private transient CounterRequestContext recycledChildContext;
+	// les champs suivants ne sont pas final car le contexte peut être réutilisé (voir reset),
+	// ils sont modifiés par reset et lus par clone en synchronisant sur ce contexte
+	private String requestName;
+	private String completeRequestName;
+	private String remoteUser;
 	private final long threadId;
 	// attention, si sérialisation vers serveur de collecte, la durée peut être impactée s'il y a désynchronisation d'horloge
-	private final long startTime;
-	private final long startCpuTime;
+	private long startTime;
+	private long startCpuTime;
 	// ces 2 champs sont initialisés à 0
 	private int childHits;
 	private int childDurationsSum;
-	@SuppressWarnings("all")
-	private Map<String, Long> childRequestsExecutionsByRequestId;
+	private ChildRequestsExecutions childRequestsExecutions;
 
 	CounterRequestContext(Counter parentCounter, CounterRequestContext parentContext,
 			String requestName, String completeRequestName, String remoteUser, long startCpuTime) {
@@ -84,6 +86,52 @@ class CounterRequestContext implements ICounterRequestContext, Cloneable, Serial
 		this.startCpuTime = startCpuTime;
 	}
 
+	/**
+	 * Retourne un nouveau contexte fils de ce contexte, en réutilisant si possible le dernier contexte fils
+	 * terminé pour le même counter, afin de ne pas allouer un contexte à chaque requête fille.
+	 * @param childCounter Counter du contexte fils (par exemple: sqlCounter)
+	 * @param childRequestName Nom de la requête fille
+	 * @param childCompleteRequestName Nom complet de la requête fille
+	 * @param childRemoteUser Utilisateur (peut être null)
+	 * @param childStartCpuTime Temps cpu au début de la requête fille, ou -1
+	 * @return CounterRequestContext
+	 */
+	CounterRequestContext createChildContext(Counter childCounter, String childRequestName,
+			String childCompleteRequestName, String childRemoteUser, long childStartCpuTime) {
+		final CounterRequestContext recycled = recycledChildContext;
+		if (recycled != null && recycled.parentCounter == childCounter) {
+			recycledChildContext = null;
+			recycled.reset(childRequestName, childCompleteRequestName, childRemoteUser,
+					childStartCpuTime);
+			setCurrentChildContext(recycled);
+			return recycled;
+		}
+		return new CounterRequestContext(childCounter, this, childRequestName,
+				childCompleteRequestName, childRemoteUser, childStartCpuTime);
+	}
+
+	private void reset(String newRequestName, String newCompleteRequestName,
+			String newRemoteUser, long newStartCpuTime) {
+		assert newRequestName != null;
+		assert newCompleteRequestName != null;
+		assert currentChildContext == null;
+		// un clone de la requête racine fait en parallèle pour l'affichage des requêtes en cours
+		// peut encore avoir une référence vers ce contexte fils terminé : la synchronisation
+		// lui fait lire soit l'ancien état soit le nouvel état complet, et non un mélange des deux
+		synchronized (this) {
+			this.requestName = newRequestName;
+			this.completeRequestName = newCompleteRequestName;
+			this.remoteUser = newRemoteUser;
+			this.startTime = System.currentTimeMillis();
+			this.startCpuTime = newStartCpuTime;
+			this.childHits = 0;
+			this.childDurationsSum = 0;
+			if (childRequestsExecutions != null) {
+				childRequestsExecutions.clear();
+			}
+		}
+	}
+
 	Counter getParentCounter() {
 		return parentCounter;
 	}
@@ -169,12 +217,12 @@ class CounterRequestContext implements ICounterRequestContext, Cloneable, Serial
 	/** {@inheritDoc} */
 	@Override
 	public Map<String, Long> getChildRequestsExecutionsByRequestId() {
-		if (childRequestsExecutionsByRequestId == null) {
+		if (childRequestsExecutions == null) {
 			return Collections.emptyMap();
 		}
-		// pas de nouvelle instance de map ici pour raison de perf
-		// (la méthode est utilisée sur un seul thread)
-		return childRequestsExecutionsByRequestId;
+		// nouvelle instance de map seulement s'il y a des requêtes filles,
+		// c'est-à-dire une fois par requête parente (http en particulier) et non par requête sql
+		return childRequestsExecutions.toMap();
 	}
 
 	int getTotalChildHits() {
@@ -255,16 +303,13 @@ class CounterRequestContext implements ICounterRequestContext, Cloneable, Serial
 	}
 
 	private void addChildRequestForDrillDown(String requestId) {
-		if (childRequestsExecutionsByRequestId == null) {
-			childRequestsExecutionsByRequestId = new LinkedHashMap<String, Long>();
-		}
-		Long nbExecutions = childRequestsExecutionsByRequestId.get(requestId);
-		if (nbExecutions == null) {
-			nbExecutions = ONE;
-		} else {
-			nbExecutions += 1;
+		if (childRequestsExecutions == null) {
+			// publiée en synchronisant pour un clone fait en parallèle, une seule fois par contexte
+			synchronized (this) {
+				childRequestsExecutions = new ChildRequestsExecutions();
+			}
 		}
-		childRequestsExecutionsByRequestId.put(requestId, nbExecutions);
+		childRequestsExecutions.increment(requestId);
 	}
 
 	void closeChildContext() {
@@ -273,6 +318,8 @@ class CounterRequestContext implements ICounterRequestContext, Cloneable, Serial
 		childDurationsSum += childContext.getChildDurationsSum();
 		// ce contexte fils est terminé
 		setCurrentChildContext(null);
+		// et il pourra être réutilisé par le prochain contexte fils
+		recycledChildContext = childContext;
 	}
 
 	/** {@inheritDoc} */
@@ -290,19 +337,21 @@ class CounterRequestContext implements ICounterRequestContext, Cloneable, Serial
 		// s'il fallait un clone du parentCounter pour sérialiser, on pourrait faire seulement ça:
 		//		final Counter parentCounterClone = new Counter(counter.getName(), counter.getStorageName(),
 		//				counter.getIconName(), counter.getChildCounterName(), null);
-		final CounterRequestContext clone = new CounterRequestContext(counter, parentContextClone,
-				getRequestName(), getCompleteRequestName(), getRemoteUser(), getThreadId(),
-				startTime, startCpuTime);
-		clone.childHits = getChildHits();
-		clone.childDurationsSum = getChildDurationsSum();
+		final CounterRequestContext clone;
+		synchronized (this) {
+			clone = new CounterRequestContext(counter, parentContextClone, getRequestName(),
+					getCompleteRequestName(), getRemoteUser(), getThreadId(), startTime,
+					startCpuTime);
+			clone.childHits = getChildHits();
+			clone.childDurationsSum = getChildDurationsSum();
+			if (childRequestsExecutions != null) {
+				clone.childRequestsExecutions = childRequestsExecutions.copy();
+			}
+		}
 		final CounterRequestContext childContext = getCurrentChildContext();
 		if (childContext != null) {
 			clone.currentChildContext = childContext.clone(clone);
 		}
-		if (childRequestsExecutionsByRequestId != null) {
-			clone.childRequestsExecutionsByRequestId = new LinkedHashMap<String, Long>(
-					childRequestsExecutionsByRequestId);
-		}
 		return clone;
 	}
 
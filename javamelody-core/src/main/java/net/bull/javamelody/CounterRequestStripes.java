@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Accumulateurs par bandes ("striped") des hits d'une requête.
+ *
+ * Chaque thread enregistre ses hits dans la bande choisie selon son identifiant,
+ * en synchronisant seulement sur cette bande, ce qui évite la contention sur la requête
+ * quand de nombreux threads enregistrent des hits sur les mêmes requêtes.
+ * Une bande ne contient que des sommes en types primitifs (voir {@link CounterRequest.Stripe}),
+ * et non une copie de la requête avec son histogramme.
+ * Les bandes sont fusionnées dans la requête parente avant chaque lecture de la requête
+ * (clone ou choix des requêtes à supprimer dans Counter).
+ * @author Emeric Vernat
+ */
+final class CounterRequestStripes {
+	private static final int STRIPES_COUNT = computeStripesCount();
+
+	private final CounterRequest request;
+	// les bandes sont créées à la demande, au premier hit d'un thread de cette bande,
+	// pour ne pas multiplier la mémoire utilisée par les requêtes peu exécutées
+	private final AtomicReferenceArray<CounterRequest.Stripe> stripes = new AtomicReferenceArray<CounterRequest.Stripe>(
+			STRIPES_COUNT);
+
+	CounterRequestStripes(CounterRequest request) {
+		super();
+		assert request != null;
+		this.request = request;
+	}
+
+	private static int computeStripesCount() {
+		// puissance de 2 supérieure ou égale à 2 fois le nombre de processeurs, et au plus 64
+		final int target = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+		int result = 1;
+		while (result < target) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	static int getStripesCount() {
+		return STRIPES_COUNT;
+	}
+
+	/**
+	 * Retourne la bande pour le thread courant, dans laquelle les hits peuvent être ajoutés
+	 * en synchronisant sur l'instance retournée.
+	 * @return CounterRequest.Stripe
+	 */
+	CounterRequest.Stripe getStripeForCurrentThread() {
+		// les identifiants des threads sont séquentiels,
+		// donc les threads d'un pool sont bien répartis entre les bandes
+		final int index = (int) Thread.currentThread().getId() & (STRIPES_COUNT - 1);
+		CounterRequest.Stripe stripe = stripes.get(index);
+		if (stripe == null) {
+			stripe = new CounterRequest.Stripe();
+			if (!stripes.compareAndSet(index, null, stripe)) {
+				stripe = stripes.get(index);
+			}
+		}
+		return stripe;
+	}
+
+	/**
+	 * Fusionne les hits de toutes les bandes dans la requête parente, puis vide les bandes.
+	 * L'appelant doit avoir synchronisé sur la requête parente.
+	 */
+	void mergeInto() {
+		for (int i = 0; i < STRIPES_COUNT; i++) {
+			final CounterRequest.Stripe stripe = stripes.get(i);
+			if (stripe != null) {
+				synchronized (stripe) {
+					request.addStripeHits(stripe);
+				}
+			}
+		}
+	}
+}
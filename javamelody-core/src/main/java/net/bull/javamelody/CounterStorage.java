@@ -19,17 +19,23 @@ package net.bull.javamelody;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -38,7 +44,11 @@ import java.util.zip.GZIPOutputStream;
  * @author Emeric Vernat
  */
 class CounterStorage {
-	private static final int DEFAULT_OBSOLETE_STATS_DAYS = 365;
+	private static final String FILE_EXTENSION = ".bin.gz";
+	// extension des fichiers des versions précédentes, en sérialisation java
+	private static final String SERIALIZED_FILE_EXTENSION = ".ser.gz";
+	// journal en ajout seul des deltas depuis le dernier enregistrement complet du counter
+	private static final String JOURNAL_FILE_EXTENSION = ".journal";
 	private static boolean storageDisabled;
 	private final Counter counter;
 
@@ -53,8 +63,9 @@ class CounterStorage {
 	}
 
 	/**
-	 * Enregistre le counter.
-	 * @return Taille sérialisée non compressée du counter (estimation pessimiste de l'occupation mémoire)
+	 * Enregistre le counter dans le format binaire compact de CounterBinaryFormat,
+	 * en supprimant le fichier en sérialisation java d'une version précédente s'il existe.
+	 * @return Taille non compressée du counter dans le fichier, ou -1 s'il n'est pas enregistré
 	 * @throws IOException Exception d'entrée/sortie
 	 */
 	int writeToFile() throws IOException {
@@ -62,7 +73,9 @@ class CounterStorage {
 			return -1;
 		}
 		final File file = getFile();
-		if (counter.getRequestsCount() == 0 && counter.getErrorsCount() == 0 && !file.exists()) {
+		final File serializedFile = getSerializedFile();
+		if (counter.getRequestsCount() == 0 && counter.getErrorsCount() == 0 && !file.exists()
+				&& !serializedFile.exists()) {
 			// s'il n'y a pas de requête, inutile d'écrire des fichiers de compteurs vides
 			// (par exemple pour le compteur ejb s'il n'y a pas d'ejb)
 			return -1;
@@ -71,27 +84,95 @@ class CounterStorage {
 		if (!directory.mkdirs() && !directory.exists()) {
 			throw new IOException("JavaMelody directory can't be created: " + directory.getPath());
 		}
+		final int dataLength;
 		final FileOutputStream out = new FileOutputStream(file);
 		try {
 			final CounterResponseStream counterOutput = new CounterResponseStream(
 					new GZIPOutputStream(new BufferedOutputStream(out)));
-			final ObjectOutputStream output = new ObjectOutputStream(counterOutput);
 			try {
-				output.writeObject(counter);
+				CounterBinaryFormat.write(counter, counterOutput);
 			} finally {
-				// ce close libère les ressources du ObjectOutputStream et du GZIPOutputStream
-				output.close();
+				// ce close libère les ressources du GZIPOutputStream
+				counterOutput.close();
 			}
-			// retourne la taille sérialisée non compressée,
-			// qui est une estimation pessimiste de l'occupation mémoire
-			return counterOutput.getDataLength();
+			dataLength = counterOutput.getDataLength();
 		} finally {
 			out.close();
 		}
+		// migration terminée : le fichier d'une version précédente ne sera plus lu
+		if (serializedFile.exists() && !serializedFile.delete()) {
+			serializedFile.deleteOnExit();
+		}
+		// le journal est maintenant inclus dans le fichier du counter
+		final File journalFile = getJournalFile();
+		if (journalFile.exists() && !journalFile.delete()) {
+			throw new IOException("JavaMelody journal can't be deleted: " + journalFile.getPath());
+		}
+		return dataLength;
+	}
+
+	/**
+	 * Ajoute au journal du counter les hits et les erreurs de la dernière période,
+	 * sans réécrire tout le counter.
+	 * Chaque ajout est un enregistrement avec sa taille et son CRC pour ignorer au démarrage
+	 * un dernier enregistrement incomplet en cas d'arrêt brutal.
+	 * Les enregistrements sont numérotés et le fichier du counter contient le numéro du dernier
+	 * enregistrement inclus, pour ne pas les compter deux fois si le journal n'a pas été supprimé.
+	 * @param requests Requêtes avec seulement les hits de la dernière période
+	 * @param errors Erreurs de la dernière période
+	 * @throws IOException Exception d'entrée/sortie
+	 */
+	void appendToJournal(List<CounterRequest> requests, List<CounterError> errors)
+			throws IOException {
+		if (storageDisabled || requests.isEmpty() && errors.isEmpty()) {
+			return;
+		}
+		final ByteArrayOutputStream record = new ByteArrayOutputStream();
+		final CounterBinaryFormat.Writer writer = new CounterBinaryFormat.Writer(record);
+		final long sequence = counter.getJournalSequence() + 1;
+		writer.writeLong(sequence);
+		writer.writeLong(requests.size());
+		for (final CounterRequest request : requests) {
+			request.writeTo(writer);
+		}
+		writer.writeLong(errors.size());
+		for (final CounterError error : errors) {
+			error.writeTo(writer);
+		}
+		writer.flush();
+		final byte[] bytes = record.toByteArray();
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+
+		final File journalFile = getJournalFile();
+		final File directory = journalFile.getParentFile();
+		if (!directory.mkdirs() && !directory.exists()) {
+			throw new IOException("JavaMelody directory can't be created: " + directory.getPath());
+		}
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(journalFile, true)));
+		try {
+			output.writeInt(bytes.length);
+			output.writeInt((int) crc.getValue());
+			output.write(bytes);
+		} finally {
+			output.close();
+		}
+		counter.setJournalSequence(sequence);
 	}
 
 	/**
-	 * Lecture du counter depuis son fichier et retour du résultat.
+	 * Retourne true si le journal est devenu plus grand que le fichier du counter,
+	 * auquel cas il vaut mieux réécrire tout le counter pour que le journal relu au démarrage
+	 * reste court et que l'espace disque utilisé reste au plus le double.
+	 * @return boolean
+	 */
+	boolean isJournalCompactionNeeded() {
+		return getJournalFile().length() > getFile().length();
+	}
+
+	/**
+	 * Lecture du counter depuis son fichier et son éventuel journal et retour du résultat.
 	 * @return Counter
 	 * @throws IOException e
 	 */
@@ -99,7 +180,112 @@ class CounterStorage {
 		if (storageDisabled) {
 			return null;
 		}
+		Counter result = readFromBinaryFile();
+		if (result == null) {
+			// sinon on lit le fichier d'une version précédente s'il existe,
+			// qui sera remplacé lors du prochain enregistrement
+			result = readFromSerializedFile();
+		}
+		final File journalFile = getJournalFile();
+		if (journalFile.exists()) {
+			if (result == null) {
+				// pas encore d'enregistrement complet, par exemple en début de journée
+				result = new Counter(counter.getName(), counter.getStorageName(),
+						counter.getIconName(), counter.getChildCounterName());
+				result.setApplication(counter.getApplication());
+				result.setStartDate(counter.getStartDate());
+			}
+			replayJournal(journalFile, result);
+		}
+		return result;
+	}
+
+	private static void replayJournal(File journalFile, Counter target) throws IOException {
+		// numéro du dernier enregistrement déjà inclus dans le fichier du counter
+		final long snapshotSequence = target.getJournalSequence();
+		final DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(journalFile)));
+		try {
+			while (true) {
+				final int length;
+				try {
+					length = input.readInt();
+				} catch (final EOFException e) {
+					// fin du journal
+					break;
+				}
+				final int crc = input.readInt();
+				if (length < 0) {
+					throw new EOFException("Malformed record length: " + length);
+				}
+				final byte[] bytes = new byte[length];
+				input.readFully(bytes);
+				final CRC32 actualCrc = new CRC32();
+				actualCrc.update(bytes);
+				if ((int) actualCrc.getValue() != crc) {
+					throw new EOFException("Malformed record");
+				}
+				replayJournalRecord(bytes, target, snapshotSequence);
+			}
+		} catch (final EOFException e) {
+			// dernier enregistrement incomplet, par exemple en cas d'arrêt brutal pendant l'écriture :
+			// les enregistrements précédents sont gardés
+			LOG.info("end of counter journal ignored: " + journalFile.getPath(), e);
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void replayJournalRecord(byte[] bytes, Counter target, long snapshotSequence)
+			throws IOException {
+		final CounterBinaryFormat.Reader reader = new CounterBinaryFormat.Reader(
+				new ByteArrayInputStream(bytes));
+		final long sequence = reader.readLong();
+		if (sequence <= snapshotSequence) {
+			// enregistrement déjà inclus dans le fichier du counter : arrêt brutal entre
+			// l'enregistrement complet du counter et la suppression du journal
+			return;
+		}
+		// les enregistrements suivants ajoutés au journal auront des numéros supérieurs
+		target.setJournalSequence(Math.max(target.getJournalSequence(), sequence));
+		final int requestsCount = reader.readInt();
+		for (int i = 0; i < requestsCount; i++) {
+			target.addHits(CounterRequest.readFrom(reader));
+		}
+		final int errorsCount = reader.readInt();
+		if (errorsCount > 0) {
+			final List<CounterError> errors = new ArrayList<CounterError>(errorsCount);
+			for (int i = 0; i < errorsCount; i++) {
+				errors.add(CounterError.readFrom(reader));
+			}
+			if (target.isErrorCounter()) {
+				target.addErrors(errors);
+			}
+		}
+	}
+
+	private Counter readFromBinaryFile() throws IOException {
 		final File file = getFile();
+		if (file.exists()) {
+			final FileInputStream in = new FileInputStream(file);
+			try {
+				final GZIPInputStream input = new GZIPInputStream(new BufferedInputStream(in));
+				try {
+					// on retourne l'instance du counter lue
+					return CounterBinaryFormat.read(input);
+				} finally {
+					// ce close libère les ressources du GZIPInputStream
+					input.close();
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return null;
+	}
+
+	private Counter readFromSerializedFile() throws IOException {
+		final File file = getSerializedFile();
 		if (file.exists()) {
 			final FileInputStream in = new FileInputStream(file);
 			try {
@@ -124,16 +310,27 @@ class CounterStorage {
 
 	private File getFile() {
 		final File storageDirectory = Parameters.getStorageDirectory(counter.getApplication());
-		return new File(storageDirectory, counter.getStorageName() + ".ser.gz");
+		return new File(storageDirectory, counter.getStorageName() + FILE_EXTENSION);
+	}
+
+	private File getJournalFile() {
+		final File storageDirectory = Parameters.getStorageDirectory(counter.getApplication());
+		return new File(storageDirectory, counter.getStorageName() + JOURNAL_FILE_EXTENSION);
+	}
+
+	private File getSerializedFile() {
+		final File storageDirectory = Parameters.getStorageDirectory(counter.getApplication());
+		return new File(storageDirectory, counter.getStorageName() + SERIALIZED_FILE_EXTENSION);
 	}
 
 	static long deleteObsoleteCounterFiles(String application) {
 		final Calendar nowMinusOneYearAndADay = Calendar.getInstance();
-		nowMinusOneYearAndADay.add(Calendar.DAY_OF_YEAR, -getObsoleteStatsDays());
+		nowMinusOneYearAndADay.add(Calendar.DAY_OF_YEAR,
+				-Parameters.getSnapshot().getObsoleteStatsDays());
 		nowMinusOneYearAndADay.add(Calendar.DAY_OF_YEAR, -1);
-		// filtre pour ne garder que les fichiers d'extension .ser.gz et pour éviter d'instancier des File inutiles
+		// filtre pour ne garder que les fichiers d'extension .bin.gz ou .ser.gz et pour éviter d'instancier des File inutiles
 		long diskUsage = 0;
-		for (final File file : listSerGzFiles(application)) {
+		for (final File file : listCounterFiles(application)) {
 			boolean deleted = false;
 			if (file.lastModified() < nowMinusOneYearAndADay.getTimeInMillis()) {
 				deleted = file.delete();
@@ -143,36 +340,20 @@ class CounterStorage {
 			}
 		}
 
-		// on retourne true si tous les fichiers .ser.gz obsolètes ont été supprimés, false sinon
+		// on retourne true si tous les fichiers .bin.gz ou .ser.gz obsolètes ont été supprimés, false sinon
 		return diskUsage;
 	}
 
-	/**
-	 * @return Nombre de jours avant qu'un fichier de statistiques (extension .ser.gz),
-	 * soit considéré comme obsolète et soit supprimé automatiquement, à minuit (365 par défaut, soit 1 an)
-	 */
-	private static int getObsoleteStatsDays() {
-		final String param = Parameters.getParameter(Parameter.OBSOLETE_STATS_DAYS);
-		if (param != null) {
-			// lance une NumberFormatException si ce n'est pas un nombre
-			final int result = Integer.parseInt(param);
-			if (result <= 0) {
-				throw new IllegalStateException(
-						"The parameter obsolete-stats-days should be > 0 (365 recommended)");
-			}
-			return result;
-		}
-		return DEFAULT_OBSOLETE_STATS_DAYS;
-	}
-
-	private static List<File> listSerGzFiles(String application) {
+	private static List<File> listCounterFiles(String application) {
 		final File storageDir = Parameters.getStorageDirectory(application);
 		// filtre pour ne garder que les fichiers d'extension .rrd et pour éviter d'instancier des File inutiles
 		final FilenameFilter filenameFilter = new FilenameFilter() {
 			/** {@inheritDoc} */
 			@Override
 			public boolean accept(File dir, String fileName) {
-				return fileName.endsWith(".ser.gz");
+				return fileName.endsWith(FILE_EXTENSION)
+						|| fileName.endsWith(SERIALIZED_FILE_EXTENSION)
+						|| fileName.endsWith(JOURNAL_FILE_EXTENSION);
 			}
 		};
 		final File[] files = storageDir.listFiles(filenameFilter);
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Deltas des compteurs d'un noeud depuis la dernière collecte acquittée par le serveur de collecte,
+ * avec les informations systèmes et le message pour le rapport.
+ * @author Emeric Vernat
+ */
+class CountersDelta implements Serializable {
+	private static final long serialVersionUID = -3207651476153718402L;
+	private final long epoch;
+	private final long sequence;
+	private final long baseSequence;
+	private final boolean full;
+	private final boolean staticInformationsIncluded;
+	@SuppressWarnings("all")
+	private final List<Counter> counters;
+	@SuppressWarnings("all")
+	private final List<JavaInformations> javaInformationsList;
+	private final String messageForReport;
+
+	CountersDelta(long epoch, long sequence, long baseSequence, boolean full,
+			boolean staticInformationsIncluded, List<Counter> counters,
+			List<JavaInformations> javaInformationsList, String messageForReport) {
+		super();
+		assert counters != null;
+		assert javaInformationsList != null;
+		this.epoch = epoch;
+		this.sequence = sequence;
+		this.baseSequence = baseSequence;
+		this.full = full;
+		this.staticInformationsIncluded = staticInformationsIncluded;
+		this.counters = counters;
+		this.javaInformationsList = javaInformationsList;
+		this.messageForReport = messageForReport;
+	}
+
+	/**
+	 * @return Identifiant du démarrage du noeud, à renvoyer avec la séquence à la collecte suivante
+	 */
+	long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return Numéro de ce delta, à renvoyer avec l'epoch à la collecte suivante pour l'acquitter
+	 */
+	long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return Séquence du delta acquitté par rapport auquel ce delta est calculé,
+	 * ou -1 s'il est calculé depuis le démarrage du noeud
+	 */
+	long getBaseSequence() {
+		return baseSequence;
+	}
+
+	/**
+	 * @return true si le serveur de collecte n'était pas synchronisé avec le noeud
+	 * (premier appel, redémarrage du noeud ou du serveur, action)
+	 */
+	boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * @return false si les informations statiques des JavaInformations n'ont pas changé depuis
+	 * le dernier delta acquitté et ne sont pas incluses (voir {@link JavaInformations#withoutStaticInformations()})
+	 */
+	boolean isStaticInformationsIncluded() {
+		return staticInformationsIncluded;
+	}
+
+	List<Counter> getCounters() {
+		return counters;
+	}
+
+	List<JavaInformations> getJavaInformationsList() {
+		return javaInformationsList;
+	}
+
+	String getMessageForReport() {
+		return messageForReport;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[epoch=" + getEpoch() + ", sequence="
+				+ getSequence() + ", baseSequence=" + getBaseSequence() + ", full=" + isFull() + ", counters=" + getCounters().size()
+				+ ']';
+	}
+}
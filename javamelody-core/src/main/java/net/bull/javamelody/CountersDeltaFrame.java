@@ -0,0 +1,393 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Trame binaire envoyée par un noeud au serveur de collecte en mode push :
+ * entête (magic, version, application, identifiant du noeud), puis longueur et contenu
+ * compressé du {@link CountersDelta}.
+ * Les counters du delta sont dans le format binaire de {@link CounterBinaryFormat}, sans sérialisation java.
+ * Les informations systèmes (JavaInformations) restent en sérialisation java, mais elles sont relues
+ * avec une liste blanche de classes pour que les données envoyées au serveur de collecte
+ * ne puissent pas instancier d'autres classes.
+ * Un même flux http peut contenir plusieurs trames à la suite : elles sont lues une par une
+ * par {@link Reader}, avec des tailles maximales pour le flux, pour chaque trame compressée
+ * et pour son contenu décompressé.
+ * @author Emeric Vernat
+ */
+class CountersDeltaFrame {
+	static final String CONTENT_TYPE = "application/x-javamelody-delta";
+	// "JMDP"
+	private static final int MAGIC = 0x4A4D4450;
+	// version 3 : counters en version 3 du format binaire (intervalle d'échantillonnage du temps cpu)
+	private static final int VERSION = 3;
+	// tailles maximales d'une requête http, d'une trame compressée et d'une trame décompressée
+	private static final int MAX_REQUEST_LENGTH = 16 * 1024 * 1024;
+	private static final int MAX_PAYLOAD_LENGTH = 8 * 1024 * 1024;
+	private static final int MAX_UNCOMPRESSED_LENGTH = 32 * 1024 * 1024;
+	// le nom de l'application est utilisé comme nom de répertoire dans le serveur de collecte :
+	// pas de séparateur de chemin, ni de "..", ni de caractère spécial
+	private static final Pattern APPLICATION_PATTERN = Pattern.compile("[\\w-][\\w.-]{0,99}");
+	private static final Pattern NODE_ID_PATTERN = Pattern.compile("[^\\p{Cntrl}]{1,200}");
+	// classes autorisées à la lecture des JavaInformations (y compris les classes parentes sérialisables)
+	private static final Set<String> ALLOWED_CLASS_NAMES = new HashSet<String>(Arrays.asList(
+			JavaInformations.class.getName(), MemoryInformations.class.getName(),
+			TomcatInformations.class.getName(), ThreadInformations.class.getName(),
+			CacheInformations.class.getName(), JobInformations.class.getName(),
+			"java.lang.Number", "java.lang.Long", "java.lang.Integer", "java.lang.Boolean",
+			"java.lang.Enum", "java.lang.Thread$State", "java.lang.StackTraceElement",
+			"[Ljava.lang.StackTraceElement;", "[Ljava.lang.String;", "[Ljava.lang.Object;",
+			"java.util.Date", "java.util.ArrayList", "java.util.LinkedList",
+			"java.util.Arrays$ArrayList", "java.util.Collections$EmptyList",
+			"java.util.Collections$SingletonList", "java.util.Collections$UnmodifiableCollection",
+			"java.util.Collections$UnmodifiableList",
+			"java.util.Collections$UnmodifiableRandomAccessList", "java.util.CollSer"));
+	private final String application;
+	private final String nodeId;
+	private final CountersDelta countersDelta;
+
+	/**
+	 * Flux de lecture des JavaInformations n'acceptant que les classes de ALLOWED_CLASS_NAMES.
+	 */
+	private static class JavaInformationsInputStream extends ObjectInputStream {
+		JavaInformationsInputStream(InputStream input) throws IOException {
+			super(input);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+				ClassNotFoundException {
+			if (!ALLOWED_CLASS_NAMES.contains(desc.getName())) {
+				throw new InvalidClassException(desc.getName(), "class not allowed in push data");
+			}
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+			throw new InvalidClassException("proxy class not allowed in push data");
+		}
+	}
+
+	CountersDeltaFrame(String application, String nodeId, CountersDelta countersDelta) {
+		super();
+		assert application != null;
+		assert nodeId != null;
+		assert countersDelta != null;
+		this.application = application;
+		this.nodeId = nodeId;
+		this.countersDelta = countersDelta;
+	}
+
+	String getApplication() {
+		return application;
+	}
+
+	String getNodeId() {
+		return nodeId;
+	}
+
+	CountersDelta getCountersDelta() {
+		return countersDelta;
+	}
+
+	byte[] toByteArray() throws IOException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		writeTo(output);
+		return output.toByteArray();
+	}
+
+	void writeTo(OutputStream output) throws IOException {
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final GZIPOutputStream gzipOutput = new GZIPOutputStream(payload);
+		writeCountersDelta(countersDelta, gzipOutput);
+		gzipOutput.close();
+		final DataOutputStream out = new DataOutputStream(output);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeUTF(application);
+		out.writeUTF(nodeId);
+		out.writeInt(payload.size());
+		payload.writeTo(out);
+		out.flush();
+	}
+
+	/**
+	 * Lecteur des trames successives d'un flux, une trame à la fois et sans lire tout le flux
+	 * en mémoire.
+	 */
+	static class Reader {
+		private final DataInputStream input;
+
+		Reader(InputStream input) {
+			super();
+			this.input = new DataInputStream(new BoundedInputStream(input, MAX_REQUEST_LENGTH,
+					true));
+		}
+
+		/**
+		 * @return Trame suivante, ou null à la fin du flux
+		 * @throws IOException e
+		 */
+		CountersDeltaFrame readNext() throws IOException {
+			final int magic;
+			try {
+				magic = input.readInt();
+			} catch (final EOFException e) {
+				// fin du flux entre deux trames
+				return null;
+			}
+			if (magic != MAGIC) {
+				throw new StreamCorruptedException("invalid frame");
+			}
+			final int version = input.readUnsignedByte();
+			if (version < 2 || version > VERSION) {
+				throw new StreamCorruptedException("unsupported frame version: " + version);
+			}
+			final String application = input.readUTF();
+			if (!isApplicationNameValid(application)) {
+				throw new StreamCorruptedException("invalid application name");
+			}
+			final String nodeId = input.readUTF();
+			if (!NODE_ID_PATTERN.matcher(nodeId).matches()) {
+				throw new StreamCorruptedException("invalid node id");
+			}
+			final int length = input.readInt();
+			if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+				throw new StreamCorruptedException("invalid frame length: " + length);
+			}
+			// le contenu est décompressé au fil de la lecture, sans dépasser la fin de la trame
+			final BoundedInputStream payload = new BoundedInputStream(input, length, false);
+			// les counters d'une trame en version 2 sont en version 2 du format binaire
+			final int countersVersion = version == 2 ? 2 : CounterBinaryFormat.VERSION;
+			final CountersDelta countersDelta = readCountersDelta(new BoundedInputStream(
+					new GZIPInputStream(payload), MAX_UNCOMPRESSED_LENGTH, true), countersVersion);
+			// fin éventuelle de la trame non lue (fin du format gzip), avant la trame suivante
+			while (payload.getRemaining() > 0) {
+				if (payload.skip(payload.getRemaining()) == 0 && payload.read() == -1) {
+					throw new EOFException("truncated frame");
+				}
+			}
+			return new CountersDeltaFrame(application, nodeId, countersDelta);
+		}
+	}
+
+	/**
+	 * Flux limité à une taille maximale : au-delà, soit la fin du flux est simulée
+	 * (fin d'une trame), soit une exception est levée (taille excessive).
+	 */
+	private static class BoundedInputStream extends FilterInputStream {
+		private final boolean failOnLimit;
+		private long remaining;
+
+		BoundedInputStream(InputStream input, long maxLength, boolean failOnLimit) {
+			super(input);
+			this.remaining = maxLength;
+			this.failOnLimit = failOnLimit;
+		}
+
+		long getRemaining() {
+			return remaining;
+		}
+
+		private boolean isLimitReached() throws IOException {
+			if (remaining > 0) {
+				return false;
+			}
+			if (failOnLimit && super.read() != -1) {
+				throw new StreamCorruptedException("stream too large");
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (isLimitReached()) {
+				return -1;
+			}
+			final int result = super.read();
+			if (result != -1) {
+				remaining--;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] bytes, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (isLimitReached()) {
+				return -1;
+			}
+			final int result = super.read(bytes, off, (int) Math.min(len, remaining));
+			if (result != -1) {
+				remaining -= result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final long result = super.skip(Math.min(n, remaining));
+			remaining -= result;
+			return result;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			// le flux sous-jacent est fermé par l'appelant
+		}
+	}
+
+	/**
+	 * @param application Nom d'une application envoyé par un noeud
+	 * @return true si ce nom peut être utilisé comme nom de répertoire dans le répertoire de stockage
+	 */
+	static boolean isApplicationNameValid(String application) {
+		return APPLICATION_PATTERN.matcher(application).matches() && !application.contains("..");
+	}
+
+	/**
+	 * @param application Nom de l'application dans le noeud (par exemple "/contexte_serveur")
+	 * @return Nom valide pour le serveur de collecte, selon {@link #isApplicationNameValid(String)}
+	 */
+	static String normalizeApplicationName(String application) {
+		String result = application.replaceFirst("^/+", "").replaceAll("[^\\w.-]", "_")
+				.replace("..", "__");
+		if (result.length() == 0 || result.charAt(0) == '.') {
+			result = '_' + result;
+		}
+		if (result.length() > 100) {
+			result = result.substring(0, 100);
+		}
+		assert isApplicationNameValid(result);
+		return result;
+	}
+
+	private static void writeCountersDelta(CountersDelta delta, OutputStream output)
+			throws IOException {
+		final CounterBinaryFormat.Writer writer = new CounterBinaryFormat.Writer(output);
+		writer.writeLong(delta.getEpoch());
+		writer.writeLong(delta.getSequence());
+		writer.writeLong(delta.getBaseSequence());
+		writer.writeBoolean(delta.isFull());
+		writer.writeBoolean(delta.isStaticInformationsIncluded());
+		writer.writeString(delta.getMessageForReport());
+		final List<Counter> counters = delta.getCounters();
+		writer.writeLong(counters.size());
+		for (final Counter counter : counters) {
+			counter.writeTo(writer);
+		}
+		writer.flush();
+		final ObjectOutputStream objectOutput = new ObjectOutputStream(output);
+		objectOutput.writeObject(new ArrayList<JavaInformations>(delta.getJavaInformationsList()));
+		objectOutput.flush();
+	}
+
+	private static CountersDelta readCountersDelta(InputStream input, int countersVersion)
+			throws IOException {
+		final CounterBinaryFormat.Reader reader = new CounterBinaryFormat.Reader(input,
+				countersVersion);
+		final long epoch = reader.readLong();
+		final long sequence = reader.readLong();
+		final long baseSequence = reader.readLong();
+		final boolean full = reader.readBoolean();
+		final boolean staticInformationsIncluded = reader.readBoolean();
+		final String messageForReport = reader.readString();
+		final int countersCount = reader.readInt();
+		if (countersCount < 0) {
+			throw new StreamCorruptedException("invalid counters count: " + countersCount);
+		}
+		final List<Counter> counters = new ArrayList<Counter>();
+		for (int i = 0; i < countersCount; i++) {
+			final Counter counter = Counter.readFrom(reader);
+			counters.add(counter);
+		}
+		final List<JavaInformations> javaInformationsList = readJavaInformationsList(input);
+		return new CountersDelta(epoch, sequence, baseSequence, full, staticInformationsIncluded,
+				counters, javaInformationsList, messageForReport);
+	}
+
+	private static List<JavaInformations> readJavaInformationsList(InputStream input)
+			throws IOException {
+		final Object object;
+		try {
+			// pas de close ici, le flux de la trame est fermé par l'appelant
+			object = new JavaInformationsInputStream(input).readObject();
+		} catch (final ClassNotFoundException e) {
+			final StreamCorruptedException ex = new StreamCorruptedException(e.toString());
+			ex.initCause(e);
+			throw ex;
+		} catch (final InvalidClassException e) {
+			final StreamCorruptedException ex = new StreamCorruptedException(e.toString());
+			ex.initCause(e);
+			throw ex;
+		}
+		if (!(object instanceof ArrayList)) {
+			throw new StreamCorruptedException("unexpected frame content");
+		}
+		final List<JavaInformations> result = new ArrayList<JavaInformations>();
+		for (final Object javaInformations : (List<?>) object) {
+			if (!(javaInformations instanceof JavaInformations)) {
+				throw new StreamCorruptedException("unexpected frame content");
+			}
+			result.add((JavaInformations) javaInformations);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[application=" + getApplication() + ", nodeId="
+				+ getNodeId() + ", countersDelta=" + getCountersDelta() + ']';
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Calcul côté noeud des deltas des compteurs pour un serveur de collecte.
+ * Les compteurs du noeud ne sont plus vidés à chaque collecte :
+ * le delta est calculé par rapport au dernier état acquitté par le serveur de collecte
+ * (le serveur renvoie l'epoch et la séquence du dernier delta reçu à la collecte suivante).
+ * Ainsi une réponse perdue est renvoyée à la collecte suivante au lieu d'être perdue,
+ * et une collecte en double ne compte pas deux fois les mêmes requêtes.
+ * Si le collector local est arrêté, les hits et les erreurs acquittés sont enlevés des compteurs
+ * du noeud, qui ne contiennent alors que ce qui n'a pas encore été acquitté.
+ * Seuls l'état acquitté et le dernier état envoyé sont conservés.
+ * Un seul serveur de collecte par noeud est supposé.
+ * @author Emeric Vernat
+ */
+class CountersDeltaTracker {
+	private final long epoch = new Random().nextLong();
+	private long lastSequence;
+	private long ackedSequence = -1;
+	// état acquitté par le serveur de collecte, null si rien n'a été acquitté
+	// (sans compteurs si les hits acquittés ont été enlevés des compteurs du noeud)
+	private SentState ackedState;
+	// dernier état envoyé au serveur de collecte et pas encore acquitté, ou null
+	private SentState lastSentState;
+
+	private static class SentState {
+		final long sequence;
+		final Map<String, Counter> countersByName;
+		final List<JavaInformations> javaInformationsList;
+
+		SentState(long sequence, Map<String, Counter> countersByName,
+				List<JavaInformations> javaInformationsList) {
+			super();
+			this.sequence = sequence;
+			this.countersByName = countersByName;
+			this.javaInformationsList = javaInformationsList;
+		}
+	}
+
+	long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return true si au moins un delta a été demandé (les compteurs ne doivent alors plus être vidés)
+	 */
+	synchronized boolean isUsed() {
+		return lastSequence > 0;
+	}
+
+	/**
+	 * Calcule le delta des compteurs depuis le dernier état acquitté par le serveur de collecte,
+	 * sans modifier les compteurs du noeud.
+	 * @param serverEpoch epoch du dernier delta reçu par le serveur de collecte ou null
+	 * @param serverSequence séquence du dernier delta reçu par le serveur de collecte ou null
+	 * @param counters Compteurs cumulatifs du noeud
+	 * @param javaInformationsList Informations systèmes
+	 * @param messageForReport Message pour le rapport
+	 * @return CountersDelta
+	 */
+	CountersDelta createDelta(Long serverEpoch, Long serverSequence, List<Counter> counters,
+			List<JavaInformations> javaInformationsList, String messageForReport) {
+		return createDelta(serverEpoch, serverSequence, counters, javaInformationsList,
+				messageForReport, false);
+	}
+
+	/**
+	 * Calcule le delta des compteurs depuis le dernier état acquitté par le serveur de collecte.
+	 * @param serverEpoch epoch du dernier delta reçu par le serveur de collecte ou null
+	 * @param serverSequence séquence du dernier delta reçu par le serveur de collecte ou null
+	 * @param counters Compteurs du noeud
+	 * @param javaInformationsList Informations systèmes
+	 * @param messageForReport Message pour le rapport
+	 * @param removeAcknowledgedHits true pour enlever des compteurs du noeud les hits acquittés
+	 * 	(seulement si le collector local est arrêté, sinon il ne calculerait plus ses périodes)
+	 * @return CountersDelta
+	 */
+	synchronized CountersDelta createDelta(Long serverEpoch, Long serverSequence,
+			List<Counter> counters, List<JavaInformations> javaInformationsList,
+			String messageForReport, boolean removeAcknowledgedHits) {
+		assert counters != null;
+		assert javaInformationsList != null;
+		final boolean full;
+		if (serverEpoch != null && serverEpoch.longValue() == epoch && serverSequence != null) {
+			full = !acknowledge(serverSequence.longValue(), counters, removeAcknowledgedHits);
+		} else {
+			// premier appel, redémarrage du noeud ou du serveur de collecte, ou action :
+			// on renvoie tout depuis la référence s'il y en a une, pour ne pas compter deux fois
+			full = true;
+		}
+
+		final Map<String, Counter> countersByName = new HashMap<String, Counter>();
+		final List<Counter> deltaCounters = new ArrayList<Counter>(counters.size());
+		for (final Counter counter : counters) {
+			final Counter snapshot = counter.clone();
+			countersByName.put(snapshot.getName(), snapshot);
+			final Counter ackedCounter = ackedState != null ? ackedState.countersByName
+					.get(snapshot.getName()) : null;
+			deltaCounters.add(createDeltaCounter(snapshot, ackedCounter));
+		}
+
+		final List<JavaInformations> deltaJavaInformationsList;
+		final boolean staticInformationsIncluded = full
+				|| !hasSameStaticInformations(javaInformationsList);
+		if (!staticInformationsIncluded) {
+			deltaJavaInformationsList = new ArrayList<JavaInformations>(
+					javaInformationsList.size());
+			for (final JavaInformations javaInformations : javaInformationsList) {
+				deltaJavaInformationsList.add(javaInformations.withoutStaticInformations());
+			}
+		} else {
+			deltaJavaInformationsList = new ArrayList<JavaInformations>(javaInformationsList);
+		}
+
+		lastSequence++;
+		// un delta précédent non acquitté ne pourra plus l'être : le nouveau delta le contient
+		lastSentState = new SentState(lastSequence, countersByName,
+				new ArrayList<JavaInformations>(javaInformationsList));
+		final long baseSequence = ackedState != null ? ackedSequence : -1;
+		return new CountersDelta(epoch, lastSequence, baseSequence, full,
+				staticInformationsIncluded, deltaCounters, deltaJavaInformationsList,
+				messageForReport);
+	}
+
+	private boolean acknowledge(long sequence, List<Counter> counters,
+			boolean removeAcknowledgedHits) {
+		final SentState sentState = lastSentState;
+		if (sentState != null && sentState.sequence == sequence) {
+			// ce delta a été reçu : il devient la référence
+			ackedSequence = sequence;
+			lastSentState = null;
+			if (removeAcknowledgedHits) {
+				// les compteurs du noeud ne gardent que les hits non acquittés,
+				// la référence est alors vide (le collector local arrêté ne purge plus les compteurs)
+				for (final Counter counter : counters) {
+					final Counter sentCounter = sentState.countersByName.get(counter.getName());
+					if (sentCounter != null) {
+						counter.removeRequestsAndErrors(sentCounter);
+					}
+				}
+				ackedState = new SentState(sequence, Collections.<String, Counter> emptyMap(),
+						sentState.javaInformationsList);
+			} else {
+				ackedState = sentState;
+			}
+			return true;
+		}
+		// si sequence == ackedSequence, le dernier delta n'a pas été reçu :
+		// on renvoie tout depuis la référence
+		return ackedState != null && sequence == ackedSequence;
+	}
+
+	private boolean hasSameStaticInformations(List<JavaInformations> javaInformationsList) {
+		if (ackedState == null
+				|| ackedState.javaInformationsList.size() != javaInformationsList.size()) {
+			return false;
+		}
+		for (int i = 0; i < javaInformationsList.size(); i++) {
+			if (!javaInformationsList.get(i).hasSameStaticInformations(
+					ackedState.javaInformationsList.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Calcule la différence entre un compteur et un compteur de référence (ou null).
+	 * @param snapshot Compteur
+	 * @param ackedCounter Compteur de référence
+	 * @return Counter avec seulement les nouveaux hits et les nouvelles erreurs
+	 */
+	static Counter createDeltaCounter(Counter snapshot, Counter ackedCounter) {
+		final Counter deltaCounter = new Counter(snapshot.getName(), snapshot.getStorageName(),
+				snapshot.getIconName(), snapshot.getChildCounterName());
+		deltaCounter.setDisplayed(snapshot.isDisplayed());
+		deltaCounter.setCpuTimeSamplingInterval(snapshot.getCpuTimeSamplingInterval());
+		final Map<String, CounterRequest> ackedRequestsByName = new HashMap<String, CounterRequest>();
+		if (ackedCounter != null) {
+			for (final CounterRequest ackedRequest : ackedCounter.getRequests()) {
+				ackedRequestsByName.put(ackedRequest.getName(), ackedRequest);
+			}
+		}
+		for (final CounterRequest request : snapshot.getRequests()) {
+			final CounterRequest ackedRequest = ackedRequestsByName.get(request.getName());
+			// si le compteur a été vidé depuis (action clear counter), on renvoie tout
+			if (ackedRequest != null && ackedRequest.getHits() <= request.getHits()) {
+				request.removeHits(ackedRequest);
+			}
+			// addHits ignore les requêtes sans nouveaux hits
+			deltaCounter.addHits(request);
+		}
+		if (snapshot.isErrorCounter()) {
+			deltaCounter.addErrors(getNewErrors(snapshot, ackedCounter));
+		}
+		return deltaCounter;
+	}
+
+	private static List<CounterError> getNewErrors(Counter snapshot, Counter ackedCounter) {
+		final List<CounterError> errors = snapshot.getErrors();
+		if (ackedCounter == null || ackedCounter.getErrorsCount() == 0) {
+			return errors;
+		}
+		final List<CounterError> ackedErrors = ackedCounter.getErrors();
+		final CounterError lastAckedError = ackedErrors.get(ackedErrors.size() - 1);
+		// les clones des compteurs partagent les instances de CounterError
+		final int index = errors.lastIndexOf(lastAckedError);
+		if (index != -1) {
+			return errors.subList(index + 1, errors.size());
+		}
+		// si la dernière erreur acquittée n'est plus dans la liste (nombre maximum ou compteur vidé)
+		final List<CounterError> newErrors = new ArrayList<CounterError>();
+		for (final CounterError error : errors) {
+			if (error.getTime() > lastAckedError.getTime()) {
+				newErrors.add(error);
+			}
+		}
+		return newErrors;
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Histogramme des temps d'exécution d'une requête, pour calculer des centiles (p50, p95, p99...).
+ *
+ * Les temps sont comptés dans des intervalles logarithmiques de taille fixe :
+ * les valeurs de 0 à 7 ms sont exactes, puis chaque puissance de 2 est divisée en 4 intervalles
+ * (soit une précision de 25% au plus), jusqu'à 2^23 ms (plus de 2 heures) pour le dernier intervalle.
+ * Seuls les intervalles non vides sont gardés, triés dans deux petits tableaux alloués au premier hit :
+ * les durées d'une requête sont en général dans quelques intervalles, d'où une centaine d'octets
+ * par requête au lieu d'un tableau de tous les intervalles, quel que soit le nombre de hits.
+ * Deux histogrammes peuvent être ajoutés ou retranchés exactement,
+ * ce qui permet de garder des centiles exacts par jour, semaine, mois, année
+ * ou en agrégeant les données de plusieurs serveurs.
+ *
+ * Les méthodes d'une instance de cette classe ne sont pas thread-safe
+ * (comme pour CounterRequest qui la contient).
+ * @author Emeric Vernat
+ */
+final class DurationsHistogram implements Cloneable, Serializable {
+	private static final long serialVersionUID = 2L;
+	private static final int EXACT_VALUES = 8;
+	private static final int SUB_BUCKETS_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKETS_BITS;
+	// le premier exposant après les valeurs exactes est 3 (8 = 2^3)
+	private static final int MIN_EXPONENT = 3;
+	private static final int MAX_EXPONENT = 22;
+	static final int BUCKETS_COUNT = EXACT_VALUES + (MAX_EXPONENT - MIN_EXPONENT + 1)
+			* SUB_BUCKETS;
+	private static final int INITIAL_CAPACITY = 4;
+
+	// indices des intervalles non vides, triés (BUCKETS_COUNT < 128), et leurs nombres de hits
+	// (null tant qu'il n'y a pas de hit)
+	private byte[] buckets;
+	private long[] bucketCounts;
+	private int bucketsSize;
+	private long totalCount;
+
+	DurationsHistogram() {
+		super();
+	}
+
+	static int getBucketIndex(long duration) {
+		if (duration < EXACT_VALUES) {
+			// une durée négative (inconnue) est comptée comme 0
+			return (int) Math.max(duration, 0);
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(duration);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS_COUNT - 1;
+		}
+		final int subBucket = (int) (duration >>> (exponent - SUB_BUCKETS_BITS))
+				& (SUB_BUCKETS - 1);
+		return EXACT_VALUES + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param index Indice d'un intervalle
+	 * @return Plus grande durée comptée dans cet intervalle
+	 */
+	static long getBucketUpperBound(int index) {
+		if (index < EXACT_VALUES) {
+			return index;
+		}
+		final int exponent = MIN_EXPONENT + (index - EXACT_VALUES) / SUB_BUCKETS;
+		final int subBucket = (index - EXACT_VALUES) % SUB_BUCKETS;
+		final long width = 1L << (exponent - SUB_BUCKETS_BITS);
+		return (SUB_BUCKETS + subBucket + 1) * width - 1;
+	}
+
+	long getTotalCount() {
+		return totalCount;
+	}
+
+	void addValue(long duration) {
+		addToBucket(getBucketIndex(duration), 1);
+		totalCount++;
+	}
+
+	void add(DurationsHistogram histogram) {
+		assert histogram != null;
+		for (int i = 0; i < histogram.bucketsSize; i++) {
+			addToBucket(histogram.buckets[i], histogram.bucketCounts[i]);
+		}
+		totalCount += histogram.totalCount;
+	}
+
+	void remove(DurationsHistogram histogram) {
+		assert histogram != null;
+		for (int i = 0; i < histogram.bucketsSize; i++) {
+			final int position = getPosition(histogram.buckets[i]);
+			if (position >= 0) {
+				// pas de valeur négative si les données retranchées n'ont pas toutes été ajoutées
+				// (par exemple, si elles proviennent d'une version précédente sans histogramme)
+				bucketCounts[position] = Math.max(
+						bucketCounts[position] - histogram.bucketCounts[i], 0);
+			}
+		}
+		// suppression des intervalles devenus vides
+		int size = 0;
+		long total = 0;
+		for (int i = 0; i < bucketsSize; i++) {
+			if (bucketCounts[i] != 0) {
+				buckets[size] = buckets[i];
+				bucketCounts[size] = bucketCounts[i];
+				total += bucketCounts[i];
+				size++;
+			}
+		}
+		bucketsSize = size;
+		totalCount = total;
+	}
+
+	private int getPosition(int bucketIndex) {
+		if (buckets == null) {
+			return -1;
+		}
+		return Arrays.binarySearch(buckets, 0, bucketsSize, (byte) bucketIndex);
+	}
+
+	private void addToBucket(int bucketIndex, long count) {
+		if (count == 0) {
+			return;
+		}
+		int position = getPosition(bucketIndex);
+		if (position >= 0) {
+			bucketCounts[position] += count;
+			return;
+		}
+		position = -position - 1;
+		if (buckets == null) {
+			buckets = new byte[INITIAL_CAPACITY];
+			bucketCounts = new long[INITIAL_CAPACITY];
+		} else if (bucketsSize == buckets.length) {
+			final int capacity = Math.min(buckets.length * 2, BUCKETS_COUNT);
+			buckets = Arrays.copyOf(buckets, capacity);
+			bucketCounts = Arrays.copyOf(bucketCounts, capacity);
+		}
+		System.arraycopy(buckets, position, buckets, position + 1, bucketsSize - position);
+		System.arraycopy(bucketCounts, position, bucketCounts, position + 1, bucketsSize
+				- position);
+		buckets[position] = (byte) bucketIndex;
+		bucketCounts[position] = count;
+		bucketsSize++;
+	}
+
+	/**
+	 * Écrit cet histogramme dans le format binaire de CounterBinaryFormat,
+	 * en n'écrivant que les intervalles non vides.
+	 * @param writer CounterBinaryFormat.Writer
+	 * @throws IOException e
+	 */
+	void writeTo(CounterBinaryFormat.Writer writer) throws IOException {
+		writer.writeLong(bucketsSize);
+		for (int i = 0; i < bucketsSize; i++) {
+			writer.writeLong(buckets[i]);
+			writer.writeLong(bucketCounts[i]);
+		}
+	}
+
+	/**
+	 * Lit un histogramme dans le format binaire de CounterBinaryFormat.
+	 * @param reader CounterBinaryFormat.Reader
+	 * @return DurationsHistogram
+	 * @throws IOException e
+	 */
+	static DurationsHistogram readFrom(CounterBinaryFormat.Reader reader) throws IOException {
+		final DurationsHistogram histogram = new DurationsHistogram();
+		final int nonEmptyBuckets = reader.readInt();
+		for (int i = 0; i < nonEmptyBuckets; i++) {
+			final int index = reader.readInt();
+			if (index < 0 || index >= BUCKETS_COUNT) {
+				throw new IOException("Malformed histogram bucket: " + index);
+			}
+			final long count = reader.readLong();
+			if (count < 0) {
+				throw new IOException("Malformed histogram count: " + count);
+			}
+			histogram.addToBucket(index, count);
+			histogram.totalCount += count;
+		}
+		return histogram;
+	}
+
+	/**
+	 * Retourne le centile des durées, c'est-à-dire la durée en dessous de laquelle se trouvent
+	 * le pourcentage donné des hits (valeur majorée selon la précision des intervalles).
+	 * @param percentile Pourcentage entre 0 et 100 (par exemple 50, 95 ou 99)
+	 * @return Durée en ms, ou -1 si l'histogramme est vide
+	 */
+	long getPercentile(double percentile) {
+		assert percentile >= 0 && percentile <= 100;
+		if (totalCount == 0) {
+			return -1;
+		}
+		final long rank = Math.max((long) Math.ceil(percentile / 100 * totalCount), 1);
+		long cumulativeCount = 0;
+		for (int i = 0; i < bucketsSize; i++) {
+			cumulativeCount += bucketCounts[i];
+			if (cumulativeCount >= rank) {
+				return getBucketUpperBound(buckets[i]);
+			}
+		}
+		return getBucketUpperBound(buckets[bucketsSize - 1]);
+	}
+
+	/**
+	 * @return Estimation de l'occupation mémoire de cet histogramme en octets
+	 */
+	long getEstimatedMemorySize() {
+		// objet avec ses tableaux des intervalles non vides
+		if (buckets == null) {
+			return 32;
+		}
+		return 32 + 16 + buckets.length + 16 + 8L * bucketCounts.length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public DurationsHistogram clone() { // NOPMD
+		try {
+			final DurationsHistogram clone = (DurationsHistogram) super.clone();
+			if (buckets != null) {
+				clone.buckets = buckets.clone();
+				clone.bucketCounts = bucketCounts.clone();
+			}
+			return clone;
+		} catch (final CloneNotSupportedException e) {
+			// ne peut arriver puisque DurationsHistogram implémente Cloneable
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[totalCount=" + totalCount + ", p50="
+				+ getPercentile(50) + ", p95=" + getPercentile(95) + ", p99=" + getPercentile(99)
+				+ ']';
+	}
+}
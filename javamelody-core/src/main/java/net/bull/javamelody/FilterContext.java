@@ -22,6 +22,7 @@ import java.security.CodeSource;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -40,13 +41,17 @@ class FilterContext {
 	private final Timer timer;
 	private final SamplingProfiler samplingProfiler;
 	private final TimerTask collectTimerTask;
+	private final boolean heapHistogramSnapshotsEnabled;
+	private final PushAgent pushAgent;
 
 	private static final class CollectTimerTask extends TimerTask {
 		private final Collector collector;
+		private final PushAgent pushAgent;
 
-		CollectTimerTask(Collector collector) {
+		CollectTimerTask(Collector collector, PushAgent pushAgent) {
 			super();
 			this.collector = collector;
+			this.pushAgent = pushAgent;
 		}
 
 		/** {@inheritDoc} */
@@ -54,6 +59,10 @@ class FilterContext {
 		public void run() {
 			// il ne doit pas y avoir d'erreur dans cette task
 			collector.collectLocalContextWithoutErrors();
+			if (pushAgent != null) {
+				// envoi au serveur de collecte dans un autre thread
+				pushAgent.pushLater();
+			}
 		}
 	}
 
@@ -95,15 +104,17 @@ class FilterContext {
 				JsfActionHelper.initJsfActionListener();
 			}
 
-			this.samplingProfiler = initSamplingProfiler();
-
 			final List<Counter> counters = initCounters();
+			this.samplingProfiler = initSamplingProfiler(counters);
 			final String application = Parameters.getCurrentApplication();
 			this.collector = new Collector(application, counters, this.samplingProfiler);
-			this.collectTimerTask = new CollectTimerTask(collector);
+			this.pushAgent = initPushAgent(collector);
+			this.collectTimerTask = new CollectTimerTask(collector, pushAgent);
 
 			initCollect();
 
+			this.heapHistogramSnapshotsEnabled = initHeapHistogramSnapshots(application);
+
 			initOk = true;
 		} finally {
 			if (!initOk) {
@@ -144,6 +155,12 @@ class FilterContext {
 		}
 
 		setRequestTransformPatterns(counters);
+		if (Boolean.parseBoolean(Parameters.getParameter(Parameter.STRIPED_COUNTERS))) {
+			for (final Counter counter : counters) {
+				counter.setStripedRecording(true);
+			}
+		}
+		setCpuTimeModes(counters);
 		final String displayedCounters = Parameters.getParameter(Parameter.DISPLAYED_COUNTERS);
 		if (displayedCounters == null) {
 			// par défaut, les compteurs http, sql, error et log (et ceux qui sont utilisés) sont affichés
@@ -207,6 +224,46 @@ class FilterContext {
 		}
 	}
 
+	private static void setCpuTimeModes(List<Counter> counters) {
+		final String cpuTimeDisabledCounters = Parameters
+				.getParameter(Parameter.CPU_TIME_DISABLED_COUNTERS);
+		if (cpuTimeDisabledCounters != null) {
+			for (final Counter counter : getCountersByNames(counters, cpuTimeDisabledCounters)) {
+				counter.setCpuTimeDisabled(true);
+			}
+		}
+		final String cpuTimeSampledCounters = Parameters
+				.getParameter(Parameter.CPU_TIME_SAMPLED_COUNTERS);
+		if (cpuTimeSampledCounters != null) {
+			final int samplingInterval = Parameters.getCpuTimeSamplingInterval();
+			for (final Counter counter : getCountersByNames(counters, cpuTimeSampledCounters)) {
+				counter.setCpuTimeSamplingInterval(samplingInterval);
+			}
+		}
+	}
+
+	private static List<Counter> getCountersByNames(List<Counter> counters, String counterNames) {
+		final List<Counter> result = new ArrayList<Counter>();
+		for (final String name : counterNames.split(",")) {
+			final String counterName = name.trim();
+			if (counterName.length() == 0) {
+				continue;
+			}
+			boolean found = false;
+			for (final Counter counter : counters) {
+				if (counterName.equalsIgnoreCase(counter.getName())) {
+					result.add(counter);
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				throw new IllegalArgumentException("Unknown counter: " + counterName);
+			}
+		}
+		return result;
+	}
+
 	private void initCollect() {
 		try {
 			Class.forName("org.jrobin.core.RrdDb");
@@ -244,7 +301,20 @@ class FilterContext {
 		}
 	}
 
-	private SamplingProfiler initSamplingProfiler() {
+	private static PushAgent initPushAgent(Collector collector) {
+		try {
+			final PushAgent agent = PushAgent.createFromParameters(collector);
+			if (agent != null) {
+				LOG.debug("push of data to the collector server initialized");
+			}
+			return agent;
+		} catch (final IOException e) {
+			LOG.warn(e.toString(), e);
+			return null;
+		}
+	}
+
+	private SamplingProfiler initSamplingProfiler(List<Counter> counters) {
 		if (Parameters.getParameter(Parameter.SAMPLING_SECONDS) != null) {
 			final SamplingProfiler sampler;
 			final String excludedPackagesParameter = Parameters
@@ -256,15 +326,9 @@ class FilterContext {
 			} else {
 				sampler = new SamplingProfiler(excludedPackagesParameter, includedPackagesParameter);
 			}
-			final TimerTask samplingTimerTask = new TimerTask() {
-				@Override
-				public void run() {
-					sampler.update();
-				}
-			};
 			final long periodInMillis = Math.round(Double.parseDouble(Parameters
 					.getParameter(Parameter.SAMPLING_SECONDS)) * 1000);
-			this.timer.schedule(samplingTimerTask, 10000, periodInMillis);
+			scheduleSampling(sampler, counters, periodInMillis, 10000);
 			LOG.debug("hotspots sampling initialized");
 
 			return sampler;
@@ -272,6 +336,61 @@ class FilterContext {
 		return null;
 	}
 
+	private void scheduleSampling(final SamplingProfiler sampler, final List<Counter> counters,
+			final long periodInMillis, long delay) {
+		// la tâche se replanifie elle-même après chaque sampling, avec un intervalle augmenté
+		// si la durée mesurée du sampling dépasse le budget de temps (1%),
+		// et les échantillons des threads exécutant une requête sont attribués à cette requête
+		final TimerTask samplingTimerTask = new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					sampler.update(counters);
+				} finally {
+					scheduleSampling(sampler, counters, periodInMillis,
+							sampler.getAdaptiveIntervalMillis(periodInMillis));
+				}
+			}
+		};
+		try {
+			this.timer.schedule(samplingTimerTask, delay);
+		} catch (final IllegalStateException e) {
+			// le timer a été arrêté
+			LOG.debug("hotspots sampling stopped");
+		}
+	}
+
+	private boolean initHeapHistogramSnapshots(String application) {
+		final String minutesParameter = Parameters
+				.getParameter(Parameter.HEAP_HISTOGRAM_SNAPSHOTS_MINUTES);
+		if (minutesParameter == null || !VirtualMachine.isEnabled()) {
+			return false;
+		}
+		final long periodInMillis = Math.round(Double.parseDouble(minutesParameter) * 60 * 1000);
+		if (periodInMillis <= 0) {
+			throw new IllegalStateException("The parameter "
+					+ Parameter.HEAP_HISTOGRAM_SNAPSHOTS_MINUTES.getCode()
+					+ " must be > 0 (between 10 and 60 for example)");
+		}
+		final HeapHistogramSnapshots snapshots = HeapHistogramSnapshots.getInstance(application);
+		// histogrammes mémoire enregistrés périodiquement sur disque
+		// pour pouvoir ensuite afficher les classes en croissance entre deux histogrammes
+		final TimerTask heapHistogramTimerTask = new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					snapshots.write(VirtualMachine.createHeapHistogram());
+				} catch (final Throwable t) { // NOPMD
+					// pas d'erreur dans cette tâche
+					LOG.warn("heap histogram snapshot failed", t);
+				}
+			}
+		};
+		timer.schedule(heapHistogramTimerTask, periodInMillis, periodInMillis);
+		LOG.debug("heap histogram snapshots scheduled every " + minutesParameter + " minutes");
+		return true;
+	}
+
 	private static void initLogs() {
 		// on branche le handler java.util.logging pour le counter de logs
 		LoggingHandler.getSingleton().register();
@@ -338,13 +457,18 @@ class FilterContext {
 
 	void stopCollector() {
 		// cette méthode est appelée par MonitoringFilter lorsqu'il y a un serveur de collecte
-		if (samplingProfiler != null && collectTimerTask != null) {
-			// s'il y a un samplingProfiler, on arrête juste la tâche de collecte, mais pas le timer et la tâche de sampling
+		if ((samplingProfiler != null || heapHistogramSnapshotsEnabled)
+				&& collectTimerTask != null) {
+			// s'il y a un samplingProfiler ou des histogrammes mémoire périodiques, on arrête juste la tâche de collecte,
+			// mais pas le timer et la tâche de sampling ou d'histogrammes
 			collectTimerTask.cancel();
 		} else if (timer != null) {
 			// s'il n'y a pas de samplingProfiler, on arrête le timer et le thread devenus inutiles
 			timer.cancel();
 		}
+		if (pushAgent != null) {
+			pushAgent.stop();
+		}
 		// arrêt du collector
 		collector.stop();
 	}
@@ -378,6 +502,9 @@ class FilterContext {
 			if (timer != null) {
 				timer.cancel();
 			}
+			if (pushAgent != null) {
+				pushAgent.stop();
+			}
 			if (samplingProfiler != null) {
 				samplingProfiler.clear();
 			}
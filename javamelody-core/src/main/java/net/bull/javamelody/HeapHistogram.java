@@ -17,7 +17,10 @@
  */
 package net.bull.javamelody;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.security.CodeSource;
 import java.util.ArrayList;
@@ -27,7 +30,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 
 /**
  * Histogramme mémoire.
@@ -48,10 +50,12 @@ class HeapHistogram implements Serializable {
 	private boolean sourceDisplayed;
 	private boolean deltaDisplayed; // deltaDisplayed kept for backward compatibility with all collect servers
 
-	HeapHistogram(InputStream in, boolean jrockit) {
+	HeapHistogram(InputStream in, boolean jrockit) throws IOException {
 		time = new Date();
-		final Scanner sc = new Scanner(in, "UTF-8");
-		final List<ClassInfo> classInfos = scan(sc, jrockit);
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		// tableau de 2 éléments pour le total des instances et le total des octets lus
+		final long[] totals = { -1, -1 };
+		final List<ClassInfo> classInfos = parse(reader, jrockit, totals);
 
 		classes = new ArrayList<ClassInfo>();
 		permGenClasses = new ArrayList<ClassInfo>();
@@ -71,11 +75,8 @@ class HeapHistogram implements Serializable {
 			}
 		}
 		if (!jrockit) {
-			sc.next("Total");
-			final long totalInstances = sc.nextLong();
-			final long totalBytes = sc.nextLong();
-			assert totalInstances == totalPermgenInstances + totalHeapInstances;
-			assert totalBytes == totalPermGenBytes + totalHeapBytes;
+			assert totals[0] == totalPermgenInstances + totalHeapInstances;
+			assert totals[1] == totalPermGenBytes + totalHeapBytes;
 		}
 		sort();
 	}
@@ -180,31 +181,105 @@ class HeapHistogram implements Serializable {
 		}
 	}
 
-	private void skipHeader(Scanner sc, boolean jrockit) {
-		sc.nextLine();
-		sc.nextLine();
-		if (!jrockit) {
-			sc.skip("-+");
-			sc.nextLine();
+	// lecture en flux ligne par ligne, sans expression régulière et sans découper les lignes :
+	// seul le nom de classe est extrait en String, et une seule fois par classe différente
+	private static List<ClassInfo> parse(BufferedReader reader, boolean jrockit, long[] totals)
+			throws IOException {
+		final Map<String, ClassInfo> classInfoMap = new HashMap<String, ClassInfo>(1024);
+		// début et fin des 5 premiers tokens de chaque ligne
+		final int[] starts = new int[5];
+		final int[] ends = new int[5];
+		String line = reader.readLine();
+		while (line != null) {
+			final int tokensCount = tokenize(line, starts, ends);
+			if (tokensCount > 0) {
+				final char lastCharOfFirstToken = line.charAt(ends[0] - 1);
+				if (jrockit) {
+					// ligne de la forme : "35.3% 2134k    24304  +2134k [C"
+					if (lastCharOfFirstToken == '%' && tokensCount >= 5) {
+						final long bytes = parseLong(line, starts[1], ends[1]);
+						final long instances = parseLong(line, starts[2], ends[2]);
+						addClassInfo(line.substring(starts[4], ends[4]), instances, bytes,
+								classInfoMap);
+					}
+				} else if (lastCharOfFirstToken == ':' && tokensCount >= 4) {
+					// ligne de la forme : "   2:         28233        2700272  [C",
+					// suivie éventuellement du module à partir de java 9
+					final long instances = parseLong(line, starts[1], ends[1]);
+					final long bytes = parseLong(line, starts[2], ends[2]);
+					addClassInfo(line.substring(starts[3], ends[3]), instances, bytes,
+							classInfoMap);
+				} else if (line.startsWith("Total", starts[0]) && tokensCount >= 3) {
+					totals[0] = parseLong(line, starts[1], ends[1]);
+					totals[1] = parseLong(line, starts[2], ends[2]);
+					break;
+				}
+				// sinon ligne d'entête
+			}
+			line = reader.readLine();
 		}
+		return new ArrayList<ClassInfo>(classInfoMap.values());
 	}
 
-	private List<ClassInfo> scan(Scanner sc, boolean jrockit) {
-		final Map<String, ClassInfo> classInfoMap = new HashMap<String, ClassInfo>(1024);
-		sc.useRadix(10);
-		skipHeader(sc, jrockit);
-
-		final String nextLine;
-		if (jrockit) {
-			nextLine = "[0-9.]+%";
+	private static void addClassInfo(String jvmName, long instances, long bytes,
+			Map<String, ClassInfo> classInfoMap) {
+		// une même classe peut apparaître plusieurs fois (plusieurs classloaders) :
+		// le nom et la source ne sont alors calculés qu'une fois
+		final ClassInfo classInfo = classInfoMap.get(jvmName);
+		if (classInfo == null) {
+			classInfoMap.put(jvmName, new ClassInfo(jvmName, instances, bytes));
 		} else {
-			nextLine = "[0-9]+:";
+			classInfo.add(instances, bytes);
 		}
-		while (sc.hasNext(nextLine)) {
-			final ClassInfo newClInfo = new ClassInfo(sc, jrockit);
-			addClassInfo(newClInfo, classInfoMap);
+	}
+
+	private static int tokenize(String line, int[] starts, int[] ends) {
+		final int length = line.length();
+		int count = 0;
+		int i = 0;
+		while (count < starts.length) {
+			while (i < length && line.charAt(i) <= ' ') {
+				i++;
+			}
+			if (i >= length) {
+				break;
+			}
+			starts[count] = i;
+			while (i < length && line.charAt(i) > ' ') {
+				i++;
+			}
+			ends[count] = i;
+			count++;
 		}
-		return new ArrayList<ClassInfo>(classInfoMap.values());
+		return count;
+	}
+
+	// parse un nombre entre start et end, avec éventuellement un signe '+' et un suffixe 'k' (jrockit)
+	private static long parseLong(String line, int start, int end) {
+		int i = start;
+		if (i < end && line.charAt(i) == '+') {
+			i++;
+		}
+		int last = end;
+		final boolean kilo = last > i && line.charAt(last - 1) == 'k';
+		if (kilo) {
+			last--;
+		}
+		if (i >= last) {
+			throw new NumberFormatException(line.substring(start, end));
+		}
+		long result = 0;
+		for (; i < last; i++) {
+			final char c = line.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new NumberFormatException(line.substring(start, end));
+			}
+			result = result * 10 + c - '0';
+		}
+		if (kilo) {
+			return 1024 * result;
+		}
+		return result;
 	}
 
 	static class ClassInfo implements Serializable {
@@ -229,18 +304,12 @@ class HeapHistogram implements Serializable {
 		private final boolean permGen;
 		private final String source;
 
-		ClassInfo(Scanner sc, boolean jrockit) {
+		ClassInfo(String jvmName, long instances, long bytes) {
 			super();
-
-			sc.next();
-			if (jrockit) {
-				bytes = parseLongWithK(sc.next());
-				instances = sc.nextLong();
-			} else {
-				instances = sc.nextLong();
-				bytes = sc.nextLong();
-			}
-			jvmName = sc.next();
+			assert jvmName != null && jvmName.length() > 0;
+			this.instances = instances;
+			this.bytes = bytes;
+			this.jvmName = jvmName;
 			permGen = jvmName.charAt(0) == '<';
 			name = convertJVMName();
 			source = findSource();
@@ -248,8 +317,12 @@ class HeapHistogram implements Serializable {
 
 		void add(ClassInfo classInfo) {
 			assert getName().equals(classInfo.getName());
-			this.bytes += classInfo.getBytes();
-			this.instances += classInfo.getInstancesCount();
+			add(classInfo.getInstancesCount(), classInfo.getBytes());
+		}
+
+		void add(long addedInstances, long addedBytes) {
+			this.bytes += addedBytes;
+			this.instances += addedInstances;
 		}
 
 		String getName() {
@@ -273,12 +346,16 @@ class HeapHistogram implements Serializable {
 		}
 
 		private String findSource() {
-			// on exclue les classes de PermGen et les classes générées dynamiquement
-			if (jvmName.endsWith("Klass>") || jvmName.startsWith("sun.reflect.")) {
+			// on exclue les classes de PermGen et les classes générées dynamiquement,
+			// ainsi que les tableaux qui n'ont jamais de source
+			if (jvmName.endsWith("Klass>") || jvmName.startsWith("sun.reflect.")
+					|| jvmName.charAt(0) == '[') {
 				return null;
 			}
 			try {
-				final Class<?> clazz = Class.forName(jvmName);
+				// sans initialiser la classe si elle ne l'est pas déjà
+				final Class<?> clazz = Class.forName(jvmName, false,
+						ClassInfo.class.getClassLoader());
 				return findSource(clazz);
 			} catch (final LinkageError e) {
 				// dans jonas en OSGI, par exemple avec des classes Quartz, il peut survenir
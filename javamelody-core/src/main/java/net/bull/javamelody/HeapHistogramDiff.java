@@ -0,0 +1,197 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classes en croissance entre deux histogrammes mémoire enregistrés par HeapHistogramSnapshots.
+ * @author Emeric Vernat
+ */
+class HeapHistogramDiff implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final Date fromTime;
+	private final Date toTime;
+	private final List<Date> snapshotTimes;
+	@SuppressWarnings("all")
+	private final List<ClassDelta> classes;
+	private long totalBytesDelta;
+	private long totalInstancesDelta;
+
+	/**
+	 * Croissance d'une classe entre deux histogrammes.
+	 */
+	static class ClassDelta implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private long bytesDelta;
+		private long instancesDelta;
+		private long bytes;
+		private long instances;
+
+		ClassDelta(String name, long bytesDelta, long instancesDelta, long bytes, long instances) {
+			super();
+			assert name != null;
+			this.name = name;
+			this.bytesDelta = bytesDelta;
+			this.instancesDelta = instancesDelta;
+			this.bytes = bytes;
+			this.instances = instances;
+		}
+
+		void add(ClassDelta classDelta) {
+			assert name.equals(classDelta.getName());
+			bytesDelta += classDelta.getBytesDelta();
+			instancesDelta += classDelta.getInstancesDelta();
+			bytes += classDelta.getBytes();
+			instances += classDelta.getInstances();
+		}
+
+		String getName() {
+			return name;
+		}
+
+		long getBytesDelta() {
+			return bytesDelta;
+		}
+
+		long getInstancesDelta() {
+			return instancesDelta;
+		}
+
+		long getBytes() {
+			return bytes;
+		}
+
+		long getInstances() {
+			return instances;
+		}
+	}
+
+	static final class ClassDeltaComparator implements Comparator<ClassDelta>, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/** {@inheritDoc} */
+		@Override
+		public int compare(ClassDelta classDelta1, ClassDelta classDelta2) {
+			if (classDelta1.getBytesDelta() > classDelta2.getBytesDelta()) {
+				return 1;
+			} else if (classDelta1.getBytesDelta() < classDelta2.getBytesDelta()) {
+				return -1;
+			} else {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Constructeur.
+	 * @param fromTime Date du premier histogramme (null s'il n'y a pas deux histogrammes)
+	 * @param toTime Date du second histogramme (null s'il n'y a pas deux histogrammes)
+	 * @param snapshotTimes Dates des histogrammes disponibles
+	 * @param classes Classes en croissance, triées par croissance décroissante
+	 * @param totalBytesDelta Croissance totale en octets de toutes les classes
+	 * @param totalInstancesDelta Croissance totale en instances de toutes les classes
+	 */
+	HeapHistogramDiff(Date fromTime, Date toTime, List<Date> snapshotTimes,
+			List<ClassDelta> classes, long totalBytesDelta, long totalInstancesDelta) {
+		super();
+		assert snapshotTimes != null;
+		assert classes != null;
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+		this.snapshotTimes = new ArrayList<Date>(snapshotTimes);
+		this.classes = new ArrayList<ClassDelta>(classes);
+		this.totalBytesDelta = totalBytesDelta;
+		this.totalInstancesDelta = totalInstancesDelta;
+	}
+
+	/**
+	 * Fusionne les croissances d'un autre noeud avec celles-ci.
+	 * @param second HeapHistogramDiff
+	 * @param maxClasses Nombre maximum de classes conservées
+	 */
+	void add(HeapHistogramDiff second, int maxClasses) {
+		final Map<String, ClassDelta> classesMap = new HashMap<String, ClassDelta>();
+		for (final ClassDelta classDelta : classes) {
+			classesMap.put(classDelta.getName(), classDelta);
+		}
+		for (final ClassDelta classDelta : second.getClasses()) {
+			final ClassDelta previous = classesMap.get(classDelta.getName());
+			if (previous == null) {
+				classesMap.put(classDelta.getName(), classDelta);
+			} else {
+				previous.add(classDelta);
+			}
+		}
+		classes.clear();
+		classes.addAll(classesMap.values());
+		Collections.sort(classes, Collections.reverseOrder(new ClassDeltaComparator()));
+		if (classes.size() > maxClasses) {
+			classes.subList(maxClasses, classes.size()).clear();
+		}
+		for (final Date snapshotTime : second.getSnapshotTimes()) {
+			if (!snapshotTimes.contains(snapshotTime)) {
+				snapshotTimes.add(snapshotTime);
+			}
+		}
+		Collections.sort(snapshotTimes);
+		totalBytesDelta += second.getTotalBytesDelta();
+		totalInstancesDelta += second.getTotalInstancesDelta();
+	}
+
+	Date getFromTime() {
+		return fromTime;
+	}
+
+	Date getToTime() {
+		return toTime;
+	}
+
+	List<Date> getSnapshotTimes() {
+		return Collections.unmodifiableList(snapshotTimes);
+	}
+
+	List<ClassDelta> getClasses() {
+		return Collections.unmodifiableList(classes);
+	}
+
+	long getTotalBytesDelta() {
+		return totalBytesDelta;
+	}
+
+	long getTotalInstancesDelta() {
+		return totalInstancesDelta;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[fromTime=" + getFromTime() + ", toTime="
+				+ getToTime() + ", classes=" + classes.size() + ']';
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.bull.javamelody.HeapHistogram.ClassInfo;
+import net.bull.javamelody.HeapHistogramDiff.ClassDelta;
+import net.bull.javamelody.HeapHistogramDiff.ClassDeltaComparator;
+
+/**
+ * Anneau sur disque d'histogrammes mémoire pris périodiquement (paramètre heap-histogram-snapshots-minutes).
+ * Chaque histogramme est enregistré dans un format binaire compact avec les classes triées par nom
+ * (et les noms compressés par préfixe commun avec le nom précédent),
+ * ce qui permet de calculer les classes en croissance entre deux histogrammes
+ * en lisant les deux fichiers en parallèle, sans charger les histogrammes en mémoire.
+ * @author Emeric Vernat
+ */
+class HeapHistogramSnapshots {
+	/**
+	 * Nombre maximum d'histogrammes conservés : les plus anciens sont supprimés au-delà.
+	 */
+	static final int MAX_SNAPSHOTS = 48;
+
+	/**
+	 * Nombre maximum de classes dans le résultat de la comparaison de deux histogrammes.
+	 */
+	static final int MAX_CLASSES = 500;
+
+	private static final int VERSION = 1;
+	private static final String FILE_PREFIX = "heapHisto_";
+	private static final String FILE_SUFFIX = ".bin.gz";
+
+	private final File directory;
+
+	/**
+	 * Constructeur.
+	 * @param directory Répertoire des histogrammes
+	 */
+	HeapHistogramSnapshots(File directory) {
+		super();
+		assert directory != null;
+		this.directory = directory;
+	}
+
+	/**
+	 * @param application Nom de l'application
+	 * @return Instance pour le répertoire de stockage de l'application
+	 */
+	static HeapHistogramSnapshots getInstance(String application) {
+		return new HeapHistogramSnapshots(new File(Parameters.getStorageDirectory(application),
+				"heaphisto"));
+	}
+
+	/**
+	 * Enregistre un histogramme mémoire (hors PermGen) et supprime les plus anciens au-delà de MAX_SNAPSHOTS.
+	 * @param heapHistogram HeapHistogram
+	 * @throws IOException e
+	 */
+	void write(HeapHistogram heapHistogram) throws IOException {
+		if (!directory.mkdirs() && !directory.exists()) {
+			throw new IOException("JavaMelody directory can't be created: " + directory.getPath());
+		}
+		final List<ClassInfo> classes = new ArrayList<ClassInfo>(heapHistogram.getHeapHistogram());
+		Collections.sort(classes, new ClassInfoNameComparator());
+		final long time = heapHistogram.getTime().getTime();
+		// écriture dans un fichier temporaire puis renommage,
+		// pour ne jamais lire un histogramme incomplet
+		final File tmpFile = new File(directory, FILE_PREFIX + time + ".tmp");
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tmpFile))));
+		try {
+			output.writeByte(VERSION);
+			output.writeLong(time);
+			output.writeInt(classes.size());
+			String previousName = "";
+			for (final ClassInfo classInfo : classes) {
+				final String name = classInfo.getName();
+				final int prefixLength = getCommonPrefixLength(previousName, name);
+				output.writeShort(prefixLength);
+				output.writeUTF(name.substring(prefixLength));
+				output.writeLong(classInfo.getBytes());
+				output.writeLong(classInfo.getInstancesCount());
+				previousName = name;
+			}
+		} finally {
+			output.close();
+		}
+		final File file = getFile(time);
+		if (!tmpFile.renameTo(file)) {
+			if (!tmpFile.delete()) {
+				tmpFile.deleteOnExit();
+			}
+			throw new IOException("JavaMelody file can't be renamed: " + file.getPath());
+		}
+		final List<Long> times = getSnapshotTimes();
+		for (int i = 0; i < times.size() - MAX_SNAPSHOTS; i++) {
+			final File oldFile = getFile(times.get(i));
+			if (!oldFile.delete()) {
+				oldFile.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * @param time Date en millisecondes en paramètre http, éventuellement null
+	 * @return Date en millisecondes ou null
+	 */
+	static Long parseTime(String time) {
+		if (time == null || time.length() == 0) {
+			return null;
+		}
+		return Long.valueOf(time);
+	}
+
+	private static int getCommonPrefixLength(String previousName, String name) {
+		final int max = Math.min(Math.min(previousName.length(), name.length()), Short.MAX_VALUE);
+		int i = 0;
+		while (i < max && previousName.charAt(i) == name.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	private File getFile(long time) {
+		return new File(directory, FILE_PREFIX + time + FILE_SUFFIX);
+	}
+
+	/**
+	 * @return Dates en millisecondes des histogrammes enregistrés, triées de la plus ancienne à la plus récente
+	 */
+	List<Long> getSnapshotTimes() {
+		final List<Long> result = new ArrayList<Long>();
+		final String[] fileNames = directory.list();
+		if (fileNames != null) {
+			for (final String fileName : fileNames) {
+				if (fileName.startsWith(FILE_PREFIX) && fileName.endsWith(FILE_SUFFIX)) {
+					try {
+						result.add(Long.valueOf(fileName.substring(FILE_PREFIX.length(),
+								fileName.length() - FILE_SUFFIX.length())));
+					} catch (final NumberFormatException e) {
+						// fichier ignoré
+						continue;
+					}
+				}
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Compare deux histogrammes enregistrés : le plus ancien à partir de fromTime
+	 * et le plus récent jusqu'à toTime, ce qui permet aussi de comparer les histogrammes
+	 * de noeuds différents qui n'ont pas les mêmes dates.
+	 * @param fromTime Date en millisecondes du premier histogramme, ou null pour le plus ancien
+	 * @param toTime Date en millisecondes du second histogramme, ou null pour le plus récent
+	 * @return HeapHistogramDiff, sans classe s'il n'y a pas deux histogrammes dans l'intervalle
+	 * @throws IOException e
+	 */
+	HeapHistogramDiff diff(Long fromTime, Long toTime) throws IOException {
+		final List<Long> times = getSnapshotTimes();
+		final List<Date> snapshotTimes = new ArrayList<Date>(times.size());
+		Long from = null;
+		Long to = null;
+		for (final Long time : times) {
+			snapshotTimes.add(new Date(time));
+			if (from == null && (fromTime == null || time >= fromTime)) {
+				from = time;
+			}
+			if (toTime == null || time <= toTime) {
+				to = time;
+			}
+		}
+		if (from == null || to == null || from >= to) {
+			return new HeapHistogramDiff(null, null, snapshotTimes,
+					Collections.<ClassDelta> emptyList(), 0, 0);
+		}
+		final SnapshotReader fromReader = new SnapshotReader(getFile(from));
+		try {
+			final SnapshotReader toReader = new SnapshotReader(getFile(to));
+			try {
+				return diff(fromReader, toReader, snapshotTimes);
+			} finally {
+				toReader.close();
+			}
+		} finally {
+			fromReader.close();
+		}
+	}
+
+	private static HeapHistogramDiff diff(SnapshotReader fromReader, SnapshotReader toReader,
+			List<Date> snapshotTimes) throws IOException {
+		// fusion des deux flux triés par nom de classe,
+		// en ne gardant que les MAX_CLASSES plus grandes croissances dans un tas
+		final PriorityQueue<ClassDelta> growingClasses = new PriorityQueue<ClassDelta>(
+				MAX_CLASSES + 1, new ClassDeltaComparator());
+		long totalBytesDelta = 0;
+		long totalInstancesDelta = 0;
+		boolean fromAvailable = fromReader.next();
+		boolean toAvailable = toReader.next();
+		while (toAvailable) {
+			final int comparison = fromAvailable ? fromReader.getName().compareTo(
+					toReader.getName()) : 1;
+			if (comparison < 0) {
+				// classe disparue
+				totalBytesDelta -= fromReader.getBytes();
+				totalInstancesDelta -= fromReader.getInstances();
+				fromAvailable = fromReader.next();
+				continue;
+			}
+			long bytesDelta = toReader.getBytes();
+			long instancesDelta = toReader.getInstances();
+			if (comparison == 0) {
+				bytesDelta -= fromReader.getBytes();
+				instancesDelta -= fromReader.getInstances();
+				fromAvailable = fromReader.next();
+			}
+			totalBytesDelta += bytesDelta;
+			totalInstancesDelta += instancesDelta;
+			if (bytesDelta > 0
+					&& (growingClasses.size() < MAX_CLASSES || bytesDelta > growingClasses.peek()
+							.getBytesDelta())) {
+				growingClasses.add(new ClassDelta(toReader.getName(), bytesDelta, instancesDelta,
+						toReader.getBytes(), toReader.getInstances()));
+				if (growingClasses.size() > MAX_CLASSES) {
+					growingClasses.poll();
+				}
+			}
+			toAvailable = toReader.next();
+		}
+		while (fromAvailable) {
+			totalBytesDelta -= fromReader.getBytes();
+			totalInstancesDelta -= fromReader.getInstances();
+			fromAvailable = fromReader.next();
+		}
+		final List<ClassDelta> classes = new ArrayList<ClassDelta>(growingClasses);
+		Collections.sort(classes, Collections.reverseOrder(new ClassDeltaComparator()));
+		return new HeapHistogramDiff(new Date(fromReader.getTime()),
+				new Date(toReader.getTime()), snapshotTimes, classes, totalBytesDelta,
+				totalInstancesDelta);
+	}
+
+	/**
+	 * Lecture en flux d'un histogramme enregistré, classe par classe.
+	 */
+	private static class SnapshotReader {
+		private final DataInputStream input;
+		private final long time;
+		private int remaining;
+		private String name = "";
+		private long bytes;
+		private long instances;
+
+		SnapshotReader(File file) throws IOException {
+			super();
+			input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+					new FileInputStream(file))));
+			boolean ok = false;
+			try {
+				final int version = input.readUnsignedByte();
+				if (version != VERSION) {
+					throw new IOException("Unsupported heap histogram file version: " + version);
+				}
+				time = input.readLong();
+				remaining = input.readInt();
+				ok = true;
+			} finally {
+				if (!ok) {
+					input.close();
+				}
+			}
+		}
+
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			final int prefixLength = input.readUnsignedShort();
+			name = name.substring(0, prefixLength) + input.readUTF();
+			bytes = input.readLong();
+			instances = input.readLong();
+			return true;
+		}
+
+		long getTime() {
+			return time;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		long getBytes() {
+			return bytes;
+		}
+
+		long getInstances() {
+			return instances;
+		}
+
+		void close() throws IOException {
+			input.close();
+		}
+	}
+
+	private static class ClassInfoNameComparator implements Comparator<ClassInfo> {
+		ClassInfoNameComparator() {
+			super();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int compare(ClassInfo classInfo1, ClassInfo classInfo2) {
+			return classInfo1.getName().compareTo(classInfo2.getName());
+		}
+	}
+}
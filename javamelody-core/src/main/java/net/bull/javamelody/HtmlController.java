@@ -19,12 +19,15 @@ package net.bull.javamelody; // NOPMD
 
 import static net.bull.javamelody.HttpParameters.CONNECTIONS_PART;
 import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
+import static net.bull.javamelody.HttpParameters.COUNTER_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
+import static net.bull.javamelody.HttpParameters.FROM_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PART;
+import static net.bull.javamelody.HttpParameters.HEAP_HISTO_DIFF_PART;
 import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
 import static net.bull.javamelody.HttpParameters.HOTSPOTS_PART;
 import static net.bull.javamelody.HttpParameters.HTML_BODY_FORMAT;
@@ -32,6 +35,7 @@ import static net.bull.javamelody.HttpParameters.HTML_CHARSET;
 import static net.bull.javamelody.HttpParameters.HTML_CONTENT_TYPE;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
+import static net.bull.javamelody.HttpParameters.OFFSET_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PATH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PROCESSES_PART;
@@ -41,6 +45,8 @@ import static net.bull.javamelody.HttpParameters.SESSION_ID_PARAMETER;
 import static net.bull.javamelody.HttpParameters.TEXT_CONTENT_TYPE;
 import static net.bull.javamelody.HttpParameters.THREADS_DUMP_PART;
 import static net.bull.javamelody.HttpParameters.THREADS_PART;
+import static net.bull.javamelody.HttpParameters.THREAD_FILTER_PARAMETER;
+import static net.bull.javamelody.HttpParameters.TO_PARAMETER;
 import static net.bull.javamelody.HttpParameters.USAGES_PART;
 
 import java.io.BufferedWriter;
@@ -112,7 +118,8 @@ class HtmlController {
 	static boolean isLocalCollectNeeded(final String part) {
 		return part == null || CURRENT_REQUESTS_PART.equalsIgnoreCase(part)
 				|| GRAPH_PART.equalsIgnoreCase(part)
-				|| COUNTER_SUMMARY_PER_CLASS_PART.equalsIgnoreCase(part);
+				|| COUNTER_SUMMARY_PER_CLASS_PART.equalsIgnoreCase(part)
+				|| COUNTER_REQUESTS_PART.equalsIgnoreCase(part);
 	}
 
 	static BufferedWriter getWriter(HttpServletResponse httpResponse) throws IOException {
@@ -131,11 +138,15 @@ class HtmlController {
 		} else if (CURRENT_REQUESTS_PART.equalsIgnoreCase(part)) {
 			doCurrentRequests(htmlReport);
 		} else if (THREADS_PART.equalsIgnoreCase(part)) {
-			htmlReport.writeAllThreadsAsPart();
+			htmlReport.writeAllThreadsAsPart(httpRequest.getParameter(THREAD_FILTER_PARAMETER),
+					getOffset(httpRequest));
 		} else if (COUNTER_SUMMARY_PER_CLASS_PART.equalsIgnoreCase(part)) {
 			final String counterName = httpRequest.getParameter(COUNTER_PARAMETER);
 			final String requestId = httpRequest.getParameter(GRAPH_PARAMETER);
 			htmlReport.writeCounterSummaryPerClass(counterName, requestId);
+		} else if (COUNTER_REQUESTS_PART.equalsIgnoreCase(part)) {
+			final String counterName = httpRequest.getParameter(COUNTER_PARAMETER);
+			htmlReport.writeCounterRequests(counterName, getOffset(httpRequest));
 		} else {
 			doHtmlPartForSystemActions(httpRequest, part, htmlReport);
 		}
@@ -144,11 +155,16 @@ class HtmlController {
 	private void doHtmlPartForSystemActions(HttpServletRequest httpRequest, String part,
 			HtmlReport htmlReport) throws IOException {
 		if (SESSIONS_PART.equalsIgnoreCase(part)) {
-			doSessions(htmlReport, httpRequest.getParameter(SESSION_ID_PARAMETER));
+			doSessions(htmlReport, httpRequest.getParameter(SESSION_ID_PARAMETER),
+					getOffset(httpRequest));
 		} else if (HOTSPOTS_PART.equalsIgnoreCase(part)) {
 			doHotspots(htmlReport);
 		} else if (HEAP_HISTO_PART.equalsIgnoreCase(part)) {
 			doHeapHisto(htmlReport);
+		} else if (HEAP_HISTO_DIFF_PART.equalsIgnoreCase(part)) {
+			doHeapHistoDiff(htmlReport,
+					HeapHistogramSnapshots.parseTime(httpRequest.getParameter(FROM_PARAMETER)),
+					HeapHistogramSnapshots.parseTime(httpRequest.getParameter(TO_PARAMETER)));
 		} else if (PROCESSES_PART.equalsIgnoreCase(part)) {
 			doProcesses(htmlReport);
 		} else if (DATABASE_PART.equalsIgnoreCase(part)) {
@@ -168,23 +184,40 @@ class HtmlController {
 		}
 	}
 
-	private void doSessions(HtmlReport htmlReport, String sessionId) throws IOException {
+	private static int getOffset(HttpServletRequest httpRequest) {
+		// index de début de page pour les listes paginées
+		final String offset = httpRequest.getParameter(OFFSET_PARAMETER);
+		return offset == null ? 0 : Math.max(Integer.parseInt(offset), 0);
+	}
+
+	private void doSessions(HtmlReport htmlReport, String sessionId, int offset)
+			throws IOException {
 		// par sécurité
 		Action.checkSystemActionsEnabled();
 		final List<SessionInformations> sessionsInformations;
+		// la liste des sessions est paginée, pour un affichage en temps borné quel que soit le nombre de sessions
+		final int pageSize = HtmlSessionInformationsReport.SESSIONS_PAGE_SIZE;
+		final int sessionsCount;
 		if (!isFromCollectorServer()) {
 			if (sessionId == null) {
-				sessionsInformations = SessionListener.getAllSessionsInformations();
+				sessionsInformations = SessionListener.getSessionsInformations(offset, pageSize);
+				sessionsCount = Math.max(SessionListener.getSessionCount(), offset
+						+ sessionsInformations.size());
 			} else {
 				sessionsInformations = Collections.singletonList(SessionListener
 						.getSessionInformationsBySessionId(sessionId));
+				sessionsCount = sessionsInformations.size();
 			}
 		} else {
-			sessionsInformations = collectorServer.collectSessionInformations(getApplication(),
-					sessionId);
+			final List<SessionInformations> allSessionsInformations = collectorServer
+					.collectSessionInformations(getApplication(), sessionId);
+			sessionsCount = allSessionsInformations.size();
+			sessionsInformations = allSessionsInformations.subList(
+					Math.min(offset, sessionsCount), Math.min(offset + pageSize, sessionsCount));
 		}
 		if (sessionId == null || sessionsInformations.isEmpty()) {
-			htmlReport.writeSessions(sessionsInformations, messageForReport, SESSIONS_PART);
+			htmlReport.writeSessions(sessionsInformations, offset, sessionsCount,
+					messageForReport, SESSIONS_PART);
 		} else {
 			final SessionInformations sessionInformation = sessionsInformations.get(0);
 			htmlReport.writeSessionDetail(sessionId, sessionInformation);
@@ -225,6 +258,26 @@ class HtmlController {
 		htmlReport.writeHeapHistogram(heapHistogram, messageForReport, HEAP_HISTO_PART);
 	}
 
+	private void doHeapHistoDiff(HtmlReport htmlReport, Long fromTime, Long toTime)
+			throws IOException {
+		// par sécurité
+		Action.checkSystemActionsEnabled();
+		final HeapHistogramDiff heapHistogramDiff;
+		try {
+			if (!isFromCollectorServer()) {
+				heapHistogramDiff = collector.getHeapHistogramDiff(fromTime, toTime);
+			} else {
+				heapHistogramDiff = collectorServer.collectHeapHistogramDiff(getApplication(),
+						fromTime, toTime);
+			}
+		} catch (final Exception e) {
+			LOG.warn("heaphisto diff report failed", e);
+			htmlReport.writeMessageIfNotNull(String.valueOf(e.getMessage()), null);
+			return;
+		}
+		htmlReport.writeHeapHistogramDiff(heapHistogramDiff);
+	}
+
 	private void doProcesses(HtmlReport htmlReport) throws IOException {
 		// par sécurité
 		Action.checkSystemActionsEnabled();
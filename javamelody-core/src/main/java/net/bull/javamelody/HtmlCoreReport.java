@@ -22,6 +22,7 @@ import java.io.Writer;
 import java.net.URLEncoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -473,7 +474,8 @@ class HtmlCoreReport extends HtmlAbstractReport {
 		}
 	}
 
-	void writeAllThreadsAsPart() throws IOException {
+	void writeAllThreadsAsPart(String threadFilter, int offset) throws IOException {
+		assert offset >= 0;
 		final String separator = "&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;";
 		writeln("<div class='noPrint'>");
 		writeln("<a href='javascript:history.back()'><img src='?resource=action_back.png' alt='#Retour#'/> #Retour#</a>");
@@ -487,6 +489,16 @@ class HtmlCoreReport extends HtmlAbstractReport {
 			}
 		}
 
+		writeln(separator);
+		// filtre des threads par nom ou par état, pour n'afficher que quelques threads parmi des milliers
+		writeln("<form name='threadFilterForm' method='get' action='' style='display: inline;'>");
+		writeln("<input type='hidden' name='part' value='threads'/>");
+		write("#Filtrer_threads# <input type='text' size='20' name='threadFilter' value='");
+		if (threadFilter != null) {
+			writeDirectly(htmlEncodeButNotSpace(threadFilter));
+		}
+		writeln("'/>&nbsp;<input type='submit' value='#ok#'/></form>");
+
 		writeln("</div> <br/>");
 		writeTitle("threads.png", getString("Threads"));
 		write(" <br/>");
@@ -498,13 +510,47 @@ class HtmlCoreReport extends HtmlAbstractReport {
 			writeln(getFormattedString("thread_count", javaInformations.getThreadCount(),
 					javaInformations.getPeakThreadCount(),
 					javaInformations.getTotalStartedThreadCount()));
-			final HtmlThreadInformationsReport htmlThreadInformationsReport = new HtmlThreadInformationsReport(
-					javaInformations.getThreadInformationsList(),
-					javaInformations.isStackTraceEnabled(), getWriter());
-			htmlThreadInformationsReport.writeDeadlocks();
+			// les deadlocks sont cherchés dans tous les threads, mais la liste est paginée
+			new HtmlThreadInformationsReport(javaInformations.getThreadInformationsList(),
+					javaInformations.isStackTraceEnabled(), getWriter()).writeDeadlocks();
 			writeln("<br/><br/>");
+			final int pageSize = HtmlThreadInformationsReport.THREADS_PAGE_SIZE;
+			final List<ThreadInformations> threadInformationsList = ThreadSnapshotTracker.filter(
+					javaInformations.getThreadInformationsList(), threadFilter, offset,
+					pageSize + 1);
+			final boolean nextPage = threadInformationsList.size() > pageSize;
+			final HtmlThreadInformationsReport htmlThreadInformationsReport = new HtmlThreadInformationsReport(
+					nextPage ? threadInformationsList.subList(0, pageSize)
+							: threadInformationsList, javaInformations.isStackTraceEnabled(),
+					getWriter());
 			htmlThreadInformationsReport.toHtml();
+			writeThreadsPageLinks(threadFilter, offset, nextPage);
+		}
+	}
+
+	private void writeThreadsPageLinks(String threadFilter, int offset, boolean nextPage)
+			throws IOException {
+		if (offset == 0 && !nextPage) {
+			return;
+		}
+		final int pageSize = HtmlThreadInformationsReport.THREADS_PAGE_SIZE;
+		String hrefStart = "<a href='?part=threads";
+		if (threadFilter != null) {
+			// writeDirectly car le filtre saisi peut contenir des '#'
+			hrefStart += "&amp;threadFilter=" + URLEncoder.encode(threadFilter, "UTF-8");
+		}
+		hrefStart += "&amp;offset=";
+		writeln("<div align='right' class='noPrint'>");
+		if (offset > 0) {
+			writeDirectly(hrefStart + Math.max(offset - pageSize, 0) + "'>");
+			writeln("#Page_precedente#</a>");
+			writeln(SEPARATOR);
 		}
+		if (nextPage) {
+			writeDirectly(hrefStart + (offset + pageSize) + "'>");
+			writeln("#Page_suivante#</a>");
+		}
+		writeln("</div>");
 	}
 
 	void writeThreadsDump() throws IOException {
@@ -585,6 +631,22 @@ class HtmlCoreReport extends HtmlAbstractReport {
 		htmlCounterReport.writeRequestsAggregatedOrFilteredByClassName(requestId);
 	}
 
+	void writeCounterRequests(String counterName, int offset) throws IOException {
+		final Counter counter = collector.getRangeCounter(range, counterName);
+		writeln("<div class='noPrint'>");
+		writeln("<a href='javascript:history.back()'><img src='?resource=action_back.png' alt='#Retour#'/> #Retour#</a>");
+		writeln(SEPARATOR);
+		writeln("<a href='?part=counterRequests&amp;counter=" + counter.getName() + "&amp;offset="
+				+ offset + "'>");
+		writeln("<img src='?resource=action_refresh.png' alt='#Actualiser#'/> #Actualiser#</a>");
+		writeln("</div>");
+
+		writeCounterTitle(counter);
+		final HtmlCounterReport htmlCounterReport = new HtmlCounterReport(counter, range,
+				getWriter());
+		htmlCounterReport.writeRequestsPage(offset);
+	}
+
 	private boolean isGcEnabled() {
 		return Action.GC_ENABLED || collectorServer != null;
 	}
@@ -756,8 +818,9 @@ class HtmlCoreReport extends HtmlAbstractReport {
 	private void writeApplicationsLinks() throws IOException {
 		assert collectorServer != null;
 		writeln("<div align='center'>");
-		final Collection<String> applications = Parameters.getCollectorUrlsByApplications()
-				.keySet();
+		final Collection<String> applications = new ArrayList<String>(Parameters
+				.getCollectorUrlsByApplications().keySet());
+		applications.addAll(collectorServer.getPushedApplications());
 		if (applications.size() > 1
 				|| !collectorServer.getLastCollectExceptionsByApplication().isEmpty()) {
 			if (applications.size() > 10) {
@@ -865,8 +928,22 @@ class HtmlCoreReport extends HtmlAbstractReport {
 		final long displayDuration = System.currentTimeMillis() - start;
 		writeln("<a name='bottom'></a>");
 		writeln("<br/><div style='font-size: 11px;'>");
-		writeln("#temps_derniere_collecte#: " + collector.getLastCollectDuration() + " #ms#<br/>");
-		writeln("#temps_affichage#: " + displayDuration + " #ms#<br/>");
+		final long[] stagesDurations = collector.getLastCollectStagesDurations();
+		final JRobinBatch jrobinBatch = collector.getLastJRobinBatch();
+		writeln("<span title='"
+				+ getFormattedString("Etapes_collecte", stagesDurations[0], stagesDurations[1],
+						stagesDurations[2], stagesDurations[3])
+				+ " - "
+				+ getFormattedString("Ecritures_jrobin", jrobinBatch.getUpdatesCount(),
+						jrobinBatch.getBytesWritten(), jrobinBatch.getDuration()) + "'>");
+		writeln("#temps_derniere_collecte#: " + collector.getLastCollectDuration()
+				+ " #ms#</span><br/>");
+		writeln("<span title='"
+				+ getFormattedString("Cache_courbes", JRobinGraphCache.getHitRatio(),
+						JRobinGraphCache.getHitsCount(), JRobinGraphCache.getMissesCount(),
+						JRobinGraphCache.getGraphsCount(), JRobinGraphCache.getTotalBytes() / 1024)
+				+ "'>");
+		writeln("#temps_affichage#: " + displayDuration + " #ms#</span><br/>");
 		writeln("#Estimation_overhead_memoire#: < "
 				+ (collector.getEstimatedMemorySize() / 1024 / 1024 + 1) + " #Mo#");
 		writeln("<br/>#Usage_disque#: " + (collector.getDiskUsage() / 1024 / 1024 + 1) + " #Mo#");
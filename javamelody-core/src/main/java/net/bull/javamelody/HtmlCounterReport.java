@@ -34,6 +34,11 @@ import java.util.Map;
  */
 class HtmlCounterReport extends HtmlAbstractReport {
 	private static final int MAX_REQUEST_NAME_LENGTH = 5000;
+	// centiles affichés pour les temps d'exécution
+	static final int[] PERCENTILES = { 50, 95, 99 };
+	// nombre maximum de requêtes par page dans le détail d'un compteur,
+	// pour un rapport en temps borné quel que soit le nombre de requêtes
+	static final int REQUESTS_PAGE_SIZE = 1000;
 	private final Counter counter;
 	private final Range range;
 	private final CounterRequestAggregation counterRequestAggregation;
@@ -145,6 +150,10 @@ class HtmlCounterReport extends HtmlAbstractReport {
 
 				writeGraphDetailScript(graphName);
 			}
+			if (request != null && Parameters.isSystemActionsEnabled()) {
+				// comme les hotspots, les piles échantillonnées sont réservées aux actions systèmes
+				writeSampledStacks(collector, collectorServer, request);
+			}
 			if (request != null && request.getStackTrace() != null) {
 				writeln("<blockquote><blockquote><b>Stack-trace</b><br/><font size='-1'>");
 				// writeDirectly pour ne pas gérer de traductions si la stack-trace contient '#'
@@ -162,6 +171,50 @@ class HtmlCounterReport extends HtmlAbstractReport {
 					&& collector.getJRobin(request.getId()) != null;
 		}
 
+		private void writeSampledStacks(Collector collector, CollectorServer collectorServer,
+				CounterRequest request) throws IOException {
+			final SampledStacks sampledStacks;
+			try {
+				if (collectorServer == null) {
+					sampledStacks = collector.getSampledStacks(request.getId());
+				} else {
+					sampledStacks = collectorServer.collectSampledStacks(
+							collector.getApplication(), request.getId());
+				}
+			} catch (final Exception e) {
+				writeln("<b>#Piles_echantillonnees#</b> ");
+				writeln(e.toString());
+				writeln("<br/>");
+				return;
+			}
+			final long samplesCount = sampledStacks.getSamplesCount();
+			if (samplesCount == 0) {
+				return;
+			}
+			writeln("<br/><b>#Piles_echantillonnees#</b><br/><br/>");
+			final HtmlTable table = new HtmlTable();
+			table.beginTable(getString("Piles_echantillonnees"));
+			write("<th>#Pile_appels#</th>");
+			write("<th class='sorttable_numeric'>#percent_time#</th>");
+			for (final Map.Entry<String, Long> entry : sampledStacks.getCountsByStack().entrySet()) {
+				table.nextRow();
+				write("<td><font size='-1'>");
+				// la frame la plus interne en premier comme dans une stack-trace
+				final String[] frames = entry.getKey().split(";");
+				for (int i = frames.length - 1; i >= 0; i--) {
+					// writeDirectly pour ne pas gérer de traductions si le nom contient '#'
+					writeDirectly(htmlEncodeButNotSpace(frames[i]));
+					if (i > 0) {
+						write("<br/>");
+					}
+				}
+				write("</font></td><td align='right'>");
+				write(systemErrorFormat.format(entry.getValue() * 100d / samplesCount));
+				writeln("</td>");
+			}
+			table.endTable();
+		}
+
 		private void writeSqlRequestExplainPlan(Collector collector,
 				CollectorServer collectorServer, CounterRequest sqlRequest) throws IOException {
 			try {
@@ -193,14 +246,11 @@ class HtmlCounterReport extends HtmlAbstractReport {
 			CounterRequest myRequest = null;
 			final List<CounterRequest> requests = new ArrayList<CounterRequest>();
 			for (final Counter counter : counters) {
-				for (final CounterRequest request : counter.getOrderedRequests()) {
-					if (myRequest == null && request.getId().equals(requestId)) {
-						myRequest = request;
-					}
-					if (request.containsChildRequest(requestId)) {
-						requests.add(request);
-					}
+				if (myRequest == null) {
+					myRequest = counter.getCounterRequestById(requestId);
 				}
+				// index inversé des requêtes filles, sans cloner et trier toutes les requêtes
+				requests.addAll(counter.getParentRequests(requestId));
 			}
 			writeRequestUsages(myRequest, requests);
 		}
@@ -267,7 +317,9 @@ class HtmlCounterReport extends HtmlAbstractReport {
 				writeln("<th class='sorttable_numeric'>#Hits_par_requete#</th>");
 			}
 			writeln("<th class='sorttable_numeric'>#Temps_moyen#</th><th class='sorttable_numeric'>#Temps_max#</th>");
-			writeln("<th class='sorttable_numeric'>#Ecart_type#</th><th class='sorttable_numeric'>#Temps_cpu_moyen#</th>");
+			writeln("<th class='sorttable_numeric'>#Ecart_type#</th>");
+			writeln(getPercentilesHeaders());
+			writeln("<th class='sorttable_numeric'>#Temps_cpu_moyen#</th>");
 			writeln("<th class='sorttable_numeric'>#erreur_systeme#</th>");
 			final Counter parentCounter = getCounterByRequestId(request);
 			final boolean allChildHitsDisplayed = parentCounter != null
@@ -343,8 +395,18 @@ class HtmlCounterReport extends HtmlAbstractReport {
 			writeln(integerFormat.format(request.getMaximum()));
 			writeln(nextColumn);
 			writeln(integerFormat.format(request.getStandardDeviation()));
-			writeln(nextColumn);
 			final String nbsp = "&nbsp;";
+			for (final int percentile : PERCENTILES) {
+				writeln(nextColumn);
+				// centile inconnu si pas d'histogramme (données d'une version précédente)
+				final long durationsPercentile = request.getDurationsPercentile(percentile);
+				if (durationsPercentile >= 0) {
+					writeln(integerFormat.format(durationsPercentile));
+				} else {
+					writeln(nbsp);
+				}
+			}
+			writeln(nextColumn);
 			if (request.getCpuTimeMean() >= 0) {
 				writeln(integerFormat.format(request.getCpuTimeMean()));
 			} else {
@@ -487,10 +549,9 @@ class HtmlCounterReport extends HtmlAbstractReport {
 		// 2. débit et liens
 		writeSizeAndLinks(requests, counterName, globalRequest);
 
-		// 3. détails par requêtes (non visible par défaut)
+		// 3. détails par requêtes (non visible par défaut), première page seulement
 		writeln("<div id='details" + counterName + "' style='display: none;'>");
-		writeRequests(counterName, counter.getChildCounterName(), requests,
-				isRequestGraphDisplayed(counter), true, false);
+		writeRequestsPage(requests, 0);
 		writeln("</div>");
 
 		// 4. logs (non visible par défaut)
@@ -501,6 +562,43 @@ class HtmlCounterReport extends HtmlAbstractReport {
 		}
 	}
 
+	/**
+	 * Écrit une page des requêtes de ce compteur, pour la page à part ?part=counterRequests.
+	 * @param offset Index de la première requête de la page
+	 * @throws IOException e
+	 */
+	void writeRequestsPage(int offset) throws IOException {
+		assert offset >= 0;
+		final List<CounterRequest> requests = counterRequestAggregation.getRequests();
+		if (requests.isEmpty()) {
+			writeNoRequests();
+			return;
+		}
+		writeRequestsPage(requests, offset);
+	}
+
+	private void writeRequestsPage(List<CounterRequest> requests, int offset) throws IOException {
+		final int fromIndex = Math.min(offset, requests.size());
+		final int toIndex = Math.min(offset + REQUESTS_PAGE_SIZE, requests.size());
+		writeRequests(counter.getName(), counter.getChildCounterName(),
+				requests.subList(fromIndex, toIndex), isRequestGraphDisplayed(counter), true,
+				false);
+		if (offset > 0 || toIndex < requests.size()) {
+			final String hrefStart = "<a href='?part=counterRequests&amp;counter="
+					+ counter.getName() + "&amp;offset=";
+			writeln("<div align='right' class='noPrint'>");
+			if (offset > 0) {
+				writeln(hrefStart + Math.max(offset - REQUESTS_PAGE_SIZE, 0)
+						+ "'>#Page_precedente#</a>");
+				writeln("&nbsp;&nbsp;&nbsp;");
+			}
+			if (toIndex < requests.size()) {
+				writeln(hrefStart + toIndex + "'>#Page_suivante#</a>");
+			}
+			writeln("</div>");
+		}
+	}
+
 	private void writeSizeAndLinks(List<CounterRequest> requests, String counterName,
 			CounterRequest globalRequest) throws IOException {
 		final long end;
@@ -605,6 +703,16 @@ class HtmlCounterReport extends HtmlAbstractReport {
 		table.endTable();
 	}
 
+	static String getPercentilesHeaders() {
+		final StringBuilder sb = new StringBuilder();
+		for (final int percentile : PERCENTILES) {
+			sb.append("<th class='sorttable_numeric'>");
+			sb.append(getFormattedString("centile", percentile));
+			sb.append("</th>");
+		}
+		return sb.toString();
+	}
+
 	private void writeTableHead(String childCounterName) throws IOException {
 		if (isJobCounter()) {
 			write("<th>#Job#</th>");
@@ -619,12 +727,20 @@ class HtmlCounterReport extends HtmlAbstractReport {
 			write("<th class='sorttable_numeric'>#Temps_moyen#</th>");
 			write("<th class='sorttable_numeric'>#Temps_max#</th>");
 			write("<th class='sorttable_numeric'>#Ecart_type#</th>");
+			write(getPercentilesHeaders());
 		} else {
 			write("<th class='sorttable_numeric'>#Hits#</th>");
 		}
 		if (counterRequestAggregation.isCpuTimesDisplayed()) {
 			write("<th class='sorttable_numeric'>#temps_cpu_cumule#</th>");
-			write("<th class='sorttable_numeric'>#Temps_cpu_moyen#</th>");
+			if (counter.isCpuTimeEstimated()) {
+				// temps cpu extrapolés à partir d'1 requête sur N
+				write("<th class='sorttable_numeric'>#Temps_cpu_moyen#<br/>"
+						+ getFormattedString("cpu_estime", counter.getCpuTimeSamplingInterval())
+						+ "</th>");
+			} else {
+				write("<th class='sorttable_numeric'>#Temps_cpu_moyen#</th>");
+			}
 		}
 		if (!isErrorAndNotJobCounter()) {
 			write("<th class='sorttable_numeric'>#erreur_systeme#</th>");
@@ -663,6 +779,16 @@ class HtmlCounterReport extends HtmlAbstractReport {
 			write(integerFormat.format(request.getMaximum()));
 			write(nextColumn);
 			write(integerFormat.format(request.getStandardDeviation()));
+			for (final int percentile : PERCENTILES) {
+				write(nextColumn);
+				// centile inconnu si pas d'histogramme (données d'une version précédente)
+				final long durationsPercentile = request.getDurationsPercentile(percentile);
+				if (durationsPercentile >= 0) {
+					write(integerFormat.format(durationsPercentile));
+				} else {
+					write("&nbsp;");
+				}
+			}
 		} else {
 			write(nextColumn);
 			write(integerFormat.format(request.getHits()));
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.util.Date;
+
+import net.bull.javamelody.HeapHistogramDiff.ClassDelta;
+
+/**
+ * Partie du rapport html pour les classes en croissance entre deux histogrammes mémoire.
+ * @author Emeric Vernat
+ */
+class HtmlHeapHistogramDiffReport extends HtmlAbstractReport {
+	private final HeapHistogramDiff heapHistogramDiff;
+	private final DecimalFormat integerFormat = I18N.createIntegerFormat();
+	private final DecimalFormat signedIntegerFormat = I18N.createIntegerFormat();
+
+	HtmlHeapHistogramDiffReport(HeapHistogramDiff heapHistogramDiff, Writer writer) {
+		super(writer);
+		assert heapHistogramDiff != null;
+		this.heapHistogramDiff = heapHistogramDiff;
+		signedIntegerFormat.setPositivePrefix("+");
+	}
+
+	@Override
+	void toHtml() throws IOException {
+		writeLinks();
+		writeln("<br/>");
+
+		final DateFormat dateFormat = I18N.createDateAndTimeFormat();
+		if (heapHistogramDiff.getFromTime() == null) {
+			writeTitle("memory.png", getString("heaphisto_diff"));
+			writeln("<br/>#Pas_assez_histogrammes#");
+			return;
+		}
+		final String title = getFormattedString("heaphisto_diff_du",
+				dateFormat.format(heapHistogramDiff.getFromTime()),
+				dateFormat.format(heapHistogramDiff.getToTime()));
+		writeTitle("memory.png", title);
+		writeln("<br/><b>#Heap#</b>");
+		final String separator = "&nbsp;&nbsp;&nbsp;";
+		writeln(separator);
+		writeln("#Instances#: "
+				+ signedIntegerFormat.format(heapHistogramDiff.getTotalInstancesDelta()) + ',');
+		writeln(separator);
+		writeln("#Kilo-Octets#: "
+				+ signedIntegerFormat.format(heapHistogramDiff.getTotalBytesDelta() / 1024));
+
+		final HtmlTable table = new HtmlTable();
+		table.beginTable(getString("heaphisto_diff"));
+		write("<th>#Classe#</th><th>#Augmentation_taille#</th><th>#Augmentation_instances#</th>"
+				+ "<th>#Taille#</th><th>#Instances#</th>");
+		for (final ClassDelta classDelta : heapHistogramDiff.getClasses()) {
+			table.nextRow();
+			writeClassDeltaRow(classDelta);
+		}
+		table.endTable();
+		writeSnapshotsLinks(dateFormat);
+	}
+
+	private void writeClassDeltaRow(ClassDelta classDelta) throws IOException {
+		write("<td>");
+		write(htmlEncodeButNotSpace(classDelta.getName()));
+		final String nextColumnAlignRight = "</td><td align='right'>";
+		write(nextColumnAlignRight);
+		write(signedIntegerFormat.format(classDelta.getBytesDelta() / 1024));
+		write(nextColumnAlignRight);
+		write(signedIntegerFormat.format(classDelta.getInstancesDelta()));
+		write(nextColumnAlignRight);
+		write(integerFormat.format(classDelta.getBytes() / 1024));
+		write(nextColumnAlignRight);
+		write(integerFormat.format(classDelta.getInstances()));
+		write("</td>");
+	}
+
+	private void writeSnapshotsLinks(DateFormat dateFormat) throws IOException {
+		writeln("<div align='right' class='noPrint'>");
+		writeln("#Comparer_depuis# :");
+		for (final Date snapshotTime : heapHistogramDiff.getSnapshotTimes()) {
+			if (snapshotTime.equals(heapHistogramDiff.getFromTime())) {
+				writeln("<b>" + dateFormat.format(snapshotTime) + "</b>&nbsp;&nbsp;");
+			} else if (snapshotTime.before(heapHistogramDiff.getToTime())) {
+				writeln("<a href='?part=heaphistoDiff&amp;from=" + snapshotTime.getTime() + "'>"
+						+ dateFormat.format(snapshotTime) + "</a>&nbsp;&nbsp;");
+			}
+		}
+		writeln("</div>");
+	}
+
+	private void writeLinks() throws IOException {
+		writeln("<div class='noPrint'>");
+		writeln("<a href='javascript:history.back()'><img src='?resource=action_back.png' alt='#Retour#'/> #Retour#</a>");
+		final String separator = "&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;";
+		writeln(separator);
+		writeln("<a href='?part=heaphistoDiff'><img src='?resource=action_refresh.png' alt='#Actualiser#'/> #Actualiser#</a>");
+		writeln(separator);
+		writeln("<a href='?part=heaphisto'><img src='?resource=memory.png' width='16' height='16' alt='#heaphisto#'/> #heaphisto#</a>");
+		writeln("</div>");
+	}
+}
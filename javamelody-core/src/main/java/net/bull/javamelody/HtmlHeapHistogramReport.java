@@ -183,6 +183,8 @@ class HtmlHeapHistogramReport extends HtmlAbstractReport {
 				+ getStringForJavascript("confirm_heap_dump") + "');\">");
 		writeln("<img src='?resource=heapdump.png' width='16' height='16' alt='#heap_dump#' /> #heap_dump#</a>");
 		writeln(separator);
+		writeln("<a href='?part=heaphistoDiff'><img src='?resource=memory.png' width='16' height='16' alt='#heaphisto_diff#' /> #heaphisto_diff#</a>");
+		writeln(separator);
 		writeln("</div>");
 	}
 }
@@ -89,6 +89,8 @@ class HtmlHotspotsReport extends HtmlAbstractReport {
 			write("<a href='?part=hotspots&amp;format=pdf' title='#afficher_PDF#'>");
 			write("<img src='?resource=pdf.png' alt='#PDF#'/> #PDF#</a>");
 		}
+		writeln("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
+		writeln("<a href='?part=collapsedStacks' title='#piles_agregees_intro#'><img src='?resource=text.png' alt='#piles_agregees#'/> #piles_agregees#</a>");
 		writeln("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;");
 		writeln("<a href='?part=hotspots&amp;action=clear_hotspots' onclick=\"javascript:return confirm('"
 				+ getStringForJavascript("confirm_clear_hotspots") + "');\">");
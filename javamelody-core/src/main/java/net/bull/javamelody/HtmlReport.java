@@ -111,8 +111,16 @@ class HtmlReport extends HtmlAbstractReport {
 	}
 
 	void writeAllThreadsAsPart() throws IOException {
+		writeAllThreadsAsPart(null);
+	}
+
+	void writeAllThreadsAsPart(String threadFilter) throws IOException {
+		writeAllThreadsAsPart(threadFilter, 0);
+	}
+
+	void writeAllThreadsAsPart(String threadFilter, int offset) throws IOException {
 		writeHtmlHeader();
-		htmlCoreReport.writeAllThreadsAsPart();
+		htmlCoreReport.writeAllThreadsAsPart(threadFilter, offset);
 		writeHtmlFooter();
 	}
 
@@ -120,6 +128,12 @@ class HtmlReport extends HtmlAbstractReport {
 		htmlCoreReport.writeThreadsDump();
 	}
 
+	void writeCounterRequests(String counterName, int offset) throws IOException {
+		writeHtmlHeader();
+		htmlCoreReport.writeCounterRequests(counterName, offset);
+		writeHtmlFooter();
+	}
+
 	void writeCounterSummaryPerClass(String counterName, String requestId) throws IOException {
 		writeHtmlHeader();
 		htmlCoreReport.writeCounterSummaryPerClass(counterName, requestId);
@@ -246,9 +260,16 @@ class HtmlReport extends HtmlAbstractReport {
 	void writeSessions(List<SessionInformations> sessionsInformations, String message,
 			String sessionsPart) throws IOException {
 		assert sessionsInformations != null;
+		writeSessions(sessionsInformations, 0, sessionsInformations.size(), message, sessionsPart);
+	}
+
+	void writeSessions(List<SessionInformations> sessionsInformations, int offset,
+			int sessionsCount, String message, String sessionsPart) throws IOException {
+		assert sessionsInformations != null;
 		writeHtmlHeader();
 		writeMessageIfNotNull(message, sessionsPart);
-		new HtmlSessionInformationsReport(sessionsInformations, getWriter()).toHtml();
+		new HtmlSessionInformationsReport(sessionsInformations, offset, sessionsCount,
+				getWriter()).toHtml();
 		writeHtmlFooter();
 	}
 
@@ -276,6 +297,13 @@ class HtmlReport extends HtmlAbstractReport {
 		writeHtmlFooter();
 	}
 
+	void writeHeapHistogramDiff(HeapHistogramDiff heapHistogramDiff) throws IOException {
+		assert heapHistogramDiff != null;
+		writeHtmlHeader();
+		new HtmlHeapHistogramDiffReport(heapHistogramDiff, getWriter()).toHtml();
+		writeHtmlFooter();
+	}
+
 	void writeProcesses(List<ProcessInformations> processInformationsList) throws IOException {
 		assert processInformationsList != null;
 		writeHtmlHeader();
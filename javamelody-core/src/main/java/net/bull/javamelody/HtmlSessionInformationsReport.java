@@ -33,16 +33,30 @@ import net.bull.javamelody.SessionInformations.SessionAttribute;
  * @author Emeric Vernat
  */
 class HtmlSessionInformationsReport extends HtmlAbstractReport {
+	/**
+	 * Nombre maximum de sessions affichées par page.
+	 */
+	static final int SESSIONS_PAGE_SIZE = 1000;
 	private static final String A_HREF_PART_SESSIONS = "<a href='?part=sessions";
 	private final List<SessionInformations> sessionsInformations;
+	private final int offset;
+	private final int sessionsCount;
 	private final HttpSession currentSession;
 	private final DecimalFormat integerFormat = I18N.createIntegerFormat();
 	private final DateFormat durationFormat = I18N.createDurationFormat();
 	private final DateFormat expiryFormat = I18N.createDateAndTimeFormat();
 
 	HtmlSessionInformationsReport(List<SessionInformations> sessionsInformations, Writer writer) {
+		this(sessionsInformations, 0, sessionsInformations == null ? 0 : sessionsInformations
+				.size(), writer);
+	}
+
+	HtmlSessionInformationsReport(List<SessionInformations> sessionsInformations, int offset,
+			int sessionsCount, Writer writer) {
 		super(writer);
 		this.sessionsInformations = sessionsInformations;
+		this.offset = offset;
+		this.sessionsCount = sessionsCount;
 		this.currentSession = SessionListener.getCurrentSession();
 	}
 
@@ -52,7 +66,7 @@ class HtmlSessionInformationsReport extends HtmlAbstractReport {
 		writeln("<br/>");
 
 		assert sessionsInformations != null;
-		if (sessionsInformations.isEmpty()) {
+		if (sessionsInformations.isEmpty() && offset == 0) {
 			writeln("#Aucune_session#");
 			return;
 		}
@@ -73,11 +87,27 @@ class HtmlSessionInformationsReport extends HtmlAbstractReport {
 		} else {
 			meanSerializedSize = -1;
 		}
-		writeln("<div align='right'>"
-				+ getFormattedString("nb_sessions", sessionsInformations.size()) + "<br/><br/>"
+		writeln("<div align='right'>");
+		writePageLinks();
+		writeln(getFormattedString("nb_sessions", sessionsCount) + "<br/><br/>"
 				+ getFormattedString("taille_moyenne_sessions", meanSerializedSize) + "</div>");
 	}
 
+	private void writePageLinks() throws IOException {
+		if (offset > 0) {
+			writeln(A_HREF_PART_SESSIONS + "&amp;offset="
+					+ Math.max(offset - SESSIONS_PAGE_SIZE, 0) + "'>#Page_precedente#</a>");
+			writeln("&nbsp;&nbsp;&nbsp;");
+		}
+		if (offset + sessionsInformations.size() < sessionsCount) {
+			writeln(A_HREF_PART_SESSIONS + "&amp;offset=" + (offset + SESSIONS_PAGE_SIZE)
+					+ "'>#Page_suivante#</a>");
+		}
+		if (offset > 0 || offset + sessionsInformations.size() < sessionsCount) {
+			writeln("<br/><br/>");
+		}
+	}
+
 	private void writeSessions(List<SessionInformations> sessions) throws IOException {
 		boolean displayUser = false;
 		for (final SessionInformations sessionInformations : sessions) {
@@ -28,10 +28,13 @@ import java.util.List;
  * @author Emeric Vernat
  */
 class HtmlThreadInformationsReport extends HtmlAbstractReport {
+	// nombre maximum de threads par page dans la page à part des threads
+	static final int THREADS_PAGE_SIZE = 1000;
 	private final List<ThreadInformations> threadInformationsList;
 	private final DecimalFormat integerFormat = I18N.createIntegerFormat();
 	private final boolean stackTraceEnabled;
 	private final boolean cpuTimeEnabled;
+	private final boolean recentCpuEnabled;
 	private final boolean systemActionsEnabled = Parameters.isSystemActionsEnabled();
 
 	HtmlThreadInformationsReport(List<ThreadInformations> threadInformationsList,
@@ -43,6 +46,17 @@ class HtmlThreadInformationsReport extends HtmlAbstractReport {
 		this.stackTraceEnabled = stackTraceEnabled;
 		this.cpuTimeEnabled = !threadInformationsList.isEmpty()
 				&& threadInformationsList.get(0).getCpuTimeMillis() != -1;
+		this.recentCpuEnabled = cpuTimeEnabled && isRecentCpuEnabled(threadInformationsList);
+	}
+
+	private static boolean isRecentCpuEnabled(List<ThreadInformations> threadInformationsList) {
+		// pas de pourcentage cpu récent s'il n'y avait pas de snapshot précédent
+		for (final ThreadInformations threadInformations : threadInformationsList) {
+			if (threadInformations.getRecentCpuPercent() >= 0) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
@@ -57,6 +71,9 @@ class HtmlThreadInformationsReport extends HtmlAbstractReport {
 		if (cpuTimeEnabled) {
 			write("<th class='sorttable_numeric'>#Temps_cpu#</th><th class='sorttable_numeric'>#Temps_user#</th>");
 		}
+		if (recentCpuEnabled) {
+			write("<th class='sorttable_numeric'>#Cpu_recent#</th>");
+		}
 		if (systemActionsEnabled) {
 			writeln("<th class='noPrint'>#Tuer#</th>");
 		}
@@ -67,6 +84,9 @@ class HtmlThreadInformationsReport extends HtmlAbstractReport {
 		table.endTable();
 		writeln("<div align='right'>");
 		writeln("#Temps_threads#");
+		if (recentCpuEnabled) {
+			writeln("<br/>#Cpu_recent_threads#");
+		}
 		writeln("</div>");
 	}
 
@@ -159,6 +179,12 @@ class HtmlThreadInformationsReport extends HtmlAbstractReport {
 			write("</td> <td align='right'>");
 			write(integerFormat.format(threadInformations.getUserTimeMillis()));
 		}
+		if (recentCpuEnabled) {
+			write("</td> <td align='right'>");
+			if (threadInformations.getRecentCpuPercent() >= 0) {
+				write(integerFormat.format(threadInformations.getRecentCpuPercent()));
+			}
+		}
 		writeKillThread(threadInformations);
 		write("</td>");
 	}
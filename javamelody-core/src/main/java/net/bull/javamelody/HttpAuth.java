@@ -68,6 +68,13 @@ class HttpAuth {
 		return null;
 	}
 
+	/**
+	 * @return true si l'accès est restreint par le paramètre allowed-addr-pattern ou authorized-users
+	 */
+	boolean isRestricted() {
+		return allowedAddrPattern != null || authorizedUsers != null;
+	}
+
 	boolean isAllowed(HttpServletRequest httpRequest, HttpServletResponse httpResponse)
 			throws IOException {
 		if (!isRequestAllowed(httpRequest)) {
@@ -45,7 +45,15 @@ final class HttpParameters {
 	static final String HEIGHT_PARAMETER = "height";
 	static final String MAX_PARAMETER = "max";
 	static final String REPORT_PARAMETER = "report";
+	static final String EPOCH_PARAMETER = "epoch";
+	static final String SEQUENCE_PARAMETER = "sequence";
+	static final String POINTS_PARAMETER = "points";
+	static final String FROM_PARAMETER = "from";
+	static final String TO_PARAMETER = "to";
+	static final String OFFSET_PARAMETER = "offset";
+	static final String THREAD_FILTER_PARAMETER = "threadFilter";
 	static final String HEAP_HISTO_PART = "heaphisto";
+	static final String HEAP_HISTO_DIFF_PART = "heaphistoDiff";
 	static final String PROCESSES_PART = "processes";
 	static final String CURRENT_REQUESTS_PART = "currentRequests";
 	static final String DEFAULT_WITH_CURRENT_REQUESTS_PART = "defaultWithCurrentRequests";
@@ -54,6 +62,8 @@ final class HttpParameters {
 	static final String JNLP_PART = "jnlp";
 	static final String SESSIONS_PART = "sessions";
 	static final String HOTSPOTS_PART = "hotspots";
+	static final String COLLAPSED_STACKS_PART = "collapsedStacks";
+	static final String SAMPLED_STACKS_PART = "sampledStacks";
 	static final String DATABASE_PART = "database";
 	static final String CONNECTIONS_PART = "connections";
 	static final String GRAPH_PART = "graph";
@@ -65,11 +75,15 @@ final class HttpParameters {
 	static final String THREADS_PART = "threads";
 	static final String THREADS_DUMP_PART = "threadsDump";
 	static final String COUNTER_SUMMARY_PER_CLASS_PART = "counterSummaryPerClass";
+	static final String COUNTER_REQUESTS_PART = "counterRequests";
 	static final String RUNTIME_DEPENDENCIES_PART = "runtimeDependencies";
 	static final String JROBINS_PART = "jrobins";
 	static final String OTHER_JROBINS_PART = "otherJRobins";
+	static final String JROBINS_DATA_PART = "jrobinsData";
 	static final String EXPLAIN_PLAN_PART = "explainPlan";
 	static final String APPLICATIONS_PART = "applications";
+	static final String DELTA_PART = "delta";
+	static final String PUSH_PART = "push";
 
 	/**
 	 * Constructeur privé: pas d'instance.
@@ -169,6 +169,12 @@ final class I18N {
 	 * @throws IOException e
 	 */
 	static void writeTo(String html, Writer writer) throws IOException {
+		// les fragments html constants sont traduits une seule fois par locale
+		final String translatedHtml = I18NTemplateCache.getTranslatedHtml(html);
+		if (translatedHtml != null) {
+			writer.write(translatedHtml);
+			return;
+		}
 		int index = html.indexOf('#');
 		if (index == -1) {
 			writer.write(html);
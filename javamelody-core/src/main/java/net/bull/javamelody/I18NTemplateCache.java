@@ -0,0 +1,130 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache des fragments html constants traduits, pour I18N.writeTo.
+ * Un fragment html avec des #clé# est analysé une fois par locale, et ses segments littéraux et traduits
+ * sont concaténés dans un texte prêt à écrire, ce qui évite de rechercher les '#', d'extraire les clés
+ * et de rechercher les traductions dans le ResourceBundle à chaque écriture d'une ligne de tableau.<br/>
+ * Les fragments sont retrouvés par leur contenu. Seuls les fragments déjà rencontrés récemment
+ * sont ajoutés au cache : un fragment construit dynamiquement (avec un nom de requête par exemple)
+ * est en général vu une seule fois et il est alors écrit en flux par I18N.writeTo, sans entrer
+ * dans le cache ni en évincer les fragments constants des rapports.
+ * Le nombre de fragments en cache est borné et, une fois la borne atteinte, les nouveaux fragments
+ * sont aussi écrits en flux.
+ * @author Emeric Vernat
+ */
+final class I18NTemplateCache {
+	private static final int MAX_TEMPLATES = 2048;
+	// pas de cache pour les grands fragments, construits dynamiquement et rarement répétés
+	private static final int MAX_HTML_LENGTH = 4096;
+	// puissance de 2
+	private static final int SEEN_SIZE = 4096;
+	private static final ConcurrentMap<Locale, ConcurrentMap<String, String>> TEMPLATES_BY_LOCALE = new ConcurrentHashMap<Locale, ConcurrentMap<String, String>>();
+	private static final AtomicInteger TEMPLATES_COUNT = new AtomicInteger();
+	// hash des fragments vus une fois mais pas encore en cache, à correspondance directe
+	// (lectures et écritures non synchronisées : au pire un fragment est ajouté une fois plus tard)
+	private static final int[] SEEN_HASHES = new int[SEEN_SIZE];
+
+	private I18NTemplateCache() {
+		super();
+	}
+
+	/**
+	 * Retourne le fragment html avec les #clé# remplacées par leurs traductions dans la locale courante,
+	 * s'il est en cache ou s'il est ajouté au cache par cet appel.
+	 * @param html texte html avec éventuellement des #clé#
+	 * @return String, ou null si le fragment n'est pas en cache et doit être traduit en flux
+	 */
+	static String getTranslatedHtml(String html) {
+		if (html.length() > MAX_HTML_LENGTH) {
+			return null;
+		}
+		final Locale locale = I18N.getCurrentLocale();
+		ConcurrentMap<String, String> templates = TEMPLATES_BY_LOCALE.get(locale);
+		if (templates != null) {
+			final String translatedHtml = templates.get(html);
+			if (translatedHtml != null) {
+				return translatedHtml;
+			}
+		}
+		if (html.indexOf('#') == -1 || !isSeenBefore(html)
+				|| TEMPLATES_COUNT.get() >= MAX_TEMPLATES) {
+			// rien à traduire, fragment pas encore répété ou cache plein : écriture en flux
+			return null;
+		}
+		if (templates == null) {
+			templates = new ConcurrentHashMap<String, String>();
+			final ConcurrentMap<String, String> previousTemplates = TEMPLATES_BY_LOCALE
+					.putIfAbsent(locale, templates);
+			if (previousTemplates != null) {
+				templates = previousTemplates;
+			}
+		}
+		final String translatedHtml = translate(html, I18N.getResourceBundle());
+		if (templates.putIfAbsent(html, translatedHtml) == null) {
+			TEMPLATES_COUNT.incrementAndGet();
+		}
+		return translatedHtml;
+	}
+
+	private static boolean isSeenBefore(String html) {
+		final int hash = html.hashCode();
+		final int index = hash & (SEEN_SIZE - 1);
+		if (SEEN_HASHES[index] == hash) {
+			return true;
+		}
+		SEEN_HASHES[index] = hash;
+		return false;
+	}
+
+	private static String translate(String html, ResourceBundle resourceBundle) {
+		final StringBuilder sb = new StringBuilder(html.length() + 32);
+		int begin = 0;
+		int index = html.indexOf('#');
+		while (index != -1) {
+			sb.append(html, begin, index);
+			final int nextIndex = html.indexOf('#', index + 1);
+			final String key = html.substring(index + 1, nextIndex);
+			sb.append(resourceBundle.getString(key));
+			begin = nextIndex + 1;
+			index = html.indexOf('#', begin);
+		}
+		sb.append(html, begin, html.length());
+		return sb.toString();
+	}
+
+	static int getTemplatesCount() {
+		return TEMPLATES_COUNT.get();
+	}
+
+	static void clear() {
+		TEMPLATES_BY_LOCALE.clear();
+		TEMPLATES_COUNT.set(0);
+		for (int i = 0; i < SEEN_SIZE; i++) {
+			SEEN_HASHES[i] = 0;
+		}
+	}
+}
@@ -31,14 +31,18 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.imageio.ImageIO;
 
+import org.jrobin.core.FetchData;
 import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDbPool;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
+import org.jrobin.core.RrdFileBackend;
 import org.jrobin.core.Sample;
 import org.jrobin.core.Util;
 import org.jrobin.graph.RrdGraph;
@@ -77,12 +81,17 @@ final class JRobin {
 	}
 
 	static final int SMALL_HEIGHT = 50;
+	// préfixes des courbes par noeud du serveur de collecte, dont requestName est le nom du noeud
+	static final String NODE_FETCH_DURATION_PREFIX = "nodeFetchDuration_";
+	static final String NODE_FETCH_SIZE_PREFIX = "nodeFetchSize_";
 	private static final Color LIGHT_RED = Color.RED.brighter().brighter();
 	private static final Paint SMALL_GRADIENT = new GradientPaint(0, 0, LIGHT_RED, 0, SMALL_HEIGHT,
 			Color.GREEN, false);
 	private static final int HOUR = 60 * 60;
 	private static final int DAY = 24 * HOUR;
-	private static final int DEFAULT_OBSOLETE_GRAPHS_DAYS = 90;
+	// dates de dernière mise à jour des fichiers rrd par chemin, connues en mémoire
+	// pour ne pas ouvrir un fichier rrd dans le pool à chaque affichage d'une courbe en cache
+	private static final ConcurrentMap<String, Long> LAST_UPDATE_TIMES_BY_FILE = new ConcurrentHashMap<String, Long>();
 
 	// pool of open RRD files
 	private final RrdDbPool rrdPool = getRrdDbPool();
@@ -114,11 +123,17 @@ final class JRobin {
 		if (RrdNioBackend.getFileSyncTimer() != null) {
 			RrdNioBackend.getFileSyncTimer().cancel();
 		}
+		final RrdBackendFactory defaultFactory = RrdBackendFactory.getDefaultFactory();
+		if (defaultFactory instanceof RrdMappedBackendFactory) {
+			((RrdMappedBackendFactory) defaultFactory).stop();
+		}
 	}
 
 	/**
 	 * JavaMelody uses a custom RrdNioBackendFactory,
-	 * in order to use its own and cancelable file sync timer.
+	 * in order to use its own and cancelable file sync timer,
+	 * or a RrdMappedBackendFactory if the parameter rrd-mapped-backend is true,
+	 * in order to sync all files in one timer task.
 	 * @param timer Timer
 	 * @throws IOException e
 	 */
@@ -126,7 +141,17 @@ final class JRobin {
 		RrdNioBackend.setFileSyncTimer(timer);
 
 		try {
-			if (!RrdBackendFactory.getDefaultFactory().getFactoryName()
+			if (Boolean.parseBoolean(Parameters.getParameter(Parameter.RRD_MAPPED_BACKEND))) {
+				final RrdBackendFactory defaultFactory = RrdBackendFactory.getDefaultFactory();
+				final RrdMappedBackendFactory mappedBackendFactory;
+				if (defaultFactory instanceof RrdMappedBackendFactory) {
+					mappedBackendFactory = (RrdMappedBackendFactory) defaultFactory;
+				} else {
+					mappedBackendFactory = RrdMappedBackendFactory.createFromParameters();
+					RrdBackendFactory.registerAndSetAsDefaultFactory(mappedBackendFactory);
+				}
+				mappedBackendFactory.scheduleSyncTask(timer, RrdNioBackendFactory.getSyncPeriod());
+			} else if (!RrdBackendFactory.getDefaultFactory().getFactoryName()
 					.equals(RrdNioBackendFactory.FACTORY_NAME)) {
 				RrdBackendFactory.registerAndSetAsDefaultFactory(new RrdNioBackendFactory());
 			}
@@ -135,6 +160,13 @@ final class JRobin {
 		}
 	}
 
+	/**
+	 * @return Nombre total d'octets écrits dans les fichiers RRD
+	 */
+	static long getBytesWritten() {
+		return RrdNioBackend.getBytesWritten() + RrdMappedBackend.getBytesWritten();
+	}
+
 	static JRobin createInstance(String application, String name, String requestName)
 			throws IOException {
 		final File dir = Parameters.getStorageDirectory(application);
@@ -203,6 +235,22 @@ final class JRobin {
 	}
 
 	byte[] graph(Range range, int width, int height, boolean maxHidden) throws IOException {
+		// l'image est inchangée tant que le fichier rrd n'est pas mis à jour
+		final long lastUpdateTime = getLastUpdateTime();
+		final String cacheKey = JRobinGraphCache.getKey(rrdFileName, range, width, height,
+				maxHidden);
+		final byte[] cachedBytes = JRobinGraphCache.get(cacheKey, lastUpdateTime,
+				step * 1000L);
+		if (cachedBytes != null) {
+			return cachedBytes;
+		}
+		final byte[] bytes = renderGraph(range, width, height, maxHidden);
+		JRobinGraphCache.put(cacheKey, lastUpdateTime, bytes);
+		return bytes;
+	}
+
+	private byte[] renderGraph(Range range, int width, int height, boolean maxHidden)
+			throws IOException {
 		// static init of the AppContext ClassLoader
 		AppContextClassLoaderLeakPrevention.dummy();
 
@@ -235,7 +283,51 @@ final class JRobin {
 		}
 	}
 
-	private void initGraphPeriodAndSize(Range range, int width, int height, RrdGraphDef graphDef) {
+	/**
+	 * Retourne les valeurs moyennes et maximums de cette courbe pour une période,
+	 * lues dans l'archive rrd la plus précise ayant au plus le nombre de valeurs demandé si possible.
+	 * @param range Période
+	 * @param maxPoints Nombre maximum de valeurs, ou 0 pour toutes les valeurs de l'archive
+	 * @return Series
+	 * @throws IOException e
+	 */
+	JRobinsData.Series fetchData(Range range, int maxPoints) throws IOException {
+		final long[] startAndEndTimes = getStartAndEndTimes(range);
+		final long startTime = startAndEndTimes[0];
+		final long endTime = startAndEndTimes[1];
+		// une résolution plus grande choisit une archive plus consolidée et donc moins de valeurs à lire
+		final long resolution = maxPoints > 0 ? Math.max(step, (endTime - startTime) / maxPoints)
+				: step;
+		try {
+			// request RRD database reference from the pool
+			final RrdDb rrdDb = rrdPool.requestRrdDb(rrdFileName);
+			final FetchData averageData;
+			final FetchData maxData;
+			try {
+				averageData = rrdDb.createFetchRequest("AVERAGE", startTime, endTime, resolution)
+						.fetchData();
+				maxData = rrdDb.createFetchRequest("MAX", startTime, endTime, resolution)
+						.fetchData();
+			} finally {
+				// release RRD database reference
+				rrdPool.release(rrdDb);
+			}
+			final double[] averages = averageData.getValues(getDataSourceName());
+			final double[] maximums = maxData.getValues(getDataSourceName());
+			final int length = Math.min(averages.length, maximums.length);
+			final JRobinsData.Series series = new JRobinsData.Series(getName(), getLabel(),
+					averageData.getFirstTimestamp(), averageData.getStep(), Arrays.copyOf(
+							averages, length), Arrays.copyOf(maximums, length));
+			if (maxPoints > 0) {
+				return series.downsample(maxPoints);
+			}
+			return series;
+		} catch (final RrdException e) {
+			throw createIOException(e);
+		}
+	}
+
+	private static long[] getStartAndEndTimes(Range range) {
 		// ending timestamp is the (current) timestamp in seconds
 		// starting timestamp will be adjusted for each graph
 		final long endTime;
@@ -248,6 +340,13 @@ final class JRobin {
 			endTime = Util.getTime();
 			startTime = endTime - range.getPeriod().getDurationSeconds();
 		}
+		return new long[] { startTime, endTime };
+	}
+
+	private void initGraphPeriodAndSize(Range range, int width, int height, RrdGraphDef graphDef) {
+		final long[] startAndEndTimes = getStartAndEndTimes(range);
+		final long startTime = startAndEndTimes[0];
+		final long endTime = startAndEndTimes[1];
 		final String label = getLabel();
 		final String titleStart;
 		if (label.length() > 31 && width <= 200) {
@@ -329,22 +428,36 @@ final class JRobin {
 	}
 
 	void addValue(double value) throws IOException {
+		// create sample with the current timestamp
+		addValues(new long[] { Util.getTime() }, new double[] { value }, 1);
+	}
+
+	/**
+	 * Ajoute des valeurs dans ce fichier RRD en une seule ouverture du fichier (voir JRobinBatch).
+	 * @param times Timestamps croissants des valeurs, en secondes
+	 * @param values Valeurs
+	 * @param size Nombre de valeurs
+	 * @throws IOException e
+	 */
+	void addValues(long[] times, double[] values, int size) throws IOException {
 		try {
 			// request RRD database reference from the pool
 			final RrdDb rrdDb = rrdPool.requestRrdDb(rrdFileName);
 			synchronized (rrdDb) {
 				try {
-					// create sample with the current timestamp
-					final Sample sample = rrdDb.createSample();
-					// test pour éviter l'erreur suivante au redéploiement par exemple:
-					// org.jrobin.core.RrdException:
-					// Bad sample timestamp x. Last update time was x, at least one second step is required
-					if (sample.getTime() > rrdDb.getLastUpdateTime()) {
-						// set value for load datasource
-						sample.setValue(getDataSourceName(), value);
-						// update database
-						sample.update();
+					for (int i = 0; i < size; i++) {
+						// test pour éviter l'erreur suivante au redéploiement par exemple:
+						// org.jrobin.core.RrdException:
+						// Bad sample timestamp x. Last update time was x, at least one second step is required
+						if (times[i] > rrdDb.getLastUpdateTime()) {
+							final Sample sample = rrdDb.createSample(times[i]);
+							// set value for load datasource
+							sample.setValue(getDataSourceName(), values[i]);
+							// update database
+							sample.update();
+						}
 					}
+					LAST_UPDATE_TIMES_BY_FILE.put(rrdFileName, rrdDb.getLastUpdateTime());
 				} finally {
 					// release RRD database reference
 					rrdPool.release(rrdDb);
@@ -356,7 +469,7 @@ final class JRobin {
 				LOG.debug("A JRobin file was deleted and created again: "
 						+ new File(rrdFileName).getPath());
 				resetFile();
-				addValue(value);
+				addValues(times, values, size);
 			}
 		} catch (final RrdException e) {
 			if (e.getMessage() != null && e.getMessage().startsWith("Invalid file header")) {
@@ -366,8 +479,35 @@ final class JRobin {
 				LOG.debug("A JRobin file was found corrupted and was reset: "
 						+ new File(rrdFileName).getPath());
 				resetFile();
-				addValue(value);
+				addValues(times, values, size);
+			}
+			throw createIOException(e);
+		}
+	}
+
+	private long getLastUpdateTime() throws IOException {
+		final Long lastUpdateTime = LAST_UPDATE_TIMES_BY_FILE.get(rrdFileName);
+		if (lastUpdateTime != null) {
+			return lastUpdateTime;
+		}
+		// aucune valeur ajoutée depuis le démarrage : le fichier n'est lu qu'une fois,
+		// sans écraser une date plus récente mise entre temps par addValues
+		try {
+			// request RRD database reference from the pool
+			final RrdDb rrdDb = rrdPool.requestRrdDb(rrdFileName);
+			try {
+				final long fileLastUpdateTime = rrdDb.getLastUpdateTime();
+				final Long previous = LAST_UPDATE_TIMES_BY_FILE.putIfAbsent(rrdFileName,
+						fileLastUpdateTime);
+				if (previous != null) {
+					return previous;
+				}
+				return fileLastUpdateTime;
+			} finally {
+				// release RRD database reference
+				rrdPool.release(rrdDb);
 			}
+		} catch (final RrdException e) {
 			throw createIOException(e);
 		}
 	}
@@ -388,13 +528,33 @@ final class JRobin {
 	}
 
 	boolean deleteFile() {
+		LAST_UPDATE_TIMES_BY_FILE.remove(rrdFileName);
+		unmapFile(rrdFileName);
 		return new File(rrdFileName).delete();
 	}
 
+	private static void unmapFile(String path) {
+		// un fichier mappé en mémoire ne peut pas être supprimé sous Windows
+		// et ne doit pas être réutilisé s'il est supprimé puis recréé
+		final RrdBackendFactory defaultFactory = RrdBackendFactory.getDefaultFactory();
+		if (defaultFactory instanceof RrdMappedBackendFactory) {
+			try {
+				((RrdMappedBackendFactory) defaultFactory).unmap(RrdFileBackend
+						.getCanonicalPath(path));
+			} catch (final IOException e) {
+				LOG.debug(e.toString(), e);
+			}
+		}
+	}
+
 	private String getApplication() {
 		return application;
 	}
 
+	String getRrdFileName() {
+		return rrdFileName;
+	}
+
 	String getName() {
 		return name;
 	}
@@ -409,6 +569,12 @@ final class JRobin {
 			// c'est un jrobin global issu soit de JavaInformations soit d'un Counter dans le Collector
 			return I18N.getString(getName());
 		}
+		if (getName().startsWith(NODE_FETCH_DURATION_PREFIX)) {
+			// c'est un jrobin d'un noeud dans le serveur de collecte
+			return I18N.getFormattedString("Duree_collecte_noeud", requestName);
+		} else if (getName().startsWith(NODE_FETCH_SIZE_PREFIX)) {
+			return I18N.getFormattedString("Taille_collecte_noeud", requestName);
+		}
 		// c'est un jrobin issu d'un CounterRequest dans le Collector
 		final String shortRequestName = requestName
 				.substring(0, Math.min(30, requestName.length()));
@@ -425,7 +591,8 @@ final class JRobin {
 
 	static long deleteObsoleteJRobinFiles(String application) throws IOException {
 		final Calendar nowMinusThreeMonthsAndADay = Calendar.getInstance();
-		nowMinusThreeMonthsAndADay.add(Calendar.DAY_OF_YEAR, -getObsoleteGraphsDays());
+		nowMinusThreeMonthsAndADay.add(Calendar.DAY_OF_YEAR,
+				-Parameters.getSnapshot().getObsoleteGraphsDays());
 		nowMinusThreeMonthsAndADay.add(Calendar.DAY_OF_YEAR, -1);
 		final long timestamp = Util.getTimestamp(nowMinusThreeMonthsAndADay);
 		final RrdDbPool rrdPool = getRrdDbPool();
@@ -441,6 +608,8 @@ final class JRobin {
 					rrdPool.release(rrdDb);
 					boolean deleted = false;
 					if (obsolete) {
+						LAST_UPDATE_TIMES_BY_FILE.remove(file.getPath());
+						unmapFile(file.getPath());
 						deleted = file.delete();
 					}
 					if (!deleted) {
@@ -460,24 +629,6 @@ final class JRobin {
 		return diskUsage;
 	}
 
-	/**
-	 * @return Nombre de jours avant qu'un fichier de graphique JRobin (extension .rrd) qui n'est plus utilisé,
-	 * soit considéré comme obsolète et soit supprimé automatiquement, à minuit (90 par défaut, soit 3 mois).
-	 */
-	private static int getObsoleteGraphsDays() {
-		final String param = Parameters.getParameter(Parameter.OBSOLETE_GRAPHS_DAYS);
-		if (param != null) {
-			// lance une NumberFormatException si ce n'est pas un nombre
-			final int result = Integer.parseInt(param);
-			if (result <= 0) {
-				throw new IllegalStateException(
-						"The parameter obsolete-graphs-days should be > 0 (90 recommended)");
-			}
-			return result;
-		}
-		return DEFAULT_OBSOLETE_GRAPHS_DAYS;
-	}
-
 	private static List<File> listRrdFiles(String application) {
 		final File storageDir = Parameters.getStorageDirectory(application);
 		// filtre pour ne garder que les fichiers d'extension .rrd et pour éviter d'instancier des File inutiles
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.jrobin.core.Util;
+
+/**
+ * Lot de mises à jour des fichiers RRD pour une collecte.
+ * Les valeurs sont ajoutées pendant la collecte et regroupées par fichier, puis écrites :
+ * chaque fichier est ouvert une seule fois par lot pour y écrire toutes ses valeurs,
+ * puis libéré avant l'ouverture du fichier suivant.
+ * Le nombre de fichiers ouverts en même temps par tous les lots est borné,
+ * même si plusieurs collectes écrivent en parallèle (serveur de collecte).
+ * @author Emeric Vernat
+ */
+final class JRobinBatch {
+	// en dessous de ce nombre de fichiers, les écritures ne sont pas parallélisées
+	private static final int MIN_UPDATES_BY_THREAD = 50;
+	// nombre maximum de fichiers RRD ouverts en même temps par les lots
+	// (bien en dessous de la capacité de RrdDbPool, pour ne pas en évincer les fichiers des courbes)
+	private static final int MAX_OPEN_RRD_FILES = 8;
+	private static final Semaphore OPEN_RRD_FILES_PERMITS = new Semaphore(MAX_OPEN_RRD_FILES);
+
+	// valeurs par nom de fichier rrd
+	private final Map<String, JRobinValues> valuesByRrdFileName = new LinkedHashMap<String, JRobinValues>();
+	private int updatesCount;
+	private long bytesWritten;
+	private long duration;
+
+	/**
+	 * Valeurs à écrire dans un fichier RRD, avec leurs timestamps en secondes.
+	 */
+	private static final class JRobinValues {
+		final JRobin jrobin;
+		long[] times = new long[1];
+		double[] values = new double[1];
+		int size;
+
+		JRobinValues(JRobin jrobin) {
+			super();
+			this.jrobin = jrobin;
+		}
+
+		void add(long time, double value) {
+			if (size > 0 && times[size - 1] >= time) {
+				// une seule valeur par seconde dans un fichier RRD : seule la dernière compte
+				values[size - 1] = value;
+				return;
+			}
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			times[size] = time;
+			values[size] = value;
+			size++;
+		}
+
+		void write() throws IOException {
+			OPEN_RRD_FILES_PERMITS.acquireUninterruptibly();
+			try {
+				jrobin.addValues(times, values, size);
+			} finally {
+				OPEN_RRD_FILES_PERMITS.release();
+			}
+		}
+	}
+
+	void addValue(JRobin jrobin, double value) {
+		assert jrobin != null;
+		final String rrdFileName = jrobin.getRrdFileName();
+		JRobinValues jrobinValues = valuesByRrdFileName.get(rrdFileName);
+		if (jrobinValues == null) {
+			jrobinValues = new JRobinValues(jrobin);
+			valuesByRrdFileName.put(rrdFileName, jrobinValues);
+		}
+		jrobinValues.add(Util.getTime(), value);
+	}
+
+	/**
+	 * @return Nombre de fichiers RRD à écrire
+	 */
+	int size() {
+		return valuesByRrdFileName.size();
+	}
+
+	/**
+	 * Ecrit toutes les valeurs du lot dans les fichiers RRD, fichier par fichier.
+	 * @param executor Pool de threads pour paralléliser les écritures, ou null
+	 * @throws IOException En cas d'erreur d'écriture d'un fichier (les autres fichiers sont écrits)
+	 */
+	void update(ThreadPoolExecutor executor) throws IOException {
+		final long start = System.currentTimeMillis();
+		final long bytesWrittenBefore = JRobin.getBytesWritten();
+		final List<JRobinValues> values = new ArrayList<JRobinValues>(
+				valuesByRrdFileName.values());
+		valuesByRrdFileName.clear();
+		final int nbThreads;
+		if (executor == null) {
+			nbThreads = 1;
+		} else {
+			nbThreads = Math.min(executor.getMaximumPoolSize(), values.size()
+					/ MIN_UPDATES_BY_THREAD);
+		}
+		try {
+			if (nbThreads <= 1) {
+				update(values);
+			} else {
+				updateInParallel(executor, nbThreads, values);
+			}
+		} finally {
+			updatesCount = values.size();
+			// rq: si plusieurs collectes (serveur de collecte) écrivent en même temps,
+			// ce nombre d'octets inclut aussi une partie des écritures des autres collectes
+			bytesWritten = JRobin.getBytesWritten() - bytesWrittenBefore;
+			duration = System.currentTimeMillis() - start;
+		}
+	}
+
+	private static void updateInParallel(ThreadPoolExecutor executor, int nbThreads,
+			List<JRobinValues> values) throws IOException {
+		// découpage en parties de la liste des fichiers
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>(nbThreads);
+		final int partSize = (values.size() + nbThreads - 1) / nbThreads;
+		for (int i = 0; i < values.size(); i += partSize) {
+			final List<JRobinValues> part = values.subList(i, Math.min(i + partSize, values.size()));
+			futures.add(executor.submit(new Callable<Object>() {
+				/** {@inheritDoc} */
+				@Override
+				public Object call() throws IOException {
+					update(part);
+					return null;
+				}
+			}));
+		}
+		IOException firstException = null;
+		for (final Future<Object> future : futures) {
+			try {
+				future.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				} else if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				if (firstException == null) {
+					firstException = (IOException) e.getCause();
+				}
+			}
+		}
+		if (firstException != null) {
+			throw firstException;
+		}
+	}
+
+	private static void update(List<JRobinValues> values) throws IOException {
+		IOException firstException = null;
+		for (final JRobinValues jrobinValues : values) {
+			try {
+				jrobinValues.write();
+			} catch (final IOException e) {
+				// on continue avec les autres fichiers
+				if (firstException == null) {
+					firstException = e;
+				}
+			}
+		}
+		if (firstException != null) {
+			throw firstException;
+		}
+	}
+
+	int getUpdatesCount() {
+		return updatesCount;
+	}
+
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	long getDuration() {
+		return duration;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[updatesCount=" + getUpdatesCount()
+				+ ", bytesWritten=" + getBytesWritten() + ", duration=" + getDuration() + ']';
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache en mémoire des images png des courbes, pour ne pas refaire le rendu
+ * des mêmes courbes à chaque affichage (par exemple une page rafraîchie sur plusieurs écrans).
+ * La clé comprend le fichier rrd, la période, la taille, l'affichage du maximum et la langue,
+ * et une image n'est valide que tant que la date de dernière mise à jour du fichier rrd n'a pas changé
+ * (date connue en mémoire par JRobin, sans ouvrir le fichier rrd)
+ * (et au plus une période de collecte, pour que l'axe du temps avance même sans mise à jour).
+ * Le cache est borné en taille totale, les images les moins récemment utilisées étant retirées en premier.
+ * @author Emeric Vernat
+ */
+final class JRobinGraphCache {
+	private static final long MAX_BYTES = 8 * 1024 * 1024;
+
+	// ordre d'accès pour retirer les images les moins récemment utilisées
+	private static final Map<String, CachedGraph> GRAPHS_BY_KEY = new LinkedHashMap<String, CachedGraph>(
+			16, 0.75f, true);
+	private static long totalBytes;
+	private static long hitsCount;
+	private static long missesCount;
+
+	private static final class CachedGraph {
+		final long lastUpdateTime;
+		final byte[] bytes;
+		final long creationTime = System.currentTimeMillis();
+
+		CachedGraph(long lastUpdateTime, byte[] bytes) {
+			super();
+			this.lastUpdateTime = lastUpdateTime;
+			this.bytes = bytes;
+		}
+	}
+
+	private JRobinGraphCache() {
+		super();
+	}
+
+	static String getKey(String rrdFileName, Range range, int width, int height,
+			boolean maxHidden) {
+		// la langue est dans la clé car les titres et légendes sont traduits
+		return rrdFileName + '|' + range.getValue() + '|' + width + 'x' + height + '|'
+				+ maxHidden + '|' + I18N.getCurrentLocale();
+	}
+
+	/**
+	 * @param key Clé retournée par getKey
+	 * @param lastUpdateTime Date de dernière mise à jour du fichier rrd
+	 * @param maxAgeMillis Durée maximum de validité de l'image
+	 * @return Image png, ou null si elle n'est pas dans le cache ou si elle n'est plus à jour
+	 */
+	static synchronized byte[] get(String key, long lastUpdateTime, long maxAgeMillis) {
+		final CachedGraph cachedGraph = GRAPHS_BY_KEY.get(key);
+		if (cachedGraph != null && cachedGraph.lastUpdateTime == lastUpdateTime
+				&& System.currentTimeMillis() - cachedGraph.creationTime < maxAgeMillis) {
+			hitsCount++;
+			return cachedGraph.bytes;
+		}
+		missesCount++;
+		return null;
+	}
+
+	static synchronized void put(String key, long lastUpdateTime, byte[] bytes) {
+		if (bytes.length > MAX_BYTES / 4) {
+			// une image trop grande retirerait la plupart des autres
+			return;
+		}
+		final CachedGraph previous = GRAPHS_BY_KEY.put(key,
+				new CachedGraph(lastUpdateTime, bytes));
+		if (previous != null) {
+			totalBytes -= previous.bytes.length;
+		}
+		totalBytes += bytes.length;
+		final Iterator<CachedGraph> iterator = GRAPHS_BY_KEY.values().iterator();
+		while (totalBytes > MAX_BYTES && iterator.hasNext()) {
+			totalBytes -= iterator.next().bytes.length;
+			iterator.remove();
+		}
+	}
+
+	static synchronized void clear() {
+		GRAPHS_BY_KEY.clear();
+		totalBytes = 0;
+	}
+
+	static synchronized int getGraphsCount() {
+		return GRAPHS_BY_KEY.size();
+	}
+
+	static synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	static synchronized long getHitsCount() {
+		return hitsCount;
+	}
+
+	static synchronized long getMissesCount() {
+		return missesCount;
+	}
+
+	/**
+	 * @return Pourcentage des images lues dans le cache
+	 */
+	static synchronized int getHitRatio() {
+		final long total = hitsCount + missesCount;
+		if (total == 0) {
+			return 0;
+		}
+		return (int) (100 * hitsCount / total);
+	}
+}
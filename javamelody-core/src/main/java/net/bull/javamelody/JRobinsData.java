@@ -0,0 +1,228 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Données consolidées (moyennes et maximums) de courbes pour une période,
+ * pour que les courbes puissent être dessinées par le client (navigateur ou ihm swing)
+ * au lieu d'images png générées par le serveur.
+ * @author Emeric Vernat
+ */
+class JRobinsData implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final List<Series> seriesList = new ArrayList<Series>();
+
+	/**
+	 * Données d'une courbe : une valeur moyenne et une valeur maximum par pas de temps,
+	 * Double.NaN si pas de valeur.
+	 */
+	static class Series implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final String label;
+		private final long startTime;
+		private final long step;
+		private final double[] averages;
+		private final double[] maximums;
+
+		/**
+		 * Constructeur.
+		 * @param name Nom de la courbe
+		 * @param label Libellé de la courbe
+		 * @param startTime Date de la première valeur en secondes
+		 * @param step Pas de temps entre les valeurs en secondes
+		 * @param averages Valeurs moyennes
+		 * @param maximums Valeurs maximums
+		 */
+		Series(String name, String label, long startTime, long step, double[] averages,
+				double[] maximums) {
+			super();
+			assert name != null;
+			assert step > 0;
+			assert averages.length == maximums.length;
+			this.name = name;
+			this.label = label;
+			this.startTime = startTime;
+			this.step = step;
+			this.averages = averages;
+			this.maximums = maximums;
+		}
+
+		/**
+		 * Réduit le nombre de valeurs en regroupant des pas de temps consécutifs :
+		 * moyenne des moyennes et maximum des maximums de chaque groupe.
+		 * @param maxPoints Nombre maximum de valeurs
+		 * @return Series
+		 */
+		Series downsample(int maxPoints) {
+			assert maxPoints > 0;
+			if (averages.length <= maxPoints) {
+				return this;
+			}
+			final int groupSize = (averages.length + maxPoints - 1) / maxPoints;
+			final int count = (averages.length + groupSize - 1) / groupSize;
+			final double[] newAverages = new double[count];
+			final double[] newMaximums = new double[count];
+			for (int i = 0; i < count; i++) {
+				double sum = 0;
+				int valuesCount = 0;
+				double max = Double.NaN;
+				final int end = Math.min(averages.length, (i + 1) * groupSize);
+				for (int j = i * groupSize; j < end; j++) {
+					if (!Double.isNaN(averages[j])) {
+						sum += averages[j];
+						valuesCount++;
+					}
+					if (!Double.isNaN(maximums[j]) && (Double.isNaN(max) || maximums[j] > max)) {
+						max = maximums[j];
+					}
+				}
+				newAverages[i] = valuesCount == 0 ? Double.NaN : sum / valuesCount;
+				newMaximums[i] = max;
+			}
+			return new Series(name, label, startTime, step * groupSize, newAverages, newMaximums);
+		}
+
+		String getName() {
+			return name;
+		}
+
+		String getLabel() {
+			return label;
+		}
+
+		long getStartTime() {
+			return startTime;
+		}
+
+		long getStep() {
+			return step;
+		}
+
+		double[] getAverages() {
+			return averages.clone();
+		}
+
+		double[] getMaximums() {
+			return maximums.clone();
+		}
+
+		void writeJson(Writer writer) throws IOException {
+			writer.write("{\"name\":");
+			writeJsonString(writer, name);
+			writer.write(",\"label\":");
+			writeJsonString(writer, label);
+			writer.write(",\"start\":" + startTime + ",\"step\":" + step + ",\"average\":");
+			writeJsonArray(writer, averages);
+			writer.write(",\"max\":");
+			writeJsonArray(writer, maximums);
+			writer.write('}');
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "[name=" + getName() + ", startTime="
+					+ getStartTime() + ", step=" + getStep() + ", values=" + averages.length + ']';
+		}
+	}
+
+	void addSeries(Series series) {
+		assert series != null;
+		seriesList.add(series);
+	}
+
+	List<Series> getSeriesList() {
+		return Collections.unmodifiableList(seriesList);
+	}
+
+	/**
+	 * Écrit les données en json compact par colonnes (un tableau de valeurs par courbe),
+	 * sans la librairie XStream.
+	 * @param writer Writer
+	 * @throws IOException e
+	 */
+	void writeJson(Writer writer) throws IOException {
+		writer.write("{\"series\":[");
+		boolean first = true;
+		for (final Series series : seriesList) {
+			if (first) {
+				first = false;
+			} else {
+				writer.write(',');
+			}
+			series.writeJson(writer);
+		}
+		writer.write("]}");
+		writer.flush();
+	}
+
+	static void writeJsonArray(Writer writer, double[] values) throws IOException {
+		writer.write('[');
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			final double value = values[i];
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				writer.write("null");
+			} else if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+				// valeur entière sans ".0" pour un json plus compact
+				writer.write(String.valueOf((long) value));
+			} else {
+				writer.write(String.valueOf(value));
+			}
+		}
+		writer.write(']');
+	}
+
+	static void writeJsonString(Writer writer, String string) throws IOException {
+		if (string == null) {
+			writer.write("null");
+			return;
+		}
+		writer.write('"');
+		for (int i = 0; i < string.length(); i++) {
+			final char c = string.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write('\\');
+				writer.write(c);
+			} else if (c < ' ') {
+				writer.write(String.format("\\u%04x", (int) c));
+			} else {
+				writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[seriesList=" + seriesList + ']';
+	}
+}
@@ -91,8 +91,8 @@ class JavaInformations implements Serializable { // NOPMD
 	private final List<JobInformations> jobInformationsList;
 	@SuppressWarnings("all")
 	private final List<String> dependenciesList;
-	private final boolean webXmlExists = localWebXmlExists;
-	private final boolean pomXmlExists = localPomXmlExists;
+	private final boolean webXmlExists;
+	private final boolean pomXmlExists;
 
 	static final class ThreadInformationsComparator implements Comparator<ThreadInformations>,
 			Serializable {
@@ -169,6 +169,8 @@ class JavaInformations implements Serializable { // NOPMD
 		peakThreadCount = threadBean.getPeakThreadCount();
 		totalStartedThreadCount = threadBean.getTotalStartedThreadCount();
 		freeDiskSpaceInTemp = Parameters.TEMPORARY_DIRECTORY.getFreeSpace();
+		webXmlExists = localWebXmlExists;
+		pomXmlExists = localPomXmlExists;
 
 		if (includeDetails) {
 			dataBaseVersion = buildDataBaseVersion();
@@ -187,6 +189,80 @@ class JavaInformations implements Serializable { // NOPMD
 		}
 	}
 
+	// copie avec les informations statiques en paramètres, pour les deltas vers le serveur de collecte
+	private JavaInformations(JavaInformations source, List<String> dependenciesList,
+			String jvmArguments, String dataBaseVersion, String dataSourceDetails) {
+		super();
+		memoryInformations = source.memoryInformations;
+		tomcatInformationsList = source.tomcatInformationsList;
+		sessionCount = source.sessionCount;
+		sessionAgeSum = source.sessionAgeSum;
+		activeThreadCount = source.activeThreadCount;
+		usedConnectionCount = source.usedConnectionCount;
+		maxConnectionCount = source.maxConnectionCount;
+		activeConnectionCount = source.activeConnectionCount;
+		transactionCount = source.transactionCount;
+		processCpuTimeMillis = source.processCpuTimeMillis;
+		systemLoadAverage = source.systemLoadAverage;
+		unixOpenFileDescriptorCount = source.unixOpenFileDescriptorCount;
+		unixMaxFileDescriptorCount = source.unixMaxFileDescriptorCount;
+		host = source.host;
+		os = source.os;
+		availableProcessors = source.availableProcessors;
+		javaVersion = source.javaVersion;
+		jvmVersion = source.jvmVersion;
+		pid = source.pid;
+		serverInfo = source.serverInfo;
+		contextPath = source.contextPath;
+		contextDisplayName = source.contextDisplayName;
+		startDate = source.startDate;
+		freeDiskSpaceInTemp = source.freeDiskSpaceInTemp;
+		threadCount = source.threadCount;
+		peakThreadCount = source.peakThreadCount;
+		totalStartedThreadCount = source.totalStartedThreadCount;
+		threadInformationsList = source.threadInformationsList;
+		cacheInformationsList = source.cacheInformationsList;
+		jobInformationsList = source.jobInformationsList;
+		webXmlExists = source.webXmlExists;
+		pomXmlExists = source.pomXmlExists;
+		this.dependenciesList = dependenciesList;
+		this.jvmArguments = jvmArguments;
+		this.dataBaseVersion = dataBaseVersion;
+		this.dataSourceDetails = dataSourceDetails;
+	}
+
+	/**
+	 * Retourne une copie sans les informations qui ne changent pas en général
+	 * (dépendances, arguments de la JVM, version et détails de la base de données),
+	 * pour les envoyer au serveur de collecte seulement quand il ne les a pas déjà.
+	 * @return JavaInformations
+	 */
+	JavaInformations withoutStaticInformations() {
+		return new JavaInformations(this, null, null, null, null);
+	}
+
+	/**
+	 * Retourne une copie avec les informations statiques d'une instance précédente,
+	 * si cette instance a été créée par {@link #withoutStaticInformations()}.
+	 * @param previous JavaInformations précédente avec les informations statiques
+	 * @return JavaInformations
+	 */
+	JavaInformations withStaticInformations(JavaInformations previous) {
+		return new JavaInformations(this, previous.dependenciesList, previous.jvmArguments,
+				previous.dataBaseVersion, previous.dataSourceDetails);
+	}
+
+	boolean hasSameStaticInformations(JavaInformations other) {
+		return equals(dependenciesList, other.dependenciesList)
+				&& equals(jvmArguments, other.jvmArguments)
+				&& equals(dataBaseVersion, other.dataBaseVersion)
+				&& equals(dataSourceDetails, other.dataSourceDetails);
+	}
+
+	private static boolean equals(Object object1, Object object2) {
+		return object1 == null ? object2 == null : object1.equals(object2);
+	}
+
 	static void setWebXmlExistsAndPomXmlExists(boolean webXmlExists, boolean pomXmlExists) {
 		localWebXmlExists = webXmlExists;
 		localPomXmlExists = pomXmlExists;
@@ -291,46 +367,10 @@ class JavaInformations implements Serializable { // NOPMD
 	}
 
 	static List<ThreadInformations> buildThreadInformationsList() {
-		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
-		final Map<Thread, StackTraceElement[]> stackTraces = Thread.getAllStackTraces();
-		final List<Thread> threads = new ArrayList<Thread>(stackTraces.keySet());
-
-		// si "1.6.0_01".compareTo(Parameters.JAVA_VERSION) > 0;
-		// on récupèrait les threads sans stack trace en contournant bug 6434648 avant 1.6.0_01
-		// http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6434648
-		// hormis pour le thread courant qui obtient sa stack trace différemment sans le bug
-		//		threads = getThreadsFromThreadGroups();
-		//		final Thread currentThread = Thread.currentThread();
-		//		stackTraces = Collections.singletonMap(currentThread, currentThread.getStackTrace());
-
-		final boolean cpuTimeEnabled = threadBean.isThreadCpuTimeSupported()
-				&& threadBean.isThreadCpuTimeEnabled();
-		final long[] deadlockedThreads = getDeadlockedThreads(threadBean);
-		final List<ThreadInformations> threadInfosList = new ArrayList<ThreadInformations>(
-				threads.size());
-		// hostAddress récupéré ici car il peut y avoir plus de 20000 threads
-		final String hostAddress = Parameters.getHostAddress();
-		for (final Thread thread : threads) {
-			final StackTraceElement[] stackTraceElements = stackTraces.get(thread);
-			final List<StackTraceElement> stackTraceElementList = stackTraceElements == null ? null
-					: new ArrayList<StackTraceElement>(Arrays.asList(stackTraceElements));
-			final long cpuTimeMillis;
-			final long userTimeMillis;
-			if (cpuTimeEnabled) {
-				cpuTimeMillis = threadBean.getThreadCpuTime(thread.getId()) / 1000000;
-				userTimeMillis = threadBean.getThreadUserTime(thread.getId()) / 1000000;
-			} else {
-				cpuTimeMillis = -1;
-				userTimeMillis = -1;
-			}
-			final boolean deadlocked = deadlockedThreads != null
-					&& Arrays.binarySearch(deadlockedThreads, thread.getId()) >= 0;
-			// stackTraceElementList est une ArrayList et non unmodifiableList pour lisibilité xml
-			threadInfosList.add(new ThreadInformations(thread, stackTraceElementList,
-					cpuTimeMillis, userTimeMillis, deadlocked, hostAddress));
-		}
-		// on retourne ArrayList et non unmodifiableList pour lisibilité du xml par xstream
-		return threadInfosList;
+		// les ThreadInfo sont récupérés en un seul appel plutôt que par Thread.getAllStackTraces()
+		// puis un appel par thread pour les temps cpu
+		return ThreadSnapshotTracker.SINGLETON.buildThreadInformationsList(ThreadSnapshotTracker
+				.getStackMaxDepth());
 	}
 
 	static List<Thread> getThreadsFromThreadGroups() {
@@ -338,12 +378,17 @@ class JavaInformations implements Serializable { // NOPMD
 		while (group.getParent() != null) {
 			group = group.getParent();
 		}
-		final Thread[] threadsArray = new Thread[group.activeCount()];
-		group.enumerate(threadsArray, true);
-		return Arrays.asList(threadsArray);
+		// activeCount n'est qu'une estimation : le tableau est agrandi si des threads ont été créés entre-temps
+		Thread[] threadsArray = new Thread[group.activeCount() + 16];
+		int count = group.enumerate(threadsArray, true);
+		while (count == threadsArray.length) {
+			threadsArray = new Thread[threadsArray.length * 2];
+			count = group.enumerate(threadsArray, true);
+		}
+		return Arrays.asList(threadsArray).subList(0, count);
 	}
 
-	private static long[] getDeadlockedThreads(ThreadMXBean threadBean) {
+	static long[] getDeadlockedThreads(ThreadMXBean threadBean) {
 		final long[] deadlockedThreads;
 		if (threadBean.isSynchronizerUsageSupported()) {
 			deadlockedThreads = threadBean.findDeadlockedThreads();
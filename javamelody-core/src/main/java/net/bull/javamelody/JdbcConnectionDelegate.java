@@ -0,0 +1,483 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * Délégué d'une connexion jdbc pour le monitoring, utilisé à la place d'un proxy
+ * si le paramètre jdbc-delegates est true.<br/>
+ * Les statements créés par la connexion sont des délégués monitorant les requêtes sql
+ * et les autres méthodes sont directement déléguées à la connexion.
+ * @author Emeric Vernat
+ */
+final class JdbcConnectionDelegate implements Connection {
+	private static final boolean SUPPORTED = isImplementingAll(Connection.class,
+			JdbcConnectionDelegate.class)
+			&& isImplementingAll(Statement.class, JdbcStatementDelegate.class)
+			&& isImplementingAll(PreparedStatement.class, JdbcPreparedStatementDelegate.class)
+			&& isImplementingAll(CallableStatement.class, JdbcCallableStatementDelegate.class);
+
+	private final JdbcWrapper jdbcWrapper;
+	private final Connection connection;
+	private boolean alreadyClosed;
+
+	JdbcConnectionDelegate(JdbcWrapper jdbcWrapper, Connection connection) {
+		super();
+		assert jdbcWrapper != null;
+		assert connection != null;
+		this.jdbcWrapper = jdbcWrapper;
+		this.connection = connection;
+	}
+
+	/**
+	 * Retourne false si les interfaces jdbc de cette JVM ont des méthodes abstraites
+	 * non implémentées par les classes déléguées (api jdbc plus récente que celle-ci),
+	 * auquel cas il faut utiliser des proxy.
+	 * @return boolean
+	 */
+	static boolean isSupported() {
+		return SUPPORTED;
+	}
+
+	private static boolean isImplementingAll(Class<?> jdbcInterface, Class<?> delegateClass) {
+		// les méthodes par défaut des interfaces (JDBC 4.2 et suivants) ne sont pas abstraites
+		for (final Method method : jdbcInterface.getMethods()) {
+			if (Modifier.isAbstract(method.getModifiers())) {
+				try {
+					final Method implementation = delegateClass.getMethod(method.getName(),
+							method.getParameterTypes());
+					if (Modifier.isAbstract(implementation.getModifiers())) {
+						LOG.debug("jdbc method not implemented by delegates, using proxies: "
+								+ method);
+						return false;
+					}
+				} catch (final NoSuchMethodException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return true;
+	}
+
+	private Object invokeByReflection(Method method, Object... args) throws SQLException {
+		return JdbcWrapperHelper.invokeJdbcMethod(connection, method, args);
+	}
+
+	private static Method getJdbcMethod(String methodName, Class<?>... parameterTypes)
+			throws SQLException {
+		return JdbcWrapperHelper.getJdbcMethod(Connection.class, methodName, parameterTypes);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(Object obj) {
+		// comme dans le proxy de Connection (cf issue 78),
+		// l'égalité est transparente si le paramètre est aussi un délégué de connexion
+		if (obj instanceof JdbcConnectionDelegate) {
+			return connection.equals(((JdbcConnectionDelegate) obj).connection);
+		}
+		return connection.equals(obj);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return connection.hashCode();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return connection.toString();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Statement createStatement() throws SQLException {
+		return new JdbcStatementDelegate(jdbcWrapper, null, connection.createStatement());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return new JdbcPreparedStatementDelegate(jdbcWrapper, sql, connection.prepareStatement(
+				sql));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		return new JdbcCallableStatementDelegate(jdbcWrapper, sql, connection.prepareCall(sql));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String nativeSQL(String sql) throws SQLException {
+		return connection.nativeSQL(sql);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		connection.setAutoCommit(autoCommit);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean getAutoCommit() throws SQLException {
+		return connection.getAutoCommit();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void commit() throws SQLException {
+		connection.commit();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void rollback() throws SQLException {
+		connection.rollback();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws SQLException {
+		try {
+			connection.close();
+		} finally {
+			if (!alreadyClosed) {
+				jdbcWrapper.connectionClosed(connection);
+				alreadyClosed = true;
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isClosed() throws SQLException {
+		return connection.isClosed();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return connection.getMetaData();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setReadOnly(boolean readOnly) throws SQLException {
+		connection.setReadOnly(readOnly);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isReadOnly() throws SQLException {
+		return connection.isReadOnly();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setCatalog(String catalog) throws SQLException {
+		connection.setCatalog(catalog);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getCatalog() throws SQLException {
+		return connection.getCatalog();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setTransactionIsolation(int level) throws SQLException {
+		connection.setTransactionIsolation(level);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getTransactionIsolation() throws SQLException {
+		return connection.getTransactionIsolation();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return connection.getWarnings();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void clearWarnings() throws SQLException {
+		connection.clearWarnings();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Statement createStatement(int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		return new JdbcStatementDelegate(jdbcWrapper, null, connection.createStatement(
+				resultSetType, resultSetConcurrency));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		return new JdbcPreparedStatementDelegate(jdbcWrapper, sql, connection.prepareStatement(sql,
+				resultSetType, resultSetConcurrency));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		return new JdbcCallableStatementDelegate(jdbcWrapper, sql, connection.prepareCall(sql,
+				resultSetType, resultSetConcurrency));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<String, Class<?>> getTypeMap() throws SQLException {
+		return connection.getTypeMap();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+		connection.setTypeMap(map);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setHoldability(int holdability) throws SQLException {
+		connection.setHoldability(holdability);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getHoldability() throws SQLException {
+		return connection.getHoldability();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Savepoint setSavepoint() throws SQLException {
+		return connection.setSavepoint();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Savepoint setSavepoint(String name) throws SQLException {
+		return connection.setSavepoint(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void rollback(Savepoint savepoint) throws SQLException {
+		connection.rollback(savepoint);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		connection.releaseSavepoint(savepoint);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency,
+			int resultSetHoldability) throws SQLException {
+		return new JdbcStatementDelegate(jdbcWrapper, null, connection.createStatement(
+				resultSetType, resultSetConcurrency, resultSetHoldability));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType,
+			int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		return new JdbcPreparedStatementDelegate(jdbcWrapper, sql, connection.prepareStatement(sql,
+				resultSetType, resultSetConcurrency, resultSetHoldability));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+			int resultSetHoldability) throws SQLException {
+		return new JdbcCallableStatementDelegate(jdbcWrapper, sql, connection.prepareCall(sql,
+				resultSetType, resultSetConcurrency, resultSetHoldability));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PreparedStatement prepareStatement(String sql,
+			int autoGeneratedKeys) throws SQLException {
+		return new JdbcPreparedStatementDelegate(jdbcWrapper, sql, connection.prepareStatement(sql,
+				autoGeneratedKeys));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+		return new JdbcPreparedStatementDelegate(jdbcWrapper, sql, connection.prepareStatement(sql,
+				columnIndexes));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PreparedStatement prepareStatement(String sql,
+			String[] columnNames) throws SQLException {
+		return new JdbcPreparedStatementDelegate(jdbcWrapper, sql, connection.prepareStatement(sql,
+				columnNames));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Clob createClob() throws SQLException {
+		return connection.createClob();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Blob createBlob() throws SQLException {
+		return connection.createBlob();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public NClob createNClob() throws SQLException {
+		return connection.createNClob();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SQLXML createSQLXML() throws SQLException {
+		return connection.createSQLXML();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isValid(int timeout) throws SQLException {
+		return connection.isValid(timeout);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setClientInfo(String name, String value) throws SQLClientInfoException {
+		connection.setClientInfo(name, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setClientInfo(Properties properties) throws SQLClientInfoException {
+		connection.setClientInfo(properties);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getClientInfo(String name) throws SQLException {
+		return connection.getClientInfo(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Properties getClientInfo() throws SQLException {
+		return connection.getClientInfo();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+		return connection.createArrayOf(typeName, elements);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+		return connection.createStruct(typeName, attributes);
+	}
+
+	// JDBC 4.1
+	public void setSchema(String schema) throws SQLException {
+		invokeByReflection(getJdbcMethod("setSchema", String.class), schema);
+	}
+
+	// JDBC 4.1
+	public String getSchema() throws SQLException {
+		return (String) invokeByReflection(getJdbcMethod("getSchema"));
+	}
+
+	// JDBC 4.1
+	public void abort(Executor executor) throws SQLException {
+		invokeByReflection(getJdbcMethod("abort", Executor.class), executor);
+	}
+
+	// JDBC 4.1
+	public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+		invokeByReflection(getJdbcMethod("setNetworkTimeout", Executor.class, int.class), executor,
+				milliseconds);
+	}
+
+	// JDBC 4.1
+	public int getNetworkTimeout() throws SQLException {
+		return (Integer) invokeByReflection(getJdbcMethod("getNetworkTimeout"));
+	}
+
+	// JDBC 4.3
+	public void beginRequest() throws SQLException {
+		invokeByReflection(getJdbcMethod("beginRequest"));
+	}
+
+	// JDBC 4.3
+	public void endRequest() throws SQLException {
+		invokeByReflection(getJdbcMethod("endRequest"));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return connection.unwrap(iface);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return connection.isWrapperFor(iface);
+	}
+}
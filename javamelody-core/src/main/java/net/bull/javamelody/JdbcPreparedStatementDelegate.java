@@ -0,0 +1,436 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * Délégué d'un prepared statement jdbc pour le monitoring (cf {@link JdbcStatementDelegate}).
+ * @author Emeric Vernat
+ */
+class JdbcPreparedStatementDelegate extends JdbcStatementDelegate implements
+		PreparedStatement {
+	private final PreparedStatement preparedStatement;
+
+	JdbcPreparedStatementDelegate(JdbcWrapper jdbcWrapper, String query,
+			PreparedStatement preparedStatement) {
+		super(jdbcWrapper, query, preparedStatement);
+		this.preparedStatement = preparedStatement;
+	}
+
+	private static Method getJdbcMethod(String methodName, Class<?>... parameterTypes)
+			throws SQLException {
+		return JdbcWrapperHelper.getJdbcMethod(PreparedStatement.class, methodName, parameterTypes);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		final long start = beginExecution(null);
+		boolean systemError = true;
+		try {
+			final ResultSet result = preparedStatement.executeQuery();
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int executeUpdate() throws SQLException {
+		final long start = beginExecution(null);
+		boolean systemError = true;
+		try {
+			final int result = preparedStatement.executeUpdate();
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		preparedStatement.setNull(parameterIndex, sqlType);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		preparedStatement.setBoolean(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		preparedStatement.setByte(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		preparedStatement.setShort(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		preparedStatement.setInt(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		preparedStatement.setLong(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		preparedStatement.setFloat(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		preparedStatement.setDouble(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+		preparedStatement.setBigDecimal(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+		preparedStatement.setString(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		preparedStatement.setBytes(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		preparedStatement.setDate(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		preparedStatement.setTime(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+		preparedStatement.setTimestamp(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		preparedStatement.setAsciiStream(parameterIndex, x, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Deprecated
+	public void setUnicodeStream(int parameterIndex, InputStream x,
+			int length) throws SQLException {
+		preparedStatement.setUnicodeStream(parameterIndex, x, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		preparedStatement.setBinaryStream(parameterIndex, x, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void clearParameters() throws SQLException {
+		preparedStatement.clearParameters();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+		preparedStatement.setObject(parameterIndex, x, targetSqlType);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		preparedStatement.setObject(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean execute() throws SQLException {
+		final long start = beginExecution(null);
+		boolean systemError = true;
+		try {
+			final boolean result = preparedStatement.execute();
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addBatch() throws SQLException {
+		preparedStatement.addBatch();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader,
+			int length) throws SQLException {
+		preparedStatement.setCharacterStream(parameterIndex, reader, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		preparedStatement.setRef(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		preparedStatement.setBlob(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		preparedStatement.setClob(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		preparedStatement.setArray(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		return preparedStatement.getMetaData();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+		preparedStatement.setDate(parameterIndex, x, cal);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+		preparedStatement.setTime(parameterIndex, x, cal);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+		preparedStatement.setTimestamp(parameterIndex, x, cal);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+		preparedStatement.setNull(parameterIndex, sqlType, typeName);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		preparedStatement.setURL(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		return preparedStatement.getParameterMetaData();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		preparedStatement.setRowId(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setNString(int parameterIndex, String value) throws SQLException {
+		preparedStatement.setNString(parameterIndex, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader value,
+			long length) throws SQLException {
+		preparedStatement.setNCharacterStream(parameterIndex, value, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setNClob(int parameterIndex, NClob value) throws SQLException {
+		preparedStatement.setNClob(parameterIndex, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+		preparedStatement.setClob(parameterIndex, reader, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBlob(int parameterIndex, InputStream inputStream,
+			long length) throws SQLException {
+		preparedStatement.setBlob(parameterIndex, inputStream, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+		preparedStatement.setNClob(parameterIndex, reader, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+		preparedStatement.setSQLXML(parameterIndex, xmlObject);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType,
+			int scaleOrLength) throws SQLException {
+		preparedStatement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		preparedStatement.setAsciiStream(parameterIndex, x, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x,
+			long length) throws SQLException {
+		preparedStatement.setBinaryStream(parameterIndex, x, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader,
+			long length) throws SQLException {
+		preparedStatement.setCharacterStream(parameterIndex, reader, length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+		preparedStatement.setAsciiStream(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+		preparedStatement.setBinaryStream(parameterIndex, x);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+		preparedStatement.setCharacterStream(parameterIndex, reader);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+		preparedStatement.setNCharacterStream(parameterIndex, value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setClob(int parameterIndex, Reader reader) throws SQLException {
+		preparedStatement.setClob(parameterIndex, reader);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+		preparedStatement.setBlob(parameterIndex, inputStream);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+		preparedStatement.setNClob(parameterIndex, reader);
+	}
+
+	// JDBC 4.2
+	public long executeLargeUpdate() throws SQLException {
+		return (Long) executeByReflection(null, getJdbcMethod("executeLargeUpdate"));
+	}
+}
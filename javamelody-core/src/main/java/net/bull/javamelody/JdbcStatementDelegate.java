@@ -0,0 +1,553 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * Délégué d'un statement jdbc pour le monitoring, utilisé à la place d'un proxy
+ * si le paramètre jdbc-delegates est true.<br/>
+ * Les méthodes executeXxx sont interceptées par des appels directs et non par réflexion,
+ * et les autres méthodes sont directement déléguées au statement.
+ * @author Emeric Vernat
+ */
+class JdbcStatementDelegate implements Statement {
+	private final JdbcWrapper jdbcWrapper;
+	private final Statement statement;
+	// requête sql du prepareStatement ou de la dernière exécution, comme dans le proxy de Statement
+	private String requestName;
+
+	JdbcStatementDelegate(JdbcWrapper jdbcWrapper, String query, Statement statement) {
+		super();
+		assert jdbcWrapper != null;
+		assert statement != null;
+		this.jdbcWrapper = jdbcWrapper;
+		this.requestName = query;
+		this.statement = statement;
+	}
+
+	private void updateRequestName(String sql) {
+		if (sql != null) {
+			// la méthode est du type executeQuery(String), executeUpdate(String),
+			// executeUpdate(String, ...) ou execute(String sql),
+			// alors la requête sql est ce paramètre (et pas celle du prepareStatement)
+			requestName = sql;
+		}
+		// si on n'a pas trouvé la requête, on prend "null"
+		requestName = String.valueOf(requestName);
+	}
+
+	long beginExecution(String sql) {
+		updateRequestName(sql);
+		return jdbcWrapper.beginExecution(requestName);
+	}
+
+	void endExecution(long start, boolean systemError) {
+		jdbcWrapper.endExecution(requestName, start, systemError);
+	}
+
+	// pour les méthodes executeLargeXxx de JDBC 4.2, absentes de l'api jdbc de compilation
+	Object executeByReflection(String sql, Method method, Object... args) throws SQLException {
+		updateRequestName(sql);
+		try {
+			return jdbcWrapper.doExecute(requestName, statement, method, args);
+		} catch (final IllegalAccessException e) {
+			throw new SQLException(e);
+		} catch (final InvocationTargetException e) {
+			throw JdbcWrapperHelper.getJdbcException(e);
+		}
+	}
+
+	Object invokeByReflection(Method method, Object... args) throws SQLException {
+		return JdbcWrapperHelper.invokeJdbcMethod(statement, method, args);
+	}
+
+	private static Method getJdbcMethod(String methodName, Class<?>... parameterTypes)
+			throws SQLException {
+		return JdbcWrapperHelper.getJdbcMethod(Statement.class, methodName, parameterTypes);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(Object obj) {
+		// comme dans le proxy de Statement
+		return statement.equals(obj);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		return statement.hashCode();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return statement.toString();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final ResultSet result = statement.executeQuery(sql);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final int result = statement.executeUpdate(sql);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws SQLException {
+		statement.close();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return statement.getMaxFieldSize();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		statement.setMaxFieldSize(max);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getMaxRows() throws SQLException {
+		return statement.getMaxRows();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		statement.setMaxRows(max);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		statement.setEscapeProcessing(enable);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return statement.getQueryTimeout();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		statement.setQueryTimeout(seconds);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void cancel() throws SQLException {
+		statement.cancel();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return statement.getWarnings();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void clearWarnings() throws SQLException {
+		statement.clearWarnings();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		statement.setCursorName(name);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final boolean result = statement.execute(sql);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return statement.getResultSet();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return statement.getUpdateCount();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		return statement.getMoreResults();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		statement.setFetchDirection(direction);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return statement.getFetchDirection();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		statement.setFetchSize(rows);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFetchSize() throws SQLException {
+		return statement.getFetchSize();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return statement.getResultSetConcurrency();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getResultSetType() throws SQLException {
+		return statement.getResultSetType();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		// Bien que déconseillée la méthode est addBatch(String),
+		// la requête sql sera utilisée lors de l'appel à executeBatch()
+		// (on ne conserve que la dernière requête de addBatch, comme dans le proxy de Statement)
+		if (sql != null) {
+			requestName = sql;
+		}
+		statement.addBatch(sql);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void clearBatch() throws SQLException {
+		statement.clearBatch();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int[] executeBatch() throws SQLException {
+		final long start = beginExecution(null);
+		boolean systemError = true;
+		try {
+			final int[] result = statement.executeBatch();
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return statement.getConnection();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return statement.getMoreResults(current);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return statement.getGeneratedKeys();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final int result = statement.executeUpdate(sql, autoGeneratedKeys);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final int result = statement.executeUpdate(sql, columnIndexes);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final int result = statement.executeUpdate(sql, columnNames);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final boolean result = statement.execute(sql, autoGeneratedKeys);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final boolean result = statement.execute(sql, columnIndexes);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		final long start = beginExecution(sql);
+		boolean systemError = true;
+		try {
+			final boolean result = statement.execute(sql, columnNames);
+			systemError = false;
+			return result;
+		} catch (final SQLException e) {
+			systemError = JdbcWrapper.isSystemError(e);
+			throw e;
+		} finally {
+			endExecution(start, systemError);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return statement.getResultSetHoldability();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isClosed() throws SQLException {
+		return statement.isClosed();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		statement.setPoolable(poolable);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return statement.isPoolable();
+	}
+
+	// JDBC 4.1
+	public void closeOnCompletion() throws SQLException {
+		invokeByReflection(getJdbcMethod("closeOnCompletion"));
+	}
+
+	// JDBC 4.1
+	public boolean isCloseOnCompletion() throws SQLException {
+		return (Boolean) invokeByReflection(getJdbcMethod("isCloseOnCompletion"));
+	}
+
+	// JDBC 4.2
+	public long getLargeUpdateCount() throws SQLException {
+		return (Long) invokeByReflection(getJdbcMethod("getLargeUpdateCount"));
+	}
+
+	// JDBC 4.2
+	public void setLargeMaxRows(long max) throws SQLException {
+		invokeByReflection(getJdbcMethod("setLargeMaxRows", long.class), max);
+	}
+
+	// JDBC 4.2
+	public long getLargeMaxRows() throws SQLException {
+		return (Long) invokeByReflection(getJdbcMethod("getLargeMaxRows"));
+	}
+
+	// JDBC 4.2
+	public long[] executeLargeBatch() throws SQLException {
+		return (long[]) executeByReflection(null, getJdbcMethod("executeLargeBatch"));
+	}
+
+	// JDBC 4.2
+	public long executeLargeUpdate(String sql) throws SQLException {
+		return (Long) executeByReflection(sql, getJdbcMethod("executeLargeUpdate", String.class),
+				sql);
+	}
+
+	// JDBC 4.2
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return (Long) executeByReflection(sql, getJdbcMethod("executeLargeUpdate", String.class,
+				int.class), sql, autoGeneratedKeys);
+	}
+
+	// JDBC 4.2
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return (Long) executeByReflection(sql, getJdbcMethod("executeLargeUpdate", String.class,
+				int[].class), sql, columnIndexes);
+	}
+
+	// JDBC 4.2
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		return (Long) executeByReflection(sql, getJdbcMethod("executeLargeUpdate", String.class,
+				String[].class), sql, columnNames);
+	}
+
+	// JDBC 4.3
+	public String enquoteLiteral(String val) throws SQLException {
+		return (String) invokeByReflection(getJdbcMethod("enquoteLiteral", String.class), val);
+	}
+
+	// JDBC 4.3
+	public String enquoteIdentifier(String identifier, boolean alwaysQuote) throws SQLException {
+		return (String) invokeByReflection(getJdbcMethod("enquoteIdentifier", String.class,
+				boolean.class), identifier, alwaysQuote);
+	}
+
+	// JDBC 4.3
+	public boolean isSimpleIdentifier(String identifier) throws SQLException {
+		return (Boolean) invokeByReflection(getJdbcMethod("isSimpleIdentifier", String.class),
+				identifier);
+	}
+
+	// JDBC 4.3
+	public String enquoteNCharLiteral(String val) throws SQLException {
+		return (String) invokeByReflection(getJdbcMethod("enquoteNCharLiteral", String.class), val);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return statement.unwrap(iface);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return statement.isWrapperFor(iface);
+	}
+}
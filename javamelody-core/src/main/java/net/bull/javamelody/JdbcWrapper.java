@@ -163,15 +163,7 @@ public final class JdbcWrapper {
 		}
 
 		void init() {
-			// on limite la taille pour éviter une éventuelle saturation mémoire
-			if (isConnectionInformationsEnabled()
-					&& USED_CONNECTION_INFORMATIONS.size() < MAX_USED_CONNECTION_INFORMATIONS) {
-				USED_CONNECTION_INFORMATIONS.put(
-						ConnectionInformations.getUniqueIdOfConnection(connection),
-						new ConnectionInformations());
-			}
-			USED_CONNECTION_COUNT.incrementAndGet();
-			TRANSACTION_COUNT.incrementAndGet();
+			connectionOpened(connection);
 		}
 
 		/** {@inheritDoc} */
@@ -200,9 +192,7 @@ public final class JdbcWrapper {
 				return result;
 			} finally {
 				if ("close".equals(methodName) && !alreadyClosed) {
-					USED_CONNECTION_COUNT.decrementAndGet();
-					USED_CONNECTION_INFORMATIONS.remove(ConnectionInformations
-							.getUniqueIdOfConnection(connection));
+					connectionClosed(connection);
 					alreadyClosed = true;
 				}
 			}
@@ -381,52 +371,89 @@ public final class JdbcWrapper {
 		assert statement != null;
 		assert method != null;
 
-		// on ignore les requêtes explain exécutées par DatabaseInformations
-		if (!sqlCounter.isDisplayed() || requestName.startsWith("explain ")) {
-			ACTIVE_CONNECTION_COUNT.incrementAndGet();
-			try {
-				return method.invoke(statement, args);
-			} finally {
-				ACTIVE_CONNECTION_COUNT.decrementAndGet();
-			}
-		}
-
-		final long start = System.currentTimeMillis();
+		final long start = beginExecution(requestName);
 		boolean systemError = true;
 		try {
-			ACTIVE_CONNECTION_COUNT.incrementAndGet();
-
-			// note perf: selon un paramètre current-sql(/requests)-disabled,
-			// on pourrait ici ne pas binder un nouveau contexte à chaque requête sql
-			sqlCounter.bindContext(requestName, requestName, null, -1);
-
 			final Object result = method.invoke(statement, args);
 			systemError = false;
 			return result;
 		} catch (final InvocationTargetException e) {
 			if (e.getCause() instanceof SQLException) {
-				final int errorCode = ((SQLException) e.getCause()).getErrorCode();
-				if (errorCode >= 20000 && errorCode < 30000) {
-					// Dans Oracle par exemple, les erreurs 20000 à 30000 sont standardisées
-					// comme étant des erreurs lancées par l'application dans des procédures stockées
-					// pour être traitées comme des erreurs de saisies ou comme des règles de gestion.
-					// Ce ne sont donc pas des erreurs systèmes.
-					systemError = false;
-				}
+				systemError = isSystemError((SQLException) e.getCause());
 			}
 			throw e;
 		} finally {
-			// Rq : on n'utilise pas la création du statement et l'appel à la méthode close du statement
-			// comme début et fin d'une connexion active, car en fonction de l'application
-			// la méthode close du statement peut ne jamais être appelée
-			// (par exemple, seule la méthode close de la connection peut être appelée ce qui ferme aussi le statement)
-			// Rq : pas de temps cpu pour les requêtes sql car c'est 0 ou quasiment 0
-			ACTIVE_CONNECTION_COUNT.decrementAndGet();
+			endExecution(requestName, start, systemError);
+		}
+	}
+
+	/**
+	 * Début de l'exécution d'une requête sql, par un proxy ou par un délégué de Statement.
+	 * @param requestName String
+	 * @return heure de début, ou -1 si la requête n'est pas enregistrée dans le counter sql
+	 */
+	long beginExecution(String requestName) {
+		assert requestName != null;
+		// on ignore les requêtes explain exécutées par DatabaseInformations
+		if (!sqlCounter.isDisplayed() || requestName.startsWith("explain ")) {
+			ACTIVE_CONNECTION_COUNT.incrementAndGet();
+			return -1;
+		}
+		final long start = System.currentTimeMillis();
+		ACTIVE_CONNECTION_COUNT.incrementAndGet();
+
+		// note perf: dans une requête http, le contexte sql précédent est réutilisé
+		// et il n'y a donc pas d'allocation d'un nouveau contexte à chaque requête sql
+		sqlCounter.bindContext(requestName, requestName, null, -1);
+		return start;
+	}
+
+	/**
+	 * Fin de l'exécution d'une requête sql commencée par {@link #beginExecution(String)}.
+	 * @param requestName String
+	 * @param start heure de début retournée par beginExecution
+	 * @param systemError boolean
+	 */
+	void endExecution(String requestName, long start, boolean systemError) {
+		// Rq : on n'utilise pas la création du statement et l'appel à la méthode close du statement
+		// comme début et fin d'une connexion active, car en fonction de l'application
+		// la méthode close du statement peut ne jamais être appelée
+		// (par exemple, seule la méthode close de la connection peut être appelée ce qui ferme aussi le statement)
+		// Rq : pas de temps cpu pour les requêtes sql car c'est 0 ou quasiment 0
+		ACTIVE_CONNECTION_COUNT.decrementAndGet();
+		if (start >= 0) {
 			final long duration = Math.max(System.currentTimeMillis() - start, 0);
 			sqlCounter.addRequest(requestName, duration, -1, systemError, -1);
 		}
 	}
 
+	static boolean isSystemError(SQLException e) {
+		final int errorCode = e.getErrorCode();
+		// Dans Oracle par exemple, les erreurs 20000 à 30000 sont standardisées
+		// comme étant des erreurs lancées par l'application dans des procédures stockées
+		// pour être traitées comme des erreurs de saisies ou comme des règles de gestion.
+		// Ce ne sont donc pas des erreurs systèmes.
+		return errorCode < 20000 || errorCode >= 30000;
+	}
+
+	void connectionOpened(Connection connection) {
+		// on limite la taille pour éviter une éventuelle saturation mémoire
+		if (isConnectionInformationsEnabled()
+				&& USED_CONNECTION_INFORMATIONS.size() < MAX_USED_CONNECTION_INFORMATIONS) {
+			USED_CONNECTION_INFORMATIONS.put(
+					ConnectionInformations.getUniqueIdOfConnection(connection),
+					new ConnectionInformations());
+		}
+		USED_CONNECTION_COUNT.incrementAndGet();
+		TRANSACTION_COUNT.incrementAndGet();
+	}
+
+	void connectionClosed(Connection connection) {
+		USED_CONNECTION_COUNT.decrementAndGet();
+		USED_CONNECTION_INFORMATIONS.remove(ConnectionInformations
+				.getUniqueIdOfConnection(connection));
+	}
+
 	boolean rebindDataSources() {
 		boolean ok;
 		// on cherche une datasource avec InitialContext pour afficher nom et version bdd + nom et version driver jdbc
@@ -816,6 +843,9 @@ public final class JdbcWrapper {
 		if (isMonitoringDisabled()) {
 			return connection;
 		}
+		if (isDelegatesEnabled()) {
+			return createConnectionDelegate(connection);
+		}
 		final ConnectionInvocationHandler invocationHandler = new ConnectionInvocationHandler(
 				connection);
 		final Connection result;
@@ -834,6 +864,24 @@ public final class JdbcWrapper {
 		return result;
 	}
 
+	private Connection createConnectionDelegate(Connection connection) {
+		if (isProxyAlready(connection)) {
+			return connection;
+		}
+		// le délégué n'implémente que java.sql.Connection (comme le proxy si jonas)
+		final Connection result = new JdbcConnectionDelegate(this, connection);
+		connectionOpened(connection);
+		return result;
+	}
+
+	private static boolean isDelegatesEnabled() {
+		// on réévalue le paramètre comme pour isMonitoringDisabled(),
+		// et si les classes déléguées n'implémentent pas toutes les méthodes abstraites
+		// des interfaces jdbc de cette JVM, on garde les proxy
+		return Boolean.parseBoolean(Parameters.getParameter(Parameter.JDBC_DELEGATES))
+				&& JdbcConnectionDelegate.isSupported();
+	}
+
 	boolean isSqlMonitoringDisabled() {
 		return isMonitoringDisabled() || !sqlCounter.isDisplayed();
 	}
@@ -887,10 +935,20 @@ public final class JdbcWrapper {
 	private static boolean isProxyAlready(Object object) {
 		return Proxy.isProxyClass(object.getClass())
 				&& Proxy.getInvocationHandler(object).getClass().getName()
-						.equals(DelegatingInvocationHandler.class.getName());
+						.equals(DelegatingInvocationHandler.class.getName())
+				|| isDelegateAlready(object);
 		// utilisation de Proxy.getInvocationHandler(object).getClass().getName().equals(DelegatingInvocationHandler.class.getName())
 		// et non de Proxy.getInvocationHandler(object) instanceof DelegatingInvocationHandler
 		// pour issue 97 (classLoaders différents pour les classes DelegatingInvocationHandler)
 	}
 
+	private static boolean isDelegateAlready(Object object) {
+		// comparaison des noms de classes et non instanceof, pour la même raison (issue 97)
+		final String className = object.getClass().getName();
+		return className.equals(JdbcConnectionDelegate.class.getName())
+				|| className.equals(JdbcStatementDelegate.class.getName())
+				|| className.equals(JdbcPreparedStatementDelegate.class.getName())
+				|| className.equals(JdbcCallableStatementDelegate.class.getName());
+	}
+
 }
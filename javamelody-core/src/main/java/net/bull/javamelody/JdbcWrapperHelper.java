@@ -20,9 +20,13 @@ package net.bull.javamelody;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -451,6 +455,48 @@ final class JdbcWrapperHelper {
 				});
 	}
 
+	/**
+	 * Recherche une méthode jdbc qui n'existe pas forcément dans l'api jdbc de compilation
+	 * (JDBC 4.1 et suivants), pour l'appeler par réflexion depuis les classes déléguées.
+	 * @param jdbcInterface Interface de java.sql
+	 * @param methodName Nom de la méthode
+	 * @param parameterTypes Types des paramètres
+	 * @return Method
+	 * @throws SQLFeatureNotSupportedException Si la méthode n'existe pas dans cette JVM
+	 */
+	static Method getJdbcMethod(Class<?> jdbcInterface, String methodName,
+			Class<?>... parameterTypes) throws SQLFeatureNotSupportedException {
+		try {
+			return jdbcInterface.getMethod(methodName, parameterTypes);
+		} catch (final NoSuchMethodException e) {
+			throw new SQLFeatureNotSupportedException(e.toString(), e);
+		}
+	}
+
+	static Object invokeJdbcMethod(Object jdbcObject, Method method, Object... args)
+			throws SQLException {
+		try {
+			return method.invoke(jdbcObject, args);
+		} catch (final IllegalAccessException e) {
+			throw new SQLException(e);
+		} catch (final InvocationTargetException e) {
+			throw getJdbcException(e);
+		}
+	}
+
+	static SQLException getJdbcException(InvocationTargetException e) {
+		// on désencapsule l'exception comme le fait DelegatingInvocationHandler pour les proxy
+		final Throwable cause = e.getCause();
+		if (cause instanceof SQLException) {
+			return (SQLException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new SQLException(cause);
+	}
+
 	static void clearProxyCache() {
 		PROXY_CACHE.clear();
 	}
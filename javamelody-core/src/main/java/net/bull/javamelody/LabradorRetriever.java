@@ -25,6 +25,8 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
@@ -50,6 +52,9 @@ class LabradorRetriever {
 
 	private final URL url;
 	private final Map<String, String> headers;
+	private int connectTimeout = CONNECTION_TIMEOUT;
+	private int readTimeout = READ_TIMEOUT;
+	private int lastDataLength = -1;
 
 	// Rq: les configurations suivantes sont celles par défaut, on ne les change pas
 	//	    static { HttpURLConnection.setFollowRedirects(true);
@@ -135,7 +140,7 @@ class LabradorRetriever {
 		final long start = System.currentTimeMillis();
 		int dataLength = -1;
 		try {
-			final URLConnection connection = openConnection(url, headers);
+			final URLConnection connection = openConnection(url, headers, connectTimeout, readTimeout);
 			// pour traductions (si on vient de CollectorServlet.forwardActionAndUpdateData,
 			// cela permet d'avoir les messages dans la bonne langue)
 			connection.setRequestProperty("Accept-Language", I18N.getCurrentLocale().getLanguage());
@@ -180,11 +185,37 @@ class LabradorRetriever {
 		} catch (final ClassNotFoundException e) {
 			throw createIOException(e);
 		} finally {
+			lastDataLength = dataLength;
 			LOGGER.info("http call done in " + (System.currentTimeMillis() - start) + " ms with "
 					+ dataLength / 1024 + " KB read for " + url);
 		}
 	}
 
+	/**
+	 * Définit le timeout de connexion, par exemple le délai restant pour un noeud du serveur de collecte.
+	 * @param connectTimeout Timeout de connexion en millisecondes (0 : pas de timeout)
+	 */
+	void setConnectTimeout(int connectTimeout) {
+		assert connectTimeout >= 0;
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Définit le timeout de lecture, par exemple le délai maximum par noeud du serveur de collecte.
+	 * @param readTimeout Timeout de lecture en millisecondes (0 : pas de timeout)
+	 */
+	void setReadTimeout(int readTimeout) {
+		assert readTimeout >= 0;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @return Nombre d'octets lus par le dernier appel de call() (-1 si non connu)
+	 */
+	int getLastDataLength() {
+		return lastDataLength;
+	}
+
 	private static IOException createIOException(Exception e) {
 		// Rq: le constructeur de IOException avec message et cause n'existe qu'en jdk 1.6
 		return new IOException(e.getMessage(), e);
@@ -200,7 +231,7 @@ class LabradorRetriever {
 		final long start = System.currentTimeMillis();
 		int dataLength = -1;
 		try {
-			final URLConnection connection = openConnection(url, headers);
+			final URLConnection connection = openConnection(url, headers, connectTimeout, readTimeout);
 			// pour traductions
 			connection.setRequestProperty("Accept-Language",
 					httpRequest.getHeader("Accept-Language"));
@@ -241,18 +272,20 @@ class LabradorRetriever {
 	 * Ouvre la connection http.
 	 * @param url URL
 	 * @param headers Entêtes http
+	 * @param connectTimeout Timeout de connexion en millisecondes
+	 * @param readTimeout Timeout de lecture en millisecondes
 	 * @return Object
 	 * @throws IOException   Exception de communication
 	 */
-	private static URLConnection openConnection(URL url, Map<String, String> headers)
-			throws IOException {
+	private static URLConnection openConnection(URL url, Map<String, String> headers,
+			int connectTimeout, int readTimeout) throws IOException {
 		final URLConnection connection = url.openConnection();
 		connection.setUseCaches(false);
-		if (CONNECTION_TIMEOUT > 0) {
-			connection.setConnectTimeout(CONNECTION_TIMEOUT);
+		if (connectTimeout > 0) {
+			connection.setConnectTimeout(connectTimeout);
 		}
-		if (READ_TIMEOUT > 0) {
-			connection.setReadTimeout(READ_TIMEOUT);
+		if (readTimeout > 0) {
+			connection.setReadTimeout(readTimeout);
 		}
 		// grâce à cette propriété, l'application retournera un flux compressé si la taille
 		// dépasse x Ko
@@ -357,12 +390,29 @@ class LabradorRetriever {
 				result = Collections.emptyList();
 			} else if (request.contains(HttpParameters.CURRENT_REQUESTS_PART)) {
 				result = Collections.emptyMap();
+			} else if (request.contains(HttpParameters.PART_PARAMETER + '='
+					+ HttpParameters.DELTA_PART)) {
+				final List<Counter> counters = Arrays.asList(new Counter(
+						Counter.HTTP_COUNTER_NAME, null), new Counter("services", null),
+						new Counter(Counter.ERROR_COUNTER_NAME, null));
+				result = new CountersDeltaTracker().createDelta(null, null, counters,
+						Collections.singletonList(new JavaInformations(null, true)),
+						"ceci est message pour le rapport");
 			} else if (request.contains(HttpParameters.DATABASE_PART)) {
 				try {
 					result = new DatabaseInformations(0);
 				} catch (final Exception e) {
 					throw new IllegalStateException(e);
 				}
+			} else if (request.contains(HttpParameters.SAMPLED_STACKS_PART)) {
+				final SampledStacks sampledStacks = new SampledStacks();
+				sampledStacks.addSample("java.lang.Thread.run");
+				result = sampledStacks;
+			} else if (request.contains(HttpParameters.HEAP_HISTO_DIFF_PART)) {
+				final Date now = new Date();
+				result = new HeapHistogramDiff(now, now, Collections.singletonList(now),
+						Collections.singletonList(new HeapHistogramDiff.ClassDelta(
+								"java.lang.String", 1024, 10, 2048, 20)), 1024, 10);
 			} else if (request.contains(HttpParameters.HEAP_HISTO_PART)) {
 				final InputStream input = LabradorMock.class.getResourceAsStream("/heaphisto.txt");
 				try {
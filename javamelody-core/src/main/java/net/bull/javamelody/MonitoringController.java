@@ -19,6 +19,7 @@ package net.bull.javamelody; // NOPMD
 
 import static net.bull.javamelody.HttpParameters.ACTION_PARAMETER;
 import static net.bull.javamelody.HttpParameters.CACHE_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.COLLAPSED_STACKS_PART;
 import static net.bull.javamelody.HttpParameters.CONTENT_DISPOSITION;
 import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
@@ -183,6 +184,8 @@ class MonitoringController {
 			} else if (JNLP_PART.equalsIgnoreCase(part)) {
 				final Range range = httpCookieManager.getRange(httpRequest, httpResponse);
 				doJnlp(httpRequest, httpResponse, range);
+			} else if (COLLAPSED_STACKS_PART.equalsIgnoreCase(part)) {
+				doCollapsedStacks(httpResponse);
 			} else if (httpRequest.getParameter(JMX_VALUE) != null) {
 				// par sécurité
 				Action.checkSystemActionsEnabled();
@@ -403,6 +406,21 @@ class MonitoringController {
 		httpResponse.flushBuffer();
 	}
 
+	// part=collapsedStacks pourra être utilisé par les outils de flame graphs
+	private void doCollapsedStacks(HttpServletResponse httpResponse) throws IOException {
+		// par sécurité
+		Action.checkSystemActionsEnabled();
+		final SamplingProfiler samplingProfiler = collector.getSamplingProfiler();
+		if (samplingProfiler == null) {
+			httpResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		httpResponse.setContentType("text/plain; charset=UTF-8");
+		httpResponse.addHeader(CONTENT_DISPOSITION, "inline;filename=collapsedStacks.txt");
+		samplingProfiler.writeCollapsedStacks(httpResponse.getWriter());
+		httpResponse.flushBuffer();
+	}
+
 	private void doWebXml(HttpServletResponse httpResponse) throws IOException {
 		// par sécurité
 		Action.checkSystemActionsEnabled();
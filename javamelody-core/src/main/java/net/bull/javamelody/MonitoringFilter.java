@@ -18,6 +18,8 @@
 package net.bull.javamelody;
 
 import static net.bull.javamelody.HttpParameters.COLLECTOR_PARAMETER;
+import static net.bull.javamelody.HttpParameters.DELTA_PART;
+import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -182,7 +184,8 @@ public class MonitoringFilter implements Filter {
 				httpResponse);
 		final HttpServletRequest wrappedRequest = createRequestWrapper(httpRequest, wrappedResponse);
 		final long start = System.currentTimeMillis();
-		final long startCpuTime = ThreadInformations.getCurrentThreadCpuTime();
+		// -1 si le temps cpu de cette requête n'est pas mesuré (désactivé ou non échantillonné)
+		final long startCpuTime = httpCounter.getStartCpuTime();
 		boolean systemError = false;
 		Throwable systemException = null;
 		String requestName = getRequestName(wrappedRequest);
@@ -219,7 +222,13 @@ public class MonitoringFilter implements Filter {
 				// voir aussi http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6440250)
 				// et car des millisecondes suffisent pour une requête http
 				final long duration = Math.max(System.currentTimeMillis() - start, 0);
-				final long cpuUsedMillis = (ThreadInformations.getCurrentThreadCpuTime() - startCpuTime) / 1000000;
+				final long cpuUsedMillis;
+				if (startCpuTime < 0) {
+					cpuUsedMillis = httpCounter.getRecordedCpuTime(-1);
+				} else {
+					cpuUsedMillis = httpCounter.getRecordedCpuTime((ThreadInformations
+							.getCurrentThreadCpuTime() - startCpuTime) / 1000000);
+				}
 
 				JdbcWrapper.ACTIVE_THREAD_COUNT.decrementAndGet();
 
@@ -343,9 +352,13 @@ public class MonitoringFilter implements Filter {
 		if ("stop".equalsIgnoreCase(httpRequest.getParameter(COLLECTOR_PARAMETER))) {
 			// on a été appelé par un serveur de collecte qui fera l'aggrégation dans le temps,
 			// le stockage et les courbes, donc on arrête le timer s'il est démarré
-			// et on vide les stats pour que le serveur de collecte ne récupère que les deltas
-			for (final Counter counter : collector.getCounters()) {
-				counter.clear();
+			// et on vide les stats pour que le serveur de collecte ne récupère que les deltas,
+			// sauf si le serveur de collecte demande les deltas calculés ici (voir CountersDeltaTracker)
+			if (!DELTA_PART.equalsIgnoreCase(httpRequest.getParameter(PART_PARAMETER))
+					&& !collector.getCountersDeltaTracker().isUsed()) {
+				for (final Counter counter : collector.getCounters()) {
+					counter.clear();
+				}
 			}
 
 			if (!collector.isStopped()) {
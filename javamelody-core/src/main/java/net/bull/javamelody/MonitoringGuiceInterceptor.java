@@ -18,6 +18,7 @@
 package net.bull.javamelody;
 
 import java.io.Serializable;
+import java.lang.reflect.Method;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
@@ -35,6 +36,7 @@ public class MonitoringGuiceInterceptor implements MethodInterceptor, Serializab
 			.getName());
 	private static final boolean DISABLED = Boolean.parseBoolean(Parameters
 			.getParameter(Parameter.DISABLED));
+	private static final RequestNameCache REQUEST_NAME_CACHE = new RequestNameCache();
 
 	/**
 	 * Constructeur.
@@ -62,7 +64,7 @@ public class MonitoringGuiceInterceptor implements MethodInterceptor, Serializab
 			return invocation.proceed();
 		}
 		// nom identifiant la requête
-		final String requestName = getRequestName(invocation);
+		final String requestName = getCachedRequestName(invocation);
 
 		boolean systemError = false;
 		try {
@@ -91,6 +93,21 @@ public class MonitoringGuiceInterceptor implements MethodInterceptor, Serializab
 		return classPart + '.' + methodPart;
 	}
 
+	private String getCachedRequestName(MethodInvocation invocation) {
+		if (getClass() != MonitoringGuiceInterceptor.class) {
+			// getRequestName peut être redéfinie dans une sous-classe (et dépendre des arguments)
+			return getRequestName(invocation);
+		}
+		// le nom ne dépend que de la méthode, donc on évite les annotations à chaque appel
+		final Method method = invocation.getMethod();
+		final Class<?> targetClass = method.getDeclaringClass();
+		final String requestName = REQUEST_NAME_CACHE.get(targetClass, method);
+		if (requestName != null) {
+			return requestName;
+		}
+		return REQUEST_NAME_CACHE.put(targetClass, method, getRequestName(invocation));
+	}
+
 	private static String getClassPart(MethodInvocation invocation) {
 		final Class<?> targetClass = invocation.getMethod().getDeclaringClass();
 		final MonitoredWithGuice classAnnotation = targetClass
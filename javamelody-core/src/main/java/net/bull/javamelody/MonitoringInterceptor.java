@@ -38,6 +38,7 @@ public class MonitoringInterceptor implements Serializable {
 	private static final boolean COUNTER_HIDDEN = Parameters.isCounterHidden(EJB_COUNTER.getName());
 	private static final boolean DISABLED = Boolean.parseBoolean(Parameters
 			.getParameter(Parameter.DISABLED));
+	private static final RequestNameCache REQUEST_NAME_CACHE = new RequestNameCache();
 
 	/**
 	 * Constructeur.
@@ -64,7 +65,7 @@ public class MonitoringInterceptor implements Serializable {
 			return context.proceed();
 		}
 		// nom identifiant la requête
-		final String requestName = getRequestName(context);
+		final String requestName = getCachedRequestName(context);
 
 		boolean systemError = false;
 		try {
@@ -81,6 +82,27 @@ public class MonitoringInterceptor implements Serializable {
 		}
 	}
 
+	private String getCachedRequestName(InvocationContext context) {
+		final Method method = context.getMethod();
+		final Class<?> targetClass;
+		if (getClass() == MonitoringInterceptor.class) {
+			// le nom ne dépend que de la méthode
+			targetClass = method.getDeclaringClass();
+		} else if (getClass() == MonitoringTargetInterceptor.class) {
+			// le nom ne dépend que de la classe de l'ejb et de la méthode
+			// (et il est le même qu'ici quand cette classe est la classe déclarant la méthode)
+			targetClass = context.getTarget().getClass();
+		} else {
+			// getRequestName peut être redéfinie dans une sous-classe (et dépendre des arguments)
+			return getRequestName(context);
+		}
+		final String requestName = REQUEST_NAME_CACHE.get(targetClass, method);
+		if (requestName != null) {
+			return requestName;
+		}
+		return REQUEST_NAME_CACHE.put(targetClass, method, getRequestName(context));
+	}
+
 	/**
 	 * Determine request name for an invocation context.
 	 *
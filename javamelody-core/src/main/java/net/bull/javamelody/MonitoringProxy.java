@@ -67,6 +67,7 @@ public final class MonitoringProxy implements InvocationHandler, Serializable {
 			.getName());
 	private static final boolean DISABLED = Boolean.parseBoolean(Parameters
 			.getParameter(Parameter.DISABLED));
+	private static final RequestNameCache REQUEST_NAME_CACHE = new RequestNameCache();
 	@SuppressWarnings("all")
 	private final Object facade;
 	private final String name;
@@ -179,7 +180,14 @@ public final class MonitoringProxy implements InvocationHandler, Serializable {
 	protected String getRequestName(Method method) {
 		final String requestName;
 		if (name == null) {
-			requestName = method.getDeclaringClass().getSimpleName() + '.' + method.getName();
+			// le nom ne dépend que de la méthode, donc on évite la concaténation à chaque appel
+			final Class<?> declaringClass = method.getDeclaringClass();
+			final String cachedRequestName = REQUEST_NAME_CACHE.get(declaringClass, method);
+			if (cachedRequestName != null) {
+				return cachedRequestName;
+			}
+			requestName = REQUEST_NAME_CACHE.put(declaringClass, method,
+					declaringClass.getSimpleName() + '.' + method.getName());
 		} else {
 			requestName = name + '.' + method.getName();
 		}
@@ -18,9 +18,11 @@
 package net.bull.javamelody;
 
 import java.io.Serializable;
+import java.lang.reflect.Method;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.TargetClassAware;
 import org.springframework.aop.support.AopUtils;
 
 /**
@@ -36,6 +38,7 @@ public class MonitoringSpringInterceptor implements MethodInterceptor, Serializa
 			.getName());
 	private static final boolean DISABLED = Boolean.parseBoolean(Parameters
 			.getParameter(Parameter.DISABLED));
+	private static final RequestNameCache REQUEST_NAME_CACHE = new RequestNameCache();
 
 	/**
 	 * Constructeur.
@@ -65,7 +68,7 @@ public class MonitoringSpringInterceptor implements MethodInterceptor, Serializa
 			return invocation.proceed();
 		}
 		// nom identifiant la requête
-		final String requestName = getRequestName(invocation);
+		final String requestName = getCachedRequestName(invocation);
 
 		boolean systemError = false;
 		try {
@@ -94,6 +97,25 @@ public class MonitoringSpringInterceptor implements MethodInterceptor, Serializa
 		return classPart + '.' + methodPart;
 	}
 
+	private String getCachedRequestName(MethodInvocation invocation) {
+		final Object target = invocation.getThis();
+		if (getClass() != MonitoringSpringInterceptor.class || target == null
+				|| target instanceof TargetClassAware) {
+			// getRequestName peut être redéfinie dans une sous-classe (et dépendre des arguments),
+			// et la classe cible d'un TargetClassAware peut dépendre de l'instance : pas de cache
+			return getRequestName(invocation);
+		}
+		// sinon, le nom ne dépend que de la classe de l'instance (AopUtils.getTargetClass)
+		// et de la méthode, donc on évite la réflexion et les annotations à chaque appel
+		final Class<?> targetClass = target.getClass();
+		final Method method = invocation.getMethod();
+		final String requestName = REQUEST_NAME_CACHE.get(targetClass, method);
+		if (requestName != null) {
+			return requestName;
+		}
+		return REQUEST_NAME_CACHE.put(targetClass, method, getRequestName(invocation));
+	}
+
 	private static String getClassPart(MethodInvocation invocation) {
 		// si guice et pas Spring, alors remplacer AopUtils.getTargetClass() par getMethod().getDeclaringClass()
 		// http://ninomartinez.wordpress.com/2010/05/14/guice-caching-interceptors/
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Appels en parallèle des noeuds par le serveur de collecte, avec un délai maximum par noeud
+ * et un nombre d'appels simultanés qui s'adapte aux temps de réponse et aux échecs :
+ * augmentation de 1 après autant de succès que la limite en cours,
+ * et division par 2 après un échec ou une réponse beaucoup plus lente que la moyenne.
+ * Ainsi un noeud lent ou indisponible ne retarde plus les autres applications.
+ * Le nombre de threads suit la limite d'appels simultanés, et chaque appel reçoit sa date limite
+ * pour définir les timeouts de connexion et de lecture, puisqu'une lecture d'URLConnection
+ * ne peut pas être interrompue.
+ * @author Emeric Vernat
+ */
+class NodeFetchScheduler {
+	static final int MIN_CONCURRENCY = 2;
+	static final int MAX_CONCURRENCY = 64;
+	// une réponse plus lente que ce facteur fois la moyenne mobile est considérée comme une surcharge
+	private static final int SLOW_LATENCY_FACTOR = 4;
+	// délai maximum de décalage des débuts de collecte des applications, en millisecondes
+	private static final long MAX_JITTER_MILLIS = 15000;
+
+	private final long nodeTimeoutMillis;
+	private final ThreadPoolExecutor executor;
+	private final Random random = new Random();
+	// les champs suivants sont protégés par synchronized sur this
+	private int concurrencyLimit;
+	private int runningCount;
+	private int successesSinceIncrease;
+	private double averageLatency = -1;
+
+	/**
+	 * Appel d'un noeud avant une date limite.
+	 * @param <T> Type du résultat
+	 */
+	interface NodeCall<T> {
+		/**
+		 * @param deadline Date limite de l'appel en millisecondes
+		 * @return Résultat de l'appel
+		 * @throws Exception e
+		 */
+		T call(long deadline) throws Exception; // NOPMD
+	}
+
+	/**
+	 * Appel de noeud lancé, avec sa date limite.
+	 * @param <T> Type du résultat
+	 */
+	static class NodeFetch<T> extends FutureTask<T> {
+		private final long deadline;
+
+		NodeFetch(Callable<T> callable, long deadline) {
+			super(callable);
+			this.deadline = deadline;
+		}
+
+		long getDeadline() {
+			return deadline;
+		}
+	}
+
+	NodeFetchScheduler(int initialConcurrency, long nodeTimeoutMillis) {
+		super();
+		assert initialConcurrency >= MIN_CONCURRENCY && initialConcurrency <= MAX_CONCURRENCY;
+		assert nodeTimeoutMillis > 0;
+		this.concurrencyLimit = initialConcurrency;
+		this.nodeTimeoutMillis = nodeTimeoutMillis;
+		// autant de threads que la limite d'appels simultanés, ajustés dans release() ;
+		// la file d'attente sert seulement si un thread n'est pas encore libre après release()
+		this.executor = new ThreadPoolExecutor(initialConcurrency, initialConcurrency, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					/** {@inheritDoc} */
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, "javamelody-node-fetch");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Lance un appel de noeud dès que la limite d'appels simultanés le permet,
+	 * avec une date limite dans le délai maximum par noeud à partir de ce moment.
+	 * @param call Appel du noeud
+	 * @return NodeFetch à passer à {@link #get(NodeFetch, String)}
+	 * @throws IOException Si le thread est interrompu en attendant
+	 */
+	<T> NodeFetch<T> submit(final NodeCall<T> call) throws IOException {
+		acquire();
+		final long start = System.currentTimeMillis();
+		final long deadline = start + nodeTimeoutMillis;
+		// un appel annulé avant de commencer libère sa place dans done(), sinon à la fin de l'appel
+		final AtomicBoolean started = new AtomicBoolean();
+		final NodeFetch<T> fetch = new NodeFetch<T>(new Callable<T>() {
+			/** {@inheritDoc} */
+			@Override
+			public T call() throws Exception { // NOPMD
+				if (!started.compareAndSet(false, true)) {
+					return null;
+				}
+				boolean success = false;
+				try {
+					final T result = call.call(deadline);
+					success = true;
+					return result;
+				} finally {
+					release(success, System.currentTimeMillis() - start);
+				}
+			}
+		}, deadline) {
+			/** {@inheritDoc} */
+			@Override
+			protected void done() {
+				if (isCancelled() && started.compareAndSet(false, true)) {
+					releaseCancelled();
+				}
+			}
+		};
+		try {
+			executor.execute(fetch);
+		} catch (final RuntimeException e) {
+			// RejectedExecutionException si arrêté
+			release(false, 0);
+			throw e;
+		}
+		return fetch;
+	}
+
+	/**
+	 * Attend le résultat d'un appel de noeud, au plus jusqu'à sa date limite.
+	 * @param fetch NodeFetch retourné par {@link #submit(NodeCall)}
+	 * @param node Nom du noeud pour le message d'erreur
+	 * @return Résultat de l'appel
+	 * @throws IOException Si l'appel a échoué ou n'a pas répondu dans le délai
+	 */
+	<T> T get(NodeFetch<T> fetch, String node) throws IOException {
+		try {
+			return fetch.get(Math.max(1, fetch.getDeadline() - System.currentTimeMillis()),
+					TimeUnit.MILLISECONDS);
+		} catch (final TimeoutException e) {
+			// l'appel se terminera au plus tard avec les timeouts de connexion et de lecture
+			// définis à partir de la date limite, une lecture ne pouvant pas être interrompue
+			fetch.cancel(true);
+			throw new IOException("no response from " + node + " in " + nodeTimeoutMillis
+					+ " ms");
+		} catch (final InterruptedException e) {
+			fetch.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IOException(e.getMessage(), e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	private synchronized void acquire() throws IOException {
+		try {
+			while (runningCount >= concurrencyLimit) {
+				wait();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e.getMessage(), e);
+		}
+		runningCount++;
+	}
+
+	private synchronized void releaseCancelled() {
+		runningCount--;
+		notifyAll();
+	}
+
+	synchronized void release(boolean success, long latency) {
+		runningCount--;
+		final int previousLimit = concurrencyLimit;
+		if (success && (averageLatency < 0 || latency <= SLOW_LATENCY_FACTOR * averageLatency)) {
+			// moyenne mobile exponentielle des temps de réponse des succès
+			averageLatency = averageLatency < 0 ? latency : 0.9 * averageLatency + 0.1 * latency;
+			successesSinceIncrease++;
+			if (successesSinceIncrease >= concurrencyLimit) {
+				successesSinceIncrease = 0;
+				concurrencyLimit = Math.min(MAX_CONCURRENCY, concurrencyLimit + 1);
+			}
+		} else {
+			// échec, timeout ou réponse anormalement lente : on réduit la charge sur le réseau et les noeuds
+			successesSinceIncrease = 0;
+			concurrencyLimit = Math.max(MIN_CONCURRENCY, concurrencyLimit / 2);
+		}
+		if (concurrencyLimit > previousLimit) {
+			executor.setMaximumPoolSize(concurrencyLimit);
+			executor.setCorePoolSize(concurrencyLimit);
+		} else if (concurrencyLimit < previousLimit) {
+			// les threads en trop s'arrêtent à la fin de leur appel en cours
+			executor.setCorePoolSize(concurrencyLimit);
+			executor.setMaximumPoolSize(concurrencyLimit);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @param periodMillis Période des collectes
+	 * @return Délai aléatoire avant de commencer la collecte d'une application,
+	 * pour répartir les appels des noeuds sur le début de la période
+	 */
+	long nextJitterMillis(long periodMillis) {
+		final long maxJitter = Math.min(MAX_JITTER_MILLIS, periodMillis / 4);
+		if (maxJitter <= 0) {
+			return 0;
+		}
+		synchronized (random) {
+			return (long) (random.nextDouble() * maxJitter);
+		}
+	}
+
+	long getNodeTimeoutMillis() {
+		return nodeTimeoutMillis;
+	}
+
+	synchronized int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	synchronized int getRunningCount() {
+		return runningCount;
+	}
+
+	int getPoolSize() {
+		return executor.getMaximumPoolSize();
+	}
+
+	void stop() {
+		executor.shutdownNow();
+	}
+}
@@ -37,7 +37,7 @@ public enum Parameter {
 	OBSOLETE_GRAPHS_DAYS("obsolete-graphs-days"),
 
 	/**
-	 * Nombre de jours avant qu'un fichier de statistiques (extension .ser.gz),
+	 * Nombre de jours avant qu'un fichier de statistiques (extension .bin.gz ou .ser.gz),
 	 * soit considéré comme obsolète et soit supprimé automatiquement, à minuit (365 par défaut, soit 1 an).
 	 */
 	OBSOLETE_STATS_DAYS("obsolete-stats-days"),
@@ -294,6 +294,122 @@ public enum Parameter {
 	 */
 	CONNECTIONS_STACK_TRACES_DISABLED("connections-stack-traces-disabled"),
 
+	/**
+	 * true | false, true enregistre les hits des compteurs dans des accumulateurs par bandes de threads,
+	 * fusionnés seulement à la lecture des statistiques, pour réduire la contention entre threads
+	 * sur les requêtes les plus exécutées quand la charge est très élevée (false par défaut).
+	 */
+	STRIPED_COUNTERS("striped-counters"),
+
+	/**
+	 * Liste des compteurs (http, spring, ejb, guice, services, jpa, struts, jsf, jsp ou job)
+	 * pour lesquels le temps cpu des requêtes n'est pas mesuré, par exemple "spring,ejb"
+	 * pour des services très nombreux et très courts (aucun par défaut).
+	 */
+	CPU_TIME_DISABLED_COUNTERS("cpu-time-disabled-counters"),
+
+	/**
+	 * Liste des compteurs (http, spring, ejb, guice, services, jpa, struts, jsf, jsp ou job)
+	 * pour lesquels le temps cpu n'est mesuré que pour 1 requête sur N et estimé pour les autres,
+	 * par exemple "http,spring" (aucun par défaut).
+	 */
+	CPU_TIME_SAMPLED_COUNTERS("cpu-time-sampled-counters"),
+
+	/**
+	 * Intervalle N d'échantillonnage du temps cpu pour les compteurs de cpu-time-sampled-counters :
+	 * le temps cpu est mesuré pour 1 requête sur N (10 par défaut).
+	 */
+	CPU_TIME_SAMPLING_INTERVAL("cpu-time-sampling-interval"),
+
+	/**
+	 * true | false, true monitore les connexions et statements jdbc avec des classes déléguées
+	 * au lieu de proxy java.lang.reflect.Proxy, sans réflexion à chaque appel jdbc (false par défaut). <br/>
+	 * Les connexions et statements monitorés n'implémentent alors que les interfaces de java.sql
+	 * (pour appeler des méthodes spécifiques au driver, il faut utiliser unwrap).
+	 * Les proxy restent utilisés si les classes déléguées ne sont pas compatibles avec la JVM.
+	 */
+	JDBC_DELEGATES("jdbc-delegates"),
+
+	/**
+	 * true | false, true enregistre à chaque collecte seulement les hits et erreurs de la dernière période
+	 * dans un journal des compteurs du jour (extension .journal) au lieu de réécrire ces compteurs (false par défaut). <br/>
+	 * Les compteurs du jour sont réécrits entièrement quand leur journal devient plus grand qu'eux,
+	 * au changement de jour et à l'arrêt, et les journaux sont relus au démarrage.
+	 */
+	COUNTERS_JOURNAL("counters-journal"),
+
+	/**
+	 * true | false, true utilise pour les fichiers RRD des courbes un stockage mappé en mémoire
+	 * avec une seule tâche de synchronisation sur disque pour tous les fichiers
+	 * et une taille totale mappée bornée (false par défaut).
+	 */
+	RRD_MAPPED_BACKEND("rrd-mapped-backend"),
+
+	/**
+	 * Politique de synchronisation sur disque des fichiers RRD mappés en mémoire si rrd-mapped-backend est true :
+	 * "periodic" pour synchroniser en une seule passe tous les fichiers modifiés toutes les 5 minutes,
+	 * "on-close" pour synchroniser un fichier seulement à sa fermeture,
+	 * ou "never" pour laisser le système d'exploitation écrire sur disque ("periodic" par défaut).
+	 */
+	RRD_SYNC_POLICY("rrd-sync-policy"),
+
+	/**
+	 * Taille totale maximum en Mo des fichiers RRD mappés en mémoire si rrd-mapped-backend est true ;
+	 * au-delà, les fichiers les moins récemment utilisés ne sont plus mappés (256 par défaut).
+	 */
+	RRD_MAX_MAPPED_MB("rrd-max-mapped-mb"),
+
+	/**
+	 * URL de la servlet d'un serveur de collecte, par exemple http://host:8080/collector/,
+	 * à laquelle ce noeud envoie les deltas de ses compteurs à chaque collecte (mode push),
+	 * par exemple quand le serveur de collecte ne peut pas joindre ce noeud (null par défaut : mode pull). <br/>
+	 * L'utilisateur et le mot de passe éventuels pour authorized-users peuvent être inclus dans l'URL.
+	 */
+	COLLECTOR_PUSH_URL("collector-push-url"),
+
+	/**
+	 * true | false, true pour que le serveur de collecte accepte les deltas envoyés par les noeuds
+	 * en mode push (false par défaut). <br/>
+	 * Le mode push n'est accepté que si allowed-addr-pattern ou authorized-users est aussi défini
+	 * dans le serveur de collecte, pour que les noeuds soient authentifiés.
+	 */
+	COLLECTOR_PUSH_ENABLED("collector-push-enabled"),
+
+	/**
+	 * Délai maximum en secondes de l'appel de chaque noeud par le serveur de collecte (60 par défaut) ;
+	 * les noeuds sont appelés en parallèle et un noeud qui ne répond pas dans ce délai rend l'application indisponible
+	 * pour cette collecte, sans retarder les autres applications.
+	 */
+	COLLECTOR_NODE_TIMEOUT_SECONDS("collector-node-timeout-seconds"),
+
+	/**
+	 * Période en minutes de la prise d'un histogramme mémoire enregistré sur disque,
+	 * pour comparer les classes en croissance entre deux histogrammes (null par défaut : pas d'histogrammes périodiques).
+	 * Un histogramme mémoire entraîne un full gc, donc une valeur de 60 ou plus est recommandée.
+	 */
+	HEAP_HISTOGRAM_SNAPSHOTS_MINUTES("heap-histogram-snapshots-minutes"),
+
+	/**
+	 * true | false, true pour calculer la taille exacte de chaque session dans la liste des sessions
+	 * en sérialisant tous leurs attributs, au lieu de l'estimer à partir de quelques attributs de chaque classe
+	 * (false par défaut). La taille des attributs dans le détail d'une session est toujours exacte.
+	 */
+	SESSION_SIZE_ESTIMATION_DISABLED("session-size-estimation-disabled"),
+
+	/**
+	 * Profondeur maximum des piles d'appels des threads dans les rapports (illimitée par défaut),
+	 * pour borner le coût de la liste des threads quand il y a des milliers de threads. 0 pour aucune pile.
+	 */
+	THREADS_STACK_MAX_DEPTH("threads-stack-max-depth"),
+
+	/**
+	 * Chemin d'un fichier de propriétés contenant des paramètres sans le préfixe "javamelody.",
+	 * par exemple "storage-directory=/var/javamelody" (null par défaut). <br/>
+	 * Ces paramètres sont prioritaires sur ceux du web.xml et du contexte de la webapp, mais pas sur
+	 * les propriétés systèmes, et le fichier est relu à chaque collecte s'il a été modifié.
+	 */
+	PARAMETERS_FILE("parameters-file"),
+
 	/**
 	 * URL http du fichier jar javamelody-swing (null par défaut : le fichier sera téléchargé depuis http://javamelody.googlecode.com selon la version). <br/>
 	 * Ce paramètre est surtout utile quand les utilisateurs n'ont pas accès à Internet pour télécharger sur googlecode.
@@ -27,6 +27,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -45,21 +46,26 @@ final class Parameters {
 	static final File TEMPORARY_DIRECTORY = new File(System.getProperty("java.io.tmpdir"));
 	static final String JAVA_VERSION = System.getProperty("java.version");
 	static final String JAVAMELODY_VERSION = getJavaMelodyVersion();
-	// default monitoring-path is "/monitoring" in the http URL
-	private static final String DEFAULT_MONITORING_PATH = "/monitoring";
-	// résolution (ou pas) par défaut en s de stockage des valeurs dans les fichiers RRD
-	private static final int DEFAULT_RESOLUTION_SECONDS = 60;
-	// stockage des fichiers RRD de JRobin dans le répertoire temp/javamelody/<context> par défaut
-	private static final String DEFAULT_DIRECTORY = "javamelody";
 	// nom du fichier stockant les applications et leurs urls dans le répertoire de stockage
 	private static final String COLLECTOR_APPLICATIONS_FILENAME = "applications.properties";
+	// paramètres qui ne sont pas modifiés par la relecture du fichier de paramètres,
+	// car ils sont utilisés à l'initialisation (url, fichiers RRD et répertoire de stockage, collector)
+	// et nécessitent un redémarrage
+	private static final List<Parameter> RESTART_REQUIRED_PARAMETERS = Arrays.asList(
+			Parameter.MONITORING_PATH, Parameter.RESOLUTION_SECONDS, Parameter.STORAGE_DIRECTORY,
+			Parameter.NO_DATABASE, Parameter.COUNTERS_JOURNAL);
 	private static Map<String, List<URL>> urlsByApplications;
 
 	private static FilterConfig filterConfig;
 	private static ServletContext servletContext;
 	private static String lastConnectUrl;
 	private static Properties lastConnectInfo;
-	private static boolean dnsLookupsDisabled;
+	// valeurs analysées des paramètres lus fréquemment, null si invalidées
+	private static volatile ParametersSnapshot snapshot;
+	// paramètres du fichier optionnel parameters-file, relu s'il est modifié
+	private static volatile Properties parametersFileProperties;
+	private static File parametersFile;
+	private static long parametersFileLastModified;
 
 	private Parameters() {
 		super();
@@ -70,6 +76,8 @@ final class Parameters {
 		if (config != null) {
 			final ServletContext context = config.getServletContext();
 			initialize(context);
+		} else {
+			invalidateSnapshot();
 		}
 	}
 
@@ -80,7 +88,123 @@ final class Parameters {
 		}
 		servletContext = context;
 
-		dnsLookupsDisabled = Boolean.parseBoolean(getParameter(Parameter.DNS_LOOKUPS_DISABLED));
+		try {
+			loadParametersFile();
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		// les valeurs incorrectes des paramètres sont signalées ici dès le démarrage
+		invalidateSnapshot();
+		getSnapshot();
+	}
+
+	/**
+	 * @return Valeurs analysées des paramètres lus fréquemment,
+	 * 	construites si les paramètres ont été invalidés depuis le dernier appel.
+	 */
+	static ParametersSnapshot getSnapshot() {
+		final ParametersSnapshot result = snapshot;
+		if (result != null) {
+			return result;
+		}
+		synchronized (Parameters.class) {
+			if (snapshot == null) {
+				snapshot = new ParametersSnapshot();
+			}
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Invalide les valeurs analysées des paramètres, par exemple après la modification
+	 * d'une propriété système "javamelody.*", pour qu'elles soient relues au prochain appel.
+	 */
+	static void invalidateSnapshot() {
+		synchronized (Parameters.class) {
+			snapshot = null;
+		}
+	}
+
+	private static void loadParametersFile() throws IOException {
+		synchronized (Parameters.class) {
+			// le nom du fichier ne peut pas être lui-même dans le fichier
+			parametersFileProperties = null;
+			final String fileName = getParameter(Parameter.PARAMETERS_FILE);
+			if (fileName == null) {
+				parametersFile = null;
+				return;
+			}
+			parametersFile = new File(fileName);
+			parametersFileLastModified = parametersFile.lastModified();
+			parametersFileProperties = readParametersFile(parametersFile);
+		}
+	}
+
+	private static Properties readParametersFile(File file) throws IOException {
+		final Properties properties = new Properties();
+		final FileInputStream input = new FileInputStream(file);
+		try {
+			properties.load(input);
+		} finally {
+			input.close();
+		}
+		return properties;
+	}
+
+	/**
+	 * Relit le fichier du paramètre parameters-file s'il a été modifié depuis sa dernière lecture
+	 * (appelé à chaque collecte). Si le fichier modifié ne peut pas être lu ou contient une valeur incorrecte,
+	 * les paramètres précédents sont conservés. Les paramètres nécessitant un redémarrage
+	 * (resolution-seconds, storage-directory, monitoring-path...) gardent leurs valeurs précédentes.
+	 * @return true si le fichier a été relu et les nouveaux paramètres pris en compte
+	 */
+	static boolean reloadParametersFileIfModified() {
+		synchronized (Parameters.class) {
+			if (parametersFile == null) {
+				return false;
+			}
+			final long lastModified = parametersFile.lastModified();
+			if (lastModified == parametersFileLastModified) {
+				return false;
+			}
+			final Properties previousProperties = parametersFileProperties;
+			final ParametersSnapshot previousSnapshot = snapshot;
+			parametersFileLastModified = lastModified;
+			try {
+				final Properties properties = readParametersFile(parametersFile);
+				keepRestartRequiredParameters(previousProperties, properties);
+				parametersFileProperties = properties;
+				snapshot = new ParametersSnapshot();
+			} catch (final Exception e) {
+				parametersFileProperties = previousProperties;
+				snapshot = previousSnapshot;
+				LOG.warn("parameters file ignored: " + parametersFile.getPath() + ", " + e.toString(),
+						e);
+				return false;
+			}
+			LOG.info("parameters file reloaded: " + parametersFile.getPath());
+			return true;
+		}
+	}
+
+	private static void keepRestartRequiredParameters(Properties previousProperties,
+			Properties properties) {
+		for (final Parameter parameter : RESTART_REQUIRED_PARAMETERS) {
+			final String name = parameter.getCode();
+			final String previousValue = previousProperties != null ? previousProperties
+					.getProperty(name) : null;
+			final String value = properties.getProperty(name);
+			if (previousValue == null ? value != null : !previousValue.equals(value)) {
+				LOG.info("parameter " + name + " modified in parameters file "
+						+ parametersFile.getPath()
+						+ " but not applied: a restart is needed, previous value kept");
+				if (previousValue == null) {
+					properties.remove(name);
+				} else {
+					properties.setProperty(name, previousValue);
+				}
+			}
+		}
 	}
 
 	static void initJdbcDriverParameters(String connectUrl, Properties connectInfo) {
@@ -220,18 +344,14 @@ final class Parameters {
 	}
 
 	static String getMonitoringPath() {
-		final String parameterValue = getParameter(Parameter.MONITORING_PATH);
-		if (parameterValue == null) {
-			return DEFAULT_MONITORING_PATH;
-		}
-		return parameterValue;
+		return getSnapshot().getMonitoringPath();
 	}
 
 	/**
 	 * @return nom réseau de la machine
 	 */
 	static String getHostName() {
-		if (dnsLookupsDisabled) {
+		if (getSnapshot().isDnsLookupsDisabled()) {
 			return "localhost";
 		}
 
@@ -246,7 +366,7 @@ final class Parameters {
 	 * @return adresse ip de la machine
 	 */
 	static String getHostAddress() {
-		if (dnsLookupsDisabled) {
+		if (getSnapshot().isDnsLookupsDisabled()) {
 			return "127.0.0.1"; // NOPMD
 		}
 
@@ -272,17 +392,14 @@ final class Parameters {
 	 * @return Résolution en secondes des courbes et période d'appels par le serveur de collecte le cas échéant.
 	 */
 	static int getResolutionSeconds() {
-		final String param = getParameter(Parameter.RESOLUTION_SECONDS);
-		if (param != null) {
-			// lance une NumberFormatException si ce n'est pas un nombre
-			final int result = Integer.parseInt(param);
-			if (result <= 0) {
-				throw new IllegalStateException(
-						"The parameter resolution-seconds should be > 0 (between 60 and 600 recommended)");
-			}
-			return result;
-		}
-		return DEFAULT_RESOLUTION_SECONDS;
+		return getSnapshot().getResolutionSeconds();
+	}
+
+	/**
+	 * @return Intervalle d'échantillonnage du temps cpu (1 requête sur N) pour les compteurs du paramètre cpu-time-sampled-counters.
+	 */
+	static int getCpuTimeSamplingInterval() {
+		return getSnapshot().getCpuTimeSamplingInterval();
 	}
 
 	/**
@@ -290,23 +407,7 @@ final class Parameters {
 	 * @return Répertoire de stockage des compteurs et des données pour les courbes.
 	 */
 	static File getStorageDirectory(String application) {
-		final String param = getParameter(Parameter.STORAGE_DIRECTORY);
-		final String dir;
-		if (param == null) {
-			dir = DEFAULT_DIRECTORY;
-		} else {
-			dir = param;
-		}
-		// Si le nom du répertoire commence par '/' (ou "drive specifier" sur Windows),
-		// on considère que c'est un chemin absolu,
-		// sinon on considère que c'est un chemin relatif par rapport au répertoire temporaire
-		// ('temp' dans TOMCAT_HOME pour tomcat).
-		final String directory;
-		if (dir.length() > 0 && new File(dir).isAbsolute()) {
-			directory = dir;
-		} else {
-			directory = TEMPORARY_DIRECTORY.getPath() + '/' + dir;
-		}
+		final String directory = getSnapshot().getStorageDirectory();
 		if (servletContext != null) {
 			return new File(directory + '/' + application);
 		}
@@ -318,7 +419,7 @@ final class Parameters {
 	 * @return boolean
 	 */
 	static boolean isNoDatabase() {
-		return Boolean.parseBoolean(Parameters.getParameter(Parameter.NO_DATABASE));
+		return getSnapshot().isNoDatabase();
 	}
 
 	/**
@@ -326,8 +427,7 @@ final class Parameters {
 	 * @return boolean
 	 */
 	static boolean isSystemActionsEnabled() {
-		final String parameter = Parameters.getParameter(Parameter.SYSTEM_ACTIONS_ENABLED);
-		return parameter == null || Boolean.parseBoolean(parameter);
+		return getSnapshot().isSystemActionsEnabled();
 	}
 
 	/**
@@ -339,17 +439,7 @@ final class Parameters {
 	 * @return boolean
 	 */
 	static boolean isCounterHidden(String counterName) {
-		final String displayedCounters = getParameter(Parameter.DISPLAYED_COUNTERS);
-		if (displayedCounters == null) {
-			return false;
-		}
-		for (final String displayedCounter : displayedCounters.split(",")) {
-			final String displayedCounterName = displayedCounter.trim();
-			if (counterName.equalsIgnoreCase(displayedCounterName)) {
-				return false;
-			}
-		}
-		return true;
+		return getSnapshot().isCounterHidden(counterName);
 	}
 
 	/**
@@ -424,6 +514,7 @@ final class Parameters {
 	 * - dans les paramètres d'initialisation du filtre (fichier web.xml dans la webapp)
 	 * - dans les paramètres du contexte de la webapp avec le préfixe "javamelody." (fichier xml de contexte dans Tomcat)
 	 * - dans les variables d'environnement du système d'exploitation avec le préfixe "javamelody."
+	 * - dans le fichier du paramètre parameters-file, sans le préfixe (relu s'il est modifié)
 	 * - dans les propriétés systèmes avec le préfixe "javamelody." (commande de lancement java)
 	 * @param parameter Enum du paramètre
 	 * @return valeur du paramètre ou null si pas de paramètre défini
@@ -441,6 +532,13 @@ final class Parameters {
 		if (result != null) {
 			return result;
 		}
+		final Properties fileProperties = parametersFileProperties;
+		if (fileProperties != null) {
+			result = fileProperties.getProperty(parameterName);
+			if (result != null) {
+				return result;
+			}
+		}
 		if (servletContext != null) {
 			result = servletContext.getInitParameter(globalName);
 			if (result != null) {
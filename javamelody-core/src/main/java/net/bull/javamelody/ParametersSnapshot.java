@@ -0,0 +1,206 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Valeurs typées et déjà analysées des paramètres lus fréquemment (résolution, répertoire de stockage,
+ * compteurs affichés, seuils des rapports, jours avant obsolescence des fichiers...).
+ * Une instance est immuable : elle est construite par Parameters lors de l'initialisation
+ * (une valeur incorrecte est alors signalée au démarrage et non au premier rapport),
+ * puis remplacée quand les paramètres sont invalidés ou quand le fichier de paramètres est modifié.
+ * @author Emeric Vernat
+ */
+final class ParametersSnapshot {
+	// default monitoring-path is "/monitoring" in the http URL
+	private static final String DEFAULT_MONITORING_PATH = "/monitoring";
+	// résolution (ou pas) par défaut en s de stockage des valeurs dans les fichiers RRD
+	private static final int DEFAULT_RESOLUTION_SECONDS = 60;
+	private static final int DEFAULT_CPU_TIME_SAMPLING_INTERVAL = 10;
+	// stockage des fichiers RRD de JRobin dans le répertoire temp/javamelody/<context> par défaut
+	private static final String DEFAULT_DIRECTORY = "javamelody";
+	private static final int DEFAULT_OBSOLETE_STATS_DAYS = 365;
+	private static final int DEFAULT_OBSOLETE_GRAPHS_DAYS = 90;
+
+	private final String monitoringPath;
+	private final int resolutionSeconds;
+	private final int cpuTimeSamplingInterval;
+	private final String storageDirectory;
+	private final Set<String> displayedCounters;
+	private final boolean noDatabase;
+	private final boolean systemActionsEnabled;
+	private final boolean dnsLookupsDisabled;
+	private final int obsoleteStatsDays;
+	private final int obsoleteGraphsDays;
+	private final int warningThresholdMillis;
+	private final int severeThresholdMillis;
+
+	/**
+	 * Constructeur : lit et analyse les paramètres.
+	 * @throws IllegalStateException si un paramètre a une valeur incorrecte
+	 * @throws NumberFormatException si un paramètre numérique n'est pas un nombre
+	 */
+	ParametersSnapshot() {
+		super();
+		final String monitoringPathParameter = Parameters.getParameter(Parameter.MONITORING_PATH);
+		if (monitoringPathParameter == null) {
+			monitoringPath = DEFAULT_MONITORING_PATH;
+		} else {
+			monitoringPath = monitoringPathParameter;
+		}
+		resolutionSeconds = getPositiveInt(Parameter.RESOLUTION_SECONDS,
+				DEFAULT_RESOLUTION_SECONDS,
+				"The parameter resolution-seconds should be > 0 (between 60 and 600 recommended)");
+		cpuTimeSamplingInterval = getPositiveInt(Parameter.CPU_TIME_SAMPLING_INTERVAL,
+				DEFAULT_CPU_TIME_SAMPLING_INTERVAL,
+				"The parameter cpu-time-sampling-interval should be > 0");
+		storageDirectory = buildStorageDirectory(Parameters
+				.getParameter(Parameter.STORAGE_DIRECTORY));
+		displayedCounters = parseDisplayedCounters(Parameters
+				.getParameter(Parameter.DISPLAYED_COUNTERS));
+		noDatabase = Boolean.parseBoolean(Parameters.getParameter(Parameter.NO_DATABASE));
+		final String systemActionsEnabledParameter = Parameters
+				.getParameter(Parameter.SYSTEM_ACTIONS_ENABLED);
+		systemActionsEnabled = systemActionsEnabledParameter == null
+				|| Boolean.parseBoolean(systemActionsEnabledParameter);
+		dnsLookupsDisabled = Boolean.parseBoolean(Parameters
+				.getParameter(Parameter.DNS_LOOKUPS_DISABLED));
+		obsoleteStatsDays = getPositiveInt(Parameter.OBSOLETE_STATS_DAYS,
+				DEFAULT_OBSOLETE_STATS_DAYS,
+				"The parameter obsolete-stats-days should be > 0 (365 recommended)");
+		obsoleteGraphsDays = getPositiveInt(Parameter.OBSOLETE_GRAPHS_DAYS,
+				DEFAULT_OBSOLETE_GRAPHS_DAYS,
+				"The parameter obsolete-graphs-days should be > 0 (90 recommended)");
+		warningThresholdMillis = getPositiveInt(Parameter.WARNING_THRESHOLD_MILLIS, -1,
+				"Le paramètre " + Parameter.WARNING_THRESHOLD_MILLIS.getCode() + " doit être > 0");
+		severeThresholdMillis = getPositiveInt(Parameter.SEVERE_THRESHOLD_MILLIS, -1,
+				"Le paramètre " + Parameter.SEVERE_THRESHOLD_MILLIS.getCode() + " doit être > 0");
+	}
+
+	private static int getPositiveInt(Parameter parameter, int defaultValue, String errorMessage) {
+		final String param = Parameters.getParameter(parameter);
+		if (param != null) {
+			// lance une NumberFormatException si ce n'est pas un nombre
+			final int result = Integer.parseInt(param);
+			if (result <= 0) {
+				throw new IllegalStateException(errorMessage);
+			}
+			return result;
+		}
+		return defaultValue;
+	}
+
+	private static String buildStorageDirectory(String param) {
+		final String dir;
+		if (param == null) {
+			dir = DEFAULT_DIRECTORY;
+		} else {
+			dir = param;
+		}
+		// Si le nom du répertoire commence par '/' (ou "drive specifier" sur Windows),
+		// on considère que c'est un chemin absolu,
+		// sinon on considère que c'est un chemin relatif par rapport au répertoire temporaire
+		// ('temp' dans TOMCAT_HOME pour tomcat).
+		if (dir.length() > 0 && new File(dir).isAbsolute()) {
+			return dir;
+		}
+		return Parameters.TEMPORARY_DIRECTORY.getPath() + '/' + dir;
+	}
+
+	private static Set<String> parseDisplayedCounters(String param) {
+		if (param == null) {
+			return null;
+		}
+		final Set<String> result = new HashSet<String>();
+		for (final String displayedCounter : param.split(",")) {
+			result.add(displayedCounter.trim().toLowerCase(Locale.ENGLISH));
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	String getMonitoringPath() {
+		return monitoringPath;
+	}
+
+	int getResolutionSeconds() {
+		return resolutionSeconds;
+	}
+
+	int getCpuTimeSamplingInterval() {
+		return cpuTimeSamplingInterval;
+	}
+
+	/**
+	 * @return Répertoire de stockage, sans le sous-répertoire de l'application.
+	 */
+	String getStorageDirectory() {
+		return storageDirectory;
+	}
+
+	boolean isCounterHidden(String counterName) {
+		return displayedCounters != null
+				&& !displayedCounters.contains(counterName.toLowerCase(Locale.ENGLISH));
+	}
+
+	boolean isNoDatabase() {
+		return noDatabase;
+	}
+
+	boolean isSystemActionsEnabled() {
+		return systemActionsEnabled;
+	}
+
+	boolean isDnsLookupsDisabled() {
+		return dnsLookupsDisabled;
+	}
+
+	/**
+	 * @return Nombre de jours avant qu'un fichier de statistiques (extension .bin.gz ou .ser.gz),
+	 * soit considéré comme obsolète et soit supprimé automatiquement, à minuit (365 par défaut, soit 1 an)
+	 */
+	int getObsoleteStatsDays() {
+		return obsoleteStatsDays;
+	}
+
+	/**
+	 * @return Nombre de jours avant qu'un fichier de graphique JRobin (extension .rrd) qui n'est plus utilisé,
+	 * soit considéré comme obsolète et soit supprimé automatiquement, à minuit (90 par défaut, soit 3 mois).
+	 */
+	int getObsoleteGraphsDays() {
+		return obsoleteGraphsDays;
+	}
+
+	/**
+	 * @return Seuil en ms du paramètre warning-threshold-millis, ou -1 s'il n'est pas défini
+	 */
+	int getWarningThresholdMillis() {
+		return warningThresholdMillis;
+	}
+
+	/**
+	 * @return Seuil en ms du paramètre severe-threshold-millis, ou -1 s'il n'est pas défini
+	 */
+	int getSevereThresholdMillis() {
+		return severeThresholdMillis;
+	}
+}
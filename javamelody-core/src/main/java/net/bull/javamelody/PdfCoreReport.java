@@ -422,9 +422,19 @@ class PdfCoreReport extends PdfAbstractReport {
 
 	private void writeDurationAndOverhead() throws DocumentException {
 		final long displayDuration = System.currentTimeMillis() - start;
+		final long[] stagesDurations = collector.getLastCollectStagesDurations();
+		final JRobinBatch jrobinBatch = collector.getLastJRobinBatch();
 		final String tmp = "\n\n" + getString("temps_derniere_collecte") + ": "
 				+ collector.getLastCollectDuration() + ' ' + getString("ms") + '\n'
+				+ getFormattedString("Etapes_collecte", stagesDurations[0], stagesDurations[1],
+						stagesDurations[2], stagesDurations[3]) + '\n'
+				+ getFormattedString("Ecritures_jrobin", jrobinBatch.getUpdatesCount(),
+						jrobinBatch.getBytesWritten(), jrobinBatch.getDuration()) + '\n'
 				+ getString("temps_affichage") + ": " + displayDuration + ' ' + getString("ms")
+				+ '\n'
+				+ getFormattedString("Cache_courbes", JRobinGraphCache.getHitRatio(),
+						JRobinGraphCache.getHitsCount(), JRobinGraphCache.getMissesCount(),
+						JRobinGraphCache.getGraphsCount(), JRobinGraphCache.getTotalBytes() / 1024)
 				+ '\n' + getString("Estimation_overhead_memoire") + ": < "
 				+ (collector.getEstimatedMemorySize() / 1024 / 1024 + 1) + ' ' + getString("Mo")
 				+ '\n' + getString("Usage_disque") + ": "
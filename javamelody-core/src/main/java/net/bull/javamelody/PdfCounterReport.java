@@ -178,12 +178,21 @@ class PdfCounterReport extends PdfAbstractTableReport {
 			headers.add(getString("Temps_moyen"));
 			headers.add(getString("Temps_max"));
 			headers.add(getString("Ecart_type"));
+			for (final int percentile : HtmlCounterReport.PERCENTILES) {
+				headers.add(getFormattedString("centile", percentile));
+			}
 		} else {
 			headers.add(getString("Hits"));
 		}
 		if (counterRequestAggregation.isCpuTimesDisplayed()) {
 			headers.add(getString("temps_cpu_cumule"));
-			headers.add(getString("Temps_cpu_moyen"));
+			if (counter.isCpuTimeEstimated()) {
+				// temps cpu extrapolés à partir d'1 requête sur N
+				headers.add(getString("Temps_cpu_moyen") + ' '
+						+ getFormattedString("cpu_estime", counter.getCpuTimeSamplingInterval()));
+			} else {
+				headers.add(getString("Temps_cpu_moyen"));
+			}
 		}
 		if (!isErrorAndNotJobCounter()) {
 			headers.add(getString("erreur_systeme"));
@@ -241,6 +250,15 @@ class PdfCounterReport extends PdfAbstractTableReport {
 			addCell(new Phrase(integerFormat.format(mean), getSlaFont(mean)));
 			addCell(integerFormat.format(request.getMaximum()));
 			addCell(integerFormat.format(request.getStandardDeviation()));
+			for (final int percentile : HtmlCounterReport.PERCENTILES) {
+				// centile inconnu si pas d'histogramme (données d'une version précédente)
+				final long durationsPercentile = request.getDurationsPercentile(percentile);
+				if (durationsPercentile >= 0) {
+					addCell(integerFormat.format(durationsPercentile));
+				} else {
+					addCell("");
+				}
+			}
 		} else {
 			addCell(integerFormat.format(request.getHits()));
 		}
@@ -25,12 +25,23 @@ import java.util.Locale;
 
 /**
  * Factory pour les compteurs par jour, par semaine, par mois et par année.
+ *
+ * Les statistiques des semaines, des mois et des années terminés sont agrégées et enregistrées
+ * (au changement de jour ou à la première lecture), puis utilisées pour toute période
+ * qui les inclut entièrement, afin de lire peu de fichiers au lieu d'un fichier par jour.
+ * Une semaine commence un lundi (ISO 8601, quelle que soit la locale de la jvm) et est coupée
+ * à la fin du mois, pour que chaque mois soit agrégé à partir de ses semaines
+ * et chaque année à partir de ses mois.
  * @author Emeric Vernat
  */
 class PeriodCounterFactory {
 	// Note d'implémentation : Calendar.getInstance() crée à chaque appel une nouvelle instance
 	// de Calendar à la date et à l'heure courante (cette date-heure peut être modifiée)
 
+	// premier jour de la semaine fixe, pour que les mêmes données soient agrégées
+	// de la même façon quelle que soit la locale du serveur
+	private static final int FIRST_DAY_OF_WEEK = Calendar.MONDAY;
+
 	private final Counter currentDayCounter;
 
 	PeriodCounterFactory(Counter currentDayCounter) {
@@ -39,15 +50,29 @@ class PeriodCounterFactory {
 		this.currentDayCounter = currentDayCounter;
 	}
 
-	Counter buildNewDayCounter() throws IOException {
+	Counter buildNewDayCounter() {
 		final Calendar start = Calendar.getInstance();
 		start.setTime(currentDayCounter.getStartDate());
-		if (start.get(Calendar.MONTH) != Calendar.getInstance().get(Calendar.MONTH)) {
+		final Calendar today = getDayCalendar(new Date());
+		if (start.get(Calendar.MONTH) != today.get(Calendar.MONTH)) {
 			// le mois a changé, on crée un compteur vide qui sera enregistré dans un nouveau fichier;
 			// ce compteur agrégé pour le mois est utilisé pour de meilleurs performances sur le compteur de l'année
 			// on calcule le monthCounter et on l'enregistre (optimisation pour getYearCounter)
 			getMonthCounterAtDate(currentDayCounter.getStartDate());
 		}
+		// de même, on agrège et on enregistre la semaine et l'année si elles viennent de se terminer
+		final Calendar firstDayOfWeek = getDayCalendar(currentDayCounter.getStartDate());
+		while (!isFirstDayOfWeek(firstDayOfWeek)) {
+			firstDayOfWeek.add(Calendar.DAY_OF_YEAR, -1);
+		}
+		if (isPeriodEnded(firstDayOfWeek, Calendar.WEEK_OF_YEAR, today)) {
+			getWeekCounterAtDate(firstDayOfWeek.getTime());
+		}
+		if (start.get(Calendar.YEAR) != today.get(Calendar.YEAR)) {
+			final Calendar firstDayOfYear = getDayCalendar(start.getTime());
+			firstDayOfYear.set(Calendar.DAY_OF_YEAR, 1);
+			getYearCounterAtDate(firstDayOfYear.getTime());
+		}
 
 		return createDayCounterAtDate(new Date());
 	}
@@ -95,78 +120,207 @@ class PeriodCounterFactory {
 
 	private void addRequestsAndErrorsForRange(Counter counter, Range range) {
 		final Calendar dayCalendar = Calendar.getInstance();
+		final Calendar lastDayCalendar;
 		if (range.getPeriod() == null) {
-			counter.addRequestsAndErrors(getDayCounterAtDate(range.getEndDate()));
 			dayCalendar.setTime(range.getEndDate());
 			// issue 122: attention endDate contient un jour jusqu'à 23h59m59s selon Range.parse
 			dayCalendar.set(Calendar.HOUR_OF_DAY, 0);
 			dayCalendar.set(Calendar.MINUTE, 0);
 			dayCalendar.set(Calendar.SECOND, 0);
+			lastDayCalendar = (Calendar) dayCalendar.clone();
 		} else {
 			counter.addRequestsAndErrors(currentDayCounter);
 			dayCalendar.setTime(currentDayCounter.getStartDate());
+			lastDayCalendar = (Calendar) dayCalendar.clone();
+			lastDayCalendar.add(Calendar.DAY_OF_YEAR, -1);
 		}
-		final int durationDays = range.getDurationDays();
-		for (int i = 1; i < durationDays; i++) {
-			// TODO optimisation avec getMonthCounterAtDate comme getYearCounter() ?
-			dayCalendar.add(Calendar.DAY_OF_YEAR, -1);
-			counter.addRequestsAndErrors(getDayCounterAtDate(dayCalendar.getTime()));
-		}
+		dayCalendar.add(Calendar.DAY_OF_YEAR, -range.getDurationDays() + 1);
+		addRequestsAndErrorsForDays(counter, dayCalendar.getTime(), lastDayCalendar.getTime());
 		counter.setStartDate(dayCalendar.getTime());
 	}
 
 	// compteur des 366 derniers jours
-	Counter getYearCounter() throws IOException {
+	Counter getYearCounter() {
 		final Counter yearCounter = createPeriodCounter("yyyy", currentDayCounter.getStartDate());
-		yearCounter.addRequestsAndErrors(currentDayCounter);
-		final Calendar dayCalendar = Calendar.getInstance();
-		final int currentMonth = dayCalendar.get(Calendar.MONTH);
-		dayCalendar.setTime(currentDayCounter.getStartDate());
-		dayCalendar.add(Calendar.DAY_OF_YEAR, -Period.ANNEE.getDurationDays() + 1);
-		yearCounter.setStartDate(dayCalendar.getTime());
-		for (int i = 1; i < Period.ANNEE.getDurationDays(); i++) {
-			if (dayCalendar.get(Calendar.DAY_OF_MONTH) == 1
-					&& dayCalendar.get(Calendar.MONTH) != currentMonth) {
-				// optimisation : on récupère les statistiques précédemment calculées pour ce mois entier
-				// au lieu de parcourir à chaque fois les statistiques de chaque jour du mois
-				yearCounter.addRequestsAndErrors(getMonthCounterAtDate(dayCalendar.getTime()));
-				final int nbDaysInMonth = dayCalendar.getActualMaximum(Calendar.DAY_OF_MONTH);
-				// nbDaysInMonth - 1 puisque l'itération va ajouter 1 à i et à dayCalendar
-				dayCalendar.add(Calendar.DAY_OF_YEAR, nbDaysInMonth - 1);
-				i += nbDaysInMonth - 1;
-			} else {
-				yearCounter.addRequestsAndErrors(getDayCounterAtDate(dayCalendar.getTime()));
+		addRequestsAndErrorsForRange(yearCounter, Period.ANNEE.getRange());
+		return yearCounter;
+	}
+
+	// ajoute les statistiques des jours de firstDay à lastDay inclus, en utilisant les statistiques
+	// précédemment calculées pour les années, les mois et les semaines entièrement inclus et terminés
+	// au lieu de parcourir à chaque fois les statistiques de chaque jour
+	// (soit au plus 25 fichiers lus pour 366 jours avec le jour courant, au lieu de 366 :
+	// 11 mois entiers, et dans les deux mois partiels des semaines et au plus 6 jours
+	// avant la première semaine entière ou après la dernière, les lundis n'étant pas
+	// alignés sur les dates de début et de fin)
+	private void addRequestsAndErrorsForDays(Counter counter, Date firstDay, Date lastDay) {
+		final Calendar today = getDayCalendar(new Date());
+		final Calendar lastDayCalendar = getDayCalendar(lastDay);
+		final Calendar dayCalendar = getDayCalendar(firstDay);
+		while (!dayCalendar.after(lastDayCalendar)) {
+			final int periodField = getLargestPeriodField(dayCalendar, lastDayCalendar, today);
+			switch (periodField) {
+			case Calendar.YEAR:
+				counter.addRequestsAndErrors(getYearCounterAtDate(dayCalendar.getTime()));
+				break;
+			case Calendar.MONTH:
+				counter.addRequestsAndErrors(getMonthCounterAtDate(dayCalendar.getTime()));
+				break;
+			case Calendar.WEEK_OF_YEAR:
+				counter.addRequestsAndErrors(getWeekCounterAtDate(dayCalendar.getTime()));
+				break;
+			default:
+				counter.addRequestsAndErrors(getDayCounterAtDate(dayCalendar.getTime()));
+				break;
 			}
-			dayCalendar.add(Calendar.DAY_OF_YEAR, 1);
+			dayCalendar.setTime(getNextPeriodFirstDay(dayCalendar, periodField).getTime());
+		}
+	}
+
+	/**
+	 * Retourne la plus grande période (année, mois, semaine ou à défaut jour) commençant au jour
+	 * en paramètre, entièrement incluse jusqu'au dernier jour en paramètre et terminée avant aujourd'hui.
+	 * @param dayCalendar Premier jour de la période (à 0h)
+	 * @param lastDayCalendar Dernier jour à inclure (à 0h)
+	 * @param today Jour courant (à 0h)
+	 * @return Calendar.YEAR, Calendar.MONTH, Calendar.WEEK_OF_YEAR ou Calendar.DAY_OF_YEAR
+	 */
+	static int getLargestPeriodField(Calendar dayCalendar, Calendar lastDayCalendar,
+			Calendar today) {
+		if (dayCalendar.get(Calendar.DAY_OF_YEAR) == 1
+				&& isPeriodIncluded(dayCalendar, Calendar.YEAR, lastDayCalendar, today)) {
+			return Calendar.YEAR;
+		} else if (dayCalendar.get(Calendar.DAY_OF_MONTH) == 1
+				&& isPeriodIncluded(dayCalendar, Calendar.MONTH, lastDayCalendar, today)) {
+			return Calendar.MONTH;
+		} else if (isFirstDayOfWeek(dayCalendar)
+				&& isPeriodIncluded(dayCalendar, Calendar.WEEK_OF_YEAR, lastDayCalendar, today)) {
+			return Calendar.WEEK_OF_YEAR;
+		}
+		return Calendar.DAY_OF_YEAR;
+	}
+
+	private static boolean isFirstDayOfWeek(Calendar dayCalendar) {
+		// une semaine commence un lundi ou le premier jour d'un mois
+		return dayCalendar.get(Calendar.DAY_OF_WEEK) == FIRST_DAY_OF_WEEK
+				|| dayCalendar.get(Calendar.DAY_OF_MONTH) == 1;
+	}
+
+	/**
+	 * Retourne le premier jour de la période suivant celle commençant au jour en paramètre.
+	 * @param dayCalendar Premier jour de la période (à 0h)
+	 * @param periodField Calendar.YEAR, Calendar.MONTH, Calendar.WEEK_OF_YEAR ou Calendar.DAY_OF_YEAR
+	 * @return Calendar
+	 */
+	static Calendar getNextPeriodFirstDay(Calendar dayCalendar, int periodField) {
+		final Calendar nextPeriodFirstDay = (Calendar) dayCalendar.clone();
+		if (periodField == Calendar.WEEK_OF_YEAR) {
+			// semaine coupée à la fin du mois
+			do {
+				nextPeriodFirstDay.add(Calendar.DAY_OF_YEAR, 1);
+			} while (!isFirstDayOfWeek(nextPeriodFirstDay));
+		} else {
+			nextPeriodFirstDay.add(periodField, 1);
 		}
+		return nextPeriodFirstDay;
+	}
+
+	private static boolean isPeriodIncluded(Calendar dayCalendar, int periodField,
+			Calendar lastDayCalendar, Calendar today) {
+		final Calendar periodLastDay = getNextPeriodFirstDay(dayCalendar, periodField);
+		periodLastDay.add(Calendar.DAY_OF_YEAR, -1);
+		return !periodLastDay.after(lastDayCalendar) && isPeriodEnded(dayCalendar, periodField, today);
+	}
+
+	private static boolean isPeriodEnded(Calendar dayCalendar, int periodField, Calendar today) {
+		return !getNextPeriodFirstDay(dayCalendar, periodField).after(today);
+	}
+
+	private static Calendar getDayCalendar(Date date) {
+		final Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar;
+	}
+
+	// compteur d'une année entière (terminée), à partir des compteurs de ses mois
+	private Counter getYearCounterAtDate(Date firstDayOfYear) {
+		final Counter yearCounter = createPeriodCounter("'y'yyyy", firstDayOfYear);
+		final Counter readCounter = readPeriodCounter(yearCounter);
+		if (readCounter != null) {
+			return readCounter;
+		}
+		final Calendar monthCalendar = getDayCalendar(firstDayOfYear);
+		for (int i = 0; i < 12; i++) {
+			yearCounter.addRequestsAndErrors(getMonthCounterAtDate(monthCalendar.getTime()));
+			monthCalendar.add(Calendar.MONTH, 1);
+		}
+		writePeriodCounter(yearCounter);
 		return yearCounter;
 	}
 
-	private Counter getMonthCounterAtDate(Date day) throws IOException {
+	private Counter getMonthCounterAtDate(Date day) {
 		final Counter monthCounter = createMonthCounterAtDate(day);
+		final Counter readCounter = readPeriodCounter(monthCounter);
+		if (readCounter != null) {
+			// monthCounter déjà calculé et enregistré
+			return readCounter;
+		}
+		// monthCounter n'est pas encore calculé (il est calculé à la fin de chaque mois,
+		// mais le serveur a pu aussi être arrêté ce jour là),
+		// alors on le calcule à partir de ses semaines et on l'enregistre (optimisation pour getYearCounter)
+		final Calendar weekCalendar = getDayCalendar(day);
+		weekCalendar.set(Calendar.DAY_OF_MONTH, 1);
+		final int month = weekCalendar.get(Calendar.MONTH);
+		while (weekCalendar.get(Calendar.MONTH) == month) {
+			monthCounter.addRequestsAndErrors(getWeekCounterAtDate(weekCalendar.getTime()));
+			weekCalendar.setTime(getNextPeriodFirstDay(weekCalendar, Calendar.WEEK_OF_YEAR)
+					.getTime());
+		}
+		writePeriodCounter(monthCounter);
+		return monthCounter;
+	}
+
+	// compteur d'une semaine entière (terminée) du lundi au dimanche ou coupée par la fin
+	// ou le début d'un mois, à partir des compteurs de ses jours
+	private Counter getWeekCounterAtDate(Date firstDayOfWeek) {
+		// le nom du compteur par semaine contient son premier jour ("yyyyWW" étant déjà utilisé
+		// pour les 7 derniers jours et l'année de la semaine n'étant pas celle du premier jour)
+		final Counter weekCounter = createPeriodCounter("'w'yyyyMMdd", firstDayOfWeek);
+		final Counter readCounter = readPeriodCounter(weekCounter);
+		if (readCounter != null) {
+			return readCounter;
+		}
+		final Calendar dayCalendar = getDayCalendar(firstDayOfWeek);
+		do {
+			weekCounter.addRequestsAndErrors(getDayCounterAtDate(dayCalendar.getTime()));
+			dayCalendar.add(Calendar.DAY_OF_YEAR, 1);
+		} while (!isFirstDayOfWeek(dayCalendar));
+		writePeriodCounter(weekCounter);
+		return weekCounter;
+	}
+
+	private static Counter readPeriodCounter(Counter periodCounter) {
 		try {
-			final Counter readCounter = new CounterStorage(monthCounter).readFromFile();
-			if (readCounter != null) {
-				// monthCounter déjà calculé et enregistré
-				return readCounter;
-			}
+			return new CounterStorage(periodCounter).readFromFile();
 		} catch (final IOException e) {
 			// lecture échouée, tant pis
 			// (on n'interrompt pas tout un rapport juste pour un des fichiers illisible)
-			LOG.info("read of a counter file failed: " + monthCounter.getName(), e);
+			LOG.info("read of a counter file failed: " + periodCounter.getName(), e);
+			return null;
 		}
-		// monthCounter n'est pas encore calculé (il est calculé à la fin de chaque mois,
-		// mais le serveur a pu aussi être arrêté ce jour là),
-		// alors on le calcule et on l'enregistre (optimisation pour getYearCounter)
-		final Calendar dayCalendar = Calendar.getInstance();
-		dayCalendar.setTime(day);
-		final int nbDaysInMonth = dayCalendar.getActualMaximum(Calendar.DAY_OF_MONTH);
-		for (int i = 1; i <= nbDaysInMonth; i++) {
-			dayCalendar.set(Calendar.DAY_OF_MONTH, i);
-			monthCounter.addRequestsAndErrors(getDayCounterAtDate(dayCalendar.getTime()));
+	}
+
+	private static void writePeriodCounter(Counter periodCounter) {
+		try {
+			periodCounter.writeToFile();
+		} catch (final IOException e) {
+			// enregistrement échoué, tant pis : le compteur sera recalculé à la prochaine lecture
+			LOG.info("write of a counter file failed: " + periodCounter.getName(), e);
 		}
-		monthCounter.writeToFile();
-		return monthCounter;
 	}
 
 	Counter createDayCounterAtDate(Date day) {
@@ -189,6 +343,7 @@ class PeriodCounterFactory {
 				currentDayCounter.getIconName(), currentDayCounter.getChildCounterName());
 		result.setApplication(currentDayCounter.getApplication());
 		result.setDisplayed(currentDayCounter.isDisplayed());
+		result.setCpuTimeSamplingInterval(currentDayCounter.getCpuTimeSamplingInterval());
 		result.setRequestTransformPattern(currentDayCounter.getRequestTransformPattern());
 		result.setMaxRequestsCount(currentDayCounter.getMaxRequestsCount());
 		return result;
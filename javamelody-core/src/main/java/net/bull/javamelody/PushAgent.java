@@ -0,0 +1,216 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
+import static net.bull.javamelody.HttpParameters.PUSH_PART;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Envoi des deltas des compteurs de ce noeud vers un serveur de collecte (mode push),
+ * par exemple quand le serveur de collecte ne peut pas joindre ce noeud.
+ * L'envoi est fait dans un thread dédié après chaque collecte, sans bloquer la collecte :
+ * s'il y a déjà un envoi en attente, les périodes suivantes sont regroupées dans celui-ci
+ * puisque le delta est calculé au moment de l'envoi par rapport au dernier envoi acquitté.
+ * En cas d'échec, le delta n'est pas perdu et les envois sont espacés de plus en plus.
+ * @author Emeric Vernat
+ */
+class PushAgent {
+	private static final int CONNECTION_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 30000;
+	private static final int MAX_BACKOFF_PERIODS = 32;
+
+	private final URL url;
+	private final String nodeId;
+	private final Collector collector;
+	private final long periodMillis;
+	private final CountersDeltaTracker countersDeltaTracker = new CountersDeltaTracker();
+	private final ThreadPoolExecutor executor;
+	private final Runnable pushTask = new Runnable() {
+		/** {@inheritDoc} */
+		@Override
+		public void run() {
+			pushWithoutErrors();
+		}
+	};
+	// les champs suivants ne sont utilisés que par le thread d'envoi
+	private Long ackedEpoch;
+	private Long ackedSequence;
+	private int consecutiveFailures;
+	private long nextPushTime;
+
+	PushAgent(URL url, String nodeId, Collector collector, long periodMillis) {
+		super();
+		assert url != null;
+		assert nodeId != null;
+		assert collector != null;
+		assert periodMillis > 0;
+		final String separator = url.getQuery() == null ? "?" : "&";
+		try {
+			this.url = new URL(url.toString() + separator + PART_PARAMETER + '=' + PUSH_PART);
+		} catch (final MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+		this.nodeId = nodeId;
+		this.collector = collector;
+		this.periodMillis = periodMillis;
+		final String threadName = "javamelody-push " + collector.getApplication();
+		// un seul thread et au plus un envoi en attente, les autres sont regroupés dans celui-ci
+		this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(1), new ThreadFactory() {
+					/** {@inheritDoc} */
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, threadName);
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	static PushAgent createFromParameters(Collector collector) throws MalformedURLException {
+		final String pushUrl = Parameters.getParameter(Parameter.COLLECTOR_PUSH_URL);
+		if (pushUrl == null) {
+			return null;
+		}
+		final ServletContext servletContext = Parameters.getServletContext();
+		final String contextPath = servletContext != null ? Parameters
+				.getContextPath(servletContext) : "";
+		final String nodeId = Parameters.getHostName() + '_' + PID.getPID() + contextPath;
+		return new PushAgent(new URL(pushUrl), nodeId, collector,
+				Parameters.getResolutionSeconds() * 1000L);
+	}
+
+	/**
+	 * Demande un envoi au serveur de collecte, dans le thread d'envoi.
+	 */
+	void pushLater() {
+		executor.execute(pushTask);
+	}
+
+	void pushWithoutErrors() {
+		try {
+			push();
+		} catch (final Throwable t) { // NOPMD
+			// pas d'erreur dans le thread d'envoi, et un seul warning tant que le serveur est indisponible
+			if (consecutiveFailures <= 1) {
+				LOG.warn("exception while pushing data to the collector server: " + t.toString(),
+						t);
+			} else {
+				LOG.debug("exception while pushing data to the collector server: " + t.toString());
+			}
+		}
+	}
+
+	void push() throws IOException {
+		final long start = System.currentTimeMillis();
+		if (start < nextPushTime) {
+			return;
+		}
+		final JavaInformations javaInformations = new JavaInformations(
+				Parameters.getServletContext(), false);
+		final CountersDelta countersDelta = countersDeltaTracker.createDelta(ackedEpoch,
+				ackedSequence, collector.getCounters(), Collections.singletonList(javaInformations),
+				null);
+		// le nom de l'application sert de nom de répertoire dans le serveur de collecte
+		final byte[] data = new CountersDeltaFrame(
+				CountersDeltaFrame.normalizeApplicationName(collector.getApplication()), nodeId,
+				countersDelta).toByteArray();
+		final int status;
+		try {
+			status = post(data);
+		} catch (final IOException e) {
+			pushFailed(start);
+			throw e;
+		}
+		if (status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_NO_CONTENT) {
+			ackedEpoch = countersDelta.getEpoch();
+			ackedSequence = countersDelta.getSequence();
+		} else if (status == HttpURLConnection.HTTP_RESET) {
+			// le serveur de collecte ne connaissait pas ce noeud (redémarrage par exemple) :
+			// le prochain delta inclura les informations statiques
+			ackedEpoch = null;
+			ackedSequence = null;
+		} else {
+			pushFailed(start);
+			throw new IOException("Error " + status + " from the collector server for push");
+		}
+		consecutiveFailures = 0;
+		nextPushTime = 0;
+		LOG.debug("data pushed to the collector server in "
+				+ (System.currentTimeMillis() - start) + " ms with " + data.length / 1024 + " KB");
+	}
+
+	private void pushFailed(long now) {
+		consecutiveFailures++;
+		// on réessaye à la période suivante, puis de moins en moins souvent
+		final long backoffPeriods = Math.min(1L << Math.min(consecutiveFailures - 1, 30),
+				MAX_BACKOFF_PERIODS);
+		nextPushTime = now + (backoffPeriods - 1) * periodMillis - periodMillis / 2;
+	}
+
+	int post(byte[] data) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setUseCaches(false);
+		connection.setConnectTimeout(CONNECTION_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		connection.setDoOutput(true);
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", CountersDeltaFrame.CONTENT_TYPE);
+		if (url.getUserInfo() != null) {
+			final String authorization = Base64Coder.encodeString(url.getUserInfo());
+			connection.setRequestProperty("Authorization", "Basic " + authorization);
+		}
+		connection.setFixedLengthStreamingMode(data.length);
+		final OutputStream output = connection.getOutputStream();
+		try {
+			output.write(data);
+		} finally {
+			output.close();
+		}
+		final int status = connection.getResponseCode();
+		// fermeture de la réponse pour réutiliser la connexion (keep-alive)
+		final InputStream input = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection
+				.getInputStream() : connection.getErrorStream();
+		if (input != null) {
+			input.close();
+		}
+		return status;
+	}
+
+	int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	void stop() {
+		executor.shutdown();
+	}
+}
@@ -21,8 +21,12 @@ import static net.bull.javamelody.HttpParameters.CONNECTIONS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.DEFAULT_WITH_CURRENT_REQUESTS_PART;
+import static net.bull.javamelody.HttpParameters.DELTA_PART;
+import static net.bull.javamelody.HttpParameters.EPOCH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
+import static net.bull.javamelody.HttpParameters.FROM_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
+import static net.bull.javamelody.HttpParameters.HEAP_HISTO_DIFF_PART;
 import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
 import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.HOTSPOTS_PART;
@@ -34,8 +38,11 @@ import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PATH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PROCESSES_PART;
 import static net.bull.javamelody.HttpParameters.REQUEST_PARAMETER;
+import static net.bull.javamelody.HttpParameters.SAMPLED_STACKS_PART;
+import static net.bull.javamelody.HttpParameters.SEQUENCE_PARAMETER;
 import static net.bull.javamelody.HttpParameters.SESSIONS_PART;
 import static net.bull.javamelody.HttpParameters.SESSION_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.TO_PARAMETER;
 import static net.bull.javamelody.HttpParameters.WIDTH_PARAMETER;
 
 import java.io.IOException;
@@ -44,10 +51,14 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.bull.javamelody.NodeFetchScheduler.NodeCall;
+import net.bull.javamelody.NodeFetchScheduler.NodeFetch;
 import net.bull.javamelody.SamplingProfiler.SampledMethod;
 
 /**
@@ -62,6 +73,51 @@ class RemoteCollector {
 	private Map<JavaInformations, List<CounterRequestContext>> currentRequests;
 	private String cookies;
 	private boolean aggregationDisabled;
+	// dernier delta reçu par url, pour l'acquitter à la collecte suivante
+	private final Map<String, ReceivedDelta> receivedDeltasByUrl = new HashMap<String, ReceivedDelta>();
+	// deltas envoyés par les noeuds en mode push, ajoutés à la collecte suivante
+	private final Map<String, PushedNode> pushedNodesById = new LinkedHashMap<String, PushedNode>();
+	private final Map<String, Counter> pushedCountersByName = new LinkedHashMap<String, Counter>();
+	// appels en parallèle des noeuds pour le serveur de collecte (null : appels successifs)
+	private NodeFetchScheduler nodeFetchScheduler;
+	// durée en ms et taille en octets du dernier appel réussi de chaque noeud pour la collecte
+	private final Map<String, Long> lastFetchDurationsByNode = new ConcurrentHashMap<String, Long>();
+	private final Map<String, Long> lastFetchSizesByNode = new ConcurrentHashMap<String, Long>();
+
+	private static class ReceivedDelta {
+		final long epoch;
+		final long sequence;
+		final List<JavaInformations> javaInformationsList;
+
+		ReceivedDelta(CountersDelta countersDelta, List<JavaInformations> javaInformationsList) {
+			super();
+			this.epoch = countersDelta.getEpoch();
+			this.sequence = countersDelta.getSequence();
+			this.javaInformationsList = javaInformationsList;
+		}
+	}
+
+	private static class PushedNode {
+		final long epoch;
+		final long sequence;
+		final long baseSequence;
+		final Map<String, Counter> countersByName = new HashMap<String, Counter>();
+		final List<JavaInformations> javaInformationsList;
+		final String messageForReport;
+		final long lastPushTime = System.currentTimeMillis();
+
+		PushedNode(CountersDelta countersDelta, List<JavaInformations> javaInformationsList) {
+			super();
+			this.epoch = countersDelta.getEpoch();
+			this.sequence = countersDelta.getSequence();
+			this.baseSequence = countersDelta.getBaseSequence();
+			for (final Counter counter : countersDelta.getCounters()) {
+				countersByName.put(counter.getName(), counter);
+			}
+			this.javaInformationsList = javaInformationsList;
+			this.messageForReport = countersDelta.getMessageForReport();
+		}
+	}
 
 	/**
 	 * Constructeur.
@@ -77,7 +133,11 @@ class RemoteCollector {
 	}
 
 	String collectData() throws IOException {
-		return collectDataWithUrls(urls);
+		if (aggregationDisabled) {
+			return collectDataWithUrls(urls);
+		}
+		// les deltas des compteurs sont calculés par les noeuds par rapport au dernier delta acquitté
+		return collectDataWithUrls(urls, true);
 	}
 
 	String collectDataIncludingCurrentRequests() throws IOException {
@@ -90,14 +150,27 @@ class RemoteCollector {
 	}
 
 	private String collectDataWithUrls(List<URL> urlsForCollect) throws IOException {
+		return collectDataWithUrls(urlsForCollect, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	private String collectDataWithUrls(List<URL> urlsForCollect, boolean delta)
+			throws IOException {
 		final List<JavaInformations> javaInfosList = new ArrayList<JavaInformations>();
 		final Map<JavaInformations, List<CounterRequestContext>> counterRequestContextsByJavaInformations = new HashMap<JavaInformations, List<CounterRequestContext>>();
 		final StringBuilder sb = new StringBuilder();
-		for (final URL url : urlsForCollect) {
+		final List<Serializable> serializedList = fetchUrls(urlsForCollect, delta);
+		for (int i = 0; i < urlsForCollect.size(); i++) {
+			final URL url = urlsForCollect.get(i);
 			final List<Counter> counters = new ArrayList<Counter>();
-			final List<Serializable> serialized = collectForUrl(url);
-			dispatchSerializables(serialized, counters, javaInfosList,
-					counterRequestContextsByJavaInformations, sb);
+			final Serializable serialized = serializedList.get(i);
+			if (serialized instanceof CountersDelta) {
+				dispatchCountersDelta(url, (CountersDelta) serialized, counters, javaInfosList, sb);
+			} else {
+				// noeud d'une version précédente qui ne connaît pas les deltas
+				dispatchSerializables((List<Serializable>) serialized, counters, javaInfosList,
+						counterRequestContextsByJavaInformations, sb);
+			}
 			if (this.collector == null || aggregationDisabled) {
 				this.collector = new Collector(application, counters);
 			} else {
@@ -115,6 +188,206 @@ class RemoteCollector {
 		return messageForReport;
 	}
 
+	private List<Serializable> fetchUrls(List<URL> urlsForCollect, boolean delta)
+			throws IOException {
+		lastFetchDurationsByNode.clear();
+		lastFetchSizesByNode.clear();
+		final List<Serializable> serializedList = new ArrayList<Serializable>(
+				urlsForCollect.size());
+		if (nodeFetchScheduler == null) {
+			// ihm swing ou tests : appels successifs
+			for (final URL url : urlsForCollect) {
+				serializedList.add(fetchNode(delta ? getDeltaUrl(url) : url, getNodeName(url),
+						-1));
+			}
+			return serializedList;
+		}
+		// les noeuds sont appelés en parallèle puis les réponses sont traitées dans l'ordre des urls,
+		// et si un noeud échoue l'application est indisponible comme avec les appels successifs
+		final List<NodeFetch<Serializable>> fetches = new ArrayList<NodeFetch<Serializable>>(
+				urlsForCollect.size());
+		try {
+			for (final URL url : urlsForCollect) {
+				final URL fetchUrl = delta ? getDeltaUrl(url) : url;
+				final String node = getNodeName(url);
+				fetches.add(nodeFetchScheduler.submit(new NodeCall<Serializable>() {
+					/** {@inheritDoc} */
+					@Override
+					public Serializable call(long deadline) throws IOException {
+						return fetchNode(fetchUrl, node, deadline);
+					}
+				}));
+			}
+			for (int i = 0; i < fetches.size(); i++) {
+				serializedList.add(nodeFetchScheduler.get(fetches.get(i),
+						getNodeName(urlsForCollect.get(i))));
+			}
+		} finally {
+			if (serializedList.size() < fetches.size()) {
+				for (final NodeFetch<Serializable> fetch : fetches) {
+					fetch.cancel(true);
+				}
+			}
+		}
+		return serializedList;
+	}
+
+	private Serializable fetchNode(URL url, String node, long deadline) throws IOException {
+		final long start = System.currentTimeMillis();
+		final LabradorRetriever labradorRetriever = createLabradorRetriever(url);
+		if (deadline >= 0) {
+			// une lecture en cours ne peut pas être interrompue par NodeFetch.cancel :
+			// les timeouts de connexion et de lecture sont le délai restant avant la date limite
+			final long remaining = deadline - start;
+			if (remaining <= 0) {
+				throw new IOException("no response from " + node + " before deadline");
+			}
+			labradorRetriever.setConnectTimeout((int) remaining);
+			labradorRetriever.setReadTimeout((int) remaining);
+		}
+		final Serializable result = labradorRetriever.call();
+		lastFetchDurationsByNode.put(node, System.currentTimeMillis() - start);
+		final int dataLength = labradorRetriever.getLastDataLength();
+		if (dataLength >= 0) {
+			lastFetchSizesByNode.put(node, (long) dataLength);
+		}
+		return result;
+	}
+
+	static String getNodeName(URL url) {
+		// hôte, port et contexte de la webapp sans le chemin "/monitoring"
+		final String path = url.getPath();
+		final int index = path.lastIndexOf('/');
+		return getHostAndPort(url) + (index > 0 ? path.substring(0, index) : "");
+	}
+
+	private URL getDeltaUrl(URL url) throws IOException {
+		final StringBuilder deltaUrl = new StringBuilder(url.toString());
+		deltaUrl.append('&').append(PART_PARAMETER).append('=').append(DELTA_PART);
+		final ReceivedDelta receivedDelta = receivedDeltasByUrl.get(url.toString());
+		if (receivedDelta != null) {
+			deltaUrl.append('&').append(EPOCH_PARAMETER).append('=').append(receivedDelta.epoch);
+			deltaUrl.append('&').append(SEQUENCE_PARAMETER).append('=')
+					.append(receivedDelta.sequence);
+		}
+		return new URL(deltaUrl.toString());
+	}
+
+	private void dispatchCountersDelta(URL url, CountersDelta countersDelta,
+			List<Counter> counters, List<JavaInformations> javaInfosList, StringBuilder sb) {
+		final ReceivedDelta previousDelta = receivedDeltasByUrl.get(url.toString());
+		final List<JavaInformations> javaInformationsOfDelta = countersDelta
+				.getJavaInformationsList();
+		final List<JavaInformations> newJavaInfosList;
+		if (countersDelta.isStaticInformationsIncluded() || previousDelta == null
+				|| previousDelta.javaInformationsList.size() != javaInformationsOfDelta.size()) {
+			newJavaInfosList = javaInformationsOfDelta;
+		} else {
+			// les informations statiques ne sont renvoyées par le noeud que si elles ont changé
+			newJavaInfosList = new ArrayList<JavaInformations>(javaInformationsOfDelta.size());
+			for (int i = 0; i < javaInformationsOfDelta.size(); i++) {
+				newJavaInfosList.add(javaInformationsOfDelta.get(i).withStaticInformations(
+						previousDelta.javaInformationsList.get(i)));
+			}
+		}
+		receivedDeltasByUrl.put(url.toString(), new ReceivedDelta(countersDelta, newJavaInfosList));
+
+		for (final Counter counter : countersDelta.getCounters()) {
+			counter.setApplication(application);
+			counters.add(counter);
+		}
+		javaInfosList.addAll(newJavaInfosList);
+		if (countersDelta.getMessageForReport() != null) {
+			sb.append(countersDelta.getMessageForReport()).append('\n');
+		}
+	}
+
+	/**
+	 * Ajoute un delta envoyé par un noeud en mode push, pour la collecte suivante.
+	 * @param nodeId Identifiant du noeud
+	 * @param countersDelta Delta des compteurs du noeud
+	 * @return false si le noeud n'était pas connu et n'a pas envoyé ses informations statiques
+	 */
+	synchronized boolean addPushedDelta(String nodeId, CountersDelta countersDelta) {
+		final PushedNode previousNode = pushedNodesById.get(nodeId);
+		final boolean sameEpoch = previousNode != null
+				&& previousNode.epoch == countersDelta.getEpoch();
+		if (sameEpoch && countersDelta.getSequence() <= previousNode.sequence) {
+			// delta déjà reçu
+			return true;
+		}
+		final List<JavaInformations> javaInformationsOfDelta = countersDelta
+				.getJavaInformationsList();
+		final List<JavaInformations> newJavaInfosList;
+		if (countersDelta.isStaticInformationsIncluded() || previousNode == null
+				|| previousNode.javaInformationsList.size() != javaInformationsOfDelta.size()) {
+			newJavaInfosList = javaInformationsOfDelta;
+		} else {
+			newJavaInfosList = new ArrayList<JavaInformations>(javaInformationsOfDelta.size());
+			for (int i = 0; i < javaInformationsOfDelta.size(); i++) {
+				newJavaInfosList.add(javaInformationsOfDelta.get(i).withStaticInformations(
+						previousNode.javaInformationsList.get(i)));
+			}
+		}
+		for (final Counter counter : countersDelta.getCounters()) {
+			final Counter newCounter;
+			if (sameEpoch && countersDelta.getBaseSequence() == previousNode.baseSequence) {
+				// le noeud n'a pas reçu l'acquittement du delta précédent et a renvoyé
+				// depuis la même référence : on n'ajoute que la différence avec le delta précédent
+				newCounter = CountersDeltaTracker.createDeltaCounter(counter,
+						previousNode.countersByName.get(counter.getName()));
+			} else {
+				newCounter = counter.clone();
+			}
+			newCounter.setApplication(application);
+			final Counter pushedCounter = pushedCountersByName.get(newCounter.getName());
+			if (pushedCounter == null) {
+				pushedCountersByName.put(newCounter.getName(), newCounter);
+			} else {
+				pushedCounter.setDisplayed(newCounter.isDisplayed());
+				pushedCounter.setCpuTimeSamplingInterval(newCounter.getCpuTimeSamplingInterval());
+				pushedCounter.addRequestsAndErrors(newCounter);
+			}
+		}
+		pushedNodesById.put(nodeId, new PushedNode(countersDelta, newJavaInfosList));
+		return countersDelta.isStaticInformationsIncluded() || previousNode != null;
+	}
+
+	/**
+	 * Ajoute au collector les deltas envoyés par les noeuds en mode push depuis la collecte précédente.
+	 * @param nodeTimeoutMillis Durée sans envoi après laquelle un noeud est retiré de la liste
+	 * @return Message pour le rapport
+	 */
+	synchronized String collectPushedData(long nodeTimeoutMillis) {
+		final List<Counter> counters = new ArrayList<Counter>(pushedCountersByName.values());
+		pushedCountersByName.clear();
+		if (this.collector == null) {
+			this.collector = new Collector(application, counters);
+		} else {
+			addRequestsAndErrors(counters);
+		}
+		final long now = System.currentTimeMillis();
+		final List<JavaInformations> javaInfosList = new ArrayList<JavaInformations>();
+		final StringBuilder sb = new StringBuilder();
+		final Iterator<PushedNode> it = pushedNodesById.values().iterator();
+		while (it.hasNext()) {
+			final PushedNode pushedNode = it.next();
+			if (now - pushedNode.lastPushTime > nodeTimeoutMillis) {
+				it.remove();
+			} else {
+				javaInfosList.addAll(pushedNode.javaInformationsList);
+				if (pushedNode.messageForReport != null) {
+					sb.append(pushedNode.messageForReport).append('\n');
+				}
+			}
+		}
+		this.javaInformationsList = javaInfosList;
+		if (sb.length() == 0) {
+			return null;
+		}
+		return sb.toString();
+	}
+
 	private void dispatchSerializables(
 			List<Serializable> serialized,
 			List<Counter> counters,
@@ -229,6 +502,22 @@ class RemoteCollector {
 		return hotspots;
 	}
 
+	SampledStacks collectSampledStacks(String requestId) throws IOException {
+		// récupération à la demande des piles échantillonnées pour une requête,
+		// fusionnées pour les différents noeuds
+		final SampledStacks sampledStacks = new SampledStacks();
+		for (final URL url : urls) {
+			final URL sampledStacksUrl = new URL(url.toString() + '&' + PART_PARAMETER + '='
+					+ SAMPLED_STACKS_PART + '&' + GRAPH_PARAMETER + '=' + requestId);
+			final Object result = collectForUrl(sampledStacksUrl);
+			// un noeud d'une version précédente ne connaît pas cette partie
+			if (result instanceof SampledStacks) {
+				sampledStacks.add((SampledStacks) result);
+			}
+		}
+		return sampledStacks;
+	}
+
 	HeapHistogram collectHeapHistogram() throws IOException {
 		// récupération à la demande des HeapHistogram
 		HeapHistogram heapHistoTotal = null;
@@ -245,6 +534,30 @@ class RemoteCollector {
 		return heapHistoTotal;
 	}
 
+	HeapHistogramDiff collectHeapHistogramDiff(Long fromTime, Long toTime) throws IOException {
+		// récupération à la demande des classes en croissance, fusionnées pour les différents noeuds :
+		// chaque noeud compare ses propres histogrammes dans l'intervalle demandé
+		HeapHistogramDiff heapHistogramDiffTotal = null;
+		for (final URL url : urls) {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(url.toString()).append('&').append(PART_PARAMETER).append('=')
+					.append(HEAP_HISTO_DIFF_PART);
+			if (fromTime != null) {
+				sb.append('&').append(FROM_PARAMETER).append('=').append(fromTime);
+			}
+			if (toTime != null) {
+				sb.append('&').append(TO_PARAMETER).append('=').append(toTime);
+			}
+			final HeapHistogramDiff heapHistogramDiff = collectForUrl(new URL(sb.toString()));
+			if (heapHistogramDiffTotal == null || heapHistogramDiffTotal.getFromTime() == null) {
+				heapHistogramDiffTotal = heapHistogramDiff;
+			} else if (heapHistogramDiff.getFromTime() != null) {
+				heapHistogramDiffTotal.add(heapHistogramDiff, HeapHistogramSnapshots.MAX_CLASSES);
+			}
+		}
+		return heapHistogramDiffTotal;
+	}
+
 	DatabaseInformations collectDatabaseInformations(int requestIndex) throws IOException {
 		final URL url = urls.get(0);
 		final URL databaseUrl = new URL(url.toString() + '&' + PART_PARAMETER + '=' + DATABASE_PART
@@ -404,19 +717,21 @@ class RemoteCollector {
 			final Counter counter = collector.getCounterByName(newCounter.getName());
 			// counter.isDisplayed() peut changer pour spring, ejb ou services selon l'utilisation
 			counter.setDisplayed(newCounter.isDisplayed());
+			counter.setCpuTimeSamplingInterval(newCounter.getCpuTimeSamplingInterval());
 			counter.addRequestsAndErrors(newCounter);
 		}
 	}
 
 	private <T> T collectForUrl(URL url) throws IOException {
-		final LabradorRetriever labradorRetriever;
+		return createLabradorRetriever(url).<T> call();
+	}
+
+	private LabradorRetriever createLabradorRetriever(URL url) {
 		if (cookies != null) {
 			final Map<String, String> headers = Collections.singletonMap("Cookie", cookies);
-			labradorRetriever = new LabradorRetriever(url, headers);
-		} else {
-			labradorRetriever = new LabradorRetriever(url);
+			return new LabradorRetriever(url, headers);
 		}
-		return labradorRetriever.call();
+		return new LabradorRetriever(url);
 	}
 
 	static String getHostAndPort(URL url) {
@@ -447,6 +762,18 @@ class RemoteCollector {
 		return currentRequests;
 	}
 
+	Map<String, Long> getLastFetchDurationsByNode() {
+		return Collections.unmodifiableMap(lastFetchDurationsByNode);
+	}
+
+	Map<String, Long> getLastFetchSizesByNode() {
+		return Collections.unmodifiableMap(lastFetchSizesByNode);
+	}
+
+	void setNodeFetchScheduler(NodeFetchScheduler nodeFetchScheduler) {
+		this.nodeFetchScheduler = nodeFetchScheduler;
+	}
+
 	// cette méthode est utilisée dans l'ihm Swing
 	void setURLs(List<URL> newURLs) {
 		assert urls != null;
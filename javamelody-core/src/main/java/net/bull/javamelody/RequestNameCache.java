@@ -0,0 +1,214 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache des noms de requêtes des intercepteurs (Spring, Guice, EJB, proxy de façade),
+ * par couple (classe cible, méthode).
+ * Le nom d'une requête est calculé une seule fois par couple (réflexion, lecture des annotations
+ * et concaténation), puis la même instance de String est réutilisée pour chaque appel.
+ * Les classes et les méthodes sont référencées faiblement pour ne pas empêcher le déchargement
+ * d'une webapp lors d'un redéploiement, et le nombre d'entrées est borné.
+ * @author Emeric Vernat
+ */
+final class RequestNameCache {
+	private static final int DEFAULT_MAX_SIZE = 10000;
+
+	private final ConcurrentMap<Key, String> requestNames = new ConcurrentHashMap<Key, String>();
+	private final ReferenceQueue<Object> referenceQueue = new ReferenceQueue<Object>();
+	private final int maxSize;
+
+	/**
+	 * Clé de recherche ou clé enregistrée dans le cache.
+	 */
+	private abstract static class Key {
+		private final int hashCode;
+
+		Key(Class<?> targetClass, Method method) {
+			super();
+			this.hashCode = 31 * System.identityHashCode(targetClass) + method.hashCode();
+		}
+
+		abstract Class<?> getTargetClass();
+
+		abstract Method getMethod();
+
+		/** {@inheritDoc} */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			final Class<?> targetClass = getTargetClass();
+			final Method method = getMethod();
+			// une clé enregistrée dont la classe ou la méthode a été libérée n'est égale qu'à elle-même
+			return targetClass != null && method != null && hashCode == other.hashCode
+					&& targetClass == other.getTargetClass() && method.equals(other.getMethod());
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 * Clé de recherche, éphémère, avec des références fortes.
+	 */
+	private static class LookupKey extends Key {
+		private final Class<?> targetClass;
+		private final Method method;
+
+		LookupKey(Class<?> targetClass, Method method) {
+			super(targetClass, method);
+			this.targetClass = targetClass;
+			this.method = method;
+		}
+
+		@Override
+		Class<?> getTargetClass() {
+			return targetClass;
+		}
+
+		@Override
+		Method getMethod() {
+			return method;
+		}
+	}
+
+	/**
+	 * Clé enregistrée dans le cache, avec des références faibles.
+	 */
+	private static class WeakKey extends Key {
+		private final KeyReference<Class<?>> targetClassReference;
+		private final KeyReference<Method> methodReference;
+
+		WeakKey(Class<?> targetClass, Method method, ReferenceQueue<Object> referenceQueue) {
+			super(targetClass, method);
+			this.targetClassReference = new KeyReference<Class<?>>(targetClass, referenceQueue,
+					this);
+			this.methodReference = new KeyReference<Method>(method, referenceQueue, this);
+		}
+
+		@Override
+		Class<?> getTargetClass() {
+			return targetClassReference.get();
+		}
+
+		@Override
+		Method getMethod() {
+			return methodReference.get();
+		}
+	}
+
+	/**
+	 * Référence faible vers une classe cible ou une méthode, qui connaît sa clé pour la purge du cache.
+	 * @param <T> Type de l'objet référencé
+	 */
+	private static class KeyReference<T> extends WeakReference<T> {
+		private final WeakKey key;
+
+		KeyReference(T referent, ReferenceQueue<Object> referenceQueue, WeakKey key) {
+			super(referent, referenceQueue);
+			this.key = key;
+		}
+
+		WeakKey getKey() {
+			return key;
+		}
+	}
+
+	RequestNameCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	RequestNameCache(int maxSize) {
+		super();
+		assert maxSize >= 0;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Retourne le nom de requête en cache pour ce couple, ou null s'il n'est pas encore en cache.
+	 * @param targetClass Classe cible
+	 * @param method Méthode appelée
+	 * @return String
+	 */
+	String get(Class<?> targetClass, Method method) {
+		assert targetClass != null;
+		assert method != null;
+		return requestNames.get(new LookupKey(targetClass, method));
+	}
+
+	/**
+	 * Met en cache le nom de requête pour ce couple et retourne l'instance de nom à utiliser,
+	 * qui est celle déjà en cache si un autre thread l'a ajoutée entre temps.
+	 * Si le cache est plein, le nom n'est pas mis en cache (mais il est retourné).
+	 * @param targetClass Classe cible
+	 * @param method Méthode appelée
+	 * @param requestName Nom de requête calculé
+	 * @return String
+	 */
+	String put(Class<?> targetClass, Method method, String requestName) {
+		assert targetClass != null;
+		assert method != null;
+		assert requestName != null;
+		purge();
+		if (requestNames.size() >= maxSize) {
+			// cache plein (par exemple avec des classes générées dynamiquement) :
+			// on continue sans cache pour ce couple plutôt que de consommer de la mémoire sans limite
+			return requestName;
+		}
+		final String previous = requestNames.putIfAbsent(new WeakKey(targetClass, method,
+				referenceQueue), requestName);
+		if (previous != null) {
+			return previous;
+		}
+		return requestName;
+	}
+
+	int size() {
+		purge();
+		return requestNames.size();
+	}
+
+	void clear() {
+		requestNames.clear();
+	}
+
+	private void purge() {
+		// on supprime les entrées dont la classe cible ou la méthode a été libérée (redéploiement)
+		Reference<? extends Object> reference = referenceQueue.poll();
+		while (reference != null) {
+			requestNames.remove(((KeyReference<?>) reference).getKey());
+			reference = referenceQueue.poll();
+		}
+	}
+}
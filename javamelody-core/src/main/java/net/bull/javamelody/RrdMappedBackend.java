@@ -0,0 +1,103 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bull.javamelody.RrdMappedBackendFactory.MappedFile;
+import net.bull.javamelody.RrdMappedBackendFactory.SyncPolicy;
+
+import org.jrobin.core.RrdFileBackend;
+
+/**
+ * Backend JRobin d'un fichier RRD mappé en mémoire par {@link RrdMappedBackendFactory}.
+ * Contrairement à {@link RrdNioBackend}, il n'a pas de tâche de synchronisation par fichier
+ * et le fichier reste mappé après la fermeture du backend :
+ * la synchronisation et la taille totale mappée sont gérées par la factory.
+ * @author Emeric Vernat
+ */
+class RrdMappedBackend extends RrdFileBackend {
+	private static final AtomicLong BYTES_WRITTEN = new AtomicLong();
+
+	private final RrdMappedBackendFactory factory;
+	private MappedFile mappedFile;
+
+	RrdMappedBackend(String path, boolean readOnly, RrdMappedBackendFactory factory)
+			throws IOException {
+		super(path, readOnly);
+		assert factory != null;
+		this.factory = factory;
+	}
+
+	static long getBytesWritten() {
+		return BYTES_WRITTEN.get();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected synchronized void write(long offset, byte[] b) throws IOException {
+		// si le fichier n'est plus mappé (taille totale maximum atteinte), il est mappé à nouveau
+		while (!getMappedFile("Write").write(offset, b)) {
+			mappedFile = null;
+		}
+		BYTES_WRITTEN.addAndGet(b.length);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected synchronized void read(long offset, byte[] b) throws IOException {
+		while (!getMappedFile("Read").read(offset, b)) {
+			mappedFile = null;
+		}
+	}
+
+	private MappedFile getMappedFile(String operation) throws IOException {
+		if (mappedFile == null) {
+			final long length = getLength();
+			if (length == 0) {
+				throw new IOException(operation + " failed, file " + getPath()
+						+ " not mapped for I/O");
+			}
+			mappedFile = factory.getMappedFile(getCanonicalPath(), file.getChannel(), length);
+		}
+		return mappedFile;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected synchronized void setLength(long newLength) throws IOException {
+		mappedFile = null;
+		factory.unmap(getCanonicalPath());
+		super.setLength(newLength);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (mappedFile != null && factory.getSyncPolicy() == SyncPolicy.ON_CLOSE) {
+				mappedFile.sync();
+			}
+			// le fichier reste mappé après la fermeture, pour la prochaine ouverture
+			mappedFile = null;
+		} finally {
+			super.close();
+		}
+	}
+}
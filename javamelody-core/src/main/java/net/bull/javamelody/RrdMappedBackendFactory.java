@@ -0,0 +1,366 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdFileBackendFactory;
+
+/**
+ * Factory des {@link RrdMappedBackend} : les fichiers RRD sont mappés en mémoire à la demande
+ * et restent mappés après leur fermeture par le RrdDbPool (qui ne garde qu'un nombre limité de fichiers ouverts),
+ * ils sont synchronisés sur disque selon une {@link SyncPolicy} par une seule tâche pour tous les fichiers,
+ * et la taille totale mappée est bornée en ne mappant plus les fichiers les moins récemment utilisés.
+ * @author Emeric Vernat
+ */
+class RrdMappedBackendFactory extends RrdFileBackendFactory {
+	/**
+	 * Nom de la factory, "MMAP-JavaMelody".
+	 */
+	static final String FACTORY_NAME = "MMAP-JavaMelody";
+
+	private static final long DEFAULT_MAX_MAPPED_MB = 256;
+
+	private final SyncPolicy syncPolicy;
+	private final long maxMappedBytes;
+	// fichiers mappés par chemin, du moins récemment utilisé au plus récemment utilisé
+	private final Map<String, MappedFile> mappedFilesByPath = new LinkedHashMap<String, MappedFile>(
+			16, 0.75f, true);
+	private long mappedBytes;
+	private long unmapCount;
+	private long syncCount;
+	private TimerTask syncTask;
+
+	/**
+	 * Politique de synchronisation sur disque des fichiers mappés.
+	 */
+	enum SyncPolicy {
+		/**
+		 * Jamais de synchronisation forcée, le système d'exploitation écrit les pages modifiées.
+		 */
+		NEVER,
+		/**
+		 * Synchronisation périodique en une seule passe de tous les fichiers modifiés.
+		 */
+		PERIODIC,
+		/**
+		 * Synchronisation d'un fichier à sa fermeture ou quand il n'est plus mappé.
+		 */
+		ON_CLOSE;
+
+		static SyncPolicy valueOfIgnoreCase(String policy) {
+			return valueOf(policy.toUpperCase(Locale.ENGLISH).replace('-', '_').trim());
+		}
+	}
+
+	/**
+	 * Fichier RRD mappé en mémoire, partagé par les backends successifs de ce fichier.
+	 */
+	static final class MappedFile {
+		private final long length;
+		private MappedByteBuffer byteBuffer;
+		private boolean dirty;
+
+		MappedFile(MappedByteBuffer byteBuffer, long length) {
+			super();
+			this.byteBuffer = byteBuffer;
+			this.length = length;
+		}
+
+		// retourne false si le fichier n'est plus mappé
+		synchronized boolean write(long offset, byte[] b) {
+			if (byteBuffer == null) {
+				return false;
+			}
+			byteBuffer.position((int) offset);
+			byteBuffer.put(b);
+			dirty = true;
+			return true;
+		}
+
+		// retourne false si le fichier n'est plus mappé
+		synchronized boolean read(long offset, byte[] b) {
+			if (byteBuffer == null) {
+				return false;
+			}
+			byteBuffer.position((int) offset);
+			byteBuffer.get(b);
+			return true;
+		}
+
+		synchronized boolean sync() {
+			if (byteBuffer != null && dirty) {
+				byteBuffer.force();
+				dirty = false;
+				return true;
+			}
+			return false;
+		}
+
+		synchronized void unmap(boolean sync) {
+			if (sync) {
+				sync();
+			}
+			if (byteBuffer != null) {
+				RrdNioBackend.unmap(byteBuffer);
+				byteBuffer = null;
+				dirty = false;
+			}
+		}
+
+		long getLength() {
+			return length;
+		}
+	}
+
+	RrdMappedBackendFactory(SyncPolicy syncPolicy, long maxMappedBytes) {
+		super();
+		assert syncPolicy != null;
+		assert maxMappedBytes > 0;
+		this.syncPolicy = syncPolicy;
+		this.maxMappedBytes = maxMappedBytes;
+	}
+
+	static RrdMappedBackendFactory createFromParameters() {
+		final String policy = Parameters.getParameter(Parameter.RRD_SYNC_POLICY);
+		final SyncPolicy syncPolicy;
+		if (policy == null) {
+			syncPolicy = SyncPolicy.PERIODIC;
+		} else {
+			syncPolicy = SyncPolicy.valueOfIgnoreCase(policy);
+		}
+		final String maxMappedMb = Parameters.getParameter(Parameter.RRD_MAX_MAPPED_MB);
+		final long maxMappedBytes;
+		if (maxMappedMb == null) {
+			maxMappedBytes = DEFAULT_MAX_MAPPED_MB * 1024 * 1024;
+		} else {
+			// lance une NumberFormatException si ce n'est pas un nombre
+			maxMappedBytes = Long.parseLong(maxMappedMb) * 1024 * 1024;
+			if (maxMappedBytes <= 0) {
+				throw new IllegalStateException("The parameter rrd-max-mapped-mb should be > 0");
+			}
+		}
+		return new RrdMappedBackendFactory(syncPolicy, maxMappedBytes);
+	}
+
+	/**
+	 * Programme la tâche de synchronisation de tous les fichiers si la politique est périodique.
+	 * @param timer Timer
+	 * @param syncPeriodSeconds Période en secondes
+	 */
+	synchronized void scheduleSyncTask(Timer timer, int syncPeriodSeconds) {
+		if (syncTask != null) {
+			syncTask.cancel();
+			syncTask = null;
+		}
+		if (syncPolicy == SyncPolicy.PERIODIC) {
+			syncTask = new TimerTask() {
+				/** {@inheritDoc} */
+				@Override
+				public void run() {
+					syncAll();
+				}
+			};
+			timer.schedule(syncTask, syncPeriodSeconds * 1000L, syncPeriodSeconds * 1000L);
+		}
+	}
+
+	/**
+	 * Arrête la tâche de synchronisation et ne mappe plus aucun fichier,
+	 * après les avoir synchronisés sauf si la politique est never.
+	 */
+	void stop() {
+		final List<MappedFile> mappedFiles;
+		synchronized (this) {
+			if (syncTask != null) {
+				syncTask.cancel();
+				syncTask = null;
+			}
+			mappedFiles = new ArrayList<MappedFile>(mappedFilesByPath.values());
+			mappedFilesByPath.clear();
+			mappedBytes = 0;
+		}
+		for (final MappedFile mappedFile : mappedFiles) {
+			mappedFile.unmap(syncPolicy != SyncPolicy.NEVER);
+		}
+	}
+
+	/**
+	 * Synchronise en une seule passe tous les fichiers mappés et modifiés.
+	 */
+	void syncAll() {
+		final List<MappedFile> mappedFiles;
+		synchronized (this) {
+			mappedFiles = new ArrayList<MappedFile>(mappedFilesByPath.values());
+		}
+		// les fichiers sont synchronisés hors du lock de la factory
+		int count = 0;
+		for (final MappedFile mappedFile : mappedFiles) {
+			if (mappedFile.sync()) {
+				count++;
+			}
+		}
+		synchronized (this) {
+			syncCount += count;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected RrdBackend open(String path, boolean readOnly) throws IOException {
+		return new RrdMappedBackend(path, readOnly, this);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getFactoryName() {
+		return FACTORY_NAME;
+	}
+
+	SyncPolicy getSyncPolicy() {
+		return syncPolicy;
+	}
+
+	/**
+	 * Retourne le fichier mappé pour ce chemin, en le mappant si besoin.
+	 * @param path Chemin canonique du fichier
+	 * @param channel FileChannel du fichier ouvert
+	 * @param length Taille du fichier
+	 * @return MappedFile
+	 * @throws IOException e
+	 */
+	MappedFile getMappedFile(String path, FileChannel channel, long length) throws IOException {
+		final List<MappedFile> mappedFilesToUnmap = new ArrayList<MappedFile>();
+		synchronized (this) {
+			final MappedFile mappedFile = mappedFilesByPath.get(path);
+			if (mappedFile != null && mappedFile.getLength() == length) {
+				return mappedFile;
+			}
+			if (mappedFile != null) {
+				// la taille du fichier a changé
+				mappedFilesToUnmap.add(removeMappedFile(path));
+			}
+		}
+		// le mapping et les démappings sont faits hors du lock de la factory,
+		// pour ne pas bloquer les lectures et écritures des autres fichiers
+		unmap(mappedFilesToUnmap, false);
+		// (issue 328) READ_WRITE même si readOnly, comme dans RrdNioBackend
+		final MappedFile newMappedFile = new MappedFile(channel.map(
+				FileChannel.MapMode.READ_WRITE, 0, length), length);
+		final MappedFile result;
+		synchronized (this) {
+			final MappedFile mappedFile = mappedFilesByPath.get(path);
+			if (mappedFile != null && mappedFile.getLength() == length) {
+				// un autre thread a mappé ce fichier entre temps, son mapping est conservé
+				result = mappedFile;
+				mappedFilesToUnmap.add(newMappedFile);
+			} else {
+				if (mappedFile != null) {
+					mappedFilesToUnmap.add(removeMappedFile(path));
+				}
+				result = newMappedFile;
+				mappedFilesByPath.put(path, result);
+				mappedBytes += length;
+				mappedFilesToUnmap.addAll(removeLeastRecentlyUsedIfNeeded(result));
+			}
+		}
+		unmap(mappedFilesToUnmap, syncPolicy != SyncPolicy.NEVER);
+		return result;
+	}
+
+	private MappedFile removeMappedFile(String path) {
+		assert Thread.holdsLock(this);
+		final MappedFile mappedFile = mappedFilesByPath.remove(path);
+		mappedBytes -= mappedFile.getLength();
+		return mappedFile;
+	}
+
+	private static void unmap(List<MappedFile> mappedFilesToUnmap, boolean sync) {
+		for (final MappedFile mappedFile : mappedFilesToUnmap) {
+			mappedFile.unmap(sync);
+		}
+		mappedFilesToUnmap.clear();
+	}
+
+	private List<MappedFile> removeLeastRecentlyUsedIfNeeded(MappedFile current) {
+		assert Thread.holdsLock(this);
+		final List<MappedFile> mappedFilesToUnmap = new ArrayList<MappedFile>();
+		final Iterator<MappedFile> iterator = mappedFilesByPath.values().iterator();
+		while (mappedBytes > maxMappedBytes && iterator.hasNext()) {
+			final MappedFile mappedFile = iterator.next();
+			if (mappedFile != current) {
+				iterator.remove();
+				mappedBytes -= mappedFile.getLength();
+				mappedFilesToUnmap.add(mappedFile);
+			}
+		}
+		unmapCount += mappedFilesToUnmap.size();
+		return mappedFilesToUnmap;
+	}
+
+	/**
+	 * Ne mappe plus le fichier de ce chemin, par exemple avant de le supprimer ou de changer sa taille.
+	 * @param path Chemin canonique du fichier
+	 */
+	void unmap(String path) {
+		final MappedFile mappedFile;
+		synchronized (this) {
+			if (!mappedFilesByPath.containsKey(path)) {
+				return;
+			}
+			mappedFile = removeMappedFile(path);
+		}
+		mappedFile.unmap(false);
+	}
+
+	synchronized int getMappedFilesCount() {
+		return mappedFilesByPath.size();
+	}
+
+	synchronized long getMappedBytes() {
+		return mappedBytes;
+	}
+
+	synchronized long getUnmapCount() {
+		return unmapCount;
+	}
+
+	synchronized long getSyncCount() {
+		return syncCount;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[syncPolicy=" + getSyncPolicy()
+				+ ", mappedFilesCount=" + getMappedFilesCount() + ", mappedBytes="
+				+ getMappedBytes() + ", unmapCount=" + getUnmapCount() + ", syncCount="
+				+ getSyncCount() + ']';
+	}
+}
@@ -30,6 +30,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jrobin.core.RrdFileBackend;
 
@@ -41,6 +42,7 @@ import sun.nio.ch.DirectBuffer;
  */
 public class RrdNioBackend extends RrdFileBackend {
 	private static Timer fileSyncTimer;
+	private static final AtomicLong BYTES_WRITTEN = new AtomicLong();
 
 	private MappedByteBuffer byteBuffer;
 	private final TimerTask syncTask = new TimerTask() {
@@ -78,6 +80,13 @@ public class RrdNioBackend extends RrdFileBackend {
 		return fileSyncTimer;
 	}
 
+	/**
+	 * @return Total number of bytes written in RRD files by all the backends.
+	 */
+	public static long getBytesWritten() {
+		return BYTES_WRITTEN.get();
+	}
+
 	/**
 	 * Sets the timer.
 	 * @param timer timer to synchronize files.
@@ -98,13 +107,21 @@ public class RrdNioBackend extends RrdFileBackend {
 
 	private void unmapFile() {
 		if (byteBuffer != null) {
-			if (byteBuffer instanceof DirectBuffer) {
-				((DirectBuffer) byteBuffer).cleaner().clean();
-			}
+			unmap(byteBuffer);
 			byteBuffer = null;
 		}
 	}
 
+	/**
+	 * Unmaps a mapped byte buffer now, without waiting for its garbage collection.
+	 * @param mappedByteBuffer MappedByteBuffer
+	 */
+	static void unmap(MappedByteBuffer mappedByteBuffer) {
+		if (mappedByteBuffer instanceof DirectBuffer) {
+			((DirectBuffer) mappedByteBuffer).cleaner().clean();
+		}
+	}
+
 	/**
 	 * Sets length of the underlying RRD file. This method is called only once, immediately
 	 * after a new RRD file gets created.
@@ -130,6 +147,7 @@ public class RrdNioBackend extends RrdFileBackend {
 		if (byteBuffer != null) {
 			byteBuffer.position((int) offset);
 			byteBuffer.put(b);
+			BYTES_WRITTEN.addAndGet(b.length);
 		} else {
 			throw new IOException("Write failed, file " + getPath() + " not mapped for I/O");
 		}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Piles d'appels échantillonnées par le SamplingProfiler pendant les exécutions d'une requête.
+ * Seules les piles les plus fréquentes sont conservées (algorithme "space-saving"),
+ * la mémoire utilisée étant ainsi bornée quel que soit le nombre de piles différentes.
+ * Ces données sont fusionnables, par exemple dans le serveur de collecte pour les différents noeuds.
+ * Les méthodes d'une instance de cette classe ne sont pas thread-safe.
+ * @author Emeric Vernat
+ */
+class SampledStacks implements Serializable {
+	/**
+	 * Nombre maximum de piles différentes conservées.
+	 */
+	static final int MAX_STACKS = 10;
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, Long> countsByStack = new HashMap<String, Long>();
+
+	private long samplesCount;
+
+	// nombre d'échantillons hérité de la requête remplacée par celle-ci dans le SamplingProfiler
+	// (comme pour les piles, "space-saving"), qui sert seulement à choisir la requête à remplacer
+	private transient long inheritedSamplesCount;
+
+	SampledStacks() {
+		this(0);
+	}
+
+	SampledStacks(long inheritedSamplesCount) {
+		super();
+		assert inheritedSamplesCount >= 0;
+		this.inheritedSamplesCount = inheritedSamplesCount;
+	}
+
+	/**
+	 * Ajoute un échantillon.
+	 * @param stack Pile d'appels au format "frame;frame;frame" de la plus externe à la plus interne
+	 */
+	void addSample(String stack) {
+		assert stack != null;
+		samplesCount++;
+		final Long count = countsByStack.get(stack);
+		if (count != null) {
+			countsByStack.put(stack, count + 1);
+		} else if (countsByStack.size() < MAX_STACKS) {
+			countsByStack.put(stack, 1L);
+		} else {
+			// la pile la moins fréquente est remplacée par la nouvelle pile qui hérite de son nombre,
+			// ce nombre étant alors surestimé au plus de ce minimum mais les piles fréquentes restant connues
+			final String minStack = getMinStack();
+			final long minCount = countsByStack.remove(minStack);
+			countsByStack.put(stack, minCount + 1);
+		}
+	}
+
+	/**
+	 * Fusionne les échantillons en paramètre avec ceux-ci.
+	 * @param sampledStacks SampledStacks
+	 */
+	void add(SampledStacks sampledStacks) {
+		assert sampledStacks != null;
+		samplesCount += sampledStacks.samplesCount;
+		// une pile absente d'un résumé complet y a été vue au plus autant de fois que sa pile la
+		// moins fréquente, donc ce minimum lui est ajouté comme à une pile remplacée dans addSample
+		final long minCount = getMinCount();
+		final long otherMinCount = sampledStacks.getMinCount();
+		final Map<String, Long> mergedCountsByStack = new HashMap<String, Long>();
+		for (final Map.Entry<String, Long> entry : countsByStack.entrySet()) {
+			final Long otherCount = sampledStacks.countsByStack.get(entry.getKey());
+			mergedCountsByStack.put(entry.getKey(), entry.getValue()
+					+ (otherCount != null ? otherCount : otherMinCount));
+		}
+		for (final Map.Entry<String, Long> entry : sampledStacks.countsByStack.entrySet()) {
+			if (!countsByStack.containsKey(entry.getKey())) {
+				mergedCountsByStack.put(entry.getKey(), entry.getValue() + minCount);
+			}
+		}
+		countsByStack.clear();
+		countsByStack.putAll(mergedCountsByStack);
+		while (countsByStack.size() > MAX_STACKS) {
+			countsByStack.remove(getMinStack());
+		}
+	}
+
+	private long getMinCount() {
+		if (countsByStack.size() < MAX_STACKS) {
+			// le résumé n'est pas complet, aucune pile n'a été remplacée
+			return 0;
+		}
+		return countsByStack.get(getMinStack());
+	}
+
+	private String getMinStack() {
+		String minStack = null;
+		long minCount = Long.MAX_VALUE;
+		for (final Map.Entry<String, Long> entry : countsByStack.entrySet()) {
+			if (entry.getValue() < minCount) {
+				minStack = entry.getKey();
+				minCount = entry.getValue();
+			}
+		}
+		return minStack;
+	}
+
+	/**
+	 * @return Nombre total d'échantillons, y compris ceux des piles non conservées
+	 */
+	long getSamplesCount() {
+		return samplesCount;
+	}
+
+	/**
+	 * @return Nombre d'échantillons, augmenté de celui hérité de la requête remplacée
+	 */
+	long getEstimatedSamplesCount() {
+		return inheritedSamplesCount + samplesCount;
+	}
+
+	/**
+	 * @return Nombres d'échantillons par piles, triés par nombres décroissants
+	 */
+	Map<String, Long> getCountsByStack() {
+		final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(
+				countsByStack.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> entry1, Map.Entry<String, Long> entry2) {
+				return entry2.getValue().compareTo(entry1.getValue());
+			}
+		});
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (final Map.Entry<String, Long> entry : entries) {
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[samplesCount=" + getSamplesCount() + ", stacksCount="
+				+ countsByStack.size() + ']';
+	}
+}
@@ -17,7 +17,12 @@
  */
 package net.bull.javamelody;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -28,6 +33,10 @@ import java.util.Map;
 
 /**
  * Detect CPU hotspots CPU by periodic sampling of the stack-traces of the threads.
+ * Only the RUNNABLE threads are sampled, with a bounded stack depth,
+ * and the whole call paths are aggregated in a tree of interned frames:
+ * the hotspots and the collapsed stacks (for flame graphs) are derived from this tree.
+ * The samples of the threads executing a monitored request are also attributed to this request.
  * @author Emeric Vernat with some ideas from C&eacute;drik Lime
  */
 class SamplingProfiler {
@@ -39,15 +48,83 @@ class SamplingProfiler {
 			"org.eclipse.", };
 
 	/**
-	 * Maximum number of methods to hold into memory
+	 * Maximum depth of the sampled stack-traces (the deepest frames are ignored)
 	 */
-	private final int maxDataSize = 10000;
+	private static final int MAX_STACK_DEPTH = 128;
+
+	/**
+	 * Maximum part of the time used by the sampling (1%), the interval is increased above
+	 */
+	private static final double OVERHEAD_BUDGET = 0.01;
+
+	/**
+	 * Maximum number of nodes of call paths to hold into memory
+	 */
+	private final int maxDataSize = 20000;
+
+	/**
+	 * Maximum number of requests for which the sampled stacks are kept
+	 * (the sample budget is at most MAX_PROFILED_REQUESTS * SampledStacks.MAX_STACKS stacks)
+	 */
+	private static final int MAX_PROFILED_REQUESTS = 200;
+
+	/**
+	 * Number of innermost frames kept in the sampled stacks of the requests
+	 */
+	private static final int REQUEST_STACK_DEPTH = 10;
 
 	private final String[] excludedPackages;
 
 	private final String[] includedPackages;
 
-	private final Map<SampledMethod, SampledMethod> data = new HashMap<SampledMethod, SampledMethod>();
+	// interned frames: only one instance by method in the tree
+	private final Map<SampledMethod, SampledMethod> frames = new HashMap<SampledMethod, SampledMethod>();
+
+	private final StackNode root = new StackNode(null, null, null);
+
+	private final Map<String, SampledStacks> sampledStacksByRequestId = new HashMap<String, SampledStacks>();
+
+	private int nodesCount;
+
+	// moving average of the duration of a sampling, written only by the sampling thread
+	private volatile long averageSampleNanos = -1;
+
+	/**
+	 * Node of the tree of call paths: its children are the methods called from this method.
+	 */
+	private static final class StackNode {
+		final StackNode parent;
+		final SampledMethod method;
+		// innermost not excluded method of the path from the root to this node, counted in the hotspots
+		final SampledMethod hotspot;
+		// number of samples in this node and its children
+		long totalCount;
+		// number of samples with this node as the innermost frame
+		long selfCount;
+		// null as long as there is no child, to save memory
+		Map<SampledMethod, StackNode> children;
+
+		StackNode(StackNode parent, SampledMethod method, SampledMethod hotspot) {
+			super();
+			this.parent = parent;
+			this.method = method;
+			this.hotspot = hotspot;
+		}
+
+		StackNode getChild(SampledMethod childMethod) {
+			if (children == null) {
+				return null;
+			}
+			return children.get(childMethod);
+		}
+
+		void addChild(StackNode child) {
+			if (children == null) {
+				children = new HashMap<SampledMethod, StackNode>(4);
+			}
+			children.put(child.method, child);
+		}
+	}
 
 	static class SampledMethod implements Comparable<SampledMethod>, Serializable {
 		private static final long serialVersionUID = 1L;
@@ -189,66 +266,211 @@ class SamplingProfiler {
 		return packages;
 	}
 
-	synchronized void update() {
-		final Map<Thread, StackTraceElement[]> stackTraces = Thread.getAllStackTraces();
-		try {
-			final Thread currentThread = Thread.currentThread();
-			for (final Map.Entry<Thread, StackTraceElement[]> entry : stackTraces.entrySet()) {
-				final Thread thread = entry.getKey();
-				final StackTraceElement[] stackTrace = entry.getValue();
-				if (stackTrace.length > 0 && thread.getState() == Thread.State.RUNNABLE
-						&& thread != currentThread) {
-					for (final StackTraceElement element : stackTrace) {
-						if (!isPackageExcluded(element)) {
-							addSample(element);
-							break;
-						}
+	void update() {
+		update(Collections.<Counter> emptyList());
+	}
+
+	/**
+	 * Takes a sample of the running threads.
+	 * @param counters Counters, whose current root requests are given the samples of their threads
+	 */
+	void update(List<Counter> counters) {
+		final long start = System.nanoTime();
+		// the stack-traces are taken outside of the lock, in one call for all the threads
+		final List<ThreadInfo> threadInfos = getRunnableThreadInfos();
+		// and the requests of the threads are also found outside of the lock
+		final List<String> requestIds = new ArrayList<String>(threadInfos.size());
+		final List<String> requestStacks = new ArrayList<String>(threadInfos.size());
+		for (final ThreadInfo threadInfo : threadInfos) {
+			final String requestId = getRootCurrentRequestId(counters, threadInfo.getThreadId());
+			requestIds.add(requestId);
+			requestStacks.add(requestId == null ? null : getRequestStack(threadInfo
+					.getStackTrace()));
+		}
+		synchronized (this) {
+			try {
+				for (int i = 0; i < threadInfos.size(); i++) {
+					addSample(threadInfos.get(i).getStackTrace());
+					final String requestId = requestIds.get(i);
+					if (requestId != null) {
+						addRequestSample(requestId, requestStacks.get(i));
 					}
 				}
+			} finally {
+				limitDataSize();
+			}
+		}
+		final long duration = System.nanoTime() - start;
+		final long average = averageSampleNanos;
+		averageSampleNanos = average < 0 ? duration : (average * 7 + duration) / 8;
+	}
+
+	private static String getRootCurrentRequestId(List<Counter> counters, long threadId) {
+		for (final Counter counter : counters) {
+			final String requestId = counter.getRootCurrentRequestId(threadId);
+			if (requestId != null) {
+				return requestId;
+			}
+		}
+		return null;
+	}
+
+	private String getRequestStack(StackTraceElement[] stackTrace) {
+		// the frames of the excluded packages are removed before keeping the innermost frames,
+		// like for the hotspots (but if all are excluded, the innermost frame is kept)
+		final List<StackTraceElement> frames = new ArrayList<StackTraceElement>(
+				REQUEST_STACK_DEPTH);
+		for (int i = 0; i < stackTrace.length && frames.size() < REQUEST_STACK_DEPTH; i++) {
+			if (!isPackageExcluded(stackTrace[i].getClassName())) {
+				frames.add(stackTrace[i]);
+			}
+		}
+		if (frames.isEmpty()) {
+			frames.add(stackTrace[0]);
+		}
+		// in the format of the collapsed stacks, from the outermost to the innermost frame
+		final StringBuilder sb = new StringBuilder();
+		for (int i = frames.size() - 1; i >= 0; i--) {
+			sb.append(frames.get(i).getClassName()).append('.')
+					.append(frames.get(i).getMethodName());
+			if (i > 0) {
+				sb.append(';');
+			}
+		}
+		return sb.toString();
+	}
+
+	private void addRequestSample(String requestId, String requestStack) {
+		SampledStacks sampledStacks = sampledStacksByRequestId.get(requestId);
+		if (sampledStacks == null) {
+			long inheritedSamplesCount = 0;
+			if (sampledStacksByRequestId.size() >= MAX_PROFILED_REQUESTS) {
+				// the least sampled request is removed to stay in the sample budget,
+				// and the new request inherits its count so that it is not the next one removed
+				// ("space-saving", like the stacks of a request)
+				String minRequestId = null;
+				long minSamplesCount = Long.MAX_VALUE;
+				for (final Map.Entry<String, SampledStacks> entry : sampledStacksByRequestId
+						.entrySet()) {
+					final long samplesCount = entry.getValue().getEstimatedSamplesCount();
+					if (samplesCount < minSamplesCount) {
+						minRequestId = entry.getKey();
+						minSamplesCount = samplesCount;
+					}
+				}
+				sampledStacksByRequestId.remove(minRequestId);
+				inheritedSamplesCount = minSamplesCount;
+			}
+			sampledStacks = new SampledStacks(inheritedSamplesCount);
+			sampledStacksByRequestId.put(requestId, sampledStacks);
+		}
+		sampledStacks.addSample(requestStack);
+	}
+
+	private static List<ThreadInfo> getRunnableThreadInfos() {
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		// unlike Thread.getAllStackTraces(), the depth of the stack-traces is bounded
+		// and the states are taken at the same time as the stack-traces
+		final ThreadInfo[] threadInfos = threadBean.getThreadInfo(threadBean.getAllThreadIds(),
+				MAX_STACK_DEPTH);
+		final long currentThreadId = Thread.currentThread().getId();
+		final List<ThreadInfo> result = new ArrayList<ThreadInfo>();
+		for (final ThreadInfo threadInfo : threadInfos) {
+			// threadInfo is null if the thread is dead
+			if (threadInfo != null && threadInfo.getThreadState() == Thread.State.RUNNABLE
+					&& threadInfo.getThreadId() != currentThreadId
+					&& threadInfo.getStackTrace().length > 0) {
+				result.add(threadInfo);
 			}
-		} finally {
-			limitDataSize();
 		}
+		return result;
 	}
 
-	private void addSample(StackTraceElement element) {
-		final SampledMethod key = new SampledMethod(element.getClassName(), element.getMethodName());
-		// or final String key = element.getClassName() + '.' + element.getMethodName();
-		SampledMethod method = this.data.get(key);
-		if (method == null) {
-			method = key;
-			// or method = new SampledMethod(element.getClassName(), element.getMethodName());
-			this.data.put(key, method);
+	private void addSample(StackTraceElement[] stackTrace) {
+		// the root of the path is the last element of the stack-trace
+		StackNode node = root;
+		node.totalCount++;
+		for (int i = stackTrace.length - 1; i >= 0; i--) {
+			final StackTraceElement element = stackTrace[i];
+			final SampledMethod key = new SampledMethod(element.getClassName(),
+					element.getMethodName());
+			StackNode child = node.getChild(key);
+			if (child == null) {
+				SampledMethod method = frames.get(key);
+				if (method == null) {
+					method = key;
+					frames.put(key, method);
+				}
+				final SampledMethod hotspot = isPackageExcluded(method.getClassName()) ? node.hotspot
+						: method;
+				child = new StackNode(node, method, hotspot);
+				node.addChild(child);
+				nodesCount++;
+			}
+			node = child;
+			node.totalCount++;
 		}
 		// on pourrait incrémenter la valeur selon l'augmentation de cpuTime pour ce thread,
 		// mais l'intervalle entre deux samples est probablement trop grand
 		// pour que le cpu du thread entre les deux intervalles ait un rapport avec cette méthode
-		method.incrementCount();
+		node.selfCount++;
 	}
 
 	private void limitDataSize() {
+		if (nodesCount <= maxDataSize) {
+			return;
+		}
 		long minCount = 1;
-		int size = data.size();
-		while (size > maxDataSize) {
-			final Iterator<SampledMethod> iterator = data.keySet().iterator();
-			while (iterator.hasNext() && size > maxDataSize) {
-				final SampledMethod method = iterator.next();
-				if (method.getCount() <= minCount) {
-					iterator.remove();
-					size--;
-				}
-			}
+		while (nodesCount > maxDataSize) {
+			removeNodes(root, minCount);
 			minCount++;
 		}
+		// the frames of the removed nodes are not interned anymore
+		frames.clear();
+		internFrames(root);
+	}
+
+	private void removeNodes(StackNode node, long minCount) {
+		if (node.children == null) {
+			return;
+		}
+		final Iterator<StackNode> iterator = node.children.values().iterator();
+		while (iterator.hasNext() && nodesCount > maxDataSize) {
+			final StackNode child = iterator.next();
+			if (child.totalCount <= minCount) {
+				iterator.remove();
+				nodesCount -= countNodes(child);
+			} else {
+				removeNodes(child, minCount);
+			}
+		}
 	}
 
-	private boolean isPackageExcluded(StackTraceElement element) {
-		return excludedPackages != null && isPackageMatching(element, excludedPackages)
-				|| includedPackages != null && !isPackageMatching(element, includedPackages);
+	private static int countNodes(StackNode node) {
+		int count = 1;
+		if (node.children != null) {
+			for (final StackNode child : node.children.values()) {
+				count += countNodes(child);
+			}
+		}
+		return count;
 	}
 
-	private boolean isPackageMatching(StackTraceElement element, String[] packageNames) {
-		final String className = element.getClassName();
+	private void internFrames(StackNode node) {
+		if (node.children != null) {
+			for (final StackNode child : node.children.values()) {
+				frames.put(child.method, child.method);
+				internFrames(child);
+			}
+		}
+	}
+
+	private boolean isPackageExcluded(String className) {
+		return excludedPackages != null && isPackageMatching(className, excludedPackages)
+				|| includedPackages != null && !isPackageMatching(className, includedPackages);
+	}
+
+	private static boolean isPackageMatching(String className, String[] packageNames) {
 		for (final String packageName : packageNames) {
 			if (className.startsWith(packageName)) {
 				return true;
@@ -258,12 +480,120 @@ class SamplingProfiler {
 	}
 
 	synchronized List<SampledMethod> getHotspots(int rows) {
-		final List<SampledMethod> methods = new ArrayList<SampledMethod>(data.values());
+		// the hotspot of a sample is the innermost method which is not excluded
+		final Map<SampledMethod, SampledMethod> hotspots = new HashMap<SampledMethod, SampledMethod>();
+		addHotspots(root, hotspots);
+		final List<SampledMethod> methods = new ArrayList<SampledMethod>(hotspots.values());
 		Collections.sort(methods);
 		return methods.subList(0, Math.min(rows, methods.size()));
 	}
 
+	private static void addHotspots(StackNode node, Map<SampledMethod, SampledMethod> hotspots) {
+		if (node.selfCount > 0 && node.hotspot != null) {
+			SampledMethod hotspot = hotspots.get(node.hotspot);
+			if (hotspot == null) {
+				// copy, because the interned frames are not counted
+				hotspot = new SampledMethod(node.hotspot.getClassName(),
+						node.hotspot.getMethodName());
+				hotspots.put(hotspot, hotspot);
+			}
+			hotspot.setCount(hotspot.getCount() + node.selfCount);
+		}
+		if (node.children != null) {
+			for (final StackNode child : node.children.values()) {
+				addHotspots(child, hotspots);
+			}
+		}
+	}
+
+	/**
+	 * Writes the sampled call paths in the "collapsed stacks" format of the flame graphs tools:
+	 * one line by path with the frames from the root separated by ';', a space and the number of samples.
+	 * @param writer Writer
+	 * @throws IOException e
+	 */
+	void writeCollapsedStacks(Writer writer) throws IOException {
+		final List<StackNode> nodes = new ArrayList<StackNode>();
+		final List<Long> selfCounts = new ArrayList<Long>();
+		synchronized (this) {
+			addNodesWithSamples(root, nodes, selfCounts);
+		}
+		// the parents and the methods of the nodes are final, so the paths are written outside of the lock
+		final List<SampledMethod> path = new ArrayList<SampledMethod>();
+		for (int i = 0; i < nodes.size(); i++) {
+			path.clear();
+			for (StackNode node = nodes.get(i); node.parent != null; node = node.parent) {
+				path.add(node.method);
+			}
+			for (int j = path.size() - 1; j >= 0; j--) {
+				writer.write(path.get(j).toString());
+				if (j > 0) {
+					writer.write(';');
+				}
+			}
+			writer.write(' ');
+			writer.write(String.valueOf(selfCounts.get(i)));
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	private static void addNodesWithSamples(StackNode node, List<StackNode> nodes,
+			List<Long> selfCounts) {
+		if (node.selfCount > 0) {
+			nodes.add(node);
+			selfCounts.add(node.selfCount);
+		}
+		if (node.children != null) {
+			for (final StackNode child : node.children.values()) {
+				addNodesWithSamples(child, nodes, selfCounts);
+			}
+		}
+	}
+
+	/**
+	 * @param intervalMillis Configured interval between two samplings
+	 * @return Interval until the next sampling, increased if the measured duration of the sampling exceeds the budget
+	 */
+	long getAdaptiveIntervalMillis(long intervalMillis) {
+		final long average = averageSampleNanos;
+		if (average < 0) {
+			return intervalMillis;
+		}
+		return Math.max(intervalMillis, Math.round(average / 1000000d / OVERHEAD_BUDGET));
+	}
+
+	/**
+	 * @return Moving average of the duration of a sampling in microseconds (-1 if no sampling yet)
+	 */
+	long getAverageSampleMicros() {
+		final long average = averageSampleNanos;
+		return average < 0 ? -1 : average / 1000;
+	}
+
+	/**
+	 * @param requestId Identifier of a request
+	 * @return Copy of the stacks sampled during the executions of this request (empty if none)
+	 */
+	synchronized SampledStacks getSampledStacks(String requestId) {
+		final SampledStacks result = new SampledStacks();
+		final SampledStacks sampledStacks = sampledStacksByRequestId.get(requestId);
+		if (sampledStacks != null) {
+			result.add(sampledStacks);
+		}
+		return result;
+	}
+
+	synchronized int getNodesCount() {
+		return nodesCount;
+	}
+
 	synchronized void clear() {
-		data.clear();
+		sampledStacksByRequestId.clear();
+		frames.clear();
+		root.children = null;
+		root.totalCount = 0;
+		root.selfCount = 0;
+		nodesCount = 0;
 	}
 }
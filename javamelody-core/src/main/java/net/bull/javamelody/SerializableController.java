@@ -24,29 +24,43 @@ import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.DEFAULT_WITH_CURRENT_REQUESTS_PART;
+import static net.bull.javamelody.HttpParameters.DELTA_PART;
+import static net.bull.javamelody.HttpParameters.EPOCH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
+import static net.bull.javamelody.HttpParameters.FROM_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PART;
+import static net.bull.javamelody.HttpParameters.HEAP_HISTO_DIFF_PART;
 import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
 import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.HOTSPOTS_PART;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
+import static net.bull.javamelody.HttpParameters.MAX_PARAMETER;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
+import static net.bull.javamelody.HttpParameters.OFFSET_PARAMETER;
 import static net.bull.javamelody.HttpParameters.OTHER_JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PATH_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PERIOD_PARAMETER;
+import static net.bull.javamelody.HttpParameters.POINTS_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PROCESSES_PART;
 import static net.bull.javamelody.HttpParameters.REQUEST_PARAMETER;
+import static net.bull.javamelody.HttpParameters.SAMPLED_STACKS_PART;
+import static net.bull.javamelody.HttpParameters.SEQUENCE_PARAMETER;
 import static net.bull.javamelody.HttpParameters.SESSIONS_PART;
 import static net.bull.javamelody.HttpParameters.SESSION_ID_PARAMETER;
 import static net.bull.javamelody.HttpParameters.THREADS_PART;
+import static net.bull.javamelody.HttpParameters.THREAD_FILTER_PARAMETER;
+import static net.bull.javamelody.HttpParameters.TO_PARAMETER;
 import static net.bull.javamelody.HttpParameters.WIDTH_PARAMETER;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -79,6 +93,13 @@ class SerializableController {
 		// pour avoir les données au format sérialisé java ou xml
 		final String format = httpRequest.getParameter(FORMAT_PARAMETER);
 		final TransportFormat transportFormat = TransportFormat.valueOfIgnoreCase(format);
+		if (transportFormat == TransportFormat.JSON && serializable instanceof JRobinsData) {
+			// données des courbes en json compact par colonnes, écrit sans XStream
+			httpResponse.setContentType(transportFormat.getMimeType());
+			final Writer writer = new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8");
+			((JRobinsData) serializable).writeJson(writer);
+			return;
+		}
 		// checkDependencies avant setContentType pour afficher correctement les erreurs
 		transportFormat.checkDependencies();
 		httpResponse.setContentType(transportFormat.getMimeType());
@@ -110,10 +131,21 @@ class SerializableController {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
 			return new ArrayList<SampledMethod>(collector.getHotspots());
+		} else if (SAMPLED_STACKS_PART.equalsIgnoreCase(part)) {
+			// par sécurité
+			Action.checkSystemActionsEnabled();
+			final String requestId = httpRequest.getParameter(GRAPH_PARAMETER);
+			return collector.getSampledStacks(requestId);
 		} else if (HEAP_HISTO_PART.equalsIgnoreCase(part)) {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
 			return VirtualMachine.createHeapHistogram();
+		} else if (HEAP_HISTO_DIFF_PART.equalsIgnoreCase(part)) {
+			// par sécurité
+			Action.checkSystemActionsEnabled();
+			return collector.getHeapHistogramDiff(
+					HeapHistogramSnapshots.parseTime(httpRequest.getParameter(FROM_PARAMETER)),
+					HeapHistogramSnapshots.parseTime(httpRequest.getParameter(TO_PARAMETER)));
 		} else if (PROCESSES_PART.equalsIgnoreCase(part)) {
 			// par sécurité
 			Action.checkSystemActionsEnabled();
@@ -161,9 +193,20 @@ class SerializableController {
 			final int height = Integer.parseInt(httpRequest.getParameter(HEIGHT_PARAMETER));
 			final Collection<JRobin> jrobins = collector.getDisplayedOtherJRobins();
 			return (Serializable) convertJRobinsToImages(jrobins, range, width, height);
+		} else if (JROBINS_DATA_PART.equalsIgnoreCase(part)) {
+			// pour dessiner les courbes côté client, par exemple avec ?part=jrobinsData&format=json
+			final String graphNames = httpRequest.getParameter(GRAPH_PARAMETER);
+			final String points = httpRequest.getParameter(POINTS_PARAMETER);
+			return getJRobinsData(range, graphNames, points == null ? 0 : Integer.parseInt(points));
 		} else if (THREADS_PART.equalsIgnoreCase(part)) {
-			return new ArrayList<ThreadInformations>(javaInformationsList.get(0)
-					.getThreadInformationsList());
+			// filtre et pagination éventuels des threads, pour ne pas transmettre des milliers de threads
+			final String threadFilter = httpRequest.getParameter(THREAD_FILTER_PARAMETER);
+			final String offset = httpRequest.getParameter(OFFSET_PARAMETER);
+			final String max = httpRequest.getParameter(MAX_PARAMETER);
+			return new ArrayList<ThreadInformations>(ThreadSnapshotTracker.filter(
+					javaInformationsList.get(0).getThreadInformationsList(), threadFilter,
+					offset == null ? 0 : Integer.parseInt(offset),
+					max == null ? Integer.MAX_VALUE : Integer.parseInt(max)));
 		} else if (COUNTER_SUMMARY_PER_CLASS_PART.equalsIgnoreCase(part)) {
 			final String counterName = httpRequest.getParameter(COUNTER_PARAMETER);
 			final String requestId = httpRequest.getParameter(GRAPH_PARAMETER);
@@ -188,11 +231,27 @@ class SerializableController {
 			// pour UI Swing,
 			final String sqlRequest = httpRequest.getHeader(REQUEST_PARAMETER);
 			return explainPlanFor(sqlRequest);
+		} else if (DELTA_PART.equalsIgnoreCase(part)) {
+			// pour serveur de collecte
+			final Long epoch = parseLong(httpRequest.getParameter(EPOCH_PARAMETER));
+			final Long sequence = parseLong(httpRequest.getParameter(SEQUENCE_PARAMETER));
+			// le collector local est arrêté par le serveur de collecte (collector=stop) :
+			// les hits acquittés sont alors enlevés des compteurs pour qu'ils ne grossissent pas
+			return collector.getCountersDeltaTracker().createDelta(epoch, sequence,
+					collector.getCounters(), javaInformationsList, messageForReport,
+					collector.isStopped());
 		}
 
 		return createDefaultSerializable(javaInformationsList, range, messageForReport);
 	}
 
+	private static Long parseLong(String value) {
+		if (value == null) {
+			return null;
+		}
+		return Long.valueOf(value);
+	}
+
 	private Serializable getCounterRequestById(String requestId, Range range) throws IOException {
 		for (final Counter counter : collector.getCounters()) {
 			if (counter.isRequestIdFromThisCounter(requestId)) {
@@ -222,6 +281,28 @@ class SerializableController {
 		return (Serializable) convertJRobinsToImages(jrobins, range, width, height);
 	}
 
+	private JRobinsData getJRobinsData(Range range, String graphNames, int maxPoints)
+			throws IOException {
+		final List<JRobin> jrobins = new ArrayList<JRobin>();
+		if (graphNames == null) {
+			jrobins.addAll(collector.getDisplayedCounterJRobins());
+			jrobins.addAll(collector.getDisplayedOtherJRobins());
+		} else {
+			// plusieurs courbes séparées par des virgules comme pour part=lastValue
+			for (final String graphName : graphNames.split(",")) {
+				final JRobin jrobin = collector.getJRobin(graphName);
+				if (jrobin != null) {
+					jrobins.add(jrobin);
+				}
+			}
+		}
+		final JRobinsData jrobinsData = new JRobinsData();
+		for (final JRobin jrobin : jrobins) {
+			jrobinsData.addSeries(jrobin.fetchData(range, maxPoints));
+		}
+		return jrobinsData;
+	}
+
 	private Serializable explainPlanFor(String sqlRequest) {
 		assert sqlRequest != null;
 		try {
@@ -17,8 +17,8 @@
  */
 package net.bull.javamelody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -41,10 +41,6 @@ class SessionInformations implements Serializable {
 	static final String SESSION_REMOTE_ADDR = "javamelody.remoteAddr";
 	static final String SESSION_REMOTE_USER = "javamelody.remoteUser";
 	private static final long serialVersionUID = -2689338895804445093L;
-	// on utilise ce ByteArrayOutputStream pour calculer les tailles sérialisées,
-	// on n'a qu'une instance pour éviter d'instancier un gros tableau d'octets à chaque session
-	@SuppressWarnings("all")
-	private static final ByteArrayOutputStream TEMP_OUTPUT = new ByteArrayOutputStream(8 * 1024);
 	private final String id;
 	private final Date lastAccess;
 	private final Date age;
@@ -110,7 +106,44 @@ class SessionInformations implements Serializable {
 		}
 	}
 
+	/**
+	 * OutputStream qui compte les octets écrits sans les conserver,
+	 * pour calculer les tailles sérialisées sans tableau d'octets ni verrou partagé.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private int count;
+
+		CountingOutputStream() {
+			super();
+		}
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int off, int len) {
+			count += len;
+		}
+
+		int getCount() {
+			return count;
+		}
+	}
+
 	SessionInformations(HttpSession session, boolean includeAttributes) {
+		this(session, includeAttributes, false);
+	}
+
+	/**
+	 * Constructeur.
+	 * @param session HttpSession
+	 * @param includeAttributes true pour inclure les attributs et leurs tailles exactes
+	 * @param sizeEstimated true pour estimer la taille sérialisée de la session avec SessionSizeEstimator,
+	 * au lieu de sérialiser tous ses attributs
+	 */
+	SessionInformations(HttpSession session, boolean includeAttributes, boolean sizeEstimated) {
 		super();
 		assert session != null;
 		id = session.getId();
@@ -154,7 +187,7 @@ class SessionInformations implements Serializable {
 			remoteUser = user.toString();
 		}
 
-		serializedSize = computeSerializedSize(session, attributeNames);
+		serializedSize = computeSerializedSize(session, attributeNames, sizeEstimated);
 
 		if (includeAttributes) {
 			attributes = new ArrayList<SessionAttribute>(attributeCount);
@@ -176,7 +209,8 @@ class SessionInformations implements Serializable {
 		return true;
 	}
 
-	private int computeSerializedSize(HttpSession session, List<String> attributeNames) {
+	private int computeSerializedSize(HttpSession session, List<String> attributeNames,
+			boolean sizeEstimated) {
 		if (!serializable) {
 			// la taille pour la session est inconnue si un de ses attributs n'est pas sérialisable
 			return -1;
@@ -202,6 +236,10 @@ class SessionInformations implements Serializable {
 			final Object attributeValue = session.getAttribute(attributeName);
 			serializableAttributes.add((Serializable) attributeValue);
 		}
+		if (sizeEstimated) {
+			// Rq : l'estimation est la somme des tailles estimées des attributs
+			return SessionSizeEstimator.estimateTotalSize(serializableAttributes);
+		}
 		return getObjectSize(serializableAttributes);
 	}
 
@@ -270,21 +308,19 @@ class SessionInformations implements Serializable {
 			return -1;
 		}
 		final Serializable serializable = (Serializable) object;
-		// synchronized pour protéger l'accès à TEMP_OUTPUT static
-		synchronized (TEMP_OUTPUT) {
-			TEMP_OUTPUT.reset();
+		// les octets sont seulement comptés : pas de tableau d'octets ni de synchronized
+		final CountingOutputStream counter = new CountingOutputStream();
+		try {
+			final ObjectOutputStream out = new ObjectOutputStream(counter);
 			try {
-				final ObjectOutputStream out = new ObjectOutputStream(TEMP_OUTPUT);
-				try {
-					out.writeObject(serializable);
-				} finally {
-					out.close();
-				}
-				return TEMP_OUTPUT.size();
-			} catch (final Throwable e) {
-				// ce catch Throwable inclut IOException et aussi NoClassDefFoundError/ClassNotFoundException (issue 355)
-				return -1;
+				out.writeObject(serializable);
+			} finally {
+				out.close();
 			}
+			return counter.getCount();
+		} catch (final Throwable e) {
+			// ce catch Throwable inclut IOException et aussi NoClassDefFoundError/ClassNotFoundException (issue 355)
+			return -1;
 		}
 	}
 }
@@ -79,6 +79,34 @@ public class SessionListener implements HttpSessionListener, HttpSessionActivati
 		}
 	}
 
+	private static final class LastAccessedSession implements Comparable<LastAccessedSession> {
+		private final HttpSession session;
+		private final long lastAccessedTime;
+
+		LastAccessedSession(HttpSession session) {
+			super();
+			this.session = session;
+			this.lastAccessedTime = session.getLastAccessedTime();
+		}
+
+		HttpSession getSession() {
+			return session;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public int compareTo(LastAccessedSession other) {
+			// de la plus récemment accédée à la plus ancienne
+			if (lastAccessedTime > other.lastAccessedTime) {
+				return -1;
+			} else if (lastAccessedTime < other.lastAccessedTime) {
+				return 1;
+			} else {
+				return 0;
+			}
+		}
+	}
+
 	/**
 	 * Constructeur.
 	 */
@@ -211,18 +239,47 @@ public class SessionListener implements HttpSessionListener, HttpSessionActivati
 	}
 
 	static List<SessionInformations> getAllSessionsInformations() {
+		return getSessionsInformations(0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Retourne une page des informations sur les sessions, de la plus récemment accédée à la plus ancienne.
+	 * Les sessions sont d'abord triées selon leur date de dernier accès et seules celles de la page sont lues,
+	 * avec une taille sérialisée estimée (sauf si le paramètre session-size-estimation-disabled est true).
+	 * @param offset Index de la première session
+	 * @param maxCount Nombre maximum de sessions
+	 * @return List de SessionInformations
+	 */
+	static List<SessionInformations> getSessionsInformations(int offset, int maxCount) {
+		assert offset >= 0;
+		assert maxCount >= 0;
 		final Collection<HttpSession> sessions = SESSION_MAP_BY_ID.values();
-		final List<SessionInformations> sessionsInformations = new ArrayList<SessionInformations>(
+		// la date de dernier accès est lue une seule fois par session pour le tri
+		final List<LastAccessedSession> lastAccessedSessions = new ArrayList<LastAccessedSession>(
 				sessions.size());
 		for (final HttpSession session : sessions) {
 			try {
-				sessionsInformations.add(new SessionInformations(session, false));
+				lastAccessedSessions.add(new LastAccessedSession(session));
+			} catch (final Exception e) {
+				// Tomcat can throw "java.lang.IllegalStateException: getLastAccessedTime: Session already invalidated"
+				continue;
+			}
+		}
+		Collections.sort(lastAccessedSessions);
+		final boolean sizeEstimated = !Boolean.parseBoolean(Parameters
+				.getParameter(Parameter.SESSION_SIZE_ESTIMATION_DISABLED));
+		final List<SessionInformations> sessionsInformations = new ArrayList<SessionInformations>(
+				Math.min(maxCount, Math.max(lastAccessedSessions.size() - offset, 0)));
+		for (int i = offset; i < lastAccessedSessions.size()
+				&& sessionsInformations.size() < maxCount; i++) {
+			try {
+				sessionsInformations.add(new SessionInformations(
+						lastAccessedSessions.get(i).getSession(), false, sizeEstimated));
 			} catch (final Exception e) {
 				// Tomcat can throw "java.lang.IllegalStateException: getLastAccessedTime: Session already invalidated"
 				continue;
 			}
 		}
-		sortSessions(sessionsInformations);
 		return Collections.unmodifiableList(sessionsInformations);
 	}
 
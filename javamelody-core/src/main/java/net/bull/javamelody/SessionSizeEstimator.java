@@ -0,0 +1,154 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimation de la taille sérialisée des attributs de sessions http,
+ * pour afficher la liste des sessions sans sérialiser tous les attributs de toutes les sessions.
+ * Pour chaque classe d'attribut, seuls quelques attributs sont réellement sérialisés
+ * et la moyenne de leurs tailles est ensuite utilisée pour les autres attributs de cette classe,
+ * jusqu'à l'expiration de l'estimation. Il n'y a aucun verrou global :
+ * plusieurs threads peuvent estimer les tailles des sessions en parallèle.
+ * @author Emeric Vernat
+ */
+final class SessionSizeEstimator {
+	/**
+	 * Nombre d'attributs réellement sérialisés par classe d'attribut pour une estimation.
+	 */
+	static final int SAMPLES_PER_CLASS = 5;
+
+	/**
+	 * Durée de validité d'une estimation en millisecondes, avant de sérialiser de nouveau quelques attributs.
+	 */
+	static final long ESTIMATE_TTL_MILLIS = 60 * 1000;
+
+	/**
+	 * Nombre maximum de classes d'attributs estimées, au-delà les tailles sont calculées sans estimation.
+	 */
+	private static final int MAX_CLASSES = 1000;
+
+	@SuppressWarnings("all")
+	private static final ConcurrentMap<String, ClassSizeEstimate> ESTIMATES_BY_CLASS = new ConcurrentHashMap<String, ClassSizeEstimate>();
+
+	private static final class ClassSizeEstimate {
+		private final long creationTime;
+		private final AtomicInteger samplesCount = new AtomicInteger();
+		private final AtomicLong totalSize = new AtomicLong();
+		// volatile car lu sans synchronisation par les autres threads
+		private volatile boolean sizeUnknown;
+
+		ClassSizeEstimate(long creationTime) {
+			super();
+			this.creationTime = creationTime;
+		}
+
+		boolean isExpired(long now) {
+			return now - creationTime > ESTIMATE_TTL_MILLIS;
+		}
+
+		boolean isSampleNeeded() {
+			return !sizeUnknown && samplesCount.get() < SAMPLES_PER_CLASS;
+		}
+
+		void addSample(int size) {
+			if (size < 0) {
+				// une instance de cette classe n'est pas sérialisable, par exemple une collection
+				// contenant un objet non sérialisable : on ne sait pas estimer les autres
+				sizeUnknown = true;
+			} else {
+				totalSize.addAndGet(size);
+				samplesCount.incrementAndGet();
+			}
+		}
+
+		int getEstimatedSize() {
+			final int count = samplesCount.get();
+			if (sizeUnknown || count == 0) {
+				return -1;
+			}
+			return (int) (totalSize.get() / count);
+		}
+	}
+
+	private SessionSizeEstimator() {
+		super();
+	}
+
+	/**
+	 * Retourne la taille sérialisée estimée d'un attribut de session.
+	 * @param value Valeur de l'attribut
+	 * @return Taille en octets, ou -1 si non sérialisable
+	 */
+	static int estimateSize(Object value) {
+		if (!(value instanceof Serializable)) {
+			return -1;
+		}
+		final String className = value.getClass().getName();
+		final long now = System.currentTimeMillis();
+		ClassSizeEstimate estimate = ESTIMATES_BY_CLASS.get(className);
+		if (estimate == null || estimate.isExpired(now)) {
+			if (estimate == null && ESTIMATES_BY_CLASS.size() >= MAX_CLASSES) {
+				return SessionInformations.getObjectSize(value);
+			}
+			estimate = new ClassSizeEstimate(now);
+			// si un autre thread a remplacé l'estimation entre-temps, ce n'est pas grave
+			ESTIMATES_BY_CLASS.put(className, estimate);
+		}
+		if (estimate.isSampleNeeded()) {
+			final int size = SessionInformations.getObjectSize(value);
+			estimate.addSample(size);
+			return size;
+		}
+		return estimate.getEstimatedSize();
+	}
+
+	/**
+	 * Retourne la taille sérialisée estimée de valeurs d'attributs de session,
+	 * comme la somme des tailles estimées de chaque valeur non nulle.
+	 * @param values Valeurs des attributs
+	 * @return Taille en octets, ou -1 si une valeur n'est pas sérialisable
+	 */
+	static int estimateTotalSize(Iterable<?> values) {
+		int result = 0;
+		for (final Object value : values) {
+			if (value == null) {
+				continue;
+			}
+			final int size = estimateSize(value);
+			if (size < 0) {
+				return -1;
+			}
+			result += size;
+		}
+		return result;
+	}
+
+	static int getEstimatedClassesCount() {
+		return ESTIMATES_BY_CLASS.size();
+	}
+
+	static void clear() {
+		ESTIMATES_BY_CLASS.clear();
+	}
+}
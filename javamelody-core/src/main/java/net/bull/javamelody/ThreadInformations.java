@@ -44,26 +44,36 @@ class ThreadInformations implements Serializable {
 	private final Thread.State state;
 	private final long cpuTimeMillis;
 	private final long userTimeMillis;
+	private final int recentCpuPercent;
 	private final boolean deadlocked;
 	private final String globalThreadId;
 	@SuppressWarnings("all")
 	private final List<StackTraceElement> stackTrace;
 
-	@SuppressWarnings("all")
 	ThreadInformations(Thread thread, List<StackTraceElement> stackTrace, long cpuTimeMillis,
 			long userTimeMillis, boolean deadlocked, String hostAddress) {
+		this(thread, thread.getState(), stackTrace, cpuTimeMillis, userTimeMillis, -1,
+				deadlocked, hostAddress);
+	}
+
+	@SuppressWarnings("all")
+	ThreadInformations(Thread thread, Thread.State state, List<StackTraceElement> stackTrace,
+			long cpuTimeMillis, long userTimeMillis, int recentCpuPercent, boolean deadlocked,
+			String hostAddress) {
 		super();
 		assert thread != null;
+		assert state != null;
 		assert stackTrace == null || stackTrace instanceof Serializable;
 
 		this.name = thread.getName();
 		this.id = thread.getId();
 		this.priority = thread.getPriority();
 		this.daemon = thread.isDaemon();
-		this.state = thread.getState();
+		this.state = state;
 		this.stackTrace = stackTrace;
 		this.cpuTimeMillis = cpuTimeMillis;
 		this.userTimeMillis = userTimeMillis;
+		this.recentCpuPercent = recentCpuPercent;
 		this.deadlocked = deadlocked;
 		this.globalThreadId = buildGlobalThreadId(thread, hostAddress);
 	}
@@ -123,6 +133,14 @@ class ThreadInformations implements Serializable {
 		return userTimeMillis;
 	}
 
+	/**
+	 * @return Pourcentage cpu du thread depuis le snapshot de référence précédent,
+	 * ou -1 si inconnu (premier snapshot, nouveau thread ou temps cpu non disponible)
+	 */
+	int getRecentCpuPercent() {
+		return recentCpuPercent;
+	}
+
 	boolean isDeadlocked() {
 		return deadlocked;
 	}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Construction des informations sur les threads à un coût borné.
+ * Les états et piles de tous les threads sont récupérés en un seul appel avec une profondeur maximum
+ * (paramètre threads-stack-max-depth), et les temps cpu en un seul appel quand la JVM le permet.
+ * Le temps cpu de chaque thread est comparé à celui d'un snapshot précédent
+ * pour calculer le pourcentage cpu récent de chaque thread.
+ * @author Emeric Vernat
+ */
+final class ThreadSnapshotTracker {
+	static final ThreadSnapshotTracker SINGLETON = new ThreadSnapshotTracker();
+
+	// intervalle minimum avec le snapshot de référence pour calculer les pourcentages cpu récents
+	private static final long MIN_INTERVAL_NANOS = 1000L * 1000 * 1000;
+
+	@SuppressWarnings("all")
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private final boolean cpuTimeEnabled = threadBean.isThreadCpuTimeSupported()
+			&& threadBean.isThreadCpuTimeEnabled();
+	// com.sun.management.ThreadMXBean.getThreadCpuTime(long[]) et getThreadUserTime(long[]),
+	// disponibles à partir du jdk 8 dans la JVM HotSpot
+	private final Method bulkCpuTimeMethod = getBulkMethod("getThreadCpuTime");
+	private final Method bulkUserTimeMethod = getBulkMethod("getThreadUserTime");
+	// temps cpu en nanosecondes par id de thread du snapshot de référence
+	private Map<Long, Long> referenceCpuTimesById;
+	private long referenceNanoTime;
+
+	ThreadSnapshotTracker() {
+		super();
+	}
+
+	private static Method getBulkMethod(String methodName) {
+		try {
+			final Class<?> clazz = Class.forName("com.sun.management.ThreadMXBean");
+			if (clazz.isInstance(ManagementFactory.getThreadMXBean())) {
+				return clazz.getMethod(methodName, long[].class);
+			}
+			return null;
+		} catch (final ClassNotFoundException e) {
+			return null;
+		} catch (final NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return Profondeur maximum des piles des threads selon le paramètre threads-stack-max-depth
+	 * (illimitée par défaut)
+	 */
+	static int getStackMaxDepth() {
+		final String parameter = Parameters.getParameter(Parameter.THREADS_STACK_MAX_DEPTH);
+		if (parameter == null) {
+			return Integer.MAX_VALUE;
+		}
+		final int maxDepth = Integer.parseInt(parameter);
+		if (maxDepth < 0) {
+			throw new IllegalStateException("The parameter "
+					+ Parameter.THREADS_STACK_MAX_DEPTH.getCode() + " must be >= 0");
+		}
+		return maxDepth;
+	}
+
+	/**
+	 * Construit les informations sur tous les threads vivants.
+	 * @param maxDepth Profondeur maximum des piles (0 pour aucune pile)
+	 * @return ArrayList et non unmodifiableList pour lisibilité du xml par xstream
+	 */
+	List<ThreadInformations> buildThreadInformationsList(int maxDepth) {
+		final List<Thread> threads = JavaInformations.getThreadsFromThreadGroups();
+		final long[] ids = new long[threads.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = threads.get(i).getId();
+		}
+		// un seul appel pour les états et les piles de tous les threads
+		final ThreadInfo[] threadInfos = threadBean.getThreadInfo(ids, maxDepth);
+		final long[] cpuTimes = getCpuTimes(ids, false);
+		final long[] userTimes = getCpuTimes(ids, true);
+		final int[] recentCpuPercents = computeRecentCpuPercents(ids, cpuTimes);
+		final long[] deadlockedThreads = JavaInformations.getDeadlockedThreads(threadBean);
+		// hostAddress récupéré ici car il peut y avoir plus de 20000 threads
+		final String hostAddress = Parameters.getHostAddress();
+		final List<ThreadInformations> threadInfosList = new ArrayList<ThreadInformations>(
+				ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			final ThreadInfo threadInfo = threadInfos[i];
+			if (threadInfo == null) {
+				// le thread s'est terminé entre-temps
+				continue;
+			}
+			final List<StackTraceElement> stackTraceElementList;
+			if (maxDepth == 0) {
+				stackTraceElementList = null;
+			} else {
+				// ArrayList et non unmodifiableList pour lisibilité xml
+				stackTraceElementList = new ArrayList<StackTraceElement>(
+						Arrays.asList(threadInfo.getStackTrace()));
+			}
+			final boolean deadlocked = deadlockedThreads != null
+					&& Arrays.binarySearch(deadlockedThreads, ids[i]) >= 0;
+			threadInfosList.add(new ThreadInformations(threads.get(i),
+					threadInfo.getThreadState(), stackTraceElementList, toMillis(cpuTimes[i]),
+					toMillis(userTimes[i]), recentCpuPercents[i], deadlocked, hostAddress));
+		}
+		return threadInfosList;
+	}
+
+	private long[] getCpuTimes(long[] ids, boolean userTime) {
+		final long[] result = new long[ids.length];
+		if (!cpuTimeEnabled) {
+			Arrays.fill(result, -1);
+			return result;
+		}
+		final Method bulkMethod = userTime ? bulkUserTimeMethod : bulkCpuTimeMethod;
+		if (bulkMethod != null) {
+			try {
+				return (long[]) bulkMethod.invoke(threadBean, (Object) ids);
+			} catch (final Exception e) {
+				// on se rabat sur un appel par thread
+				LOG.debug(e.toString(), e);
+			}
+		}
+		for (int i = 0; i < ids.length; i++) {
+			if (userTime) {
+				result[i] = threadBean.getThreadUserTime(ids[i]);
+			} else {
+				result[i] = threadBean.getThreadCpuTime(ids[i]);
+			}
+		}
+		return result;
+	}
+
+	private synchronized int[] computeRecentCpuPercents(long[] ids, long[] cpuTimes) {
+		final int[] result = new int[ids.length];
+		Arrays.fill(result, -1);
+		if (!cpuTimeEnabled) {
+			return result;
+		}
+		final long now = System.nanoTime();
+		final long elapsedNanos = now - referenceNanoTime;
+		if (referenceCpuTimesById != null && elapsedNanos > 0) {
+			for (int i = 0; i < ids.length; i++) {
+				final Long referenceCpuTime = referenceCpuTimesById.get(ids[i]);
+				if (referenceCpuTime != null && cpuTimes[i] >= referenceCpuTime) {
+					result[i] = (int) Math.min(100,
+							(cpuTimes[i] - referenceCpuTime) * 100 / elapsedNanos);
+				}
+			}
+		}
+		// le snapshot de référence n'est remplacé que s'il est assez ancien,
+		// pour que des appels rapprochés ne donnent pas des pourcentages sur un intervalle trop court
+		if (referenceCpuTimesById == null || elapsedNanos >= MIN_INTERVAL_NANOS) {
+			final Map<Long, Long> cpuTimesById = new HashMap<Long, Long>(ids.length * 4 / 3 + 1);
+			for (int i = 0; i < ids.length; i++) {
+				if (cpuTimes[i] >= 0) {
+					cpuTimesById.put(ids[i], cpuTimes[i]);
+				}
+			}
+			referenceCpuTimesById = cpuTimesById;
+			referenceNanoTime = now;
+		}
+		return result;
+	}
+
+	private static long toMillis(long nanos) {
+		if (nanos < 0) {
+			// -1 si le thread est terminé ou si le temps cpu n'est pas disponible
+			return -1;
+		}
+		return nanos / 1000000;
+	}
+
+	/**
+	 * Filtre et pagine des informations sur les threads.
+	 * @param threadInformationsList Liste des threads
+	 * @param filter Texte contenu dans le nom du thread ou état du thread (null ou vide pour tous)
+	 * @param offset Index du premier thread retenu
+	 * @param maxCount Nombre maximum de threads retenus
+	 * @return ArrayList et non unmodifiableList pour lisibilité du xml par xstream
+	 */
+	static List<ThreadInformations> filter(List<ThreadInformations> threadInformationsList,
+			String filter, int offset, int maxCount) {
+		assert offset >= 0;
+		assert maxCount >= 0;
+		final String lowerCaseFilter = filter == null || filter.trim().length() == 0 ? null
+				: filter.trim().toLowerCase(Locale.ENGLISH);
+		final List<ThreadInformations> result = new ArrayList<ThreadInformations>();
+		int index = 0;
+		for (final ThreadInformations threadInformations : threadInformationsList) {
+			if (result.size() >= maxCount) {
+				break;
+			}
+			if (lowerCaseFilter == null || matches(threadInformations, lowerCaseFilter)) {
+				if (index >= offset) {
+					result.add(threadInformations);
+				}
+				index++;
+			}
+		}
+		return result;
+	}
+
+	private static boolean matches(ThreadInformations threadInformations, String lowerCaseFilter) {
+		return threadInformations.getName().toLowerCase(Locale.ENGLISH).contains(lowerCaseFilter)
+				|| threadInformations.getState().name().toLowerCase(Locale.ENGLISH)
+						.equals(lowerCaseFilter);
+	}
+}
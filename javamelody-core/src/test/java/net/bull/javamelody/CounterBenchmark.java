@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Mesures de performance de la classe Counter.
+ * Elles ne sont pas exécutées avec les tests unitaires, mais seulement avec le profil maven
+ * benchmarks : mvn test -Pbenchmarks
+ * @author Emeric Vernat
+ */
+public class CounterBenchmark {
+	/** Initialisation. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Mesure du coût par requête selon le mode de mesure du temps cpu. */
+	@Test
+	public void benchmarkCpuTimeModes() {
+		// avec les mêmes appels que MonitoringFilter et les intercepteurs
+		final int iterations = 200000;
+		final Counter fullCounter = new Counter("http", null);
+		final Counter sampledCounter = new Counter("http", null);
+		sampledCounter.setCpuTimeSamplingInterval(10);
+		final Counter offCounter = new Counter("http", null);
+		offCounter.setCpuTimeDisabled(true);
+		final long fullNanos = executeRequests(fullCounter, iterations);
+		final long sampledNanos = executeRequests(sampledCounter, iterations);
+		final long offNanos = executeRequests(offCounter, iterations);
+		LOG.info("cpu time overhead per request: full " + fullNanos / iterations
+				+ " ns, sampled 1/10 " + sampledNanos / iterations + " ns, off " + offNanos
+				/ iterations + " ns");
+		assertEquals("hits", 2 * iterations, fullCounter.getRequests().get(0).getHits());
+	}
+
+	/** Mesure du coût par hit de l'enregistrement d'une même requête par de plus en plus de threads,
+	 * sans et avec l'enregistrement par bandes.
+	 * @throws InterruptedException e */
+	@Test
+	public void benchmarkStripedRecording() throws InterruptedException {
+		final int hitsPerThread = 20000;
+		// préchauffage
+		final Counter warmupCounter = new Counter("sql", null);
+		TestCounter.executeRequestsInThreads(warmupCounter, 2, hitsPerThread);
+		warmupCounter.setStripedRecording(true);
+		TestCounter.executeRequestsInThreads(warmupCounter, 2, hitsPerThread);
+		for (int nbThreads = 1; nbThreads <= 64; nbThreads *= 2) {
+			final Counter counter = new Counter("sql", null);
+			final Counter stripedCounter = new Counter("sql", null);
+			stripedCounter.setStripedRecording(true);
+			final long nanos = TestCounter.executeRequestsInThreads(counter, nbThreads,
+					hitsPerThread);
+			final long stripedNanos = TestCounter.executeRequestsInThreads(stripedCounter,
+					nbThreads, hitsPerThread);
+			final long hits = (long) nbThreads * hitsPerThread;
+			LOG.info("recording cost per hit with " + nbThreads + " threads: synchronized "
+					+ nanos / hits + " ns, striped " + stripedNanos / hits + " ns");
+			assertEquals("striped hits", hits, stripedCounter.getRequests().get(0).getHits());
+		}
+	}
+
+	private static long executeRequests(Counter counter, int iterations) {
+		// préchauffage puis mesure
+		for (int i = 0; i < iterations; i++) {
+			counter.bindContextIncludingCpu("request");
+			counter.addRequestForCurrentContext(false);
+		}
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			counter.bindContextIncludingCpu("request");
+			counter.addRequestForCurrentContext(false);
+		}
+		return System.nanoTime() - start;
+	}
+}
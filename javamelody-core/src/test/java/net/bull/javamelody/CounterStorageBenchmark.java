@@ -0,0 +1,98 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Mesures de performance de la classe CounterStorage.
+ * Elles ne sont pas exécutées avec les tests unitaires, mais seulement avec le profil maven
+ * benchmarks : mvn test -Pbenchmarks
+ * @author Emeric Vernat
+ */
+public class CounterStorageBenchmark {
+	/** Initialisation. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Mesure des temps d'écriture et de lecture comparés avec la sérialisation java.
+	 * @throws IOException e */
+	@Test
+	public void benchmarkCompareWithSerialization() throws IOException {
+		final Counter counter = new Counter("sql", null);
+		counter.setApplication("test counter storage benchmark");
+		for (int i = 0; i < 10000; i++) {
+			final CounterRequest request = new CounterRequest("select * from table" + i
+					+ " where id = ?", counter.getName());
+			request.addHit(100, 50, false, null, 1000);
+			request.addChildRequests(Collections.singletonMap("sql" + i % 10, 2L));
+			counter.addHits(request);
+		}
+		final File storageDir = Parameters.getStorageDirectory(counter.getApplication());
+		final File serializedFile = new File(storageDir, counter.getStorageName() + ".ser.gz");
+		final File file = new File(storageDir, counter.getStorageName() + ".bin.gz");
+		final CounterStorage counterStorage = new CounterStorage(counter);
+		// un premier passage pour charger les classes
+		counterStorage.writeToFile();
+		counterStorage.readFromFile();
+
+		final long serializedStart = System.nanoTime();
+		writeSerializedFile(counter, serializedFile);
+		final long serializedWriteTime = System.nanoTime() - serializedStart;
+		final long serializedLength = serializedFile.length();
+		file.delete();
+		final long serializedReadStart = System.nanoTime();
+		counterStorage.readFromFile();
+		final long serializedReadTime = System.nanoTime() - serializedReadStart;
+
+		final long start = System.nanoTime();
+		counterStorage.writeToFile();
+		final long writeTime = System.nanoTime() - start;
+		final long readStart = System.nanoTime();
+		final Counter readCounter = counterStorage.readFromFile();
+		final long readTime = System.nanoTime() - readStart;
+		LOG.info("counter of 10000 requests: binary write " + writeTime / 1000000 + " ms, read "
+				+ readTime / 1000000 + " ms, " + file.length() / 1024
+				+ " KB; serialization write " + serializedWriteTime / 1000000 + " ms, read "
+				+ serializedReadTime / 1000000 + " ms, " + serializedLength / 1024 + " KB");
+		assertEquals("requests", counter.getRequestsCount(), readCounter.getRequestsCount());
+		file.delete();
+	}
+
+	private static void writeSerializedFile(Counter counter, File file) throws IOException {
+		final ObjectOutputStream output = new ObjectOutputStream(new GZIPOutputStream(
+				new FileOutputStream(file)));
+		try {
+			output.writeObject(counter.clone());
+		} finally {
+			output.close();
+		}
+	}
+}
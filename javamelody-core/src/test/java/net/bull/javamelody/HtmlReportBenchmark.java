@@ -0,0 +1,87 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Mesures de performance de la classe HtmlReport.
+ * Elles ne sont pas exécutées avec les tests unitaires, mais seulement avec le profil maven
+ * benchmarks : mvn test -Pbenchmarks
+ * @author Emeric Vernat
+ */
+public class HtmlReportBenchmark {
+	/** Initialisation. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Mesure du temps et de l'allocation pour générer le détail html d'un compteur de 10000 requêtes.
+	 * @throws IOException e */
+	@Test
+	public void benchmarkReportGeneration() throws IOException {
+		final List<JavaInformations> javaInformationsList = Collections
+				.singletonList(new JavaInformations(null, true));
+		final Counter counter = new Counter("http", "dbweb.png");
+		final Collector collector = new Collector("test", Collections.singletonList(counter));
+		for (int i = 0; i < 10000; i++) {
+			counter.addRequest("request" + i, i % 1000, i % 100, i % 1000 == 0, 1000);
+		}
+		collector.collectWithoutErrors(javaInformationsList);
+		final StringWriter writer = new StringWriter();
+		final HtmlReport htmlReport = new HtmlReport(collector, null, javaInformationsList,
+				Period.TOUT, writer);
+		// préchauffage
+		htmlReport.toHtml(null, null);
+		htmlReport.writeCounterRequests(counter.getName(), 0);
+		writer.getBuffer().setLength(0);
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+		final boolean allocationMeasured = threadBean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threadBean)
+						.isThreadAllocatedMemorySupported();
+		long allocatedBytes = 0;
+		if (allocationMeasured) {
+			allocatedBytes = ((com.sun.management.ThreadMXBean) threadBean)
+					.getThreadAllocatedBytes(threadId);
+		}
+		final long start = System.nanoTime();
+		for (int offset = 0; offset < 10000; offset += HtmlCounterReport.REQUESTS_PAGE_SIZE) {
+			htmlReport.writeCounterRequests(counter.getName(), offset);
+		}
+		final long duration = (System.nanoTime() - start) / 1000000;
+		if (allocationMeasured) {
+			allocatedBytes = ((com.sun.management.ThreadMXBean) threadBean)
+					.getThreadAllocatedBytes(threadId) - allocatedBytes;
+		}
+		LOG.info("html report of 10000 requests: " + duration + " ms, " + allocatedBytes / 1024
+				+ " KB allocated, " + writer.getBuffer().length() / 1024 + " KB written");
+		assertTrue("report", writer.getBuffer().length() > 0);
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Timer;
+
+import net.bull.javamelody.RrdMappedBackendFactory.SyncPolicy;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Sample;
+import org.jrobin.core.Util;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Mesures de performance des backends RRD : RrdNioBackendFactory et RrdMappedBackendFactory.
+ * Elles ne sont pas exécutées avec les tests unitaires, mais seulement avec le profil maven
+ * benchmarks : mvn test -Pbenchmarks
+ * @author Emeric Vernat
+ */
+public class RrdBackendBenchmark {
+	private static final int FILES_COUNT = 1000;
+	private static final int PASSES_COUNT = 10;
+	private static final int STEP = 60;
+
+	/** Initialisation. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Mesure du temps d'une passe de mise à jour de tous les fichiers RRD, selon le backend.
+	 * @throws IOException e
+	 * @throws RrdException e */
+	@Test
+	public void benchmarkUpdates() throws IOException, RrdException {
+		final Timer timer = new Timer(getClass().getSimpleName(), true);
+		RrdNioBackend.setFileSyncTimer(timer);
+		try {
+			benchmark("nio", new RrdNioBackendFactory());
+		} finally {
+			timer.cancel();
+		}
+		for (final SyncPolicy syncPolicy : SyncPolicy.values()) {
+			benchmark("mapped " + syncPolicy.toString().toLowerCase(Locale.ENGLISH),
+					new RrdMappedBackendFactory(syncPolicy, 256L * 1024 * 1024));
+		}
+	}
+
+	private void benchmark(String name, RrdBackendFactory factory) throws IOException,
+			RrdException {
+		final File directory = new File(Parameters.getStorageDirectory("test"), "benchmark-"
+				+ name.replace(' ', '-'));
+		directory.mkdirs();
+		final long startTime = Util.getTime() - (PASSES_COUNT + 1) * STEP;
+		final String[] paths = new String[FILES_COUNT];
+		for (int i = 0; i < FILES_COUNT; i++) {
+			paths[i] = new File(directory, "rrd" + i + ".rrd").getPath();
+			final RrdDb rrdDb = new RrdDb(createRrdDef(paths[i], startTime), factory);
+			rrdDb.close();
+		}
+		try {
+			long totalTime = 0;
+			for (int pass = 1; pass <= PASSES_COUNT; pass++) {
+				final long start = System.nanoTime();
+				for (final String path : paths) {
+					final RrdDb rrdDb = new RrdDb(path, factory);
+					try {
+						final Sample sample = rrdDb.createSample(startTime + pass * STEP);
+						sample.setValue("value", pass);
+						sample.update();
+					} finally {
+						rrdDb.close();
+					}
+				}
+				totalTime += System.nanoTime() - start;
+			}
+			final RrdDb rrdDb = new RrdDb(paths[0], factory);
+			try {
+				assertEquals("lastValue", PASSES_COUNT, rrdDb.getLastDatasourceValue("value"),
+						0.01);
+			} finally {
+				rrdDb.close();
+			}
+			LOG.info("rrd backend " + name + ": " + FILES_COUNT + " files, average time per pass "
+					+ totalTime / PASSES_COUNT / 1000000 + " ms");
+		} finally {
+			if (factory instanceof RrdMappedBackendFactory) {
+				((RrdMappedBackendFactory) factory).stop();
+			}
+			for (final String path : paths) {
+				new File(path).delete();
+			}
+			directory.delete();
+		}
+	}
+
+	// mêmes archives que dans JRobin
+	private static RrdDef createRrdDef(String path, long startTime) throws RrdException {
+		final RrdDef rrdDef = new RrdDef(path, STEP);
+		rrdDef.setStartTime(startTime);
+		rrdDef.addDatasource("value", "GAUGE", STEP * 2, 0, Double.NaN);
+		for (final String consolFun : new String[] { "AVERAGE", "MAX" }) {
+			rrdDef.addArchive(consolFun, 0.25, 1, 24 * 60);
+			rrdDef.addArchive(consolFun, 0.25, 60, 7 * 24);
+			rrdDef.addArchive(consolFun, 0.25, 6 * 60, 31 * 4);
+			rrdDef.addArchive(consolFun, 0.25, 8 * 6 * 60, 2 * 12 * 15);
+		}
+		return rrdDef;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe ChildRequestsExecutions.
+ * @author Emeric Vernat
+ */
+public class TestChildRequestsExecutions {
+	/** Test. */
+	@Test
+	public void testIncrement() {
+		final ChildRequestsExecutions executions = new ChildRequestsExecutions();
+		assertTrue("isEmpty", executions.isEmpty());
+		assertTrue("toMap", executions.toMap().isEmpty());
+		final int nbRequests = 100;
+		for (int i = 0; i < nbRequests; i++) {
+			for (int j = 0; j <= i; j++) {
+				executions.increment("sql" + i);
+			}
+		}
+		assertFalse("isEmpty", executions.isEmpty());
+		assertEquals("size", nbRequests, executions.size());
+		for (int i = 0; i < nbRequests; i++) {
+			assertEquals("executions", i + 1, executions.getExecutions("sql" + i));
+		}
+		assertEquals("executions", 0, executions.getExecutions("unknown"));
+
+		// l'ordre d'ajout est conservé comme avec une LinkedHashMap
+		final Map<String, Long> map = executions.toMap();
+		final List<String> requestIds = new ArrayList<String>(map.keySet());
+		assertEquals("toMap size", nbRequests, map.size());
+		assertEquals("toMap first", "sql0", requestIds.get(0));
+		assertEquals("toMap last", "sql" + (nbRequests - 1), requestIds.get(nbRequests - 1));
+		assertEquals("toMap value", Long.valueOf(nbRequests), map.get("sql" + (nbRequests - 1)));
+		assertEquals("toString", map.toString(), executions.toString());
+	}
+
+	/** Test. */
+	@Test
+	public void testClearAndCopy() {
+		final ChildRequestsExecutions executions = new ChildRequestsExecutions();
+		executions.increment("sql1");
+		executions.increment("sql2");
+		executions.increment("sql2");
+		final ChildRequestsExecutions copy = executions.copy();
+		executions.clear();
+		assertTrue("isEmpty", executions.isEmpty());
+		assertEquals("executions", 0, executions.getExecutions("sql2"));
+		executions.increment("sql2");
+		assertEquals("executions", 1, executions.getExecutions("sql2"));
+		assertEquals("copy size", 2, copy.size());
+		assertEquals("copy executions", 2, copy.getExecutions("sql2"));
+	}
+}
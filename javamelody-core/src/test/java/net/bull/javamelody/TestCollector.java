@@ -18,8 +18,11 @@
 package net.bull.javamelody;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -70,7 +73,9 @@ public class TestCollector {
 		final File[] files = Parameters.getStorageDirectory(TEST).listFiles();
 		if (files != null) {
 			for (final File file : files) {
-				if ((file.getName().endsWith(".rrd") || file.getName().endsWith(".ser.gz"))
+				if ((file.getName().endsWith(".rrd") || file.getName().endsWith(".ser.gz")
+						|| file.getName().endsWith(".bin.gz") || file.getName().endsWith(
+						".journal"))
 						&& !file.delete()) {
 					file.deleteOnExit();
 				}
@@ -283,6 +288,99 @@ public class TestCollector {
 		}
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCountersJournal() throws IOException {
+		setProperty(Parameter.COUNTERS_JOURNAL, "true");
+		try {
+			final Counter counter = new Counter("http", null);
+			final Counter dayCounter = new PeriodCounterFactory(counter)
+					.createDayCounterAtDate(new Date());
+			final File directory = Parameters.getStorageDirectory(TEST);
+			final File journalFile = new File(directory, dayCounter.getStorageName()
+					+ ".journal");
+			final File counterFile = new File(directory, counter.getStorageName() + ".bin.gz");
+			final File counterJournalFile = new File(directory, counter.getStorageName()
+					+ ".journal");
+			for (final File file : Arrays.asList(journalFile, counterFile, counterJournalFile,
+					new File(directory, dayCounter.getStorageName() + ".bin.gz"))) {
+				if (file.exists()) {
+					assertTrue("delete", file.delete());
+				}
+			}
+			final Collector collector = new Collector(TEST, Collections.singletonList(counter));
+			counter.addRequest("test journal", 100, 50, false, 1000);
+			collector.collectWithoutErrors(Collections.<JavaInformations> emptyList());
+			// le compteur depuis le démarrage est écrit entièrement lors de la première collecte
+			assertTrue("counter file", counterFile.exists());
+			counter.addRequest("test journal", 100, 50, false, 1000);
+			collector.collectWithoutErrors(Collections.<JavaInformations> emptyList());
+			assertTrue("journal", journalFile.exists());
+			// puis il n'est pas réécrit à chaque collecte, mais les deltas sont dans son journal
+			assertTrue("counter journal", counterJournalFile.exists());
+			// en cas d'arrêt brutal, le compteur depuis le démarrage est relu avec son journal
+			final Counter crashedCounter = new Counter("http", null);
+			crashedCounter.setApplication(TEST);
+			crashedCounter.readFromFile();
+			assertEquals("hits after crash", 2,
+					crashedCounter.getCounterRequestByName("test journal").getHits());
+			counter.addRequest("test journal", 100, 50, false, 1000);
+			collector.collectWithoutErrors(Collections.<JavaInformations> emptyList());
+			assertFalse("journal", journalFile.exists());
+			counter.addRequest("test journal", 100, 50, false, 1000);
+			collector.collectWithoutErrors(Collections.<JavaInformations> emptyList());
+			assertTrue("journal", journalFile.exists());
+
+			// le journal est relu au démarrage
+			dayCounter.readFromFile();
+			assertEquals("hits", 3, dayCounter.getCounterRequestByName("test journal")
+					.getHits());
+
+			// et il est inclus dans le compteur du jour à l'arrêt
+			collector.stop();
+			assertFalse("journal", journalFile.exists());
+			final Counter readDayCounter = new PeriodCounterFactory(counter)
+					.createDayCounterAtDate(new Date());
+			readDayCounter.readFromFile();
+			assertEquals("hits", 3, readDayCounter.getCounterRequestByName("test journal")
+					.getHits());
+		} finally {
+			setProperty(Parameter.COUNTERS_JOURNAL, null);
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testCollectInParallel() throws IOException {
+		final List<Counter> counters = new ArrayList<Counter>();
+		for (final String name : Arrays.asList("http", "sql", "ejb", "spring", "services")) {
+			counters.add(new Counter(name, null));
+		}
+		final Collector collector = new Collector(TEST, counters);
+		for (final Counter counter : counters) {
+			counter.addRequest("test parallel", 100, 50, false, 1000);
+		}
+		collector.collectWithoutErrors(Collections.<JavaInformations> emptyList());
+		for (final Counter counter : counters) {
+			counter.addRequest("test parallel", 100, 50, false, 1000);
+			counter.addRequest("test parallel", 100, 50, false, 1000);
+		}
+		collector.collectWithoutErrors(Collections.<JavaInformations> emptyList());
+		for (final Counter counter : counters) {
+			final Counter dayCounter = collector.getRangeCounter(Period.JOUR.getRange(),
+					counter.getName());
+			assertEquals("hits", 2, dayCounter.getCounterRequestByName("test parallel")
+					.getHits());
+		}
+		final long[] stagesDurations = collector.getLastCollectStagesDurations();
+		assertEquals("stages", 4, stagesDurations.length);
+		for (final long duration : stagesDurations) {
+			assertTrue("stage duration", duration >= 0);
+		}
+		collector.stop();
+	}
+
 	/** Test. */
 	@Test
 	public void testGetCounterByName() {
@@ -351,6 +449,18 @@ public class TestCollector {
 		} catch (final IllegalArgumentException e) {
 			assertNotNull("getRangeCounter", e);
 		}
+		// compteur par période réutilisé jusqu'à la collecte suivante
+		final Counter weekCounter = collector.getRangeCounter(Period.SEMAINE.getRange(),
+				counter2.getName());
+		assertSame("getRangeCounter", weekCounter,
+				collector.getRangeCounter(Period.SEMAINE.getRange(), counter2.getName()));
+		assertNotSame("getRangeCounter", weekCounter,
+				collector.getRangeCounter(Period.MOIS.getRange(), counter2.getName()));
+		final Counter monthCounter = collector.getRangeCounter(Period.MOIS.getRange(),
+				counter2.getName());
+		collector.collectWithoutErrors(Collections.<JavaInformations> emptyList());
+		assertNotSame("getRangeCounter", monthCounter,
+				collector.getRangeCounter(Period.MOIS.getRange(), counter2.getName()));
 	}
 
 	private int getSizeOfCountersToBeDisplayed(Collector collector, Period period)
@@ -443,6 +553,9 @@ public class TestCollector {
 				connection.close();
 			}
 			collectorServer.collectHeapHistogram(application);
+			// piles échantillonnées fusionnées pour les 2 noeuds
+			assertEquals("sampled stacks", 2,
+					collectorServer.collectSampledStacks(application, "httpId").getSamplesCount());
 			collectorServer.getCollectorByApplication(application);
 			collectorServer.getJavaInformationsByApplication(application);
 			collectorServer.isApplicationDataAvailable(application);
@@ -195,6 +195,56 @@ public class TestCollectorServlet {
 		verify(response);
 	}
 
+	/** Test.
+	 * @throws ServletException e
+	 * @throws IOException e */
+	@Test
+	public void testDoPush() throws ServletException, IOException {
+		// mode push non activé
+		doPush(false, null, HttpServletResponse.SC_FORBIDDEN);
+		// mode push activé mais sans authentification des noeuds
+		doPush(true, null, HttpServletResponse.SC_FORBIDDEN);
+		doPush(true, "127\\.0\\.0\\.1", HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+	}
+
+	private void doPush(boolean pushEnabled, String allowedAddrPattern, int expectedStatus)
+			throws IOException, ServletException {
+		setUp();
+		final HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+		expect(request.getParameter(HttpParameters.PART_PARAMETER)).andReturn(
+				HttpParameters.PUSH_PART).anyTimes();
+		expect(request.getRemoteAddr()).andReturn(REMOTE_ADDR).anyTimes();
+		expect(request.getContentType()).andReturn("text/plain").anyTimes();
+		final HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+		if (expectedStatus == HttpServletResponse.SC_FORBIDDEN) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Push disabled");
+		} else {
+			response.sendError(expectedStatus);
+		}
+		if (pushEnabled) {
+			expect(
+					context.getInitParameter(Parameters.PARAMETER_SYSTEM_PREFIX
+							+ Parameter.COLLECTOR_PUSH_ENABLED.getCode())).andReturn(TRUE)
+					.anyTimes();
+		}
+		if (allowedAddrPattern != null) {
+			expect(
+					context.getInitParameter(Parameters.PARAMETER_SYSTEM_PREFIX
+							+ Parameter.ALLOWED_ADDR_PATTERN.getCode())).andReturn(
+					allowedAddrPattern).anyTimes();
+		}
+		replay(config);
+		replay(context);
+		replay(request);
+		replay(response);
+		collectorServlet.init(config);
+		collectorServlet.doPost(request, response);
+		verify(config);
+		verify(context);
+		verify(request);
+		verify(response);
+	}
+
 	/** Test. */
 	@Test
 	public void testMainWinstone() {
@@ -19,6 +19,7 @@ package net.bull.javamelody; // NOPMD
 
 import static net.bull.javamelody.HttpParameters.ACTION_PARAMETER;
 import static net.bull.javamelody.HttpParameters.CACHE_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.COLLAPSED_STACKS_PART;
 import static net.bull.javamelody.HttpParameters.CONNECTIONS_PART;
 import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
 import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
@@ -27,16 +28,19 @@ import static net.bull.javamelody.HttpParameters.DATABASE_PART;
 import static net.bull.javamelody.HttpParameters.EXPLAIN_PLAN_PART;
 import static net.bull.javamelody.HttpParameters.FORMAT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.GRAPH_PARAMETER;
+import static net.bull.javamelody.HttpParameters.HEAP_HISTO_DIFF_PART;
 import static net.bull.javamelody.HttpParameters.HEAP_HISTO_PART;
 import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.JMX_VALUE;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
 import static net.bull.javamelody.HttpParameters.JOB_ID_PARAMETER;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
 import static net.bull.javamelody.HttpParameters.OTHER_JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PATH_PARAMETER;
+import static net.bull.javamelody.HttpParameters.POINTS_PARAMETER;
 import static net.bull.javamelody.HttpParameters.POM_XML_PART;
 import static net.bull.javamelody.HttpParameters.PROCESSES_PART;
 import static net.bull.javamelody.HttpParameters.REQUEST_PARAMETER;
@@ -153,6 +157,8 @@ public class TestCollectorServletWithParts {
 		doPart(parameters);
 		parameters.put(PART_PARAMETER, POM_XML_PART);
 		doPart(parameters);
+		parameters.put(PART_PARAMETER, COLLAPSED_STACKS_PART);
+		doPart(parameters);
 		parameters.put(PART_PARAMETER, JNDI_PART);
 		doPart(parameters);
 		parameters.put(PATH_PARAMETER, "/");
@@ -180,6 +186,8 @@ public class TestCollectorServletWithParts {
 		doPart(parameters);
 		parameters.put(PART_PARAMETER, HEAP_HISTO_PART);
 		doPart(parameters);
+		parameters.put(PART_PARAMETER, HEAP_HISTO_DIFF_PART);
+		doPart(parameters);
 		parameters.put(PART_PARAMETER, SESSIONS_PART);
 		doPart(parameters);
 		parameters.put(PART_PARAMETER, CURRENT_REQUESTS_PART);
@@ -217,6 +225,8 @@ public class TestCollectorServletWithParts {
 		doPart(parameters);
 		parameters.put(PART_PARAMETER, HEAP_HISTO_PART);
 		doPart(parameters);
+		parameters.put(PART_PARAMETER, HEAP_HISTO_DIFF_PART);
+		doPart(parameters);
 		parameters.put(PART_PARAMETER, SESSIONS_PART);
 		doPart(parameters);
 		parameters.put(PART_PARAMETER, THREADS_PART);
@@ -233,6 +243,10 @@ public class TestCollectorServletWithParts {
 		parameters.remove(GRAPH_PARAMETER);
 		parameters.put(PART_PARAMETER, OTHER_JROBINS_PART);
 		doPart(parameters);
+		parameters.put(PART_PARAMETER, JROBINS_DATA_PART);
+		parameters.put(POINTS_PARAMETER, "100");
+		doPart(parameters);
+		parameters.remove(POINTS_PARAMETER);
 		parameters.remove(WIDTH_PARAMETER);
 		parameters.remove(HEIGHT_PARAMETER);
 		parameters.put(PART_PARAMETER, EXPLAIN_PLAN_PART);
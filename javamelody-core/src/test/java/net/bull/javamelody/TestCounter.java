@@ -25,6 +25,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -34,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
@@ -47,6 +49,8 @@ import org.junit.Test;
  * @author Emeric Vernat
  */
 public class TestCounter {
+	private static final String[] SQL_REQUESTS = { "select 1", "select 2", "select 3",
+			"update 4", };
 	private Counter counter;
 
 	/** Initialisation. */
@@ -181,6 +185,35 @@ public class TestCounter {
 		counterRequest.removeHits(counterRequest2);
 	}
 
+	/** Test. */
+	@Test
+	public void testDurationsPercentiles() {
+		final CounterRequest counterRequest = new CounterRequest("test percentiles",
+				counter.getName());
+		assertEquals("no percentile", -1, counterRequest.getDurationsPercentile(50));
+		for (int i = 1; i <= 100; i++) {
+			counterRequest.addHit(i, 0, false, null, -1);
+		}
+		final CounterRequest otherRequest = new CounterRequest("test percentiles",
+				counter.getName());
+		for (int i = 0; i < 100; i++) {
+			otherRequest.addHit(1000, 0, false, null, -1);
+		}
+		final CounterRequest globalRequest = counterRequest.clone();
+		globalRequest.addHits(otherRequest);
+		// la moitié des hits est à 1000 ms
+		assertEquals("p50",
+				DurationsHistogram.getBucketUpperBound(DurationsHistogram.getBucketIndex(100)),
+				globalRequest.getDurationsPercentile(50));
+		assertEquals("p99",
+				DurationsHistogram.getBucketUpperBound(DurationsHistogram.getBucketIndex(1000)),
+				globalRequest.getDurationsPercentile(99));
+		// les centiles restent exacts en retranchant des hits (périodes jour, semaine, mois...)
+		globalRequest.removeHits(otherRequest);
+		assertEquals("removeHits", counterRequest.getDurationsPercentile(95),
+				globalRequest.getDurationsPercentile(95));
+	}
+
 	/** Test. */
 	@Test
 	public void testRemoveRequest() {
@@ -371,6 +404,293 @@ public class TestCounter {
 		assertEquals("request", counterRequest.toString(), requests.get(0).toString());
 	}
 
+	/** Test.
+	 * @throws InterruptedException e */
+	@Test
+	public void testStripedRecording() throws InterruptedException {
+		final Counter sqlCounter = new Counter("sql", null);
+		final Counter stripedCounter = new Counter("http", null, sqlCounter);
+		assertFalse("stripedRecording", stripedCounter.isStripedRecording());
+		stripedCounter.setStripedRecording(true);
+		sqlCounter.setStripedRecording(true);
+		assertTrue("stripedRecording", stripedCounter.isStripedRecording());
+		final int nbThreads = 8;
+		final int nbHits = 1000;
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < nbThreads; i++) {
+			final Thread thread = new Thread(new Runnable() { // NOPMD
+						@Override
+						public void run() {
+							for (int j = 0; j < nbHits; j++) {
+								stripedCounter.bindContext("http request", "http request", null,
+										-1);
+								sqlCounter.bindContext("sql request", "sql request", null, -1);
+								sqlCounter.addRequest("sql request", 1, -1, false, -1);
+								stripedCounter.addRequest("http request", j % 10, 1, false, 100);
+							}
+						}
+					});
+			threads.add(thread);
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		final CounterRequest request = stripedCounter.getRequests().get(0);
+		assertEquals("hits", nbThreads * nbHits, request.getHits());
+		assertEquals("durationsSum", nbThreads * 4500, request.getDurationsSum());
+		assertEquals("maximum", 9, request.getMaximum());
+		assertEquals("cpuTimeSum", nbThreads * nbHits, request.getCpuTimeSum());
+		assertEquals("responseSizeMean", 100, request.getResponseSizeMean());
+		assertEquals("childHitsMean", 1, request.getChildHitsMean());
+		final CounterRequest sqlRequest = sqlCounter.getRequests().get(0);
+		assertEquals("child executions", Long.valueOf(nbThreads * nbHits), request
+				.getChildRequestsExecutionsByRequestId().get(sqlRequest.getId()));
+		assertEquals("sql hits", nbThreads * nbHits, sqlRequest.getHits());
+		// après fusion, les hits ne sont pas comptés 2 fois
+		assertEquals("hits after merge", nbThreads * nbHits, stripedCounter.getRequests().get(0)
+				.getHits());
+		assertEquals("clone", request.toString(), stripedCounter.clone().getRequests().get(0)
+				.toString());
+		// les durées des bandes sont toutes dans l'histogramme de la requête
+		final Counter referenceCounter = new Counter("http", null);
+		for (int i = 0; i < nbThreads; i++) {
+			for (int j = 0; j < nbHits; j++) {
+				referenceCounter.addRequest("http request", j % 10, 1, false, 100);
+			}
+		}
+		final CounterRequest referenceRequest = referenceCounter.getRequests().get(0);
+		for (final double percentile : new double[] { 10, 50, 90, 100 }) {
+			assertEquals("percentile " + percentile,
+					referenceRequest.getDurationsPercentile(percentile),
+					request.getDurationsPercentile(percentile));
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testStripedRecordingBeforeOverflow() {
+		final Counter stripedCounter = new Counter("sql", null);
+		stripedCounter.setStripedRecording(true);
+		stripedCounter.setMaxRequestsCount(1);
+		for (int i = 0; i < 20; i++) {
+			stripedCounter.addRequest("frequent request", 10, -1, false, -1);
+		}
+		// les hits de la requête fréquente sont encore dans les bandes, mais doivent être comptés
+		// pour choisir les requêtes à supprimer
+		final Counter newCounter = new Counter("sql", null);
+		newCounter.addRequest("rare request", 10, -1, false, -1);
+		stripedCounter.addRequestsAndErrors(newCounter);
+		final List<CounterRequest> requests = stripedCounter.getRequests();
+		assertEquals("requests", 1, requests.size());
+		assertEquals("request", "frequent request", requests.get(0).getName());
+		assertEquals("hits", 20, requests.get(0).getHits());
+	}
+
+	/** Test. */
+	@Test
+	public void testCpuTimeDisabled() {
+		final Counter springCounter = new Counter("spring", null);
+		assertFalse("cpuTimeDisabled", springCounter.isCpuTimeDisabled());
+		springCounter.bindContextIncludingCpu("service1");
+		springCounter.addRequestForCurrentContext(false);
+		assertTrue("cpuTimeMean", springCounter.getRequests().get(0).getCpuTimeMean() >= 0);
+		springCounter.clear();
+		springCounter.setCpuTimeDisabled(true);
+		assertTrue("cpuTimeDisabled", springCounter.isCpuTimeDisabled());
+		springCounter.bindContextIncludingCpu("service1");
+		springCounter.addRequestForCurrentContext(false);
+		springCounter.bindContextIncludingCpu("service1");
+		springCounter.addRequestForCurrentContext(false);
+		// -1 comme pour les requêtes sql : le temps cpu n'est pas affiché
+		assertEquals("cpuTimeMean", -1, springCounter.getRequests().get(0).getCpuTimeMean());
+	}
+
+	/** Test. */
+	@Test
+	public void testCpuTimeSampled() {
+		final Counter springCounter = new Counter("spring", null);
+		assertFalse("cpuTimeEstimated", springCounter.isCpuTimeEstimated());
+		springCounter.setCpuTimeSamplingInterval(10);
+		assertTrue("cpuTimeEstimated", springCounter.isCpuTimeEstimated());
+		int measured = 0;
+		for (int i = 0; i < 100; i++) {
+			if (springCounter.getStartCpuTime() >= 0) {
+				measured++;
+			}
+		}
+		assertEquals("measured", 10, measured);
+		// extrapolation des requêtes échantillonnées, 0 pour les autres
+		assertEquals("recordedCpuTime", 50, springCounter.getRecordedCpuTime(5));
+		assertEquals("recordedCpuTime", 0, springCounter.getRecordedCpuTime(-1));
+		for (int i = 0; i < 100; i++) {
+			springCounter.bindContextIncludingCpu("service1");
+			springCounter.addRequestForCurrentContext(false);
+		}
+		final CounterRequest request = springCounter.getRequests().get(0);
+		assertEquals("hits", 100, request.getHits());
+		assertTrue("cpuTimeMean", request.getCpuTimeMean() >= 0);
+		assertEquals("clone", 10, springCounter.clone().getCpuTimeSamplingInterval());
+		// désactivé est prioritaire sur échantillonné
+		springCounter.setCpuTimeDisabled(true);
+		assertFalse("cpuTimeEstimated", springCounter.isCpuTimeEstimated());
+		assertEquals("startCpuTime", -1, springCounter.getStartCpuTime());
+		assertEquals("recordedCpuTime", -1, springCounter.getRecordedCpuTime(-1));
+	}
+
+	/** Test.
+	 * @throws InterruptedException e */
+	@Test
+	public void testStripedRecordingInThreads() throws InterruptedException {
+		// l'enregistrement par bandes donne les mêmes statistiques que l'enregistrement
+		// synchronisé quand plusieurs threads enregistrent la même requête
+		final int nbThreads = 4;
+		final int hitsPerThread = 1000;
+		final Counter counter = new Counter("sql", null);
+		final Counter stripedCounter = new Counter("sql", null);
+		stripedCounter.setStripedRecording(true);
+		executeRequestsInThreads(counter, nbThreads, hitsPerThread);
+		executeRequestsInThreads(stripedCounter, nbThreads, hitsPerThread);
+		final CounterRequest request = counter.getRequests().get(0);
+		final CounterRequest stripedRequest = stripedCounter.getRequests().get(0);
+		assertEquals("hits", nbThreads * hitsPerThread, request.getHits());
+		assertEquals("striped hits", request.getHits(), stripedRequest.getHits());
+		assertEquals("striped durationsSum", request.getDurationsSum(),
+				stripedRequest.getDurationsSum());
+		assertEquals("striped maximum", request.getMaximum(), stripedRequest.getMaximum());
+		assertEquals("striped requests", 1, stripedCounter.getRequestsCount());
+	}
+
+	static long executeRequestsInThreads(final Counter counter, int nbThreads,
+			final int hitsPerThread) throws InterruptedException {
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<Thread>(nbThreads);
+		for (int i = 0; i < nbThreads; i++) {
+			final Thread thread = new Thread(new Runnable() { // NOPMD
+						@Override
+						public void run() {
+							try {
+								startLatch.await();
+							} catch (final InterruptedException e) {
+								Thread.currentThread().interrupt();
+								return;
+							}
+							for (int j = 0; j < hitsPerThread; j++) {
+								counter.addRequest("sql request", j % 10, -1, false, -1);
+							}
+						}
+					});
+			threads.add(thread);
+			thread.start();
+		}
+		// tous les threads commencent en même temps pour mesurer la contention
+		final long start = System.nanoTime();
+		startLatch.countDown();
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/** Test. */
+	@Test
+	public void testChildContextsReuse() {
+		final Counter sqlCounter = new Counter("sql", null);
+		final Counter httpCounter = new Counter("http", null, sqlCounter);
+		final Counter ejbCounter = new Counter("ejb", null);
+		// le contexte fils terminé est réutilisé par le contexte fils suivant du même counter
+		final CounterRequestContext context = new CounterRequestContext(httpCounter, null,
+				"http request", "http request", null, -1);
+		final CounterRequestContext childContext = context.createChildContext(sqlCounter,
+				"sql 1", "sql 1", null, -1);
+		childContext.addChildRequest(sqlCounter, "sql 1", "sql id 1", 10, false, -1);
+		assertEquals("childHits", 1, childContext.getChildHits());
+		final CounterRequestContext contextClone = context.clone();
+		context.closeChildContext();
+		assertSame("reused child context", childContext, context.createChildContext(sqlCounter,
+				"sql 2", "sql 2", null, -1));
+		assertEquals("requestName", "sql 2", childContext.getRequestName());
+		assertEquals("childHits", 0, childContext.getChildHits());
+		assertEquals("child contexts", Collections.singletonList(childContext),
+				context.getChildContexts());
+		// un clone fait avant la réutilisation n'est pas modifié par celle-ci
+		final CounterRequestContext childContextClone = contextClone.getChildContexts().get(0);
+		assertNotSame("clone", childContext, childContextClone);
+		assertEquals("requestName", "sql 1", childContextClone.getRequestName());
+		assertEquals("childHits", 1, childContextClone.getChildHits());
+		assertEquals("child executions", Collections.singletonMap("sql id 1", 1L),
+				contextClone.getChildRequestsExecutionsByRequestId());
+		context.closeChildContext();
+		// pas de réutilisation pour un contexte fils d'un autre counter
+		assertNotSame("new child context", childContext, context.createChildContext(
+				ejbCounter, "ejb", "ejb", null, -1));
+
+		httpCounter.bindContext("http request", "http request", null, -1);
+		final int nbSqlRequests = 10000;
+		executeSqlRequests(sqlCounter, 1000);
+		executeSqlRequests(sqlCounter, nbSqlRequests);
+		httpCounter.addRequest("http request", 10, 2, false, 100);
+		final CounterRequest httpRequest = httpCounter.getRequests().get(0);
+		assertEquals("childHitsMean", nbSqlRequests + 1000, httpRequest.getChildHitsMean());
+		long childExecutions = 0;
+		for (final Long executions : httpRequest.getChildRequestsExecutionsByRequestId().values()) {
+			childExecutions += executions;
+		}
+		assertEquals("child executions", nbSqlRequests + 1000, childExecutions);
+	}
+
+	private static void executeSqlRequests(Counter sqlCounter, int nbSqlRequests) {
+		for (int i = 0; i < nbSqlRequests; i++) {
+			final String sqlRequest = SQL_REQUESTS[i % SQL_REQUESTS.length];
+			sqlCounter.bindContext(sqlRequest, sqlRequest, null, -1);
+			sqlCounter.addRequest(sqlRequest, 1, -1, false, -1);
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testGetParentRequests() {
+		final Counter sqlCounter = new Counter("sql", null);
+		final Counter httpCounter = new Counter("http", null, sqlCounter);
+		final String sqlRequest = "sql request";
+		final String sqlRequestId = new CounterRequest(sqlRequest, sqlCounter.getName()).getId();
+		// index construit à la demande sur un counter existant
+		executeHttpRequest(httpCounter, sqlCounter, "http request 1", sqlRequest);
+		assertEquals("parent requests", 1, httpCounter.getParentRequests(sqlRequestId).size());
+		// puis maintenu lors des ajouts
+		executeHttpRequest(httpCounter, sqlCounter, "http request 2", sqlRequest);
+		executeHttpRequest(httpCounter, sqlCounter, "http request 2", sqlRequest);
+		executeHttpRequest(httpCounter, sqlCounter, "http request 3", "other sql request");
+		final List<CounterRequest> parentRequests = httpCounter.getParentRequests(sqlRequestId);
+		assertEquals("parent requests", 2, parentRequests.size());
+		assertEquals("parent request", "http request 2", parentRequests.get(0).getName());
+		assertTrue("parent requests",
+				httpCounter.getParentRequests(httpCounter.getRequests().get(0).getId())
+						.isEmpty());
+		assertEquals("request by id", sqlRequest,
+				sqlCounter.getCounterRequestById(sqlRequestId).getName());
+		assertNull("request by id", httpCounter.getCounterRequestById(sqlRequestId));
+
+		// après un clone (ou une désérialisation), addHits et une requête supprimée
+		final Counter clone = httpCounter.clone();
+		assertEquals("parent requests", 2, clone.getParentRequests(sqlRequestId).size());
+		final Counter newCounter = new Counter("http", null, sqlCounter);
+		newCounter.addRequestsAndErrors(httpCounter);
+		assertEquals("parent requests", 2, newCounter.getParentRequests(sqlRequestId).size());
+		newCounter.removeRequest("http request 1");
+		assertEquals("parent requests", 1, newCounter.getParentRequests(sqlRequestId).size());
+		newCounter.clear();
+		assertTrue("parent requests", newCounter.getParentRequests(sqlRequestId).isEmpty());
+	}
+
+	private static void executeHttpRequest(Counter httpCounter, Counter sqlCounter,
+			String httpRequest, String sqlRequest) {
+		httpCounter.bindContext(httpRequest, httpRequest, null, -1);
+		sqlCounter.bindContext(sqlRequest, sqlRequest, null, -1);
+		sqlCounter.addRequest(sqlRequest, 1, -1, false, -1);
+		httpCounter.addRequest(httpRequest, 10, -1, false, 100);
+	}
+
 	/** Test. */
 	@Test
 	public void testGetRequestsCount() {
@@ -488,6 +808,30 @@ public class TestCounter {
 		assertEquals("counter", before, counter.toString());
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testEstimatedMemorySize() throws IOException {
+		counter.clear();
+		final long emptySize = counter.getEstimatedMemorySize();
+		assertTrue("empty", emptySize > 0);
+		for (int i = 0; i < 100; i++) {
+			counter.addRequest("test estimatedMemorySize " + i, 100, 50, false, 1000);
+		}
+		final long size = counter.getEstimatedMemorySize();
+		assertTrue("requests", size > emptySize + 100 * 2 * "test estimatedMemorySize".length());
+		counter.writeToFile();
+		// le format binaire compact du fichier sous-estime l'occupation mémoire
+		assertTrue("binarySize", counter.getBinarySize() > 0);
+		assertTrue("binarySize < estimatedMemorySize",
+				counter.getBinarySize() < counter.getEstimatedMemorySize());
+		final Counter errorCounter = new Counter(Counter.ERROR_COUNTER_NAME, null);
+		final long emptyErrorCounterSize = errorCounter.getEstimatedMemorySize();
+		errorCounter.addErrors(Collections.singletonList(new CounterError("erreur",
+				"stack trace")));
+		assertTrue("errors", errorCounter.getEstimatedMemorySize() > emptyErrorCounterSize);
+	}
+
 	/** Test. */
 	@Test
 	public void testToString() {
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe CounterBinaryFormat.
+ * @author Emeric Vernat
+ */
+public class TestCounterBinaryFormat {
+	/** Test. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testLongsAndStrings() throws IOException {
+		final long[] values = { 0, 1, -1, 63, 64, -64, -65, 127, 128, 300, Integer.MAX_VALUE,
+				Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, };
+		final String[] strings = { "a", null, "", "a", "été 中", "", null, "b", };
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final CounterBinaryFormat.Writer writer = new CounterBinaryFormat.Writer(output);
+		for (final long value : values) {
+			writer.writeLong(value);
+		}
+		for (final String string : strings) {
+			writer.writeString(string);
+		}
+		writer.writeBoolean(true);
+		writer.flush();
+		final CounterBinaryFormat.Reader reader = new CounterBinaryFormat.Reader(
+				new ByteArrayInputStream(output.toByteArray()));
+		for (final long value : values) {
+			assertEquals("long", value, reader.readLong());
+		}
+		for (final String string : strings) {
+			assertEquals("string", string, reader.readString());
+		}
+		assertTrue("boolean", reader.readBoolean());
+
+		// les petites valeurs, positives ou négatives, sont écrites sur un seul octet
+		final ByteArrayOutputStream smallOutput = new ByteArrayOutputStream();
+		final CounterBinaryFormat.Writer smallWriter = new CounterBinaryFormat.Writer(
+				smallOutput);
+		smallWriter.writeLong(63);
+		smallWriter.writeLong(-1);
+		smallWriter.flush();
+		assertEquals("varint", 2, smallOutput.size());
+
+		// chaîne plus grande que le buffer de lecture, puis longueur annoncée sans les données
+		final char[] chars = new char[100000];
+		Arrays.fill(chars, 'a');
+		final String largeString = new String(chars);
+		final ByteArrayOutputStream largeOutput = new ByteArrayOutputStream();
+		final CounterBinaryFormat.Writer largeWriter = new CounterBinaryFormat.Writer(
+				largeOutput);
+		largeWriter.writeString(largeString);
+		largeWriter.writeLong(1);
+		largeWriter.writeLong(Integer.MAX_VALUE);
+		largeWriter.flush();
+		final CounterBinaryFormat.Reader largeReader = new CounterBinaryFormat.Reader(
+				new ByteArrayInputStream(largeOutput.toByteArray()));
+		assertEquals("large string", largeString, largeReader.readString());
+		try {
+			largeReader.readString();
+			fail("readString");
+		} catch (final EOFException e) {
+			assertNotNull("e", e);
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testWriteAndRead() throws IOException {
+		final Counter sqlCounter = new Counter("sql", "db.png");
+		final Counter counter = new Counter("http", "dbweb.png", sqlCounter);
+		counter.setApplication("test binary format");
+		counter.setMaxRequestsCount(500);
+		counter.setDisplayed(false);
+		final CounterRequest request = new CounterRequest("test é request", counter.getName());
+		request.addHit(100, 50, true, "stack trace", 1000);
+		request.addHit(-1, 0, false, null, -1);
+		request.addChildRequests(Collections.singletonMap("sql1", 3L));
+		counter.addHits(request);
+		counter.addHits(new CounterRequest("test request 2", counter.getName()));
+
+		final Counter readCounter = writeAndRead(counter);
+		assertEquals("name", counter.getName(), readCounter.getName());
+		assertEquals("storageName", counter.getStorageName(), readCounter.getStorageName());
+		assertEquals("iconName", counter.getIconName(), readCounter.getIconName());
+		assertEquals("childCounterName", counter.getChildCounterName(),
+				readCounter.getChildCounterName());
+		assertEquals("application", counter.getApplication(), readCounter.getApplication());
+		assertEquals("startDate", counter.getStartDate(), readCounter.getStartDate());
+		assertEquals("maxRequestsCount", 500, readCounter.getMaxRequestsCount());
+		assertEquals("displayed", false, readCounter.isDisplayed());
+		assertEquals("requests", counter.getRequestsCount(), readCounter.getRequestsCount());
+		final CounterRequest readRequest = readCounter.getCounterRequestByName(request
+				.getName());
+		final CounterRequest expectedRequest = counter.getCounterRequestByName(request
+				.getName());
+		assertEquals("id", expectedRequest.getId(), readRequest.getId());
+		assertEquals("hits", expectedRequest.getHits(), readRequest.getHits());
+		assertEquals("durationsSum", expectedRequest.getDurationsSum(),
+				readRequest.getDurationsSum());
+		assertEquals("standardDeviation", expectedRequest.getStandardDeviation(),
+				readRequest.getStandardDeviation());
+		assertEquals("maximum", expectedRequest.getMaximum(), readRequest.getMaximum());
+		assertEquals("cpuTimeSum", expectedRequest.getCpuTimeSum(), readRequest.getCpuTimeSum());
+		assertEquals("systemErrorPercentage", expectedRequest.getSystemErrorPercentage(),
+				readRequest.getSystemErrorPercentage(), 0.01);
+		assertEquals("responseSizeMean", expectedRequest.getResponseSizeMean(),
+				readRequest.getResponseSizeMean());
+		assertEquals("childHitsMean", expectedRequest.getChildHitsMean(),
+				readRequest.getChildHitsMean());
+		assertEquals("childDurationsMean", expectedRequest.getChildDurationsMean(),
+				readRequest.getChildDurationsMean());
+		assertEquals("p95", expectedRequest.getDurationsPercentile(95),
+				readRequest.getDurationsPercentile(95));
+		assertEquals("stackTrace", expectedRequest.getStackTrace(), readRequest.getStackTrace());
+		assertEquals("childRequests", expectedRequest.getChildRequestsExecutionsByRequestId(),
+				readRequest.getChildRequestsExecutionsByRequestId());
+		assertNull("no hit", readCounter.getCounterRequestByName("test request 2")
+				.getStackTrace());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testWriteAndReadErrors() throws IOException {
+		final Counter errorCounter = new Counter(Counter.ERROR_COUNTER_NAME, null);
+		errorCounter.addErrors(Collections.singletonList(new CounterError("message",
+				"stackTrace")));
+		errorCounter.addErrors(Collections.singletonList(new CounterError("message 2", null)));
+		final Counter readCounter = writeAndRead(errorCounter);
+		final List<CounterError> errors = errorCounter.getErrors();
+		final List<CounterError> readErrors = readCounter.getErrors();
+		assertEquals("errors", errors.size(), readErrors.size());
+		for (int i = 0; i < errors.size(); i++) {
+			assertEquals("time", errors.get(i).getTime(), readErrors.get(i).getTime());
+			assertEquals("message", errors.get(i).getMessage(), readErrors.get(i).getMessage());
+			assertEquals("stackTrace", errors.get(i).getStackTrace(), readErrors.get(i)
+					.getStackTrace());
+			assertEquals("remoteUser", errors.get(i).getRemoteUser(), readErrors.get(i)
+					.getRemoteUser());
+			assertEquals("httpRequest", errors.get(i).getHttpRequest(), readErrors.get(i)
+					.getHttpRequest());
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testUnknownFormat() throws IOException {
+		// un flux en sérialisation java n'est pas dans le format binaire
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final ObjectOutputStream objectOutput = new ObjectOutputStream(output);
+		objectOutput.writeObject(new Counter("http", null));
+		objectOutput.close();
+		checkReadFails(output.toByteArray());
+		checkReadFails(new byte[0]);
+
+		// une version plus récente du format ne peut pas être lue
+		final ByteArrayOutputStream binaryOutput = new ByteArrayOutputStream();
+		CounterBinaryFormat.write(new Counter("http", null), binaryOutput);
+		final byte[] bytes = binaryOutput.toByteArray();
+		bytes[4] = (byte) (CounterBinaryFormat.VERSION + 1);
+		checkReadFails(bytes);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testJournalSequence() throws IOException {
+		final Counter counter = new Counter("http", null);
+		counter.addRequest("test", 100, 50, false, 1000);
+		counter.setJournalSequence(300);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CounterBinaryFormat.write(counter.clone(), output);
+		final byte[] bytes = output.toByteArray();
+		assertEquals("journalSequence", 300,
+				CounterBinaryFormat.read(new ByteArrayInputStream(bytes)).getJournalSequence());
+
+		// un fichier en version 1, sans numéro d'enregistrement du journal, est toujours lu
+		final Counter readCounter = CounterBinaryFormat.read(new ByteArrayInputStream(
+				writeOldVersion(counter, 1)));
+		assertEquals("journalSequence", 0, readCounter.getJournalSequence());
+		assertEquals("hits", 1, readCounter.getCounterRequestByName("test").getHits());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCpuTimeSamplingInterval() throws IOException {
+		final Counter counter = new Counter("http", null);
+		counter.setCpuTimeSamplingInterval(10);
+		counter.addRequest("test", 100, 50, false, 1000);
+		assertEquals("cpuTimeSamplingInterval", 10, writeAndRead(counter)
+				.getCpuTimeSamplingInterval());
+		assertTrue("cpuTimeEstimated", writeAndRead(counter).isCpuTimeEstimated());
+
+		// un fichier en version 2, sans intervalle d'échantillonnage, est toujours lu
+		counter.setJournalSequence(300);
+		final Counter readCounter = CounterBinaryFormat.read(new ByteArrayInputStream(
+				writeOldVersion(counter, 2)));
+		assertEquals("cpuTimeSamplingInterval", 0, readCounter.getCpuTimeSamplingInterval());
+		assertEquals("journalSequence", 300, readCounter.getJournalSequence());
+		assertEquals("hits", 1, readCounter.getCounterRequestByName("test").getHits());
+	}
+
+	private static void checkReadFails(byte[] bytes) {
+		try {
+			CounterBinaryFormat.read(new ByteArrayInputStream(bytes));
+			fail("read");
+		} catch (final IOException e) {
+			assertTrue("read", e.getMessage() != null);
+		}
+	}
+
+	private static byte[] writeOldVersion(Counter counter, int version) throws IOException {
+		// fichier comme écrit par les versions précédentes du format, pour un counter sans erreur
+		final ByteArrayOutputStream currentOutput = new ByteArrayOutputStream();
+		CounterBinaryFormat.write(counter.clone(), currentOutput);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		// même "magic" que la version courante
+		output.write(currentOutput.toByteArray(), 0, 4);
+		output.write(version);
+		final CounterBinaryFormat.Writer writer = new CounterBinaryFormat.Writer(output);
+		if (version >= 2) {
+			writer.writeLong(counter.getJournalSequence());
+		}
+		writer.writeString(counter.getName());
+		writer.writeString(counter.getStorageName());
+		writer.writeString(counter.getIconName());
+		writer.writeString(counter.getChildCounterName());
+		writer.writeString(counter.getApplication());
+		writer.writeBoolean(counter.isDisplayed());
+		writer.writeLong(counter.getStartDate().getTime());
+		writer.writeLong(counter.getMaxRequestsCount());
+		final List<CounterRequest> requests = counter.getRequests();
+		writer.writeLong(requests.size());
+		for (final CounterRequest request : requests) {
+			request.writeTo(writer);
+		}
+		writer.writeLong(0);
+		writer.flush();
+		return output.toByteArray();
+	}
+
+	private static Counter writeAndRead(Counter counter) throws IOException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CounterBinaryFormat.write(counter.clone(), output);
+		return CounterBinaryFormat.read(new ByteArrayInputStream(output.toByteArray()));
+	}
+}
@@ -17,11 +17,22 @@
  */
 package net.bull.javamelody;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -65,6 +76,183 @@ public class TestCounterStorage {
 		}
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testWriteAndRead() throws IOException {
+		final Counter counter = new Counter("http", null);
+		counter.setApplication("test counter storage");
+		counter.addHits(createRequest(counter, "test write and read"));
+		final File file = getFile(counter, ".bin.gz");
+		final CounterStorage counterStorage = new CounterStorage(counter);
+		assertTrue("writeToFile", counterStorage.writeToFile() > 0);
+		assertTrue("file", file.exists());
+		final Counter readCounter = counterStorage.readFromFile();
+		assertNotNull("readFromFile", readCounter);
+		assertEquals("hits", 1, readCounter.getCounterRequestByName("test write and read")
+				.getHits());
+		file.delete();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testMigrationFromSerializedFile() throws IOException {
+		final Counter counter = new Counter("http", null);
+		counter.setApplication("test counter storage migration");
+		counter.addHits(createRequest(counter, "test migration"));
+		final File serializedFile = getFile(counter, ".ser.gz");
+		final File file = getFile(counter, ".bin.gz");
+		file.delete();
+		writeSerializedFile(counter, serializedFile);
+
+		// le fichier d'une version précédente est lu s'il n'y a pas encore de fichier binaire
+		final Counter readCounter = new CounterStorage(counter).readFromFile();
+		assertNotNull("readFromFile", readCounter);
+		assertEquals("hits", 1, readCounter.getCounterRequestByName("test migration")
+				.getHits());
+
+		// puis il est remplacé par le fichier binaire au prochain enregistrement
+		new CounterStorage(readCounter).writeToFile();
+		assertTrue("file", file.exists());
+		assertFalse("serializedFile", serializedFile.exists());
+		assertEquals("hits", 1, new CounterStorage(counter).readFromFile()
+				.getCounterRequestByName("test migration").getHits());
+		file.delete();
+	}
+
+	/** Test : comparaison en taille avec la sérialisation java.
+	 * @throws IOException e */
+	@Test
+	public void testCompareWithSerialization() throws IOException {
+		final Counter counter = new Counter("sql", null);
+		counter.setApplication("test counter storage comparison");
+		for (int i = 0; i < 1000; i++) {
+			final CounterRequest request = createRequest(counter, "select * from table" + i
+					+ " where id = ?");
+			request.addChildRequests(Collections.singletonMap("sql" + i % 10, 2L));
+			counter.addHits(request);
+		}
+		final File serializedFile = getFile(counter, ".ser.gz");
+		final File file = getFile(counter, ".bin.gz");
+		final CounterStorage counterStorage = new CounterStorage(counter);
+		writeSerializedFile(counter, serializedFile);
+		final long serializedLength = serializedFile.length();
+		counterStorage.writeToFile();
+		final Counter readCounter = counterStorage.readFromFile();
+		assertEquals("requests", counter.getRequestsCount(), readCounter.getRequestsCount());
+		assertEquals("child requests", 2L, readCounter.getRequests().get(0)
+				.getChildRequestsExecutionsByRequestId().values().iterator().next().longValue());
+		assertTrue("length " + file.length() + " < " + serializedLength,
+				file.length() < serializedLength);
+		file.delete();
+		serializedFile.delete();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testJournal() throws IOException {
+		final Counter counter = new Counter(Counter.ERROR_COUNTER_NAME, null);
+		counter.setApplication("test counter storage journal");
+		final File file = getFile(counter, ".bin.gz");
+		final File journalFile = getFile(counter, ".journal");
+		file.delete();
+		journalFile.delete();
+		final CounterStorage counterStorage = new CounterStorage(counter);
+		final CounterError error = new CounterError("message", null);
+		counterStorage.appendToJournal(
+				Collections.singletonList(createRequest(counter, "test journal")),
+				Collections.singletonList(error));
+		counterStorage.appendToJournal(
+				Collections.singletonList(createRequest(counter, "test journal")),
+				Collections.<CounterError> emptyList());
+		assertTrue("journal", journalFile.exists());
+		assertTrue("compaction", counterStorage.isJournalCompactionNeeded());
+
+		// sans fichier du counter, seul le journal est relu
+		Counter readCounter = counterStorage.readFromFile();
+		assertEquals("hits", 2, readCounter.getCounterRequestByName("test journal").getHits());
+		assertEquals("errors", 1, readCounter.getErrorsCount());
+
+		// un dernier enregistrement incomplet est ignoré
+		final FileOutputStream out = new FileOutputStream(journalFile, true);
+		try {
+			out.write(new byte[] { 0, 0, 1, 0, 1, 2, 3 });
+		} finally {
+			out.close();
+		}
+		readCounter = counterStorage.readFromFile();
+		assertEquals("hits", 2, readCounter.getCounterRequestByName("test journal").getHits());
+
+		// arrêt brutal entre l'enregistrement complet du counter et la suppression du journal :
+		// les enregistrements déjà inclus ne sont pas comptés deux fois
+		final byte[] journal = readBytes(journalFile);
+		new CounterStorage(readCounter).writeToFile();
+		final FileOutputStream journalOut = new FileOutputStream(journalFile);
+		try {
+			journalOut.write(journal);
+		} finally {
+			journalOut.close();
+		}
+		readCounter = counterStorage.readFromFile();
+		assertEquals("hits", 2, readCounter.getCounterRequestByName("test journal").getHits());
+		assertEquals("errors", 1, readCounter.getErrorsCount());
+		assertEquals("journalSequence", 2, readCounter.getJournalSequence());
+
+		// l'enregistrement complet du counter inclut le journal, qui est alors supprimé
+		new CounterStorage(readCounter).writeToFile();
+		assertFalse("journal", journalFile.exists());
+		assertFalse("compaction", counterStorage.isJournalCompactionNeeded());
+		counterStorage.appendToJournal(
+				Collections.singletonList(createRequest(counter, "test journal")),
+				Collections.<CounterError> emptyList());
+		readCounter = counterStorage.readFromFile();
+		assertEquals("hits", 3, readCounter.getCounterRequestByName("test journal").getHits());
+		assertEquals("errors", 1, readCounter.getErrorsCount());
+		file.delete();
+		journalFile.delete();
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		final byte[] bytes = new byte[(int) file.length()];
+		final DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(bytes);
+		} finally {
+			input.close();
+		}
+		return bytes;
+	}
+
+	private static CounterRequest createRequest(Counter counter, String requestName) {
+		final CounterRequest request = new CounterRequest(requestName, counter.getName());
+		request.addHit(100, 50, false, null, 1000);
+		return request;
+	}
+
+	private static File getFile(Counter counter, String extension) {
+		final File storageDir = Parameters.getStorageDirectory(counter.getApplication());
+		if (!storageDir.exists() && !storageDir.mkdirs()) {
+			fail("mkdir");
+		}
+		return new File(storageDir, counter.getStorageName() + extension);
+	}
+
+	private static void writeSerializedFile(Counter counter, File file) throws IOException {
+		// fichier comme écrit par les versions précédentes
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream output = new ObjectOutputStream(new GZIPOutputStream(bytes));
+		output.writeObject(counter.clone());
+		output.close();
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			bytes.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
 	private void checkSetup(final File storageDir, final File obsoleteFile,
 			final File notObsoleteFile) throws IOException {
 		if (!storageDir.exists() && !storageDir.mkdirs()) {
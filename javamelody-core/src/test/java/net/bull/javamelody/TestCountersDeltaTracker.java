@@ -0,0 +1,212 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe CountersDeltaTracker.
+ * @author Emeric Vernat
+ */
+public class TestCountersDeltaTracker {
+	private Counter counter;
+	private Counter errorCounter;
+	private List<Counter> counters;
+	private List<JavaInformations> javaInformationsList;
+
+	/** Before. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+		counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		errorCounter = new Counter(Counter.ERROR_COUNTER_NAME, null);
+		counters = Arrays.asList(counter, errorCounter);
+		javaInformationsList = Collections.singletonList(new JavaInformations(null, false));
+	}
+
+	private static long getHits(CountersDelta countersDelta, String requestName) {
+		final CounterRequest request = countersDelta.getCounters().get(0)
+				.getCounterRequestByName(requestName);
+		return request != null ? request.getHits() : 0;
+	}
+
+	private CountersDelta createDelta(CountersDeltaTracker tracker, CountersDelta previous) {
+		if (previous == null) {
+			return tracker.createDelta(null, null, counters, javaInformationsList, null);
+		}
+		return tracker.createDelta(previous.getEpoch(), previous.getSequence(), counters,
+				javaInformationsList, null);
+	}
+
+	/** Test. */
+	@Test
+	public void testAcknowledgedDelta() {
+		final CountersDeltaTracker tracker = new CountersDeltaTracker();
+		assertFalse("isUsed", tracker.isUsed());
+		counter.addRequest("test", 100, 10, false, 1000);
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta1 = createDelta(tracker, null);
+		assertTrue("isUsed", tracker.isUsed());
+		assertTrue("full", delta1.isFull());
+		assertEquals("epoch", tracker.getEpoch(), delta1.getEpoch());
+		assertEquals("hits", 2, getHits(delta1, "test"));
+		assertEquals("counters", 2, delta1.getCounters().size());
+		assertNotNull("toString", delta1.toString());
+
+		counter.addRequest("test", 100, 10, false, 1000);
+		counter.addRequest("test2", 100, 10, false, 1000);
+		final CountersDelta delta2 = createDelta(tracker, delta1);
+		assertFalse("full", delta2.isFull());
+		assertEquals("sequence", delta1.getSequence() + 1, delta2.getSequence());
+		assertEquals("hits", 1, getHits(delta2, "test"));
+		assertEquals("hits", 1, getHits(delta2, "test2"));
+
+		final CountersDelta delta3 = createDelta(tracker, delta2);
+		assertFalse("full", delta3.isFull());
+		assertEquals("requests", 0, delta3.getCounters().get(0).getRequestsCount());
+	}
+
+	/** Test. */
+	@Test
+	public void testLostDelta() {
+		final CountersDeltaTracker tracker = new CountersDeltaTracker();
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta1 = createDelta(tracker, null);
+		counter.addRequest("test", 100, 10, false, 1000);
+		createDelta(tracker, delta1);
+		// la réponse du delta 2 est perdue, le serveur de collecte acquitte de nouveau le delta 1
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta3 = createDelta(tracker, delta1);
+		assertFalse("full", delta3.isFull());
+		assertEquals("hits", 2, getHits(delta3, "test"));
+	}
+
+	/** Test. */
+	@Test
+	public void testFullDelta() {
+		final CountersDeltaTracker tracker = new CountersDeltaTracker();
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta1 = createDelta(tracker, null);
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta2 = createDelta(tracker, delta1);
+		counter.addRequest("test", 100, 10, false, 1000);
+		// redémarrage du serveur de collecte : pas d'epoch, on renvoie depuis le delta acquitté
+		final CountersDelta delta3 = createDelta(tracker, null);
+		assertTrue("full", delta3.isFull());
+		assertEquals("hits", 2, getHits(delta3, "test"));
+		// seul le dernier delta envoyé est acquittable : après une demande sans séquence (action),
+		// on renvoie tout depuis le delta acquitté
+		final CountersDelta delta4 = createDelta(tracker, delta2);
+		assertTrue("full", delta4.isFull());
+		assertEquals("hits", 2, getHits(delta4, "test"));
+		// autre epoch (redémarrage du noeud)
+		final CountersDelta delta5 = tracker.createDelta(tracker.getEpoch() + 1,
+				delta4.getSequence(), counters, javaInformationsList, null);
+		assertTrue("full", delta5.isFull());
+		// compteur vidé par une action : on renvoie tout
+		counter.clear();
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta6 = createDelta(tracker, delta5);
+		assertEquals("hits", 1, getHits(delta6, "test"));
+	}
+
+	/** Test. */
+	@Test
+	public void testRemoveAcknowledgedHits() {
+		final CountersDeltaTracker tracker = new CountersDeltaTracker();
+		counter.addRequest("test", 100, 10, false, 1000);
+		counter.addRequest("test2", 100, 10, false, 1000);
+		errorCounter.addRequestForSystemError("error1", -1, -1, null);
+		final CountersDelta delta1 = tracker.createDelta(null, null, counters,
+				javaInformationsList, null, true);
+		assertEquals("requests", 2, counter.getRequestsCount());
+		counter.addRequest("test", 100, 10, false, 1000);
+		errorCounter.addRequestForSystemError("error2", -1, -1, null);
+		// l'acquittement du delta 1 enlève ses hits et ses erreurs des compteurs
+		final CountersDelta delta2 = tracker.createDelta(delta1.getEpoch(), delta1.getSequence(),
+				counters, javaInformationsList, null, true);
+		assertFalse("full", delta2.isFull());
+		assertEquals("hits", 1, getHits(delta2, "test"));
+		assertEquals("hits", 0, getHits(delta2, "test2"));
+		assertEquals("requests", 1, counter.getRequestsCount());
+		assertEquals("hits", 1, counter.getCounterRequestByName("test").getHits());
+		assertEquals("errors", 1, errorCounter.getErrorsCount());
+		assertEquals("error", "error2", delta2.getCounters().get(1).getErrors().get(0)
+				.getMessage());
+		// la réponse du delta 2 est perdue : rien n'est enlevé et on renvoie le delta 2
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta3 = tracker.createDelta(delta1.getEpoch(), delta1.getSequence(),
+				counters, javaInformationsList, null, true);
+		assertFalse("full", delta3.isFull());
+		assertEquals("baseSequence", delta1.getSequence(), delta3.getBaseSequence());
+		assertEquals("hits", 2, getHits(delta3, "test"));
+		assertEquals("hits", 2, counter.getCounterRequestByName("test").getHits());
+		// l'acquittement du delta 3 vide les compteurs
+		final CountersDelta delta4 = tracker.createDelta(delta3.getEpoch(), delta3.getSequence(),
+				counters, javaInformationsList, null, true);
+		assertEquals("requests", 0, delta4.getCounters().get(0).getRequestsCount());
+		assertEquals("requests", 0, counter.getRequestsCount());
+		assertEquals("errors", 0, errorCounter.getErrorsCount());
+	}
+
+	/** Test. */
+	@Test
+	public void testErrors() {
+		final CountersDeltaTracker tracker = new CountersDeltaTracker();
+		errorCounter.addRequestForSystemError("error1", -1, -1, null);
+		final CountersDelta delta1 = createDelta(tracker, null);
+		assertEquals("errors", 1, delta1.getCounters().get(1).getErrorsCount());
+		errorCounter.addRequestForSystemError("error2", -1, -1, null);
+		final CountersDelta delta2 = createDelta(tracker, delta1);
+		final List<CounterError> errors = delta2.getCounters().get(1).getErrors();
+		assertEquals("errors", 1, errors.size());
+		assertEquals("error", "error2", errors.get(0).getMessage());
+		final CountersDelta delta3 = createDelta(tracker, delta2);
+		assertEquals("errors", 0, delta3.getCounters().get(1).getErrorsCount());
+	}
+
+	/** Test. */
+	@Test
+	public void testStaticInformations() {
+		final CountersDeltaTracker tracker = new CountersDeltaTracker();
+		final CountersDelta delta1 = createDelta(tracker, null);
+		assertTrue("staticInformationsIncluded", delta1.isStaticInformationsIncluded());
+		final CountersDelta delta2 = createDelta(tracker, delta1);
+		assertFalse("staticInformationsIncluded", delta2.isStaticInformationsIncluded());
+		final JavaInformations javaInformations = delta2.getJavaInformationsList().get(0);
+		assertNull("jvmArguments", javaInformations.getJvmArguments());
+		final JavaInformations restored = javaInformations
+				.withStaticInformations(javaInformationsList.get(0));
+		assertEquals("jvmArguments", javaInformationsList.get(0).getJvmArguments(),
+				restored.getJvmArguments());
+		assertTrue("hasSameStaticInformations",
+				restored.hasSameStaticInformations(javaInformationsList.get(0)));
+		assertEquals("host", javaInformationsList.get(0).getHost(), restored.getHost());
+	}
+}
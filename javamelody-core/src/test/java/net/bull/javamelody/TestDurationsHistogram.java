@@ -0,0 +1,135 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe DurationsHistogram.
+ * @author Emeric Vernat
+ */
+public class TestDurationsHistogram {
+	/** Test. */
+	@Test
+	public void testBuckets() {
+		assertEquals("negative", 0, DurationsHistogram.getBucketIndex(-1));
+		int previousIndex = 0;
+		for (long duration = 0; duration < 1L << 24; duration += 1 + duration / 100) {
+			final int index = DurationsHistogram.getBucketIndex(duration);
+			assertTrue("monotonic", index >= previousIndex);
+			assertTrue("index", index < DurationsHistogram.BUCKETS_COUNT);
+			final long upperBound = DurationsHistogram.getBucketUpperBound(index);
+			if (index < DurationsHistogram.BUCKETS_COUNT - 1) {
+				assertTrue("upperBound", duration <= upperBound);
+				// précision de 25% au plus
+				assertTrue("precision", upperBound <= duration * 1.25);
+			}
+			previousIndex = index;
+		}
+		assertEquals("last bucket", DurationsHistogram.BUCKETS_COUNT - 1,
+				DurationsHistogram.getBucketIndex(Long.MAX_VALUE));
+	}
+
+	/** Test. */
+	@Test
+	public void testPercentiles() {
+		final DurationsHistogram histogram = new DurationsHistogram();
+		assertEquals("empty", -1, histogram.getPercentile(50));
+		for (int i = 0; i < 8; i++) {
+			histogram.addValue(i);
+		}
+		assertEquals("totalCount", 8, histogram.getTotalCount());
+		// valeurs exactes jusqu'à 7 ms
+		assertEquals("p0", 0, histogram.getPercentile(0));
+		assertEquals("p50", 3, histogram.getPercentile(50));
+		assertEquals("p100", 7, histogram.getPercentile(100));
+		histogram.addValue(10000);
+		assertEquals("p100 bis",
+				DurationsHistogram.getBucketUpperBound(DurationsHistogram.getBucketIndex(10000)),
+				histogram.getPercentile(100));
+		assertTrue("toString", histogram.toString().contains("p95"));
+	}
+
+	/** Test. */
+	@Test
+	public void testAddAndRemove() {
+		final DurationsHistogram histogram = new DurationsHistogram();
+		final DurationsHistogram other = new DurationsHistogram();
+		for (int i = 0; i < 1000; i++) {
+			histogram.addValue(i);
+			other.addValue(i * 10);
+		}
+		final DurationsHistogram clone = histogram.clone();
+		histogram.add(other);
+		assertEquals("add", 2000, histogram.getTotalCount());
+		assertEquals("clone", 1000, clone.getTotalCount());
+		histogram.remove(other);
+		assertEquals("remove", 1000, histogram.getTotalCount());
+		for (int percentile = 0; percentile <= 100; percentile += 5) {
+			assertEquals("percentile", clone.getPercentile(percentile),
+					histogram.getPercentile(percentile));
+		}
+		// pas de valeur négative en retranchant plus que ce qui a été ajouté
+		histogram.remove(other);
+		histogram.remove(clone);
+		assertEquals("remove all", 0, histogram.getTotalCount());
+		assertEquals("empty", -1, histogram.getPercentile(50));
+	}
+
+	/** Test. */
+	@Test
+	public void testSparseBuckets() {
+		final DurationsHistogram histogram = new DurationsHistogram();
+		final long emptySize = histogram.getEstimatedMemorySize();
+		// durées dans le désordre pour insérer les intervalles au début, au milieu et à la fin
+		final long[] durations = { 1000, 5, 100000, 50, 5, 1000000, 0, 20000, 300, 7 };
+		final long[] counts = new long[DurationsHistogram.BUCKETS_COUNT];
+		for (int i = 0; i < 100; i++) {
+			final long duration = durations[i % durations.length] + i;
+			histogram.addValue(duration);
+			counts[DurationsHistogram.getBucketIndex(duration)]++;
+		}
+		// centiles identiques à ceux calculés avec tous les intervalles
+		for (int percentile = 0; percentile <= 100; percentile += 5) {
+			final long rank = Math.max((long) Math.ceil(percentile / 100d * 100), 1);
+			long cumulativeCount = 0;
+			int index = 0;
+			while (cumulativeCount + counts[index] < rank) {
+				cumulativeCount += counts[index];
+				index++;
+			}
+			assertEquals("percentile " + percentile,
+					DurationsHistogram.getBucketUpperBound(index),
+					histogram.getPercentile(percentile));
+		}
+		// quelques intervalles non vides occupent bien moins qu'un tableau de tous les intervalles
+		assertTrue("emptySize", emptySize < 64);
+		assertTrue("size", histogram.getEstimatedMemorySize() < 8 * DurationsHistogram.BUCKETS_COUNT);
+
+		final DurationsHistogram single = new DurationsHistogram();
+		for (int i = 0; i < 1000; i++) {
+			single.addValue(100);
+		}
+		assertTrue("single bucket", single.getEstimatedMemorySize() < 128);
+		assertEquals("single p50", DurationsHistogram.getBucketUpperBound(DurationsHistogram
+				.getBucketIndex(100)), single.getPercentile(50));
+	}
+}
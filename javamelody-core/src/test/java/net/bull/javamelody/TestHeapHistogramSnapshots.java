@@ -0,0 +1,207 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+
+import net.bull.javamelody.HeapHistogramDiff.ClassDelta;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe HeapHistogramSnapshots.
+ * @author Emeric Vernat
+ */
+public class TestHeapHistogramSnapshots {
+	private File directory;
+
+	/** Initialisation.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		directory = File.createTempFile("testHeapHistogramSnapshots", null);
+		assertTrue("delete", directory.delete());
+	}
+
+	/** Finalisation. */
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				assertTrue("delete", file.delete());
+			}
+			assertTrue("delete", directory.delete());
+		}
+	}
+
+	private static String readHeapHisto() throws IOException {
+		final InputStream input = TestHeapHistogramSnapshots.class
+				.getResourceAsStream("/heaphisto.txt");
+		try {
+			final Reader reader = new InputStreamReader(input, "UTF-8");
+			final StringWriter writer = new StringWriter();
+			final char[] buffer = new char[4096];
+			int length = reader.read(buffer);
+			while (length != -1) {
+				writer.write(buffer, 0, length);
+				length = reader.read(buffer);
+			}
+			return writer.toString();
+		} finally {
+			input.close();
+		}
+	}
+
+	private static HeapHistogram createHeapHistogram(String text) throws IOException {
+		final HeapHistogram previous = new HeapHistogram(new ByteArrayInputStream(
+				text.getBytes("UTF-8")), false);
+		HeapHistogram heapHistogram = previous;
+		// les histogrammes enregistrés doivent avoir des dates différentes
+		while (heapHistogram.getTime().equals(previous.getTime())) {
+			heapHistogram = new HeapHistogram(new ByteArrayInputStream(text.getBytes("UTF-8")),
+					false);
+		}
+		return heapHistogram;
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testParseTotals() throws IOException {
+		final HeapHistogram heapHistogram = createHeapHistogram(readHeapHisto());
+		assertEquals("instances", 290831, heapHistogram.getTotalHeapInstances()
+				+ heapHistogram.getTotalPermGenInstances());
+		assertEquals("bytes", 20036384, heapHistogram.getTotalHeapBytes()
+				+ heapHistogram.getTotalPermGenBytes());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testDiff() throws IOException {
+		final HeapHistogramSnapshots snapshots = new HeapHistogramSnapshots(directory);
+		final HeapHistogramDiff emptyDiff = snapshots.diff(null, null);
+		assertNull("fromTime", emptyDiff.getFromTime());
+		assertTrue("classes", emptyDiff.getClasses().isEmpty());
+
+		final String text = readHeapHisto();
+		final HeapHistogram first = createHeapHistogram(text);
+		snapshots.write(first);
+		assertEquals("snapshots", 1, snapshots.getSnapshotTimes().size());
+		assertNull("fromTime", snapshots.diff(null, null).getFromTime());
+
+		final String growingText = text.replace("   2:         28233        2700272  [C",
+				"   2:         38233        3700272  [C").replace(
+				"Total        290831       20036384", "Total        300831       21036384");
+		final HeapHistogram second = createHeapHistogram(growingText);
+		snapshots.write(second);
+		assertEquals("snapshots", 2, snapshots.getSnapshotTimes().size());
+
+		final HeapHistogramDiff diff = snapshots.diff(null, null);
+		assertEquals("fromTime", first.getTime(), diff.getFromTime());
+		assertEquals("toTime", second.getTime(), diff.getToTime());
+		assertEquals("snapshotTimes", 2, diff.getSnapshotTimes().size());
+		assertEquals("totalBytesDelta", 1000000, diff.getTotalBytesDelta());
+		assertEquals("totalInstancesDelta", 10000, diff.getTotalInstancesDelta());
+		final List<ClassDelta> classes = diff.getClasses();
+		assertEquals("classes", 1, classes.size());
+		final ClassDelta classDelta = classes.get(0);
+		assertEquals("name", "char[]", classDelta.getName());
+		assertEquals("bytesDelta", 1000000, classDelta.getBytesDelta());
+		assertEquals("instancesDelta", 10000, classDelta.getInstancesDelta());
+		assertEquals("bytes", 3700272, classDelta.getBytes());
+		assertEquals("instances", 38233, classDelta.getInstances());
+		assertNotNull("toString", diff.toString());
+
+		// pas de croissance depuis le second histogramme
+		assertNull("fromTime", snapshots.diff(second.getTime().getTime(), null).getFromTime());
+		// pas de croissance jusqu'au premier histogramme
+		assertNull("fromTime", snapshots.diff(null, first.getTime().getTime()).getFromTime());
+
+		diff.add(diff, 10);
+		assertEquals("totalBytesDelta", 2000000, diff.getTotalBytesDelta());
+		assertEquals("bytesDelta", 2000000, diff.getClasses().get(0).getBytesDelta());
+		assertEquals("snapshotTimes", 2, diff.getSnapshotTimes().size());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testMaxSnapshots() throws IOException {
+		final HeapHistogramSnapshots snapshots = new HeapHistogramSnapshots(directory);
+		final String text = readHeapHisto();
+		for (int i = 0; i < HeapHistogramSnapshots.MAX_SNAPSHOTS + 2; i++) {
+			snapshots.write(createHeapHistogram(text));
+		}
+		final List<Long> snapshotTimes = snapshots.getSnapshotTimes();
+		assertEquals("snapshots", HeapHistogramSnapshots.MAX_SNAPSHOTS, snapshotTimes.size());
+		final HeapHistogramDiff diff = snapshots.diff(null, null);
+		assertEquals("fromTime", snapshotTimes.get(0), Long.valueOf(diff.getFromTime()
+				.getTime()));
+		assertTrue("classes", diff.getClasses().isEmpty());
+		assertEquals("totalBytesDelta", 0, diff.getTotalBytesDelta());
+	}
+
+	/** Test. */
+	@Test
+	public void testParseTime() {
+		assertNull("parseTime", HeapHistogramSnapshots.parseTime(null));
+		assertNull("parseTime", HeapHistogramSnapshots.parseTime(""));
+		assertEquals("parseTime", Long.valueOf(123), HeapHistogramSnapshots.parseTime("123"));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testReport() throws IOException {
+		final HeapHistogramSnapshots snapshots = new HeapHistogramSnapshots(directory);
+		final StringWriter writer = new StringWriter();
+		new HtmlHeapHistogramDiffReport(snapshots.diff(null, null), writer).toHtml();
+		assertTrue("rapport vide", writer.getBuffer().length() > 0);
+		writer.getBuffer().setLength(0);
+
+		final String text = readHeapHisto();
+		snapshots.write(createHeapHistogram(text));
+		snapshots.write(createHeapHistogram(text.replace("   2:         28233        2700272  [C",
+				"   2:         38233        3700272  [C").replace(
+				"Total        290831       20036384", "Total        300831       21036384")));
+		final Collector collector = new Collector("test", Collections.singletonList(new Counter(
+				"test", null)));
+		final HtmlReport htmlReport = new HtmlReport(collector, null,
+				Collections.singletonList(new JavaInformations(null, true)), Period.TOUT, writer);
+		htmlReport.writeHeapHistogramDiff(snapshots.diff(null, null));
+		assertTrue("char[]", writer.toString().contains("char[]"));
+	}
+}
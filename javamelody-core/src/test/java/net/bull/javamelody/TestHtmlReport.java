@@ -19,11 +19,13 @@ package net.bull.javamelody; // NOPMD
 
 import static net.bull.javamelody.HttpParameters.SESSIONS_PART;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -163,6 +165,72 @@ public class TestHtmlReport {
 		htmlReport2.toHtml(null, null);
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCpuTimeEstimated() throws IOException {
+		counter.setCpuTimeSamplingInterval(10);
+		counter.addRequest("test1", 100, 10, false, 1000);
+		counter.addRequest("test2", 1000, 0, false, 1000);
+		collector.collectWithoutErrors(javaInformationsList);
+		final HtmlReport htmlReport = new HtmlReport(collector, null, javaInformationsList,
+				Period.TOUT, writer);
+		htmlReport.toHtml(null, null);
+		assertTrue("cpu estimated", writer.toString().contains(
+				I18N.getFormattedString("cpu_estime", 10)));
+	}
+
+	/** Test.
+	 * @throws Exception e */
+	@Test
+	public void testUnknownPercentiles() throws Exception { // NOPMD
+		// requête sans histogramme, comme lue depuis les données d'une version précédente
+		final CounterRequest request = new CounterRequest("request without histogram",
+				counter.getName());
+		request.addHit(100, 10, false, null, 1000);
+		final Field durationsHistogramField = CounterRequest.class
+				.getDeclaredField("durationsHistogram");
+		durationsHistogramField.setAccessible(true);
+		durationsHistogramField.set(request, null);
+		assertEquals("percentile", -1, request.getDurationsPercentile(95));
+		counter.addHits(request);
+		collector.collectWithoutErrors(javaInformationsList);
+		final HtmlReport htmlReport = new HtmlReport(collector, null, javaInformationsList,
+				Period.TOUT, writer);
+		htmlReport.writeCounterRequests(counter.getName(), 0);
+		assertTrue("request", writer.toString().contains("request without histogram"));
+		assertFalse("unknown percentile", writer.toString().contains("'>-1<"));
+		assertNotEmptyAndClear(writer);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCounterRequestsPages() throws IOException {
+		final int requestsCount = HtmlCounterReport.REQUESTS_PAGE_SIZE + 10;
+		for (int i = 0; i < requestsCount; i++) {
+			counter.addRequest("request" + i, i, 0, false, 100);
+		}
+		collector.collectWithoutErrors(javaInformationsList);
+		final HtmlReport htmlReport = new HtmlReport(collector, null, javaInformationsList,
+				Period.TOUT, writer);
+		htmlReport.toHtml(null, null);
+		// le détail du compteur dans le rapport principal est limité à la première page
+		assertTrue("next page",
+				writer.toString().contains("?part=counterRequests&amp;counter=http&amp;offset="
+						+ HtmlCounterReport.REQUESTS_PAGE_SIZE + "'>"));
+		assertNotEmptyAndClear(writer);
+		htmlReport.writeCounterRequests(counter.getName(), HtmlCounterReport.REQUESTS_PAGE_SIZE);
+		final String page = writer.toString();
+		assertTrue("previous page",
+				page.contains("?part=counterRequests&amp;counter=http&amp;offset=0'>"));
+		assertFalse("no next page", page.contains("offset="
+				+ 2 * HtmlCounterReport.REQUESTS_PAGE_SIZE));
+		assertNotEmptyAndClear(writer);
+		htmlReport.writeCounterRequests(errorCounter.getName(), 0);
+		assertNotEmptyAndClear(writer);
+	}
+
 	/** Test.
 	 * @throws IOException e */
 	@Test
@@ -267,6 +335,10 @@ public class TestHtmlReport {
 		assertNotEmptyAndClear(writer);
 		htmlReport.writeAllThreadsAsPart();
 		assertNotEmptyAndClear(writer);
+		htmlReport.writeAllThreadsAsPart("main");
+		assertNotEmptyAndClear(writer);
+		htmlReport.writeAllThreadsAsPart("#main'", 1);
+		assertNotEmptyAndClear(writer);
 
 		htmlReport.writeSessionDetail("", null);
 		assertNotEmptyAndClear(writer);
@@ -563,6 +635,55 @@ public class TestHtmlReport {
 		report2.writeTitleAndDetails();
 	}
 
+	/** Test.
+	 * @throws IOException e
+	 * @throws InterruptedException e */
+	@Test
+	public void testWriteSampledStacks() throws IOException, InterruptedException {
+		final SamplingProfiler samplingProfiler = new SamplingProfiler();
+		final Collector collectorWithSampling = new Collector("test", Arrays.asList(counter),
+				samplingProfiler);
+		final String requestName = "test sampled stacks";
+		counter.addRequest(requestName, 100, 100, false, 1000);
+		final String requestId = counter.getRequests().get(0).getId();
+		final TestSamplingProfiler.BusyTask busyTask = new TestSamplingProfiler.BusyTask() {
+			@Override
+			public void run() {
+				counter.bindContext(requestName, requestName, null, -1);
+				try {
+					super.run();
+				} finally {
+					counter.unbindContext();
+				}
+			}
+		};
+		final Thread thread = new Thread(busyTask);
+		thread.start();
+		try {
+			for (int i = 0; i < 500
+					&& samplingProfiler.getSampledStacks(requestId).getSamplesCount() == 0; i++) {
+				Thread.sleep(10);
+				samplingProfiler.update(collectorWithSampling.getCounters());
+			}
+		} finally {
+			busyTask.stop();
+			thread.join(1000);
+		}
+		final HtmlReport htmlReport = new HtmlReport(collectorWithSampling, null,
+				javaInformationsList, Period.TOUT, writer);
+		// sans les actions systèmes, pas de piles échantillonnées
+		setProperty(Parameter.SYSTEM_ACTIONS_ENABLED, Boolean.FALSE.toString());
+		htmlReport.writeRequestAndGraphDetail(requestId);
+		assertFalse("sampled stacks without system actions",
+				writer.toString().contains(TestSamplingProfiler.BusyTask.class.getName()));
+		assertNotEmptyAndClear(writer);
+		setProperty(Parameter.SYSTEM_ACTIONS_ENABLED, Boolean.TRUE.toString());
+		htmlReport.writeRequestAndGraphDetail(requestId);
+		assertTrue("sampled stacks",
+				writer.toString().contains(TestSamplingProfiler.BusyTask.class.getName()));
+		assertNotEmptyAndClear(writer);
+	}
+
 	private static void setProperty(Parameter parameter, String value) {
 		Utils.setProperty(parameter, value);
 	}
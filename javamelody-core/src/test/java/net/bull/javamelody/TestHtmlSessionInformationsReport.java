@@ -64,6 +64,18 @@ public class TestHtmlSessionInformationsReport {
 		new HtmlSessionInformationsReport(sessions, writer).toHtml();
 		assertNotEmptyAndClear(writer);
 
+		// pagination
+		new HtmlSessionInformationsReport(sessions, 0, 5000, writer).toHtml();
+		assertTrue("next page", writer.toString().contains("offset="
+				+ HtmlSessionInformationsReport.SESSIONS_PAGE_SIZE));
+		assertNotEmptyAndClear(writer);
+		new HtmlSessionInformationsReport(sessions, 1000, 1003, writer).toHtml();
+		assertTrue("previous page", writer.toString().contains("offset=0"));
+		assertNotEmptyAndClear(writer);
+		new HtmlSessionInformationsReport(Collections.<SessionInformations> emptyList(), 1000,
+				10, writer).toHtml();
+		assertNotEmptyAndClear(writer);
+
 		// aucune session sérialisable
 		new HtmlSessionInformationsReport(Collections.singletonList(new SessionInformations(
 				new SessionTestImpl(false), false)), writer).toHtml();
@@ -72,6 +72,13 @@ public class TestHtmlThreadInformationsReport {
 		new HtmlThreadInformationsReport(threads, true, writer).toHtml();
 		assertNotEmptyAndClear(writer);
 
+		// pourcentage cpu récent
+		threads.add(new ThreadInformations(thread, Thread.State.RUNNABLE, stackTrace, 10, 10, 50,
+				false, hostAddress));
+		new HtmlThreadInformationsReport(threads, true, writer).toHtml();
+		assertTrue("recent cpu", writer.toString().contains(I18N.getString("Cpu_recent")));
+		assertNotEmptyAndClear(writer);
+
 		new HtmlThreadInformationsReport(threads, true, writer).writeDeadlocks();
 		assertNotEmptyAndClear(writer);
 	}
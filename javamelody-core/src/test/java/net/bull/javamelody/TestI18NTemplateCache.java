@@ -0,0 +1,137 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe I18NTemplateCache.
+ * @author Emeric Vernat
+ */
+public class TestI18NTemplateCache {
+	/** Initialisation. */
+	@Before
+	public void setUp() {
+		I18NTemplateCache.clear();
+	}
+
+	/** Finalisation. */
+	@After
+	public void tearDown() {
+		I18N.unbindLocale();
+		I18NTemplateCache.clear();
+	}
+
+	/** Test. */
+	@Test
+	public void testGetTranslatedHtml() {
+		I18N.bindLocale(Locale.FRENCH);
+		final String html = "<th>#Requete#</th><th>#Hits#</th>";
+		final String expected = "<th>" + I18N.getString("Requete") + "</th><th>"
+				+ I18N.getString("Hits") + "</th>";
+		// un fragment vu une seule fois n'est pas en cache et sera écrit en flux
+		assertNull("first time", I18NTemplateCache.getTranslatedHtml(html));
+		final String translatedHtml = I18NTemplateCache.getTranslatedHtml(html);
+		assertEquals("translatedHtml", expected, translatedHtml);
+		// le fragment traduit est en cache
+		assertSame("cache", translatedHtml, I18NTemplateCache.getTranslatedHtml(html));
+		// retrouvé par son contenu, même pour une autre instance
+		assertSame("other instance", translatedHtml,
+				I18NTemplateCache.getTranslatedHtml(new String(html)));
+		assertEquals("templatesCount", 1, I18NTemplateCache.getTemplatesCount());
+		// un fragment sans clé n'est pas en cache
+		final String htmlWithoutKey = "<td>1</td>";
+		assertNull("without key", I18NTemplateCache.getTranslatedHtml(htmlWithoutKey));
+		assertNull("without key", I18NTemplateCache.getTranslatedHtml(htmlWithoutKey));
+		I18NTemplateCache.getTranslatedHtml("#Hits#");
+		assertEquals("only key", I18N.getString("Hits"),
+				I18NTemplateCache.getTranslatedHtml("#Hits#"));
+	}
+
+	/** Test. */
+	@Test
+	public void testDynamicFragments() {
+		final String html = "<th>#Hits#</th>";
+		I18NTemplateCache.getTranslatedHtml(html);
+		final String translatedHtml = I18NTemplateCache.getTranslatedHtml(html);
+		// des fragments tous différents ne sont pas ajoutés au cache et n'en évincent pas
+		// les fragments constants
+		for (int i = 0; i < 10000; i++) {
+			assertNull("dynamic", I18NTemplateCache.getTranslatedHtml("<td>#Hits# " + i
+					+ "</td>"));
+		}
+		assertEquals("templatesCount", 1, I18NTemplateCache.getTemplatesCount());
+		assertSame("constant", translatedHtml, I18NTemplateCache.getTranslatedHtml(html));
+	}
+
+	/** Test. */
+	@Test
+	public void testMaxTemplates() {
+		// le cache est borné, même si des fragments dynamiques sont répétés
+		for (int i = 0; i < 3000; i++) {
+			final String html = "<td>#Hits# " + i + "</td>";
+			I18NTemplateCache.getTranslatedHtml(html);
+			I18NTemplateCache.getTranslatedHtml(html);
+		}
+		assertEquals("templatesCount", 2048, I18NTemplateCache.getTemplatesCount());
+		final String html = "<td>#Requete#</td>";
+		I18NTemplateCache.getTranslatedHtml(html);
+		assertNull("full", I18NTemplateCache.getTranslatedHtml(html));
+	}
+
+	/** Test. */
+	@Test
+	public void testLocales() {
+		final String html = "#Hits# #Requete#";
+		I18N.bindLocale(Locale.FRENCH);
+		I18NTemplateCache.getTranslatedHtml(html);
+		final String french = I18NTemplateCache.getTranslatedHtml(html);
+		assertEquals("french", I18N.getString("Hits") + ' ' + I18N.getString("Requete"), french);
+		I18N.bindLocale(Locale.ENGLISH);
+		final String english = I18NTemplateCache.getTranslatedHtml(html);
+		assertEquals("english", I18N.getString("Hits") + ' ' + I18N.getString("Requete"),
+				english);
+		I18N.bindLocale(Locale.FRENCH);
+		assertSame("french again", french, I18NTemplateCache.getTranslatedHtml(html));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testWriteTo() throws IOException {
+		final StringWriter writer = new StringWriter();
+		// écriture en flux, puis depuis le cache
+		I18N.writeTo("<b>#Hits#</b>", writer);
+		I18N.writelnTo("<b>#Hits#</b>", writer);
+		I18N.writeTo("<b>#Hits#</b>", writer);
+		I18N.writeTo("<b>1</b>", writer);
+		final String expected = "<b>" + I18N.getString("Hits") + "</b>";
+		assertEquals("writeTo", expected + expected + '\n' + expected + "<b>1</b>",
+				writer.toString());
+	}
+}
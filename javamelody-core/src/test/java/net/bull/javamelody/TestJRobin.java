@@ -18,6 +18,8 @@
 package net.bull.javamelody;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -70,6 +72,35 @@ public class TestJRobin {
 		jrobin.deleteFile();
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testGraphCache() throws IOException {
+		final Range range = Period.JOUR.getRange();
+		final JRobin jrobin = JRobin.createInstance(TEST_APPLICATION, "cpu", null);
+		JRobinGraphCache.clear();
+		final long hitsCount = JRobinGraphCache.getHitsCount();
+		final byte[] bytes = jrobin.graph(range, 200, 50);
+		assertSame("cached graph", bytes, jrobin.graph(range, 200, 50));
+		assertEquals("hits", hitsCount + 1, JRobinGraphCache.getHitsCount());
+		assertEquals("graphs", 1, JRobinGraphCache.getGraphsCount());
+		assertEquals("bytes", bytes.length, JRobinGraphCache.getTotalBytes());
+		assertNotSame("other size", bytes, jrobin.graph(range, 200, 51));
+		assertNotSame("other range", bytes, jrobin.graph(Period.SEMAINE.getRange(), 200, 50));
+		assertTrue("hit ratio", JRobinGraphCache.getHitRatio() > 0);
+
+		// une mise à jour du fichier rrd invalide l'image
+		jrobin.addValue(1);
+		final byte[] updatedBytes = jrobin.graph(range, 200, 50);
+		assertNotSame("updated graph", bytes, updatedBytes);
+		// la date de mise à jour en mémoire est partagée par les instances du même fichier
+		assertSame("other instance", updatedBytes,
+				JRobin.createInstance(TEST_APPLICATION, "cpu", null).graph(range, 200, 50));
+		jrobin.deleteFile();
+		JRobinGraphCache.clear();
+		assertEquals("graphs", 0, JRobinGraphCache.getGraphsCount());
+	}
+
 	/** Test.
 	 * @throws IOException e */
 	@Test
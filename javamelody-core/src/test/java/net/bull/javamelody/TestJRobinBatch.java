@@ -0,0 +1,139 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe JRobinBatch.
+ * @author Emeric Vernat
+ */
+public class TestJRobinBatch {
+	private static final String TEST_APPLICATION = "test";
+
+	/** Before.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		JRobin.stop();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testUpdate() throws IOException {
+		final List<JRobin> jrobins = createJRobins("batch", 3);
+		try {
+			final JRobinBatch jrobinBatch = new JRobinBatch();
+			for (int i = jrobins.size() - 1; i >= 0; i--) {
+				jrobinBatch.addValue(jrobins.get(i), 1);
+				jrobinBatch.addValue(jrobins.get(i), i);
+			}
+			// une seule valeur par fichier
+			assertEquals("size", jrobins.size(), jrobinBatch.size());
+			jrobinBatch.update(null);
+			assertEquals("size", 0, jrobinBatch.size());
+			assertEquals("updatesCount", jrobins.size(), jrobinBatch.getUpdatesCount());
+			for (int i = 0; i < jrobins.size(); i++) {
+				assertEquals("lastValue", i, jrobins.get(i).getLastValue(), 0.01);
+			}
+			assertNotNull("toString", jrobinBatch.toString());
+		} finally {
+			deleteFiles(jrobins);
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testUpdateInParallel() throws IOException {
+		final List<JRobin> jrobins = createJRobins("batchParallel", 200);
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		try {
+			final JRobinBatch jrobinBatch = new JRobinBatch();
+			for (int i = 0; i < jrobins.size(); i++) {
+				jrobinBatch.addValue(jrobins.get(i), i);
+			}
+			jrobinBatch.update(executor);
+			assertEquals("updatesCount", jrobins.size(), jrobinBatch.getUpdatesCount());
+			for (int i = 0; i < jrobins.size(); i++) {
+				assertEquals("lastValue", i, jrobins.get(i).getLastValue(), 0.01);
+			}
+		} finally {
+			executor.shutdown();
+			deleteFiles(jrobins);
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testAddValues() throws IOException {
+		final List<JRobin> jrobins = createJRobins("batchValues", 1);
+		try {
+			final JRobin jrobin = jrobins.get(0);
+			final long now = Util.getTime();
+			// plusieurs valeurs écrites en une seule ouverture du fichier,
+			// une valeur pas plus récente que la dernière écrite est ignorée
+			jrobin.addValues(new long[] { now, now + 60, now + 60 }, new double[] { 1, 2, 3 },
+					3);
+			assertEquals("lastValue", 2, jrobin.getLastValue(), 0.01);
+			jrobin.addValues(new long[] { now + 30, now + 120 }, new double[] { 4, 5 }, 2);
+			assertEquals("lastValue", 5, jrobin.getLastValue(), 0.01);
+		} finally {
+			deleteFiles(jrobins);
+		}
+	}
+
+	private static List<JRobin> createJRobins(String prefix, int count) throws IOException {
+		final List<JRobin> jrobins = new ArrayList<JRobin>();
+		for (int i = 0; i < count; i++) {
+			final JRobin jrobin = JRobin.createInstance(TEST_APPLICATION, prefix + i, null);
+			jrobins.add(jrobin);
+		}
+		return jrobins;
+	}
+
+	private static void deleteFiles(List<JRobin> jrobins) {
+		for (final JRobin jrobin : jrobins) {
+			jrobin.deleteFile();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Timer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe JRobinsData.
+ * @author Emeric Vernat
+ */
+public class TestJRobinsData {
+	/** Before.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		JRobin.stop();
+	}
+
+	/** Test. */
+	@Test
+	public void testDownsample() {
+		final JRobinsData.Series series = new JRobinsData.Series("test", "Test", 1000, 60,
+				new double[] { 1, 3, Double.NaN, Double.NaN, 5 }, new double[] { 2, 4,
+						Double.NaN, Double.NaN, 6 });
+		assertSame("not downsampled", series, series.downsample(5));
+		final JRobinsData.Series downsampled = series.downsample(3);
+		assertEquals("step", 120, downsampled.getStep());
+		assertEquals("startTime", 1000, downsampled.getStartTime());
+		assertEquals("averages", 3, downsampled.getAverages().length);
+		assertEquals("average", 2, downsampled.getAverages()[0], 0.001);
+		assertTrue("average", Double.isNaN(downsampled.getAverages()[1]));
+		assertEquals("average", 5, downsampled.getAverages()[2], 0.001);
+		assertEquals("max", 4, downsampled.getMaximums()[0], 0.001);
+		assertTrue("max", Double.isNaN(downsampled.getMaximums()[1]));
+		assertEquals("max", 6, downsampled.getMaximums()[2], 0.001);
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testWriteJson() throws IOException {
+		final JRobinsData jrobinsData = new JRobinsData();
+		jrobinsData.addSeries(new JRobinsData.Series("test", "Test \"1\"", 1000, 60,
+				new double[] { 1, 2.5, Double.NaN }, new double[] { 2, 3, Double.NaN }));
+		final StringWriter writer = new StringWriter();
+		jrobinsData.writeJson(writer);
+		assertEquals("json", "{\"series\":[{\"name\":\"test\",\"label\":\"Test \\\"1\\\"\","
+				+ "\"start\":1000,\"step\":60,\"average\":[1,2.5,null],\"max\":[2,3,null]}]}",
+				writer.toString());
+		assertTrue("toString", jrobinsData.toString().contains("test"));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testFetchData() throws IOException {
+		final JRobin jrobin = JRobin.createInstance("test", "cpu", null);
+		jrobin.addValue(10);
+		final JRobinsData.Series series = jrobin.fetchData(Period.JOUR.getRange(), 0);
+		assertEquals("name", "cpu", series.getName());
+		assertEquals("values", series.getAverages().length, series.getMaximums().length);
+		assertTrue("values", series.getAverages().length > 100);
+		final JRobinsData.Series downsampled = jrobin.fetchData(Period.JOUR.getRange(), 100);
+		assertTrue("downsampled", downsampled.getAverages().length <= 100);
+		final JRobinsData.Series custom = jrobin.fetchData(
+				Range.createCustomRange(new Date(System.currentTimeMillis() - 24L * 60
+						* 60 * 1000), new Date()), 50);
+		assertTrue("custom", custom.getAverages().length <= 50);
+		jrobin.deleteFile();
+	}
+}
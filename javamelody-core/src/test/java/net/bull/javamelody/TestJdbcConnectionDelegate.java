@@ -0,0 +1,196 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire des classes JdbcConnectionDelegate et JdbcStatementDelegate.
+ * @author Emeric Vernat
+ */
+public class TestJdbcConnectionDelegate {
+	private static final String H2_MEMORY_DATABASE_URL = "jdbc:h2:mem:";
+	private static final String SELECT_1 = "select 1";
+	private JdbcWrapper jdbcWrapper;
+
+	/** Test. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+		Utils.setProperty(Parameter.JDBC_DELEGATES, "true");
+		jdbcWrapper = JdbcWrapper.SINGLETON;
+		jdbcWrapper.getSqlCounter().setDisplayed(true);
+	}
+
+	/** Test. */
+	@Test
+	public void testIsSupported() {
+		assertTrue("isSupported", JdbcConnectionDelegate.isSupported());
+	}
+
+	/** Test.
+	 * @throws SQLException e */
+	@Test
+	public void testCreateConnectionDelegate() throws SQLException {
+		// nécessite la dépendance vers la base de données H2
+		final Connection connection = DriverManager.getConnection(H2_MEMORY_DATABASE_URL);
+		final int usedConnectionCount = JdbcWrapper.getUsedConnectionCount();
+		final Connection delegate = jdbcWrapper.createConnectionProxy(connection);
+		try {
+			assertTrue("delegate", delegate instanceof JdbcConnectionDelegate);
+			assertEquals("getUsedConnectionCount1", usedConnectionCount + 1,
+					JdbcWrapper.getUsedConnectionCount());
+			assertEquals("equals", delegate, delegate);
+			assertEquals("hashCode", connection.hashCode(), delegate.hashCode());
+			assertSame("delegate of delegate", delegate,
+					jdbcWrapper.createConnectionProxy(delegate));
+			assertTrue("createStatement",
+					delegate.createStatement() instanceof JdbcStatementDelegate);
+			assertTrue("prepareStatement",
+					delegate.prepareStatement(SELECT_1) instanceof JdbcPreparedStatementDelegate);
+			assertTrue("prepareCall",
+					delegate.prepareCall(SELECT_1) instanceof JdbcCallableStatementDelegate);
+		} finally {
+			delegate.close();
+		}
+		delegate.close();
+		assertEquals("getUsedConnectionCount2", usedConnectionCount,
+				JdbcWrapper.getUsedConnectionCount());
+
+		Utils.setProperty(Parameter.JDBC_DELEGATES, "false");
+		final Connection proxy = jdbcWrapper.createConnectionProxy(DriverManager
+				.getConnection(H2_MEMORY_DATABASE_URL));
+		try {
+			assertTrue("proxy", Proxy.isProxyClass(proxy.getClass()));
+		} finally {
+			proxy.close();
+		}
+	}
+
+	/** Test.
+	 * @throws SQLException e */
+	@Test
+	public void testStatementDelegate() throws SQLException {
+		final Counter sqlCounter = jdbcWrapper.getSqlCounter();
+		final Connection connection = jdbcWrapper.createConnectionProxy(DriverManager
+				.getConnection(H2_MEMORY_DATABASE_URL));
+		try {
+			final long hits = sqlCounter.getCounterRequestByName(SELECT_1).getHits();
+			final int activeConnectionCount = JdbcWrapper.getActiveConnectionCount();
+			final Statement statement = connection.createStatement();
+			try {
+				assertFalse("equals", statement.equals(statement));
+				statement.executeQuery(SELECT_1).close();
+				assertTrue("execute", statement.execute(SELECT_1));
+				statement.addBatch("create table if not exists test_delegates (id int)");
+				statement.executeBatch();
+				sqlCounter.setDisplayed(false);
+				statement.execute(SELECT_1);
+				sqlCounter.setDisplayed(true);
+				statement.execute("explain select 1");
+				try {
+					statement.execute("invalid sql");
+				} catch (final SQLException e) {
+					assertNotNull("ok", e);
+				}
+			} finally {
+				statement.close();
+			}
+			final PreparedStatement preparedStatement = connection.prepareStatement(SELECT_1);
+			try {
+				preparedStatement.executeQuery().close();
+				preparedStatement.execute();
+			} finally {
+				preparedStatement.close();
+			}
+			final CallableStatement callableStatement = connection.prepareCall(SELECT_1);
+			try {
+				callableStatement.execute();
+			} finally {
+				callableStatement.close();
+			}
+			assertEquals("hits", hits + 5, sqlCounter.getCounterRequestByName(SELECT_1)
+					.getHits());
+			assertEquals("systemErrors", 100f,
+					sqlCounter.getCounterRequestByName("invalid sql").getSystemErrorPercentage(),
+					0.01f);
+			assertEquals("getActiveConnectionCount", activeConnectionCount,
+					JdbcWrapper.getActiveConnectionCount());
+		} finally {
+			connection.close();
+		}
+	}
+
+	/** Test.
+	 * @throws SQLException e */
+	@Test
+	public void testStatementOverhead() throws SQLException {
+		// mesure indicative du coût par requête sql d'un proxy et d'un délégué
+		// par rapport à la connexion non monitorée, sur une base H2 en mémoire
+		final int iterations = 20000;
+		final Connection connection = DriverManager.getConnection(H2_MEMORY_DATABASE_URL);
+		try {
+			final long rawNanos = executeStatements(connection, iterations);
+			Utils.setProperty(Parameter.JDBC_DELEGATES, "false");
+			final Connection proxy = jdbcWrapper.createConnectionProxy(connection);
+			final long proxyNanos = executeStatements(proxy, iterations);
+			Utils.setProperty(Parameter.JDBC_DELEGATES, "true");
+			final Connection delegate = jdbcWrapper.createConnectionProxy(connection);
+			final long delegateNanos = executeStatements(delegate, iterations);
+			LOG.debug("sql overhead per statement: proxy "
+					+ (proxyNanos - rawNanos) / iterations + " ns, delegate "
+					+ (delegateNanos - rawNanos) / iterations + " ns");
+			assertTrue("delegate", delegate instanceof JdbcConnectionDelegate);
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static long executeStatements(Connection connection, int iterations)
+			throws SQLException {
+		final PreparedStatement statement = connection.prepareStatement(SELECT_1);
+		try {
+			// préchauffage puis mesure
+			for (int i = 0; i < iterations; i++) {
+				statement.executeQuery().close();
+			}
+			final long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				statement.executeQuery().close();
+			}
+			return System.nanoTime() - start;
+		} finally {
+			statement.close();
+		}
+	}
+}
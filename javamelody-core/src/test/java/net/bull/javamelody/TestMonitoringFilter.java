@@ -18,9 +18,11 @@
 package net.bull.javamelody; // NOPMD
 
 import static net.bull.javamelody.HttpParameters.ACTION_PARAMETER;
+import static net.bull.javamelody.HttpParameters.COLLAPSED_STACKS_PART;
 import static net.bull.javamelody.HttpParameters.COLLECTOR_PARAMETER;
 import static net.bull.javamelody.HttpParameters.CONNECTIONS_PART;
 import static net.bull.javamelody.HttpParameters.COUNTER_PARAMETER;
+import static net.bull.javamelody.HttpParameters.COUNTER_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.COUNTER_SUMMARY_PER_CLASS_PART;
 import static net.bull.javamelody.HttpParameters.CURRENT_REQUESTS_PART;
 import static net.bull.javamelody.HttpParameters.DATABASE_PART;
@@ -33,12 +35,15 @@ import static net.bull.javamelody.HttpParameters.HEIGHT_PARAMETER;
 import static net.bull.javamelody.HttpParameters.JMX_VALUE;
 import static net.bull.javamelody.HttpParameters.JNDI_PART;
 import static net.bull.javamelody.HttpParameters.JNLP_PART;
+import static net.bull.javamelody.HttpParameters.JROBINS_DATA_PART;
 import static net.bull.javamelody.HttpParameters.JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.LAST_VALUE_PART;
 import static net.bull.javamelody.HttpParameters.MBEANS_PART;
+import static net.bull.javamelody.HttpParameters.OFFSET_PARAMETER;
 import static net.bull.javamelody.HttpParameters.OTHER_JROBINS_PART;
 import static net.bull.javamelody.HttpParameters.PART_PARAMETER;
 import static net.bull.javamelody.HttpParameters.PERIOD_PARAMETER;
+import static net.bull.javamelody.HttpParameters.POINTS_PARAMETER;
 import static net.bull.javamelody.HttpParameters.POM_XML_PART;
 import static net.bull.javamelody.HttpParameters.PROCESSES_PART;
 import static net.bull.javamelody.HttpParameters.REQUEST_PARAMETER;
@@ -606,6 +611,8 @@ public class TestMonitoringFilter { // NOPMD
 		monitoring(parameters, false);
 		parameters.put(PART_PARAMETER, POM_XML_PART);
 		monitoring(parameters, false);
+		parameters.put(PART_PARAMETER, COLLAPSED_STACKS_PART);
+		monitoring(parameters, false);
 		parameters.put(PART_PARAMETER, JNDI_PART);
 		monitoring(parameters);
 		parameters.put(PART_PARAMETER, MBEANS_PART);
@@ -621,6 +628,11 @@ public class TestMonitoringFilter { // NOPMD
 		monitoring(parameters);
 		parameters.put(GRAPH, "unknown service");
 		monitoring(parameters);
+		parameters.put(PART_PARAMETER, COUNTER_REQUESTS_PART);
+		monitoring(parameters);
+		parameters.put(OFFSET_PARAMETER, "1000");
+		monitoring(parameters);
+		parameters.remove(OFFSET_PARAMETER);
 		parameters.remove(COUNTER_PARAMETER);
 
 		doMonitoringWithGraphPart();
@@ -782,6 +794,8 @@ public class TestMonitoringFilter { // NOPMD
 		parameters.remove(GRAPH_PARAMETER);
 		parameters.put(PART_PARAMETER, OTHER_JROBINS_PART);
 		monitoring(parameters);
+		parameters.put(PART_PARAMETER, JROBINS_DATA_PART);
+		monitoring(parameters);
 		parameters.remove(WIDTH_PARAMETER);
 		parameters.remove(HEIGHT_PARAMETER);
 		setProperty(Parameter.SYSTEM_ACTIONS_ENABLED, TRUE);
@@ -859,6 +873,12 @@ public class TestMonitoringFilter { // NOPMD
 		monitoring(parameters);
 		parameters.put(PART_PARAMETER, THREADS_PART);
 		monitoring(parameters);
+		parameters.put(PART_PARAMETER, JROBINS_DATA_PART);
+		parameters.put(GRAPH_PARAMETER, "cpu,usedMemory");
+		parameters.put(POINTS_PARAMETER, "100");
+		monitoring(parameters);
+		parameters.remove(GRAPH_PARAMETER);
+		parameters.remove(POINTS_PARAMETER);
 		setProperty(Parameter.SYSTEM_ACTIONS_ENABLED, TRUE);
 		parameters.put(PART_PARAMETER, SESSIONS_PART);
 		monitoring(parameters);
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import net.bull.javamelody.NodeFetchScheduler.NodeCall;
+import net.bull.javamelody.NodeFetchScheduler.NodeFetch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe NodeFetchScheduler.
+ * @author Emeric Vernat
+ */
+public class TestNodeFetchScheduler {
+	private NodeFetchScheduler nodeFetchScheduler;
+
+	/** Before. */
+	@Before
+	public void setUp() {
+		nodeFetchScheduler = new NodeFetchScheduler(NodeFetchScheduler.MIN_CONCURRENCY, 500);
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		nodeFetchScheduler.stop();
+	}
+
+	private <T> T fetch(NodeCall<T> call) throws IOException {
+		final NodeFetch<T> fetch = nodeFetchScheduler.submit(call);
+		return nodeFetchScheduler.get(fetch, "node");
+	}
+
+	private void waitForRelease() throws InterruptedException {
+		// la limite est mise à jour dans le thread de l'appel, juste après le résultat
+		for (int i = 0; i < 100 && nodeFetchScheduler.getRunningCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals("runningCount", 0, nodeFetchScheduler.getRunningCount());
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws InterruptedException e */
+	@Test
+	public void testSubmit() throws IOException, InterruptedException {
+		final NodeCall<String> call = new NodeCall<String>() {
+			/** {@inheritDoc} */
+			@Override
+			public String call(long deadline) {
+				return "ok";
+			}
+		};
+		for (int i = 0; i < NodeFetchScheduler.MIN_CONCURRENCY; i++) {
+			assertEquals("fetch", "ok", fetch(call));
+			waitForRelease();
+		}
+		assertEquals("concurrencyLimit", NodeFetchScheduler.MIN_CONCURRENCY + 1,
+				nodeFetchScheduler.getConcurrencyLimit());
+		// le nombre de threads suit la limite d'appels simultanés
+		assertEquals("poolSize", NodeFetchScheduler.MIN_CONCURRENCY + 1,
+				nodeFetchScheduler.getPoolSize());
+
+		try {
+			fetch(new NodeCall<String>() {
+				/** {@inheritDoc} */
+				@Override
+				public String call(long deadline) throws IOException {
+					throw new IOException("test");
+				}
+			});
+			fail("IOException expected");
+		} catch (final IOException e) {
+			assertEquals("message", "test", e.getMessage());
+		}
+		waitForRelease();
+		assertEquals("concurrencyLimit", NodeFetchScheduler.MIN_CONCURRENCY,
+				nodeFetchScheduler.getConcurrencyLimit());
+		assertEquals("poolSize", NodeFetchScheduler.MIN_CONCURRENCY,
+				nodeFetchScheduler.getPoolSize());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testDeadline() throws IOException {
+		// la date limite de l'appel, pour les timeouts de connexion et de lecture,
+		// est dans le délai maximum par noeud à partir du début de l'appel
+		final long start = System.currentTimeMillis();
+		final long deadline = fetch(new NodeCall<Long>() {
+			/** {@inheritDoc} */
+			@Override
+			public Long call(long callDeadline) {
+				return callDeadline;
+			}
+		});
+		assertTrue("deadline", deadline >= start + nodeFetchScheduler.getNodeTimeoutMillis()
+				&& deadline <= System.currentTimeMillis()
+						+ nodeFetchScheduler.getNodeTimeoutMillis());
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws InterruptedException e */
+	@Test
+	public void testTimeout() throws IOException, InterruptedException {
+		try {
+			fetch(new NodeCall<String>() {
+				/** {@inheritDoc} */
+				@Override
+				public String call(long deadline) throws InterruptedException {
+					Thread.sleep(10000);
+					return "too late";
+				}
+			});
+			fail("IOException expected");
+		} catch (final IOException e) {
+			assertTrue("message", e.getMessage().startsWith("no response from node"));
+		}
+		// l'appel est interrompu et libère sa place
+		waitForRelease();
+		assertEquals("concurrencyLimit", NodeFetchScheduler.MIN_CONCURRENCY,
+				nodeFetchScheduler.getConcurrencyLimit());
+	}
+
+	/** Test. */
+	@Test
+	public void testNextJitterMillis() {
+		assertEquals("jitter", 0, nodeFetchScheduler.nextJitterMillis(0));
+		for (int i = 0; i < 100; i++) {
+			final long jitter = nodeFetchScheduler.nextJitterMillis(60000);
+			assertTrue("jitter", jitter >= 0 && jitter < 15000);
+		}
+	}
+}
@@ -25,13 +25,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Locale;
+import java.util.Properties;
 
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletContext;
@@ -140,6 +144,23 @@ public class TestParameters {
 		setProperty(Parameter.RESOLUTION_SECONDS, "60");
 	}
 
+	/** Test. */
+	@Test
+	public void testGetCpuTimeSamplingInterval() {
+		setProperty(Parameter.CPU_TIME_SAMPLING_INTERVAL, null);
+		assertEquals("getCpuTimeSamplingInterval", 10, Parameters.getCpuTimeSamplingInterval());
+		setProperty(Parameter.CPU_TIME_SAMPLING_INTERVAL, "100");
+		assertEquals("getCpuTimeSamplingInterval", 100, Parameters.getCpuTimeSamplingInterval());
+		setProperty(Parameter.CPU_TIME_SAMPLING_INTERVAL, "0");
+		try {
+			Parameters.getCpuTimeSamplingInterval();
+			fail("getCpuTimeSamplingInterval");
+		} catch (final IllegalStateException e) {
+			assertNotNull("ok", e);
+		}
+		setProperty(Parameter.CPU_TIME_SAMPLING_INTERVAL, null);
+	}
+
 	/** Test. */
 	@Test
 	public void testGetStorageDirectory() {
@@ -235,4 +256,96 @@ public class TestParameters {
 		setProperty(Parameter.DISPLAYED_COUNTERS, "sql");
 		assertTrue("isCounterHidden", Parameters.isCounterHidden("http"));
 	}
+
+	/** Test. */
+	@Test
+	public void testGetSnapshot() {
+		final ParametersSnapshot snapshot = Parameters.getSnapshot();
+		assertSame("getSnapshot", snapshot, Parameters.getSnapshot());
+		setProperty(Parameter.RESOLUTION_SECONDS, "120");
+		assertEquals("getResolutionSeconds", 120, Parameters.getResolutionSeconds());
+		setProperty(Parameter.RESOLUTION_SECONDS, "a");
+		try {
+			Parameters.initialize((ServletContext) null);
+			fail("initialize");
+		} catch (final NumberFormatException e) {
+			assertNotNull("ok", e);
+		} finally {
+			setProperty(Parameter.RESOLUTION_SECONDS, null);
+		}
+		assertEquals("getResolutionSeconds", 60, Parameters.getResolutionSeconds());
+		// sans invalidation, la modification de la propriété système n'est pas prise en compte
+		System.setProperty(Parameters.PARAMETER_SYSTEM_PREFIX
+				+ Parameter.RESOLUTION_SECONDS.getCode(), "120");
+		try {
+			assertEquals("getResolutionSeconds", 60, Parameters.getResolutionSeconds());
+			Parameters.invalidateSnapshot();
+			assertEquals("getResolutionSeconds", 120, Parameters.getResolutionSeconds());
+		} finally {
+			setProperty(Parameter.RESOLUTION_SECONDS, null);
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testParametersFile() throws IOException {
+		assertFalse("reloadParametersFileIfModified", Parameters.reloadParametersFileIfModified());
+		final File file = File.createTempFile("javamelody", ".properties");
+		try {
+			writeParametersFile(file, "120", "http");
+			setProperty(Parameter.PARAMETERS_FILE, file.getPath());
+			Parameters.initialize((ServletContext) null);
+			assertEquals("getResolutionSeconds", 120, Parameters.getResolutionSeconds());
+			assertTrue("isCounterHidden", Parameters.isCounterHidden("sql"));
+			// les propriétés systèmes restent prioritaires
+			setProperty(Parameter.RESOLUTION_SECONDS, "180");
+			assertEquals("getResolutionSeconds", 180, Parameters.getResolutionSeconds());
+			setProperty(Parameter.RESOLUTION_SECONDS, null);
+			assertFalse("reloadParametersFileIfModified",
+					Parameters.reloadParametersFileIfModified());
+
+			// resolution-seconds nécessite un redémarrage : sa valeur précédente est gardée
+			writeParametersFile(file, "300", "http,sql");
+			file.setLastModified(file.lastModified() + 2000);
+			assertTrue("reloadParametersFileIfModified",
+					Parameters.reloadParametersFileIfModified());
+			assertEquals("getResolutionSeconds", 120, Parameters.getResolutionSeconds());
+			assertFalse("isCounterHidden", Parameters.isCounterHidden("sql"));
+
+			// une valeur incorrecte dans le fichier modifié est ignorée
+			final Properties properties = new Properties();
+			properties.put(Parameter.RESOLUTION_SECONDS.getCode(), "120");
+			properties.put(Parameter.DISPLAYED_COUNTERS.getCode(), "http");
+			properties.put(Parameter.WARNING_THRESHOLD_MILLIS.getCode(), "-1");
+			writeParametersFile(file, properties);
+			file.setLastModified(file.lastModified() + 2000);
+			assertFalse("reloadParametersFileIfModified",
+					Parameters.reloadParametersFileIfModified());
+			assertFalse("isCounterHidden", Parameters.isCounterHidden("sql"));
+		} finally {
+			setProperty(Parameter.PARAMETERS_FILE, null);
+			Parameters.initialize((ServletContext) null);
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	private static void writeParametersFile(File file, String resolutionSeconds,
+			String displayedCounters) throws IOException {
+		final Properties properties = new Properties();
+		properties.put(Parameter.RESOLUTION_SECONDS.getCode(), resolutionSeconds);
+		properties.put(Parameter.DISPLAYED_COUNTERS.getCode(), displayedCounters);
+		writeParametersFile(file, properties);
+	}
+
+	private static void writeParametersFile(File file, Properties properties) throws IOException {
+		final FileOutputStream output = new FileOutputStream(file);
+		try {
+			properties.store(output, null);
+		} finally {
+			output.close();
+		}
+	}
 }
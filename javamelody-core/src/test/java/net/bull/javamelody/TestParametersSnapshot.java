@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe ParametersSnapshot.
+ * @author Emeric Vernat
+ */
+public class TestParametersSnapshot {
+	private static void setProperty(Parameter parameter, String value) {
+		Utils.setProperty(parameter, value);
+	}
+
+	/** Check. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test. */
+	@Test
+	public void testDefaultValues() {
+		final ParametersSnapshot snapshot = new ParametersSnapshot();
+		assertEquals("getMonitoringPath", "/monitoring", snapshot.getMonitoringPath());
+		assertEquals("getResolutionSeconds", 60, snapshot.getResolutionSeconds());
+		assertEquals("getCpuTimeSamplingInterval", 10, snapshot.getCpuTimeSamplingInterval());
+		assertEquals("getObsoleteStatsDays", 365, snapshot.getObsoleteStatsDays());
+		assertEquals("getObsoleteGraphsDays", 90, snapshot.getObsoleteGraphsDays());
+		assertEquals("getWarningThresholdMillis", -1, snapshot.getWarningThresholdMillis());
+		assertEquals("getSevereThresholdMillis", -1, snapshot.getSevereThresholdMillis());
+		assertFalse("isCounterHidden", snapshot.isCounterHidden("http"));
+		assertFalse("isNoDatabase", snapshot.isNoDatabase());
+		assertTrue("isSystemActionsEnabled", snapshot.isSystemActionsEnabled());
+		assertFalse("isDnsLookupsDisabled", snapshot.isDnsLookupsDisabled());
+		assertTrue("getStorageDirectory", snapshot.getStorageDirectory().endsWith("/javamelody"));
+	}
+
+	/** Test. */
+	@Test
+	public void testValues() {
+		setProperty(Parameter.WARNING_THRESHOLD_MILLIS, "500");
+		setProperty(Parameter.OBSOLETE_STATS_DAYS, "30");
+		setProperty(Parameter.DISPLAYED_COUNTERS, "HTTP, sql");
+		setProperty(Parameter.SYSTEM_ACTIONS_ENABLED, "false");
+		final ParametersSnapshot snapshot = new ParametersSnapshot();
+		assertEquals("getWarningThresholdMillis", 500, snapshot.getWarningThresholdMillis());
+		assertEquals("getObsoleteStatsDays", 30, snapshot.getObsoleteStatsDays());
+		assertFalse("isCounterHidden", snapshot.isCounterHidden("http"));
+		assertFalse("isCounterHidden", snapshot.isCounterHidden("SQL"));
+		assertTrue("isCounterHidden", snapshot.isCounterHidden("ejb"));
+		assertFalse("isSystemActionsEnabled", snapshot.isSystemActionsEnabled());
+	}
+
+	/** Test. */
+	@Test
+	public void testInvalidValues() {
+		for (final Parameter parameter : new Parameter[] { Parameter.RESOLUTION_SECONDS,
+				Parameter.CPU_TIME_SAMPLING_INTERVAL, Parameter.OBSOLETE_STATS_DAYS,
+				Parameter.OBSOLETE_GRAPHS_DAYS, Parameter.WARNING_THRESHOLD_MILLIS,
+				Parameter.SEVERE_THRESHOLD_MILLIS, }) {
+			setProperty(parameter, "0");
+			try {
+				new ParametersSnapshot();
+				fail(parameter.getCode());
+			} catch (final IllegalStateException e) {
+				assertNotNull("ok", e);
+			} finally {
+				setProperty(parameter, null);
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe PeriodCounterFactory.
+ * @author Emeric Vernat
+ */
+public class TestPeriodCounterFactory {
+	private static final String APPLICATION = "test period counter factory";
+	private static final String REQUEST_NAME = "test period";
+
+	/** Before. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+		final File[] files = Parameters.getStorageDirectory(APPLICATION).listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				if (!file.delete()) {
+					file.deleteOnExit();
+				}
+			}
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testGetLargestPeriodField() {
+		final Calendar today = getDay(0);
+		for (int endOffset = 1; endOffset <= 40; endOffset++) {
+			final Calendar lastDay = getDay(-endOffset);
+			final Calendar firstDay = getDay(-endOffset - Period.ANNEE.getDurationDays() + 2);
+			final List<Integer> periodFields = getPeriodFields(firstDay, lastDay, today);
+			// au plus 24 semaines, mois et jours, au lieu de 365 jours
+			assertTrue("periods " + periodFields.size(), periodFields.size() <= 24);
+		}
+		// pas de période non terminée
+		assertEquals("day", Calendar.DAY_OF_YEAR,
+				PeriodCounterFactory.getLargestPeriodField(today, getDay(400), today));
+	}
+
+	/** Test. */
+	@Test
+	public void testFirstDayOfWeek() {
+		// les semaines commencent le lundi quelle que soit la locale de la jvm
+		final Locale locale = Locale.getDefault();
+		try {
+			Locale.setDefault(Locale.FRANCE);
+			final List<Integer> periodFields = getPeriodFields(getDay(-100), getDay(-1),
+					getDay(0));
+			Locale.setDefault(Locale.US);
+			assertEquals("periods", periodFields,
+					getPeriodFields(getDay(-100), getDay(-1), getDay(0)));
+			final Calendar sunday = getDay(-30);
+			while (sunday.get(Calendar.DAY_OF_WEEK) != Calendar.SUNDAY
+					|| sunday.get(Calendar.DAY_OF_MONTH) == 1) {
+				sunday.add(Calendar.DAY_OF_YEAR, 1);
+			}
+			assertEquals("sunday", Calendar.DAY_OF_YEAR,
+					PeriodCounterFactory.getLargestPeriodField(sunday, getDay(-1), getDay(0)));
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	private static List<Integer> getPeriodFields(Calendar firstDay, Calendar lastDay,
+			Calendar today) {
+		final List<Integer> periodFields = new ArrayList<Integer>();
+		final Calendar day = (Calendar) firstDay.clone();
+		int days = 0;
+		while (!day.after(lastDay)) {
+			final int periodField = PeriodCounterFactory.getLargestPeriodField(day, lastDay,
+					today);
+			final Calendar next = PeriodCounterFactory.getNextPeriodFirstDay(day, periodField);
+			while (day.before(next)) {
+				day.add(Calendar.DAY_OF_YEAR, 1);
+				days++;
+			}
+			periodFields.add(periodField);
+		}
+		// tous les jours sont inclus une seule fois
+		final long expectedDays = Math.round((lastDay.getTimeInMillis() - firstDay
+				.getTimeInMillis()) / (24 * 60 * 60 * 1000d)) + 1;
+		assertEquals("days", expectedDays, days);
+		return periodFields;
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testGetYearCounter() throws IOException {
+		final Counter counter = new Counter("http", null);
+		counter.setApplication(APPLICATION);
+		final PeriodCounterFactory periodCounterFactory = new PeriodCounterFactory(counter);
+		final int[] dayOffsets = { -1, -8, -40, -100, -200, -365, -366, -400 };
+		for (final int dayOffset : dayOffsets) {
+			final Counter dayCounter = periodCounterFactory.createDayCounterAtDate(getDay(
+					dayOffset).getTime());
+			final CounterRequest request = new CounterRequest(REQUEST_NAME, counter.getName());
+			request.addHit(100, 50, false, null, 1000);
+			dayCounter.addHits(request);
+			dayCounter.writeToFile();
+		}
+		final Counter currentDayCounter = periodCounterFactory.createDayCounterAtDate(new Date());
+		final CounterRequest request = new CounterRequest(REQUEST_NAME, counter.getName());
+		request.addHit(100, 50, false, null, 1000);
+		currentDayCounter.addHits(request);
+		final PeriodCounterFactory factory = new PeriodCounterFactory(currentDayCounter);
+
+		// 366 jours dont le jour courant, donc sans les jours -366 et -400
+		assertEquals("year", 7, getHits(factory.getYearCounter()));
+		// une deuxième fois avec les compteurs par semaine, mois et année enregistrés
+		assertEquals("year", 7, getHits(factory.getYearCounter()));
+		assertEquals("month", 3, getHits(factory.getMonthCounter()));
+		assertEquals("week", 2, getHits(factory.getWeekCounter()));
+
+		final Range range = Range.createCustomRange(getDay(-500).getTime(), getDay(-2).getTime());
+		assertEquals("custom", 7, getHits(factory.getCustomCounter(range)));
+		assertEquals("custom", 7, getHits(factory.getCustomCounter(range)));
+	}
+
+	private static long getHits(Counter counter) {
+		return counter.getCounterRequestByName(REQUEST_NAME).getHits();
+	}
+
+	private static Calendar getDay(int dayOffset) {
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DAY_OF_YEAR, dayOffset);
+		return calendar;
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe PushAgent.
+ * @author Emeric Vernat
+ */
+public class TestPushAgent {
+	private static final String TEST_APPLICATION = "testpush";
+	private CollectorServer collectorServer;
+	private Counter counter;
+	private Collector collector;
+
+	/** Before.
+	 * @throws IOException e */
+	@Before
+	public void setUp() throws IOException {
+		Utils.initialize();
+		Parameters.removeCollectorApplication(TEST_APPLICATION);
+		collectorServer = new CollectorServer();
+		counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		collector = new Collector(TEST_APPLICATION, Collections.singletonList(counter));
+	}
+
+	/** After. */
+	@After
+	public void tearDown() {
+		collectorServer.stop();
+		collector.stop();
+	}
+
+	private final class PushAgentToCollectorServer extends PushAgent {
+		private boolean responseLost;
+		private int lastStatus;
+
+		PushAgentToCollectorServer(String nodeId) throws IOException {
+			super(new URL("http://localhost:8080/collector/"), nodeId, collector, 60000);
+		}
+
+		@Override
+		int post(byte[] data) throws IOException {
+			lastStatus = collectorServer.ingestPushedData(new ByteArrayInputStream(data));
+			if (responseLost) {
+				throw new IOException("response lost");
+			}
+			return lastStatus;
+		}
+	}
+
+	private long getHits() {
+		final Counter collectedCounter = collectorServer.getCollectorByApplication(
+				TEST_APPLICATION).getCounterByName(Counter.HTTP_COUNTER_NAME);
+		final CounterRequest request = collectedCounter.getCounterRequestByName("test");
+		return request != null ? request.getHits() : 0;
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testPush() throws IOException {
+		final PushAgentToCollectorServer pushAgent = new PushAgentToCollectorServer("node1");
+		try {
+			counter.addRequest("test", 100, 10, false, 1000);
+			pushAgent.push();
+			assertEquals("status", HttpServletResponse.SC_NO_CONTENT, pushAgent.lastStatus);
+			assertTrue("pushedApplications", collectorServer.getPushedApplications().contains(
+					TEST_APPLICATION));
+			assertTrue("isApplicationDataAvailable",
+					collectorServer.isApplicationDataAvailable(TEST_APPLICATION));
+			// les hits éventuellement persistés par d'autres tests sont relus par le collector
+			final long hits = getHits();
+			assertTrue("hits", hits >= 1);
+			assertNotNull("javaInformations",
+					collectorServer.getJavaInformationsByApplication(TEST_APPLICATION));
+
+			// réponse perdue : le delta suivant ne doit pas compter deux fois les mêmes hits
+			counter.addRequest("test", 100, 10, false, 1000);
+			pushAgent.responseLost = true;
+			try {
+				pushAgent.push();
+				fail("push");
+			} catch (final IOException e) {
+				assertEquals("consecutiveFailures", 1, pushAgent.getConsecutiveFailures());
+			}
+			pushAgent.responseLost = false;
+			counter.addRequest("test", 100, 10, false, 1000);
+			pushAgent.push();
+			assertEquals("consecutiveFailures", 0, pushAgent.getConsecutiveFailures());
+			// collecte du serveur de collecte
+			collectorServer.collectForPushedApplicationWithoutErrors(TEST_APPLICATION);
+			assertEquals("hits", hits + 2, getHits());
+		} finally {
+			pushAgent.stop();
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testPushWithoutStaticInformations() throws IOException {
+		final CountersDeltaTracker tracker = new CountersDeltaTracker();
+		final List<JavaInformations> javaInformationsList = Collections
+				.singletonList(new JavaInformations(null, false));
+		final CountersDelta delta1 = tracker.createDelta(null, null,
+				Collections.singletonList(counter), javaInformationsList, null);
+		final CountersDelta delta2 = tracker.createDelta(delta1.getEpoch(),
+				delta1.getSequence(), Collections.singletonList(counter), javaInformationsList,
+				null);
+		assertFalse("staticInformationsIncluded", delta2.isStaticInformationsIncluded());
+		// par exemple, serveur de collecte redémarré
+		final byte[] data = new CountersDeltaFrame(TEST_APPLICATION, "node1", delta2)
+				.toByteArray();
+		assertEquals("status", HttpServletResponse.SC_RESET_CONTENT,
+				collectorServer.ingestPushedData(new ByteArrayInputStream(data)));
+		final ByteArrayOutputStream twoFrames = new ByteArrayOutputStream();
+		twoFrames.write(data);
+		twoFrames.write(data);
+		assertEquals("frames", 2, readFrames(twoFrames.toByteArray()).size());
+		try {
+			readFrames(new byte[] { 1, 2, 3, 4 });
+			fail("readFrom");
+		} catch (final StreamCorruptedException e) {
+			assertNotNull("e", e);
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testReadFrameWithDetails() throws IOException {
+		counter.setCpuTimeSamplingInterval(10);
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta = new CountersDeltaTracker().createDelta(null, null,
+				Collections.singletonList(counter),
+				Collections.singletonList(new JavaInformations(null, true)), "message");
+		final byte[] data = new CountersDeltaFrame(TEST_APPLICATION, "node1", delta)
+				.toByteArray();
+		final CountersDelta readDelta = readFrames(data).get(0).getCountersDelta();
+		assertEquals("message", "message", readDelta.getMessageForReport());
+		// les hits éventuellement persistés par d'autres tests sont relus par le collector
+		assertEquals("hits", counter.getCounterRequestByName("test").getHits(), readDelta
+				.getCounters().get(0).getCounterRequestByName("test").getHits());
+		assertEquals("cpuTimeSamplingInterval", 10, readDelta.getCounters().get(0)
+				.getCpuTimeSamplingInterval());
+		assertFalse("threads", readDelta.getJavaInformationsList().get(0)
+				.getThreadInformationsList().isEmpty());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testReadFrameWithUnexpectedClass() throws IOException {
+		// delta sans counter, puis un objet d'une classe non autorisée à la place des JavaInformations
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final GZIPOutputStream gzipOutput = new GZIPOutputStream(payload);
+		final CounterBinaryFormat.Writer writer = new CounterBinaryFormat.Writer(gzipOutput);
+		writer.writeLong(1);
+		writer.writeLong(1);
+		writer.writeLong(-1);
+		writer.writeBoolean(true);
+		writer.writeBoolean(true);
+		writer.writeString(null);
+		writer.writeLong(0);
+		writer.flush();
+		final ObjectOutputStream objectOutput = new ObjectOutputStream(gzipOutput);
+		objectOutput.writeObject(new HashMap<String, String>());
+		objectOutput.flush();
+		gzipOutput.close();
+		try {
+			readFrames(createFrame(TEST_APPLICATION, payload.toByteArray()));
+			fail("readFrom");
+		} catch (final StreamCorruptedException e) {
+			assertNotNull("e", e);
+		}
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testReadFrameWithInvalidApplication() throws IOException {
+		for (final String application : Arrays.asList("../../x", "a/b", "a\\b", "..", ".test",
+				"a..b", "", "a b")) {
+			assertFalse(application, CountersDeltaFrame.isApplicationNameValid(application));
+			try {
+				readFrames(createFrame(application, new byte[0]));
+				fail("readFrom");
+			} catch (final StreamCorruptedException e) {
+				assertNotNull("e", e);
+			}
+		}
+		assertTrue("isApplicationNameValid",
+				CountersDeltaFrame.isApplicationNameValid("test-1.0_host"));
+		assertEquals("normalizeApplicationName", "test_host",
+				CountersDeltaFrame.normalizeApplicationName("/test_host"));
+		assertEquals("normalizeApplicationName", "_host",
+				CountersDeltaFrame.normalizeApplicationName("_host"));
+		assertEquals("normalizeApplicationName", "______x",
+				CountersDeltaFrame.normalizeApplicationName("../../x"));
+		assertEquals("normalizeApplicationName", "_",
+				CountersDeltaFrame.normalizeApplicationName("/"));
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testReadFrameLimits() throws IOException {
+		// trame tronquée
+		final CountersDelta delta = new CountersDeltaTracker().createDelta(null, null,
+				Collections.singletonList(counter),
+				Collections.singletonList(new JavaInformations(null, false)), null);
+		final byte[] data = new CountersDeltaFrame(TEST_APPLICATION, "node1", delta)
+				.toByteArray();
+		try {
+			readFrames(Arrays.copyOf(data, data.length - 1));
+			fail("readFrom");
+		} catch (final EOFException e) {
+			assertNotNull("e", e);
+		}
+		// longueur de trame excessive
+		final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		final DataOutputStream output = new DataOutputStream(frame);
+		output.writeInt(0x4A4D4450);
+		output.writeByte(2);
+		output.writeUTF(TEST_APPLICATION);
+		output.writeUTF("node1");
+		output.writeInt(Integer.MAX_VALUE);
+		output.flush();
+		try {
+			readFrames(frame.toByteArray());
+			fail("readFrom");
+		} catch (final StreamCorruptedException e) {
+			assertNotNull("e", e);
+		}
+		// trame petite une fois compressée, mais trop grande une fois décompressée
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final GZIPOutputStream gzipOutput = new GZIPOutputStream(payload);
+		final CounterBinaryFormat.Writer writer = new CounterBinaryFormat.Writer(gzipOutput);
+		writer.writeLong(1);
+		writer.writeLong(1);
+		writer.writeLong(-1);
+		writer.writeBoolean(true);
+		writer.writeBoolean(true);
+		writer.writeString(null);
+		writer.writeLong(1);
+		// nom du counter : nouvelle chaîne de 40 Mo
+		final int length = 40 * 1024 * 1024;
+		writer.writeLong(1);
+		writer.writeLong(length);
+		writer.flush();
+		final byte[] bytes = new byte[64 * 1024];
+		Arrays.fill(bytes, (byte) 'a');
+		for (int i = 0; i < length / bytes.length; i++) {
+			gzipOutput.write(bytes);
+		}
+		gzipOutput.close();
+		try {
+			readFrames(createFrame(TEST_APPLICATION, payload.toByteArray()));
+			fail("readFrom");
+		} catch (final StreamCorruptedException e) {
+			assertNotNull("e", e);
+		}
+	}
+
+	private static List<CountersDeltaFrame> readFrames(byte[] data) throws IOException {
+		final CountersDeltaFrame.Reader reader = new CountersDeltaFrame.Reader(
+				new ByteArrayInputStream(data));
+		final List<CountersDeltaFrame> result = new ArrayList<CountersDeltaFrame>();
+		CountersDeltaFrame frame = reader.readNext();
+		while (frame != null) {
+			result.add(frame);
+			frame = reader.readNext();
+		}
+		return result;
+	}
+
+	private static byte[] createFrame(String application, byte[] payload) throws IOException {
+		final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		final DataOutputStream output = new DataOutputStream(frame);
+		// entête d'une trame
+		output.writeInt(0x4A4D4450);
+		output.writeByte(2);
+		output.writeUTF(application);
+		output.writeUTF("node1");
+		output.writeInt(payload.length);
+		output.write(payload);
+		output.flush();
+		return frame.toByteArray();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCreateFromParameters() throws IOException {
+		assertEquals("createFromParameters", null, PushAgent.createFromParameters(collector));
+		Utils.setProperty(Parameter.COLLECTOR_PUSH_URL, "http://localhost:8080/collector/");
+		final PushAgent pushAgent = PushAgent.createFromParameters(collector);
+		assertNotNull("createFromParameters", pushAgent);
+		// pas de serveur de collecte
+		pushAgent.pushWithoutErrors();
+		pushAgent.pushLater();
+		pushAgent.stop();
+	}
+}
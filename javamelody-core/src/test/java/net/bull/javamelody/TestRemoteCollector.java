@@ -17,11 +17,18 @@
  */
 package net.bull.javamelody;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -57,6 +64,44 @@ public class TestRemoteCollector {
 				null);
 	}
 
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testCollectDataWithNodeFetchScheduler() throws IOException {
+		JRobin.initBackendFactory(new Timer(getClass().getSimpleName(), true));
+		final List<URL> urls = Arrays.asList(new URL("http://localhost:8090/test/monitoring"),
+				new URL("http://localhost:8091/test/monitoring"));
+		final RemoteCollector remoteCollectorWithScheduler = new RemoteCollector("test", urls);
+		final NodeFetchScheduler nodeFetchScheduler = new NodeFetchScheduler(
+				NodeFetchScheduler.MIN_CONCURRENCY, 10000);
+		try {
+			remoteCollectorWithScheduler.setNodeFetchScheduler(nodeFetchScheduler);
+			remoteCollectorWithScheduler.collectData();
+			final Map<String, Long> durationsByNode = remoteCollectorWithScheduler
+					.getLastFetchDurationsByNode();
+			assertEquals("nodes", 2, durationsByNode.size());
+			assertTrue("node", durationsByNode.containsKey("localhost:8090/test"));
+			assertTrue("node", durationsByNode.containsKey("localhost:8091/test"));
+			assertEquals("javaInformationsList", 2, remoteCollectorWithScheduler
+					.getJavaInformationsList().size());
+
+			final Collector collector = remoteCollectorWithScheduler.getCollector();
+			collector.collectNodeFetchesWithoutErrors(durationsByNode,
+					Collections.singletonMap("localhost:8090/test", 2048L));
+			int nodeJRobins = 0;
+			for (final JRobin jrobin : collector.getOtherJRobins()) {
+				if (jrobin.getName().startsWith(JRobin.NODE_FETCH_DURATION_PREFIX)
+						|| jrobin.getName().startsWith(JRobin.NODE_FETCH_SIZE_PREFIX)) {
+					assertTrue("label", jrobin.getLabel().contains("localhost:809"));
+					nodeJRobins++;
+				}
+			}
+			assertEquals("node jrobins", 3, nodeJRobins);
+		} finally {
+			nodeFetchScheduler.stop();
+		}
+	}
+
 	/** Test.
 	 * @throws IOException e */
 	@Test
@@ -76,4 +121,52 @@ public class TestRemoteCollector {
 		remoteCollector.executeActionAndCollectData(Action.CLEAR_COUNTER, "all", null, null, null,
 				null);
 	}
+
+	/** Test. */
+	@Test
+	public void testPushedDeltas() {
+		final RemoteCollector pushedCollector = new RemoteCollector("test",
+				Collections.<URL> emptyList());
+		final Counter counter = new Counter(Counter.HTTP_COUNTER_NAME, null);
+		final List<Counter> counters = Collections.singletonList(counter);
+		final List<JavaInformations> javaInformationsList = Collections
+				.singletonList(new JavaInformations(null, false));
+		final CountersDeltaTracker tracker = new CountersDeltaTracker();
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta1 = tracker.createDelta(null, null, counters,
+				javaInformationsList, null);
+		assertTrue("addPushedDelta", pushedCollector.addPushedDelta("node1", delta1));
+		pushedCollector.collectPushedData(60000);
+		final Counter collectedCounter = pushedCollector.getCollector().getCounterByName(
+				Counter.HTTP_COUNTER_NAME);
+		// les hits éventuellement persistés par d'autres tests sont relus par le collector
+		final long hits = collectedCounter.getCounterRequestByName("test").getHits();
+		assertTrue("hits", hits >= 1);
+		assertEquals("javaInformations", 1, pushedCollector.getJavaInformationsList().size());
+
+		// delta reçu mais acquittement perdu : le noeud renvoie depuis la même référence
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta2 = tracker.createDelta(delta1.getEpoch(),
+				delta1.getSequence(), counters, javaInformationsList, null);
+		assertTrue("addPushedDelta", pushedCollector.addPushedDelta("node1", delta2));
+		// delta reçu deux fois
+		assertTrue("addPushedDelta", pushedCollector.addPushedDelta("node1", delta2));
+		counter.addRequest("test", 100, 10, false, 1000);
+		final CountersDelta delta3 = tracker.createDelta(delta1.getEpoch(),
+				delta1.getSequence(), counters, javaInformationsList, null);
+		assertFalse("staticInformationsIncluded", delta3.isStaticInformationsIncluded());
+		assertTrue("addPushedDelta", pushedCollector.addPushedDelta("node1", delta3));
+		pushedCollector.collectPushedData(60000);
+		assertEquals("hits", hits + 2, collectedCounter.getCounterRequestByName("test").getHits());
+		assertEquals("jvmArguments", javaInformationsList.get(0).getJvmArguments(),
+				pushedCollector.getJavaInformationsList().get(0).getJvmArguments());
+
+		// noeud inconnu sans informations statiques
+		assertFalse("addPushedDelta", pushedCollector.addPushedDelta("node2", delta3));
+		pushedCollector.collectPushedData(60000);
+		assertEquals("javaInformations", 2, pushedCollector.getJavaInformationsList().size());
+		// noeuds qui n'envoient plus de données
+		pushedCollector.collectPushedData(-1);
+		assertEquals("javaInformations", 0, pushedCollector.getJavaInformationsList().size());
+	}
 }
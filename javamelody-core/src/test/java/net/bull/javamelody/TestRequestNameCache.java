@@ -0,0 +1,68 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe RequestNameCache.
+ * @author Emeric Vernat
+ */
+public class TestRequestNameCache {
+	/** Test.
+	 * @throws NoSuchMethodException e */
+	@Test
+	public void testGetAndPut() throws NoSuchMethodException {
+		final RequestNameCache cache = new RequestNameCache();
+		final Method method = Object.class.getMethod("toString");
+		assertNull("get", cache.get(String.class, method));
+		final String requestName = cache.put(String.class, method, "String.toString");
+		assertEquals("put", "String.toString", requestName);
+		assertSame("get", requestName, cache.get(String.class, method));
+		// une autre instance de Method égale retrouve le même nom
+		assertSame("get", requestName, cache.get(String.class, Object.class.getMethod("toString")));
+		// un nom déjà en cache est retourné à la place du nouveau
+		assertSame("put", requestName,
+				cache.put(String.class, method, new String("String.toString")));
+		assertNull("get", cache.get(Integer.class, method));
+		assertNull("get", cache.get(String.class, Object.class.getMethod("hashCode")));
+		assertEquals("size", 1, cache.size());
+		cache.clear();
+		assertEquals("size", 0, cache.size());
+		assertNull("get", cache.get(String.class, method));
+	}
+
+	/** Test.
+	 * @throws NoSuchMethodException e */
+	@Test
+	public void testMaxSize() throws NoSuchMethodException {
+		final RequestNameCache cache = new RequestNameCache(1);
+		final Method method = Object.class.getMethod("toString");
+		cache.put(String.class, method, "String.toString");
+		// cache plein : le nom est retourné mais pas mis en cache
+		assertEquals("put", "Integer.toString", cache.put(Integer.class, method, "Integer.toString"));
+		assertNull("get", cache.get(Integer.class, method));
+		assertEquals("size", 1, cache.size());
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+
+import net.bull.javamelody.RrdMappedBackendFactory.SyncPolicy;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Sample;
+import org.jrobin.core.Util;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe RrdMappedBackendFactory.
+ * @author Emeric Vernat
+ */
+public class TestRrdMappedBackendFactory {
+	private static final int FILE_LENGTH = 1024;
+
+	/** Before. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testUnmapLeastRecentlyUsed() throws IOException {
+		final RrdMappedBackendFactory factory = new RrdMappedBackendFactory(
+				SyncPolicy.ON_CLOSE, 3 * FILE_LENGTH);
+		final List<RrdMappedBackend> backends = new ArrayList<RrdMappedBackend>();
+		try {
+			for (int i = 0; i < 5; i++) {
+				final RrdMappedBackend backend = (RrdMappedBackend) factory.open(
+						getFile("lru" + i).getPath(), false);
+				backends.add(backend);
+				backend.setLength(FILE_LENGTH);
+				backend.write(i, new byte[] { (byte) i });
+				assertTrue("mappedBytes", factory.getMappedBytes() <= 3 * FILE_LENGTH);
+			}
+			assertEquals("mappedFilesCount", 3, factory.getMappedFilesCount());
+			assertEquals("unmapCount", 2, factory.getUnmapCount());
+			// les fichiers qui ne sont plus mappés sont relus
+			for (int i = 0; i < backends.size(); i++) {
+				final byte[] b = new byte[1];
+				backends.get(i).read(i, b);
+				assertArrayEquals("read", new byte[] { (byte) i }, b);
+			}
+			assertEquals("mappedFilesCount", 3, factory.getMappedFilesCount());
+			assertNotNull("toString", factory.toString());
+
+			// les fichiers restent mappés après leur fermeture et le mapping est réutilisé
+			final RrdMappedBackend lastBackend = backends.get(backends.size() - 1);
+			lastBackend.close();
+			final RrdMappedBackend reopenedBackend = (RrdMappedBackend) factory.open(
+					lastBackend.getPath(), false);
+			backends.set(backends.size() - 1, reopenedBackend);
+			final long unmapCount = factory.getUnmapCount();
+			final byte[] b = new byte[1];
+			reopenedBackend.read(backends.size() - 1, b);
+			assertEquals("unmapCount", unmapCount, factory.getUnmapCount());
+			assertEquals("mappedFilesCount", 3, factory.getMappedFilesCount());
+
+			factory.unmap(reopenedBackend.getCanonicalPath());
+			assertEquals("mappedFilesCount", 2, factory.getMappedFilesCount());
+			reopenedBackend.read(backends.size() - 1, b);
+			assertArrayEquals("read", new byte[] { (byte) (backends.size() - 1) }, b);
+		} finally {
+			for (final RrdMappedBackend backend : backends) {
+				backend.close();
+			}
+			// les fichiers ne sont plus mappés après stop et peuvent être supprimés
+			factory.stop();
+			for (final RrdMappedBackend backend : backends) {
+				new File(backend.getPath()).delete();
+			}
+		}
+		assertEquals("mappedFilesCount", 0, factory.getMappedFilesCount());
+		assertEquals("mappedBytes", 0, factory.getMappedBytes());
+	}
+
+	/** Test.
+	 * @throws IOException e */
+	@Test
+	public void testSyncPolicies() throws IOException {
+		for (final SyncPolicy syncPolicy : SyncPolicy.values()) {
+			final RrdMappedBackendFactory factory = new RrdMappedBackendFactory(syncPolicy,
+					1024 * 1024);
+			final Timer timer = new Timer(getClass().getSimpleName(), true);
+			final RrdMappedBackend backend = (RrdMappedBackend) factory.open(
+					getFile("sync").getPath(), false);
+			try {
+				factory.scheduleSyncTask(timer, 1);
+				backend.setLength(FILE_LENGTH);
+				backend.write(0, new byte[] { 1 });
+				factory.syncAll();
+				assertEquals("syncCount", 1, factory.getSyncCount());
+				factory.syncAll();
+				assertEquals("syncCount", 1, factory.getSyncCount());
+			} finally {
+				timer.cancel();
+				backend.close();
+				factory.stop();
+				new File(backend.getPath()).delete();
+			}
+		}
+		assertEquals("valueOfIgnoreCase", SyncPolicy.ON_CLOSE,
+				SyncPolicy.valueOfIgnoreCase("on-close"));
+	}
+
+	/** Test.
+	 * @throws IOException e
+	 * @throws RrdException e */
+	@Test
+	public void testRrdDb() throws IOException, RrdException {
+		final RrdMappedBackendFactory factory = new RrdMappedBackendFactory(
+				SyncPolicy.PERIODIC, 1024 * 1024);
+		final File file = getFile("rrddb");
+		final RrdDef rrdDef = new RrdDef(file.getPath(), 60);
+		rrdDef.setStartTime(Util.getTime() - 60);
+		rrdDef.addDatasource("test", "GAUGE", 120, 0, Double.NaN);
+		rrdDef.addArchive("AVERAGE", 0.25, 1, 24 * 60);
+		try {
+			final RrdDb rrdDb = new RrdDb(rrdDef, factory);
+			try {
+				final Sample sample = rrdDb.createSample();
+				sample.setValue("test", 10);
+				sample.update();
+			} finally {
+				rrdDb.close();
+			}
+			final RrdDb rrdDb2 = new RrdDb(file.getPath(), factory);
+			try {
+				assertEquals("lastValue", 10, rrdDb2.getLastDatasourceValue("test"), 0.01);
+			} finally {
+				rrdDb2.close();
+			}
+		} finally {
+			factory.stop();
+			file.delete();
+		}
+	}
+
+	/** Test.
+	 * @throws Exception e */
+	@Test
+	public void testConcurrentMapping() throws Exception {
+		final RrdMappedBackendFactory factory = new RrdMappedBackendFactory(
+				SyncPolicy.ON_CLOSE, 1024 * 1024);
+		final String path = getFile("concurrent").getPath();
+		final List<RrdMappedBackend> backends = new ArrayList<RrdMappedBackend>();
+		try {
+			final RrdMappedBackend firstBackend = (RrdMappedBackend) factory.open(path, false);
+			backends.add(firstBackend);
+			firstBackend.setLength(FILE_LENGTH);
+			firstBackend.close();
+			final List<Thread> threads = new ArrayList<Thread>();
+			final List<Throwable> errors = new ArrayList<Throwable>();
+			for (int i = 0; i < 4; i++) {
+				final RrdMappedBackend backend = (RrdMappedBackend) factory.open(path, false);
+				backends.add(backend);
+				final byte value = (byte) i;
+				threads.add(new Thread() {
+					@Override
+					public void run() {
+						try {
+							backend.write(value, new byte[] { value });
+						} catch (final Throwable t) { // NOPMD
+							synchronized (errors) {
+								errors.add(t);
+							}
+						}
+					}
+				});
+			}
+			for (final Thread thread : threads) {
+				thread.start();
+			}
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+			assertTrue("errors", errors.isEmpty());
+			// un seul mapping est conservé pour ce fichier, quels que soient les threads
+			assertEquals("mappedFilesCount", 1, factory.getMappedFilesCount());
+			assertEquals("mappedBytes", FILE_LENGTH, factory.getMappedBytes());
+			final byte[] b = new byte[4];
+			backends.get(1).read(0, b);
+			assertArrayEquals("read", new byte[] { 0, 1, 2, 3 }, b);
+		} finally {
+			for (final RrdMappedBackend backend : backends) {
+				backend.close();
+			}
+			factory.stop();
+			new File(path).delete();
+		}
+	}
+
+	private static File getFile(String name) {
+		final File directory = Parameters.getStorageDirectory("test");
+		directory.mkdirs();
+		return new File(directory, name + ".rrd");
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe SampledStacks.
+ * @author Emeric Vernat
+ */
+public class TestSampledStacks {
+	/** Test. */
+	@Test
+	public void testAddSample() {
+		final SampledStacks sampledStacks = new SampledStacks();
+		assertEquals("samplesCount", 0, sampledStacks.getSamplesCount());
+		assertTrue("countsByStack", sampledStacks.getCountsByStack().isEmpty());
+		for (int i = 0; i < 100; i++) {
+			sampledStacks.addSample("a.b;c.d");
+		}
+		sampledStacks.addSample("a.b;e.f");
+		// beaucoup de piles différentes, une seule fois chacune
+		for (int i = 0; i < 10 * SampledStacks.MAX_STACKS; i++) {
+			sampledStacks.addSample("a.b;x.y" + i);
+		}
+		assertEquals("samplesCount", 101 + 10 * SampledStacks.MAX_STACKS,
+				sampledStacks.getSamplesCount());
+		final Map<String, Long> countsByStack = sampledStacks.getCountsByStack();
+		assertEquals("size", SampledStacks.MAX_STACKS, countsByStack.size());
+		// la pile la plus fréquente est conservée et est la première
+		assertEquals("first", "a.b;c.d", countsByStack.keySet().iterator().next());
+		assertEquals("count", Long.valueOf(100), countsByStack.get("a.b;c.d"));
+		sampledStacks.toString();
+	}
+
+	/** Test. */
+	@Test
+	public void testAdd() {
+		final SampledStacks sampledStacks1 = new SampledStacks();
+		final SampledStacks sampledStacks2 = new SampledStacks();
+		for (int i = 0; i < SampledStacks.MAX_STACKS; i++) {
+			sampledStacks1.addSample("a.b;c.d");
+			sampledStacks1.addSample("node1.stack" + i);
+			sampledStacks2.addSample("a.b;c.d");
+			sampledStacks2.addSample("node2.stack" + i);
+		}
+		final SampledStacks merged = new SampledStacks();
+		merged.add(sampledStacks1);
+		merged.add(sampledStacks2);
+		assertEquals("samplesCount", 4 * SampledStacks.MAX_STACKS, merged.getSamplesCount());
+		final Map<String, Long> countsByStack = merged.getCountsByStack();
+		assertEquals("size", SampledStacks.MAX_STACKS, countsByStack.size());
+		assertEquals("count", Long.valueOf(2 * SampledStacks.MAX_STACKS),
+				countsByStack.get("a.b;c.d"));
+	}
+
+	/** Test. */
+	@Test
+	public void testSpaceSaving() {
+		final SampledStacks sampledStacks1 = new SampledStacks();
+		for (int i = 0; i < 5; i++) {
+			sampledStacks1.addSample("a.b;c.d");
+		}
+		for (int i = 1; i < SampledStacks.MAX_STACKS; i++) {
+			sampledStacks1.addSample("node1.stack" + i);
+			sampledStacks1.addSample("node1.stack" + i);
+		}
+		// une nouvelle pile remplace la moins fréquente et hérite de son nombre
+		sampledStacks1.addSample("a.b;e.f");
+		assertEquals("inherited count", Long.valueOf(3),
+				sampledStacks1.getCountsByStack().get("a.b;e.f"));
+
+		final SampledStacks sampledStacks2 = new SampledStacks();
+		for (int i = 0; i < 3; i++) {
+			sampledStacks2.addSample("a.b;g.h");
+		}
+		final SampledStacks merged = new SampledStacks();
+		merged.add(sampledStacks1);
+		merged.add(sampledStacks2);
+		final Map<String, Long> countsByStack = merged.getCountsByStack();
+		assertEquals("size", SampledStacks.MAX_STACKS, countsByStack.size());
+		// la pile absente du résumé complet hérite de son minimum
+		assertEquals("merged count", Long.valueOf(5), countsByStack.get("a.b;g.h"));
+		assertEquals("count", Long.valueOf(5), countsByStack.get("a.b;c.d"));
+
+		final SampledStacks inherited = new SampledStacks(7);
+		inherited.addSample("a.b;c.d");
+		assertEquals("samplesCount", 1, inherited.getSamplesCount());
+		assertEquals("estimatedSamplesCount", 8, inherited.getEstimatedSamplesCount());
+	}
+}
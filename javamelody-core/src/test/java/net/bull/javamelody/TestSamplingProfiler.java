@@ -17,14 +17,20 @@
  */
 package net.bull.javamelody;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import net.bull.javamelody.SamplingProfiler.SampledMethod;
+
 import org.junit.Test;
 
 /**
@@ -125,6 +131,119 @@ public class TestSamplingProfiler {
 		new SamplingProfiler(Arrays.asList(" "), null);
 	}
 
+	/**
+	 * Test.
+	 * @throws IOException e
+	 * @throws InterruptedException e
+	 */
+	@Test
+	public void testCollapsedStacks() throws IOException, InterruptedException {
+		final SamplingProfiler samplingProfiler = new SamplingProfiler(new ArrayList<String>(),
+				null);
+		final StringWriter emptyWriter = new StringWriter();
+		samplingProfiler.writeCollapsedStacks(emptyWriter);
+		assertEquals("empty collapsed stacks", "", emptyWriter.toString());
+		final BusyTask busyTask = new BusyTask();
+		final Thread thread = new Thread(busyTask);
+		thread.start();
+		try {
+			for (int i = 0; i < 500 && samplingProfiler.getNodesCount() == 0; i++) {
+				Thread.sleep(10);
+				samplingProfiler.update();
+			}
+		} finally {
+			busyTask.stop();
+			thread.join(1000);
+		}
+		assertTrue("nodes", samplingProfiler.getNodesCount() > 0);
+		final StringWriter writer = new StringWriter();
+		samplingProfiler.writeCollapsedStacks(writer);
+		final String collapsedStacks = writer.toString();
+		assertFalse("collapsed stacks", collapsedStacks.length() == 0);
+		long samplesCount = 0;
+		for (final String line : collapsedStacks.split("\n")) {
+			final int index = line.lastIndexOf(' ');
+			assertTrue("format", index > 0 && line.indexOf(';') < index);
+			samplesCount += Long.parseLong(line.substring(index + 1));
+		}
+		long hotspotsCount = 0;
+		for (final SampledMethod hotspot : samplingProfiler.getHotspots(Integer.MAX_VALUE)) {
+			hotspotsCount += hotspot.getCount();
+		}
+		// sans package exclu, chaque sample est compté dans un hotspot
+		assertEquals("samples count", samplesCount, hotspotsCount);
+		samplingProfiler.clear();
+		assertEquals("nodes after clear", 0, samplingProfiler.getNodesCount());
+	}
+
+	/**
+	 * Test.
+	 */
+	@Test
+	public void testAdaptiveInterval() {
+		final SamplingProfiler samplingProfiler = new SamplingProfiler();
+		assertEquals("average before sampling", -1, samplingProfiler.getAverageSampleMicros());
+		assertEquals("interval before sampling", 10000,
+				samplingProfiler.getAdaptiveIntervalMillis(10000));
+		samplingProfiler.update();
+		assertTrue("average", samplingProfiler.getAverageSampleMicros() >= 0);
+		// l'intervalle n'est jamais inférieur à l'intervalle paramétré
+		assertTrue("interval", samplingProfiler.getAdaptiveIntervalMillis(10000) >= 10000);
+		// et il est augmenté si la durée du sampling dépasse 1% de l'intervalle
+		assertTrue("budget", samplingProfiler.getAdaptiveIntervalMillis(0) >= samplingProfiler
+				.getAverageSampleMicros() / 1000 * 100);
+	}
+
+	/**
+	 * Test.
+	 * @throws InterruptedException e
+	 */
+	@Test
+	public void testSampledStacksByRequest() throws InterruptedException {
+		final SamplingProfiler samplingProfiler = new SamplingProfiler();
+		final Counter counter = new Counter("http", null);
+		final String requestName = "test sampled stacks";
+		final String requestId = new CounterRequest(requestName, counter.getName()).getId();
+		assertEquals("empty sampled stacks", 0, samplingProfiler.getSampledStacks(requestId)
+				.getSamplesCount());
+		final BusyTask busyTask = new BusyTask() {
+			@Override
+			public void run() {
+				counter.bindContext(requestName, requestName, null, -1);
+				try {
+					super.run();
+				} finally {
+					counter.unbindContext();
+				}
+			}
+		};
+		final Thread thread = new Thread(busyTask);
+		thread.start();
+		try {
+			for (int i = 0; i < 500
+					&& samplingProfiler.getSampledStacks(requestId).getSamplesCount() == 0; i++) {
+				Thread.sleep(10);
+				samplingProfiler.update(Collections.singletonList(counter));
+			}
+		} finally {
+			busyTask.stop();
+			thread.join(1000);
+		}
+		final SampledStacks sampledStacks = samplingProfiler.getSampledStacks(requestId);
+		assertTrue("sampled stacks", sampledStacks.getSamplesCount() > 0);
+		boolean busyTaskFound = false;
+		for (final String stack : sampledStacks.getCountsByStack().keySet()) {
+			busyTaskFound = busyTaskFound || stack.contains(BusyTask.class.getName());
+			// les packages exclus sont retirés avant de garder les frames les plus internes
+			assertFalse("excluded packages", stack.contains("java.lang.Thread.run"));
+		}
+		assertTrue("BusyTask in sampled stacks", busyTaskFound);
+		assertEquals("no request", null, counter.getRootCurrentRequestId(thread.getId()));
+		samplingProfiler.clear();
+		assertEquals("sampled stacks after clear", 0, samplingProfiler.getSampledStacks(requestId)
+				.getSamplesCount());
+	}
+
 	private static void assertEmptyHotspots(SamplingProfiler samplingProfiler) {
 		assertTrue("empty hotspots", samplingProfiler.getHotspots(NB_ROWS).isEmpty());
 	}
@@ -150,6 +269,22 @@ public class TestSamplingProfiler {
 		}
 	}
 
+	static class BusyTask implements Runnable {
+		private volatile boolean stopped;
+
+		@Override
+		public void run() {
+			double sum = 0;
+			while (!stopped) {
+				sum += Math.sqrt(sum + 1);
+			}
+		}
+
+		void stop() {
+			stopped = true;
+		}
+	}
+
 	static class DummyTask implements Runnable {
 		@Override
 		public void run() {
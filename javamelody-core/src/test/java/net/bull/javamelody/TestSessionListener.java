@@ -28,6 +28,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.lang.reflect.Field;
+import java.util.List;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
@@ -131,6 +132,28 @@ public class TestSessionListener {
 		}
 	}
 
+	/** Test. */
+	@Test
+	public void testGetSessionsInformations() {
+		final long now = System.currentTimeMillis();
+		sessionListener.sessionCreated(createSessionEvent("1", true, now));
+		sessionListener.sessionCreated(createSessionEvent("2", true, now + 2));
+		sessionListener.sessionCreated(createSessionEvent("3", true, now + 1));
+		sessionListener.sessionCreated(createSessionEvent("4", true, now - 2));
+		sessionListener.sessionCreated(createSessionEvent("5", false, now - 1));
+		final List<SessionInformations> page = SessionListener.getSessionsInformations(1, 2);
+		assertEquals("page size", 2, page.size());
+		assertEquals("page first", "3", page.get(0).getId());
+		assertEquals("page second", "1", page.get(1).getId());
+		final List<SessionInformations> lastPage = SessionListener.getSessionsInformations(3, 10);
+		assertEquals("last page size", 2, lastPage.size());
+		assertEquals("last page first", "5", lastPage.get(0).getId());
+		assertEquals("last page second", "4", lastPage.get(1).getId());
+		assertEquals("last page size", -1, lastPage.get(0).getSerializedSize());
+		assertEquals("empty page", 0, SessionListener.getSessionsInformations(10, 10).size());
+		assertEquals("all", "2", SessionListener.getAllSessionsInformations().get(0).getId());
+	}
+
 	/** Test. */
 	@Test
 	public void testGetSessionInformationsBySessionId() {
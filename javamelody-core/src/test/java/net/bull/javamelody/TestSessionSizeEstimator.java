@@ -0,0 +1,93 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe SessionSizeEstimator.
+ * @author Emeric Vernat
+ */
+public class TestSessionSizeEstimator {
+	/** Initialisation. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+		SessionSizeEstimator.clear();
+	}
+
+	/** Test. */
+	@Test
+	public void testEstimateSize() {
+		assertEquals("null", -1, SessionSizeEstimator.estimateSize(null));
+		assertEquals("not serializable", -1, SessionSizeEstimator.estimateSize(new Object()));
+		assertEquals("classes", 0, SessionSizeEstimator.getEstimatedClassesCount());
+
+		long totalSize = 0;
+		final List<String> values = new ArrayList<String>();
+		for (int i = 0; i < SessionSizeEstimator.SAMPLES_PER_CLASS; i++) {
+			final String value = "value " + i;
+			values.add(value);
+			final int size = SessionInformations.getObjectSize(value);
+			totalSize += size;
+			assertEquals("sample", size, SessionSizeEstimator.estimateSize(value));
+		}
+		assertEquals("classes", 1, SessionSizeEstimator.getEstimatedClassesCount());
+		final int estimatedSize = (int) (totalSize / SessionSizeEstimator.SAMPLES_PER_CLASS);
+		// les autres valeurs de la même classe ne sont plus sérialisées
+		final String longValue = "a much longer value which is not serialized";
+		assertEquals("estimate", estimatedSize, SessionSizeEstimator.estimateSize(longValue));
+		assertEquals("estimate list", 2 * estimatedSize,
+				SessionSizeEstimator.estimateTotalSize(Arrays.asList(longValue, null, longValue)));
+	}
+
+	/** Test. */
+	@Test
+	public void testEstimateSizeNotSerializable() {
+		final Object notSerializable = Collections.singleton(new Object());
+		assertEquals("not serializable", -1, SessionSizeEstimator.estimateSize(notSerializable));
+		// la taille des autres instances de cette classe est ensuite inconnue
+		assertEquals("unknown", -1, SessionSizeEstimator.estimateSize(Collections
+				.singleton("serializable")));
+		assertEquals("list", -1,
+				SessionSizeEstimator.estimateTotalSize(Arrays.asList("value", notSerializable)));
+		assertEquals("empty list", 0,
+				SessionSizeEstimator.estimateTotalSize(Collections.emptyList()));
+	}
+
+	/** Test. */
+	@Test
+	public void testSessionInformations() {
+		final SessionTestImpl session = new SessionTestImpl(true);
+		final int exactSize = new SessionInformations(session, false, false).getSerializedSize();
+		final int estimatedSize = new SessionInformations(session, false, true)
+				.getSerializedSize();
+		// l'estimation est la somme des tailles des attributs, sans la liste qui les contient
+		assertEquals("estimate", true, estimatedSize > 0 && estimatedSize < exactSize);
+		assertEquals("not serializable", -1, new SessionInformations(new SessionTestImpl(false),
+				false, true).getSerializedSize());
+	}
+}
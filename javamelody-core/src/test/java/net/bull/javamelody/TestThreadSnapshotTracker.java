@@ -0,0 +1,119 @@
+/*
+ * Copyright 2008-2014 by Emeric Vernat
+ *
+ *     This file is part of Java Melody.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bull.javamelody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test unitaire de la classe ThreadSnapshotTracker.
+ * @author Emeric Vernat
+ */
+public class TestThreadSnapshotTracker {
+	/** Initialisation. */
+	@Before
+	public void setUp() {
+		Utils.initialize();
+	}
+
+	private static ThreadInformations findCurrentThread(List<ThreadInformations> threads) {
+		for (final ThreadInformations threadInformations : threads) {
+			if (threadInformations.getId() == Thread.currentThread().getId()) {
+				return threadInformations;
+			}
+		}
+		fail("current thread not found");
+		return null;
+	}
+
+	/** Test. */
+	@Test
+	public void testBuildThreadInformationsList() {
+		final ThreadSnapshotTracker tracker = new ThreadSnapshotTracker();
+		final List<ThreadInformations> threads = tracker
+				.buildThreadInformationsList(Integer.MAX_VALUE);
+		assertTrue("threads", threads.size() >= 1);
+		final ThreadInformations currentThread = findCurrentThread(threads);
+		assertEquals("state", Thread.State.RUNNABLE, currentThread.getState());
+		assertTrue("stackTrace", currentThread.getStackTrace().size() > 2);
+		// pas de snapshot précédent pour ce tracker
+		assertEquals("recentCpuPercent", -1, currentThread.getRecentCpuPercent());
+
+		final List<ThreadInformations> threadsWithoutStack = tracker.buildThreadInformationsList(0);
+		assertNull("stackTrace", findCurrentThread(threadsWithoutStack).getStackTrace());
+
+		final List<ThreadInformations> threadsWithShortStack = tracker
+				.buildThreadInformationsList(2);
+		final ThreadInformations currentThreadWithShortStack = findCurrentThread(threadsWithShortStack);
+		assertEquals("stackTrace", 2, currentThreadWithShortStack.getStackTrace().size());
+		if (currentThreadWithShortStack.getCpuTimeMillis() != -1) {
+			final int recentCpuPercent = currentThreadWithShortStack.getRecentCpuPercent();
+			assertTrue("recentCpuPercent", recentCpuPercent >= 0 && recentCpuPercent <= 100);
+		}
+	}
+
+	/** Test. */
+	@Test
+	public void testFilter() {
+		final List<ThreadInformations> threads = JavaInformations.buildThreadInformationsList();
+		final String name = Thread.currentThread().getName();
+		final List<ThreadInformations> filteredByName = ThreadSnapshotTracker.filter(threads,
+				' ' + name.toUpperCase() + ' ', 0, Integer.MAX_VALUE);
+		assertTrue("filter by name", filteredByName.size() >= 1);
+		for (final ThreadInformations threadInformations : filteredByName) {
+			assertTrue("filter by name", threadInformations.getName().contains(name));
+		}
+		final List<ThreadInformations> filteredByState = ThreadSnapshotTracker.filter(threads,
+				"runnable", 0, Integer.MAX_VALUE);
+		assertTrue("filter by state", filteredByState.size() >= 1);
+		for (final ThreadInformations threadInformations : filteredByState) {
+			assertEquals("filter by state", Thread.State.RUNNABLE, threadInformations.getState());
+		}
+		assertEquals("no filter", threads.size(),
+				ThreadSnapshotTracker.filter(threads, null, 0, Integer.MAX_VALUE).size());
+		assertEquals("empty filter", threads.size(),
+				ThreadSnapshotTracker.filter(threads, "", 0, Integer.MAX_VALUE).size());
+		final List<ThreadInformations> page = ThreadSnapshotTracker.filter(threads, null, 1, 1);
+		assertEquals("page", 1, page.size());
+		assertEquals("page", threads.get(1), page.get(0));
+		assertTrue("empty page",
+				ThreadSnapshotTracker.filter(threads, null, threads.size(), 10).isEmpty());
+	}
+
+	/** Test. */
+	@Test
+	public void testGetStackMaxDepth() {
+		assertEquals("default", Integer.MAX_VALUE, ThreadSnapshotTracker.getStackMaxDepth());
+		Utils.setProperty(Parameter.THREADS_STACK_MAX_DEPTH, "10");
+		assertEquals("parameter", 10, ThreadSnapshotTracker.getStackMaxDepth());
+		Utils.setProperty(Parameter.THREADS_STACK_MAX_DEPTH, "-1");
+		try {
+			ThreadSnapshotTracker.getStackMaxDepth();
+			fail("negative");
+		} catch (final IllegalStateException e) {
+			assertTrue("negative", e.getMessage().contains("threads-stack-max-depth"));
+		}
+	}
+}
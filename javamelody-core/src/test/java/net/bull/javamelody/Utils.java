@@ -50,6 +50,7 @@ final class Utils {
 		} else {
 			System.setProperty(string, value);
 		}
+		Parameters.invalidateSnapshot();
 	}
 
 	static void initialize() {
@@ -75,11 +75,7 @@ class CounterRequestUsagesPanel extends CounterRequestAbstractPanel {
 		final MTableScrollPane<CounterRequest> scrollPane = createScrollPane();
 		final List<CounterRequest> requests = new ArrayList<>();
 		for (final Counter counter : getCounters()) {
-			for (final CounterRequest counterRequest : counter.getOrderedRequests()) {
-				if (counterRequest.containsChildRequest(request.getId())) {
-					requests.add(counterRequest);
-				}
-			}
+			requests.addAll(counter.getParentRequests(request.getId()));
 		}
 
 		getTable().setList(requests);